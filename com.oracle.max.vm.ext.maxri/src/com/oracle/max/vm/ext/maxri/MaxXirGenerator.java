@@ -49,6 +49,7 @@ import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.classfile.constant.*;
 import com.sun.max.vm.classfile.constant.UnresolvedType.*;
+import com.sun.max.vm.code.*;
 import com.sun.max.vm.compiler.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.heap.*;
@@ -56,6 +57,7 @@ import com.sun.max.vm.heap.debug.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.methodhandle.*;
 import com.sun.max.vm.object.*;
+import com.sun.max.vm.profile.*;
 import com.sun.max.vm.profilers.tracing.numa.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.runtime.aarch64.*;
@@ -85,6 +87,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
                 return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
             }
+
+            public List<XirTemplate> barrierStubs() {
+                return Collections.emptyList();
+            }
         };
     }
 
@@ -157,6 +163,7 @@ public class MaxXirGenerator implements RiXirGenerator {
     private XirTemplate[] resolveClassTemplates;
     private NewInstanceTemplates newInstanceTemplate;
     private NewInstanceTemplates tlabNewInstanceTemplate;
+    private XirTemplate newTenuredInstanceTemplate;
     private XirPair checkcastForLeafTemplate;
     private XirPair checkcastForNonLeafTemplate;
     private XirPair instanceofForLeafTemplate;
@@ -169,6 +176,11 @@ public class MaxXirGenerator implements RiXirGenerator {
 
     private XirTemplate exceptionObjectTemplate;
 
+    /**
+     * Pre-write barrier for reference stores at a precise address, or {@code null} if the heap scheme doesn't need one.
+     */
+    private XirTemplate preWriteBarrierTemplate;
+
     public final List<XirTemplate> stubs = new ArrayList<XirTemplate>();
 
     @FOLD
@@ -316,6 +328,7 @@ public class MaxXirGenerator implements RiXirGenerator {
 
         newInstanceTemplate = buildNewInstance();
         tlabNewInstanceTemplate = buildTLABNewInstance();
+        newTenuredInstanceTemplate = buildNewTenuredInstance();
 
         checkcastForLeafTemplate = buildCheckcastForLeaf(false);
         checkcastForNonLeafTemplate = buildCheckcastForNonLeaf(false);
@@ -331,8 +344,11 @@ public class MaxXirGenerator implements RiXirGenerator {
 
         exceptionObjectTemplate = buildExceptionObject();
 
+        preWriteBarrierTemplate = buildPreWriteBarrier();
+
         MaxTargetMethod.initializeMaxXirGeneratorRuntimeCallsMonitorEnterMethodActor(getRuntimeCallsMonitorEnterMethodActor());
 
+        stubs.addAll(writeBarrierSpecification().barrierStubs());
         return stubs;
     }
 
@@ -370,6 +386,19 @@ public class MaxXirGenerator implements RiXirGenerator {
             asm.stackOverflowCheck();
         }
 
+        if (MaxineVM.isRunning() && OptCodeEviction.isEnabled()) {
+            // Count entries into the method for optimized code eviction. The counter isn't updated atomically: it is only a hotness estimate.
+            MethodProfile profile = OptCodeEviction.entryCountProfile(callee);
+            if (profile != null) {
+                XirOperand counter = asm.createConstant(CiConstant.forObject(profile));
+                XirOperand entryCount = asm.createTemp("entryCount", CiKind.Int);
+                XirConstant entryCountOffset = asm.i(MethodProfile.optimizedEntryCountOffset());
+                asm.pload(CiKind.Int, entryCount, counter, entryCountOffset, false);
+                asm.add(entryCount, entryCount, asm.i(1));
+                asm.pstore(CiKind.Int, counter, entryCountOffset, entryCount, false);
+            }
+        }
+
         if (MaxineVM.isRunning() &&
                 methodIsAllocationProfilerEntryOrExitPoint(method, CompilationBroker.NUMAProfilerEntryPoint)) {
             XirOperand  tla             = asm.createRegisterTemp("TLA", WordUtil.archKind(), this.LATCH_REGISTER);
@@ -600,6 +629,9 @@ public class MaxXirGenerator implements RiXirGenerator {
             RiResolvedType resolvedType = (RiResolvedType) type;
             if (resolvedType.isInitialized()) {
                 final DynamicHub hub = hubFor(resolvedType);
+                if (!hub.classActor.isHybridClass() && isPretenuredSite(site)) {
+                    return new XirSnippet(newTenuredInstanceTemplate, XirArgument.forObject(hub));
+                }
                 final XirTemplate template = hub.classActor.isHybridClass() ? templates.resolvedHybrid : templates.resolved;
                 if (useTLABs()) {
                     return new XirSnippet(template, XirArgument.forObject(hub), XirArgument.forInt(hub.tupleSize.toInt()));
@@ -611,6 +643,21 @@ public class MaxXirGenerator implements RiXirGenerator {
         return new XirSnippet(templates.unresolved, guard);
     }
 
+    /**
+     * Determines if the allocation site at the code position of {@code site} was found to allocate long-lived objects
+     * by the {@link AllocationSiteProfiler}.
+     */
+    private static boolean isPretenuredSite(XirSite site) {
+        if (MaxineVM.isHosted() || site == null) {
+            return false;
+        }
+        CiCodePos pos = site.getCodePos();
+        if (pos == null || !(pos.method instanceof ClassMethodActor)) {
+            return false;
+        }
+        return AllocationSiteProfiler.shouldPretenure((ClassMethodActor) pos.method, pos.bci);
+    }
+
     private DynamicHub hubFor(RiType type) {
         return ((ClassActor) type).dynamicHub();
     }
@@ -839,6 +886,18 @@ public class MaxXirGenerator implements RiXirGenerator {
         return finishTemplate(asm, "arraylength");
     }
 
+    @HOSTED_ONLY
+    private XirTemplate buildPreWriteBarrier() {
+        XirWriteBarrierSpecification.XirWriteBarrierGenerator barrierGenerator = writeBarrierSpecification().barrierGenerator(WriteBarrierSpecification.REF_ADDR_PRE_BARRIER);
+        if (barrierGenerator == XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN) {
+            return null;
+        }
+        asm.restart(CiKind.Void);
+        XirParameter address = asm.createInputParameter("address", WordUtil.archKind());
+        barrierGenerator.genWriteBarrier(asm, address);
+        return finishTemplate(asm, "pre-write-barrier");
+    }
+
     @HOSTED_ONLY
     private XirTemplate buildArrayStore(CiKind kind, CiXirAssembler asm, boolean genBoundsCheck, boolean genStoreCheck, boolean genWriteBarrier) {
         XirWriteBarrierSpecification writeBarrierSpecification = writeBarrierSpecification();
@@ -1513,6 +1572,14 @@ public class MaxXirGenerator implements RiXirGenerator {
         return new NewInstanceTemplates(resolved, resolvedHybrid, unresolved);
     }
 
+    @HOSTED_ONLY
+    private XirTemplate buildNewTenuredInstance() {
+        XirOperand result = asm.restart(CiKind.Object);
+        XirParameter hub = asm.createConstantInputParameter("hub", CiKind.Object);
+        callRuntimeThroughStub(asm, "allocateTenuredObject", result, hub);
+        return finishTemplate(asm, "newTenured");
+    }
+
     @HOSTED_ONLY
     private XirPair buildPutFieldTemplates(CiKind kind, boolean genWriteBarrier, boolean isStatic) {
         return new XirPair(buildPutFieldTemplate(kind, genWriteBarrier, isStatic, true), buildPutFieldTemplate(kind, genWriteBarrier, isStatic, false));
@@ -1530,7 +1597,7 @@ public class MaxXirGenerator implements RiXirGenerator {
             XirParameter value = asm.createInputParameter("value", kind);
             XirParameter fieldOffset = asm.createConstantInputParameter("fieldOffset", CiKind.Int);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object, fieldOffset);
             }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
@@ -1550,9 +1617,12 @@ public class MaxXirGenerator implements RiXirGenerator {
             } else {
                 callRuntimeThroughStub(asm, "resolvePutField", fieldOffset, guard);
             }
+            if (genWriteBarrier) {
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object, fieldOffset);
+            }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrier(asm, object, null, value);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, object);
             }
             maybeInvokeNUMAProfiler(kind, object, "callProfileWriteTuple", false);
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">-unresolved");
@@ -1954,10 +2024,6 @@ public class MaxXirGenerator implements RiXirGenerator {
         return template;
     }
 
-    private void writeBarrier(CiXirAssembler asm, XirOperand object, XirOperand fieldOffset, XirOperand value) {
-        // XXX: add write barrier mechanism
-    }
-
     @HOSTED_ONLY
     private void callRuntimeThroughStub(CiXirAssembler asm, String method, XirOperand result, XirOperand... args) {
         XirTemplate stub = runtimeCallStubs.get(method);
@@ -2050,6 +2116,14 @@ public class MaxXirGenerator implements RiXirGenerator {
         return null;
     }
 
+    @Override
+    public XirSnippet genPreWriteBarrier(XirArgument address) {
+        if (preWriteBarrierTemplate == null) {
+            return null;
+        }
+        return new XirSnippet(preWriteBarrierTemplate, address);
+    }
+
     @Override
     public XirSnippet genArrayCopy(XirSite site, XirArgument src, XirArgument srcPos, XirArgument dest, XirArgument destPos, XirArgument length, RiType elementType, boolean inputsDifferent, boolean inputsSame) {
         return null;
@@ -2186,6 +2260,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             return Heap.createTuple(hub);
         }
 
+        public static Object allocateTenuredObject(DynamicHub hub) {
+            return Heap.createTenuredTuple(hub);
+        }
+
         public static Object allocateHybrid(DynamicHub hub) {
             return Heap.createHybrid(hub);
         }
@@ -2839,6 +2839,9 @@ public abstract class T1XCompilation {
     }
 
     protected void do_new(int index) {
+        if (methodProfileBuilder != null) {
+            methodProfileBuilder.addAllocationSiteProfile(stream.currentBCI());
+        }
         ClassConstant classRef = cp.classAt(index);
         if (classRef.isResolvableWithoutClassLoading(cp)) {
             ClassActor classActor = classRef.resolve(cp, index);
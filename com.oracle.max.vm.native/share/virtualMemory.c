@@ -227,6 +227,24 @@ Address virtualMemory_deallocate(Address start, Size size, int type) {
 #endif
 }
 
+/* Advise the OS to back a range of committed anonymous memory with transparent huge pages.
+ * Only the huge page aligned parts of the range can be backed with huge pages. Advice is lost if the range is remapped.
+ * Returns false if the OS doesn't support transparent huge pages, in which case the range stays backed by regular pages.
+ */
+jboolean virtualMemory_adviseHugePages(Address address, Size size) {
+#if os_LINUX && defined(MADV_HUGEPAGE)
+    if (madvise((void *) address, (size_t) size, MADV_HUGEPAGE) != 0) {
+#if log_MMAP
+        log_println("virtualMemory_adviseHugePages(address=%p, size=%p) failed: %s", address, size, strerror(errno));
+#endif
+        return JNI_FALSE;
+    }
+    return JNI_TRUE;
+#else
+    return JNI_FALSE;
+#endif
+}
+
 boolean virtualMemory_allocateAtFixedAddress(Address address, Size size, int type) {
 #if os_SOLARIS || os_DARWIN  || os_LINUX
     return check_mmap_result(mmap((void *) address, (size_t) size, PROT, MAP_ANON | MAP_PRIVATE | MAP_FIXED, -1, (off_t) 0)) != ALLOC_FAILED;
@@ -43,6 +43,7 @@ extern Address virtualMemory_allocate(Size size, int type);
 extern Address virtualMemory_allocateIn31BitSpace(Size size, int type);
 extern Address virtualMemory_allocatePrivateAnon(Address address, Size size, jboolean reserveSwap, jboolean protNone, int type);
 extern Address virtualMemory_deallocate(Address start, Size size, int type);
+extern jboolean virtualMemory_adviseHugePages(Address address, Size size);
 
 extern unsigned int virtualMemory_getPageSize(void);
 extern Size virtualMemory_getPhysicalMemorySize(void);
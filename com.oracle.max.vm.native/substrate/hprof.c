@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+#include "os.h"
+
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+
+#include "word.h"
+#include "jni.h"
+#include "log.h"
+
+/*
+ * File output of the HPROF heap dumps written by com.sun.max.vm.heap.HprofHeapDumper.
+ */
+
+/**
+ * Opens a heap dump file, truncating it if it exists.
+ *
+ * @param path the UTF-8 encoded path of the file, or an empty string for java_pid<pid>.hprof in the current directory
+ * @return the file descriptor of the file, or -1 if it could not be opened
+ */
+jint hprof_open(const char *path) {
+    char defaultPath[32];
+    int fd;
+    if (*path == '\0') {
+        snprintf(defaultPath, sizeof(defaultPath), "java_pid%d.hprof", (int) getpid());
+        path = defaultPath;
+    }
+    log_println("Dumping heap to %s ...", path);
+    fd = open(path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+    if (fd < 0) {
+        log_println("Unable to create %s: %s", path, strerror(errno));
+    }
+    return fd;
+}
+
+/**
+ * Writes a buffer at the current position of a heap dump file.
+ *
+ * @return 0 on success, -1 on error
+ */
+jint hprof_write(jint fd, Address buffer, jint length) {
+    const char *p = (const char *) buffer;
+    while (length > 0) {
+        ssize_t n = write(fd, p, (size_t) length);
+        if (n < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            log_println("Error writing heap dump: %s", strerror(errno));
+            return -1;
+        }
+        p += n;
+        length -= n;
+    }
+    return 0;
+}
+
+/**
+ * Writes a buffer at a given offset of a heap dump file, without changing the current position.
+ *
+ * @return 0 on success, -1 on error
+ */
+jint hprof_write_at(jint fd, jlong offset, Address buffer, jint length) {
+    const char *p = (const char *) buffer;
+    while (length > 0) {
+        ssize_t n = pwrite(fd, p, (size_t) length, (off_t) offset);
+        if (n < 0) {
+            if (errno == EINTR) {
+                continue;
+            }
+            log_println("Error writing heap dump: %s", strerror(errno));
+            return -1;
+        }
+        p += n;
+        offset += n;
+        length -= n;
+    }
+    return 0;
+}
+
+jint hprof_close(jint fd) {
+    return close(fd);
+}
@@ -45,4 +45,12 @@ int numaNodeOfCPU(int cpuID) {
 
 int numaPageSize() {
     return numa_pagesize();
-}
\ No newline at end of file
+}
+
+int numaMaxNode() {
+    return numa_max_node();
+}
+
+void numaBindToNode(jlong address, jlong size, int node) {
+    numa_tonode_memory((void *) address, (size_t) size, node);
+}
@@ -352,6 +352,7 @@ public class MaxineTesterConfiguration {
         maxvmConfig("eviction1000", "-Xms2g", "-Xmx2g", "-XX:CodeCacheContentionFrequency=1000");
         maxvmConfig("eviction100", "-Xms2g", "-Xmx2g", "-XX:CodeCacheContentionFrequency=100");
         maxvmConfig("eviction10", "-Xms2g", "-Xmx2g", "-XX:CodeCacheContentionFrequency=10");
+        maxvmConfig("opteviction", "-Xms2g", "-Xmx2g", "-XX:+EvictOptCode", "-XX:ReservedOptCodeCacheSize=1m", "-XX:OptCodeEvictionThreshold=10");
         maxvmConfig("cc1m", "-Xms2g", "-Xmx2g", "-XX:ReservedBaselineCodeCacheSize=1m");
         maxvmConfig("cc500k", "-Xms2g", "-Xmx2g", "-XX:ReservedBaselineCodeCacheSize=500k");
         maxvmConfig("cc250k", "-Xms2g", "-Xmx2g", "-XX:ReservedBaselineCodeCacheSize=250k");
@@ -359,6 +360,24 @@ public class MaxineTesterConfiguration {
         maxvmConfig("opt", "-Xms2g", "-Xmx2g", "-Xopt");
         maxvmConfig("mx256m", "-Xmx256m");
         maxvmConfig("mx512m", "-Xmx512m");
+        maxvmConfig("concmark", "-Xmx256m", "-XX:+ConcurrentOldGenMarking", "-XX:ConcurrentMarkingOccupancyPercent=5");
+
+        // Parallel GC phases, to run against the image of the heap scheme they name (mse, gmse and ss images)
+        maxvmConfig("mse-par4", "-Xmx256m", "-XX:ParallelGCThreads=4");
+        maxvmConfig("gmse-par4", "-Xmx256m", "-XX:ParallelGCThreads=4");
+        maxvmConfig("ss-par4", "-Xmx256m", "-XX:ParallelGCThreads=4");
+
+        // Mark-sweep space policies, to run against the mse and gmse images
+        maxvmConfig("mse-lazysweep", "-Xmx256m", "-XX:+LazySweep", "-XX:+BackgroundSweep");
+        maxvmConfig("mse-bgzero", "-Xmx256m", "-XX:+BackgroundZeroing");
+        maxvmConfig("mse-uncommit", "-Xmx256m", "-XX:+UncommitIdleRegions", "-XX:UncommitAfterGCs=1");
+
+        // Mixed collections, to run against the mse image
+        maxvmConfig("mse-mixed", "-Xmx256m", "-XX:+MixedCollections", "-XX:MixedGCLiveThresholdPercent=20", "-XX:MixedGCHeapWastePercent=0");
+
+        // Nursery aging, to run against the gmse and gss images
+        maxvmConfig("gmse-aging", "-Xmx256m", "-XX:MaxTenuringThreshold=4");
+        maxvmConfig("gss-aging", "-Xmx256m", "-XX:MaxTenuringThreshold=4");
 
         // VEE 2010 benchmarking configurations
         maxvmConfig("noGC", "-XX:+DisableGC", "-Xmx3g");
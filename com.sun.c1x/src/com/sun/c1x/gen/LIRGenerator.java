@@ -1950,6 +1950,15 @@ public abstract class LIRGenerator extends ValueVisitor {
     }
 
     protected void preGCWriteBarrier(CiValue addrOpr, boolean patch, LIRDebugInfo info) {
+        // The barrier takes the precise address of the reference location.
+        CiValue pointer = addrOpr instanceof CiAddress ? newVariable(compilation.target.wordKind) : addrOpr;
+        XirSnippet writeBarrier = xir.genPreWriteBarrier(toXirArgument(pointer));
+        if (writeBarrier != null) {
+            if (pointer != addrOpr) {
+                lir.lea(addrOpr, pointer);
+            }
+            emitXir(writeBarrier, null, info, null, false);
+        }
     }
 
     protected void setNoResult(Instruction x) {
@@ -2173,7 +2182,12 @@ public abstract class LIRGenerator extends ValueVisitor {
         }
 
         public CiCodePos getCodePos() {
-            // TODO: get the code position of the current instruction if possible
+            if (current instanceof Instruction) {
+                FrameState stateBefore = ((Instruction) current).stateBefore();
+                if (stateBefore != null) {
+                    return stateBefore.toCodePos();
+                }
+            }
             return null;
         }
 
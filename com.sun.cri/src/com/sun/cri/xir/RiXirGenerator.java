@@ -105,6 +105,15 @@ public interface RiXirGenerator {
 
     XirSnippet genWriteBarrier(XirArgument object);
 
+    /**
+     * Generates code that must precede the store of a reference at a precise address whose holder isn't known to the compiler,
+     * e.g., a store through {@code Unsafe}.
+     *
+     * @param address the address of the reference location about to be overwritten
+     * @return the snippet of the barrier, or {@code null} if the heap scheme doesn't need one
+     */
+    XirSnippet genPreWriteBarrier(XirArgument address);
+
     XirSnippet genArrayCopy(XirSite site, XirArgument src, XirArgument srcPos, XirArgument dest, XirArgument destPos, XirArgument length, RiType elementType, boolean inputsSame, boolean inputsDifferent);
 
     XirSnippet genCurrentThread(XirSite site);
@@ -46,10 +46,18 @@ import com.sun.max.vm.MaxineVM.Phase;
  */
 public final class VirtualMemory {
     private static boolean TraceAnonOperations = false;
+    private static boolean UseTransparentHugePages = false;
     static {
         VMOptions.addFieldOption("-XX:", "TraceAnonOperations", VirtualMemory.class, "TraceAnonOperations", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UseTransparentHugePages", VirtualMemory.class,
+                        "Back heap and code memory with transparent huge pages if the OS supports them", Phase.PRISTINE);
     }
 
+    /**
+     * Size of the huge pages used to back heap and code memory when {@link #UseTransparentHugePages} is set.
+     */
+    public static final Size HUGE_PAGE_SIZE = Size.M.times(2);
+
     public enum Type {
         HEAP,   // for the garbage collected heap
         STACK,  // for thread stacks
@@ -71,9 +79,38 @@ public final class VirtualMemory {
         allocateMemoryTime.start();
         final Pointer allocated = virtualMemory_allocate(size, type.ordinal());
         allocateMemoryTime.stop();
+        if (!allocated.isZero()) {
+            adviseHugePages(allocated, size, type);
+        }
         return allocated;
     }
 
+    /**
+     * Indicates whether heap and code memory should be backed with huge pages.
+     * Spaces that commit memory in fixed size units should use units that are multiple of {@link #HUGE_PAGE_SIZE} in that case.
+     */
+    public static boolean useHugePages() {
+        return UseTransparentHugePages;
+    }
+
+    /**
+     * Advise the OS to back a range of committed memory of the heap or code type with huge pages, if {@link #useHugePages()} is true.
+     * Only the parts of the range aligned to {@link #HUGE_PAGE_SIZE} can be backed with huge pages.
+     * The advice is lost if the range is uncommitted. Failure to follow the advice isn't an error: the range is then backed by regular pages.
+     *
+     * @param address page aligned start of the range
+     * @param size size of the range
+     * @param type type of the memory of the range
+     */
+    private static void adviseHugePages(Address address, Size size, Type type) {
+        if (UseTransparentHugePages && (type == Type.HEAP || type == Type.CODE)) {
+            final boolean advised = virtualMemory_adviseHugePages(address, size);
+            if (TraceAnonOperations) {
+                traceRange(advised ? "adviseHugePages" : "adviseHugePages failed", address, size);
+            }
+        }
+    }
+
     /**
      * Deallocates virtual memory of a given type.
      *
@@ -105,6 +142,9 @@ public final class VirtualMemory {
         allocateAtFixedAddressTime.start();
         final boolean allocated = virtualMemory_allocateAtFixedAddress(address, size, type.ordinal());
         allocateAtFixedAddressTime.stop();
+        if (allocated) {
+            adviseHugePages(address, size, type);
+        }
         return allocated;
     }
 
@@ -160,6 +200,9 @@ public final class VirtualMemory {
     @C_FUNCTION
     private static native Pointer virtualMemory_deallocate(Address start, Size size, int type);
 
+    @C_FUNCTION
+    private static native boolean virtualMemory_adviseHugePages(Address address, Size size);
+
 
     private static final TimerMetric allocateAtFixedAddressTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
     private static final TimerMetric allocateMemoryTime = new TimerMetric(new SingleUseTimer(Clock.SYSTEM_MILLISECONDS));
@@ -209,7 +252,11 @@ public final class VirtualMemory {
         commitMemoryTime.start();
         final Pointer committed = virtualMemory_allocatePrivateAnon(address, size, true, false, type.ordinal());
         commitMemoryTime.stop();
-        return committed.equals(address);
+        if (!committed.equals(address)) {
+            return false;
+        }
+        adviseHugePages(address, size, type);
+        return true;
     }
 
     public static boolean uncommitMemory(Address address, Size size, Type type) {
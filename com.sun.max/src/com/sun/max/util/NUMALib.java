@@ -71,4 +71,14 @@ public class NUMALib {
 
     @C_FUNCTION
     public static native int numaPageSize();
+
+    @C_FUNCTION
+    public static native int numaMaxNode();
+
+    /**
+     * Set the memory policy of a range of virtual memory so that its pages are allocated on the specified NUMA node.
+     * Only pages not yet touched are affected.
+     */
+    @C_FUNCTION
+    public static native void numaBindToNode(long address, long size, int node);
 }
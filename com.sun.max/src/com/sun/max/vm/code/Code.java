@@ -152,6 +152,16 @@ public final class Code {
         codeManager.visitCells(cellVisitor, includeBootCode);
     }
 
+    /**
+     * Visit the cells of a single code region.
+     *
+     * @param cellVisitor the visitor to apply to each cell of the region
+     * @param codeRegion one of the code regions managed by the code manager
+     */
+    public static void visitCells(CellVisitor cellVisitor, CodeRegion codeRegion) {
+        codeManager.visitAllIn(cellVisitor, codeRegion);
+    }
+
     public static Size getRuntimeCodeRegionSize() {
         return codeManager.getRuntimeBaselineCodeRegionSize().plus(codeManager.getRuntimeOptCodeRegionSize());
     }
@@ -865,23 +865,29 @@ public final class CodeEviction extends VmOperation {
         return -1;
     }
 
+    /**
+     * Reads the target of the direct call at a given position in the machine code of a target method.
+     */
+    static CodePointer directCallTarget(TargetMethod tm, int callPos) {
+        if (platform().isa == ISA.AMD64) {
+            return AMD64TargetMethodUtil.readCall32Target(tm, callPos);
+        } else if (platform().isa == ISA.ARM) {
+            return ARMTargetMethodUtil.readCall32Target(tm, callPos);
+        } else if (platform().isa == ISA.Aarch64) {
+            return Aarch64TargetMethodUtil.readCall32Target(tm, callPos);
+        } else if (platform().isa == ISA.RISCV64) {
+            return RISCV64TargetMethodUtil.readCall32Target(tm, callPos);
+        } else {
+            throw FatalError.unimplemented("com.sun.max.vm.code.CodeEviction.directCallTarget");
+        }
+    }
+
     private int patchDirectCallsIn(TargetMethod tm) {
         int calls = 0;
         final Safepoints safepoints = tm.safepoints();
         for (int spi = safepoints.nextDirectCall(0); spi >= 0; spi = safepoints.nextDirectCall(spi + 1)) {
             final int callPos = safepoints.causePosAt(spi);
-            final CodePointer target;
-            if (platform().isa == ISA.AMD64) {
-                target = AMD64TargetMethodUtil.readCall32Target(tm, callPos);
-            } else if (platform().isa == ISA.ARM) {
-                target = ARMTargetMethodUtil.readCall32Target(tm, callPos);
-            } else if (platform().isa == ISA.Aarch64) {
-                target = Aarch64TargetMethodUtil.readCall32Target(tm, callPos);
-            } else if (platform().isa == ISA.RISCV64) {
-                target = RISCV64TargetMethodUtil.readCall32Target(tm, callPos);
-            } else {
-                throw FatalError.unimplemented("com.sun.max.vm.code.CodeEviction.patchDirectCallsIn");
-            }
+            final CodePointer target = directCallTarget(tm, callPos);
             final TargetMethod callee = target.toTargetMethod();
             assert callee != null : "callee should not be null in " + tm + "@" + callPos + " " + target.to0xHexString();
             final int dcIndex = directCalleePosition(tm, callPos);
@@ -125,9 +125,10 @@ public abstract class CodeManager {
 
     /**
      * The opt code region contains machine code generated by the optimising compiler as well as adapters and trampolines.
+     * Space of optimized code {@linkplain OptCodeEviction evicted} from it is reused.
      */
     @INSPECTED
-    protected static final CodeRegion runtimeOptCodeRegion = new CodeRegion("Code-Runtime-Opt");
+    protected static final FreeListCodeRegion runtimeOptCodeRegion = new FreeListCodeRegion("Code-Runtime-Opt");
 
     /**
      * Get the runtime baseline code region.
@@ -187,6 +188,37 @@ public abstract class CodeManager {
         }
     }
 
+    /**
+     * Records all direct call links from the boot code region to the opt code region.
+     */
+    private static TargetMethod[] bootToOpt = new TargetMethod[BOOT_TO_BASELINE_INITIAL_SIZE];
+
+    private static int nBootToOpt = 0;
+
+    public static synchronized void recordBootToOptCaller(final TargetMethod tm) {
+        if (nBootToOpt == bootToOpt.length) {
+            bootToOpt = Arrays.copyOf(bootToOpt, bootToOpt.length * 2);
+        }
+        bootToOpt[nBootToOpt] = tm;
+        ++nBootToOpt;
+    }
+
+    /**
+     * Applies a closure to the recorded boot code callers of opt code, and forgets those for which it returns {@code false}.
+     * Must be called at a safepoint.
+     */
+    static void retainBootToOptCallers(final TargetMethod.Closure closure) {
+        int retained = 0;
+        for (int i = 0; i < nBootToOpt; i++) {
+            final TargetMethod tm = bootToOpt[i];
+            if (closure.doTargetMethod(tm)) {
+                bootToOpt[retained++] = tm;
+            }
+        }
+        Arrays.fill(bootToOpt, retained, nBootToOpt, null);
+        nBootToOpt = retained;
+    }
+
     /**
      * Allocates memory for the code-related arrays of a given target method
      * and {@linkplain TargetMethod#setCodeArrays(byte[], Pointer, byte[], Object[]) initializes} them.
@@ -226,6 +258,9 @@ public abstract class CodeManager {
                 Heap.disableAllocationForCurrentThread();
                 if (lifespan == Lifespan.LONG) {
                     currentCodeRegion = runtimeOptCodeRegion;
+                    if (OptCodeEviction.isDue()) {
+                        OptCodeEviction.run();
+                    }
                 } else {
                     currentCodeRegion = runtimeBaselineCodeRegion;
                 }
@@ -248,6 +283,14 @@ public abstract class CodeManager {
                     CodeEviction.codeEvictionLogger.logStats_Surviving(lastSurvivorSize, largestSurvivorSize);
                 }
             }
+
+            // Allocation in the opt code region may take more attempts, each aging the optimized code until enough of it is cold.
+            if (start.isZero() && currentCodeRegion == runtimeOptCodeRegion && OptCodeEviction.isEnabled()) {
+                for (int cycle = 0; start.isZero() && cycle <= OptCodeEviction.coldCycles(); cycle++) {
+                    OptCodeEviction.run();
+                    start = currentCodeRegion.allocate(allocationSize, false);
+                }
+            }
         }
 
         traceChunkAllocation(allocationTraceDescription, allocationSize, start, inHeap);
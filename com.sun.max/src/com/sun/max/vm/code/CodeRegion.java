@@ -191,6 +191,16 @@ public class CodeRegion extends LinearAllocatorRegion {
         length++;
         additionCompletedCount++;       // The array becomes once again inspectable
 
+        updateFindIndex(targetMethod, insertionPoint);
+    }
+
+    /**
+     * Updates the {@link #findIndex} after the addition of a target method.
+     *
+     * @param targetMethod the target method just added
+     * @param insertionPoint the index of {@code targetMethod} in {@link #targetMethods}
+     */
+    protected void updateFindIndex(TargetMethod targetMethod, int insertionPoint) {
         assert start().alignUp(FIND_INDEX_ALIGN).equals(start());
         int startIdx = targetMethod.start().plus(FIND_INDEX_ALIGN - 1).minus(start()).unsignedShiftedRight(FIND_INDEX_ALIGN_SHIFT).toInt();
         int endIdx = targetMethod.end().minus(1).minus(start()).unsignedShiftedRight(FIND_INDEX_ALIGN_SHIFT).toInt();
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.code;
+
+import java.util.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * A code region whose space can be reused once the target methods allocated in it are {@linkplain #free(TargetMethod) freed}.
+ * <p>
+ * Freed space is formatted as byte arrays, so that the region can still be walked as a sequence of contiguous, well-formed
+ * cells, and linked in an address-ordered free list. The link to the next free chunk is stored in the first element word of
+ * the array. Adjacent free chunks are coalesced, and a free chunk ending at the allocation mark is given back to the linear allocator.
+ * Allocation takes the first free chunk large enough for the request, and falls back to the linear allocator.
+ * <p>
+ * As for any code region, the caller is responsible for synchronizing allocations. Target methods must only be freed
+ * at a safepoint, and the {@linkplain #rebuildFindIndex() find index rebuilt} before any lookup.
+ */
+public final class FreeListCodeRegion extends CodeRegion {
+
+    /**
+     * Head of the free list, or zero if it is empty.
+     */
+    private Pointer freeList = Pointer.zero();
+
+    /**
+     * Number of chunks in the free list.
+     */
+    private int freeChunks;
+
+    /**
+     * Number of bytes in the free list.
+     */
+    private long freeBytes;
+
+    /**
+     * Number of bytes allocated in this region since it was bound, including reused bytes.
+     */
+    private long allocatedBytes;
+
+    public FreeListCodeRegion(String description) {
+        super(description);
+    }
+
+    private static int freeChunkHeaderSize() {
+        return Layout.byteArrayLayout().headerSize();
+    }
+
+    /**
+     * Minimum size of a free chunk: a byte array with room for the link to the next chunk.
+     */
+    private static long minFreeChunkSize() {
+        return freeChunkHeaderSize() + Word.size();
+    }
+
+    private static long freeChunkSize(Pointer chunk) {
+        return freeChunkHeaderSize() + Layout.readArrayLength(Layout.arrayCellToOrigin(chunk));
+    }
+
+    private static Pointer nextFreeChunk(Pointer chunk) {
+        return chunk.plus(freeChunkHeaderSize()).getWord(0).asPointer();
+    }
+
+    private static void setNextFreeChunk(Pointer chunk, Pointer next) {
+        chunk.plus(freeChunkHeaderSize()).setWord(0, next);
+    }
+
+    private static void formatFreeChunk(Pointer chunk, long size, Pointer next) {
+        Cell.plantArray(chunk, ClassRegistry.BYTE_ARRAY.dynamicHub(), (int) (size - freeChunkHeaderSize()));
+        setNextFreeChunk(chunk, next);
+    }
+
+    private void link(Pointer previous, Pointer chunk) {
+        if (previous.isZero()) {
+            freeList = chunk;
+        } else {
+            setNextFreeChunk(previous, chunk);
+        }
+    }
+
+    /**
+     * Number of bytes in free chunks.
+     */
+    public long freeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * Number of free chunks.
+     */
+    public int freeChunks() {
+        return freeChunks;
+    }
+
+    /**
+     * Number of bytes allocated in this region since it was bound, including bytes allocated in reused space.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Allocates some memory from this region, from the free list first. See {@linkplain LinearAllocatorRegion} for details.
+     */
+    @Override
+    public Pointer allocate(Size size, boolean adjustForDebugTag) {
+        if (!size.isWordAligned()) {
+            FatalError.unexpected("Allocation size must be word aligned");
+        }
+        if (!adjustForDebugTag) {
+            final long requested = size.toLong();
+            Pointer previous = Pointer.zero();
+            Pointer chunk = freeList;
+            while (!chunk.isZero()) {
+                final long chunkSize = freeChunkSize(chunk);
+                final long remainder = chunkSize - requested;
+                if (remainder == 0L) {
+                    link(previous, nextFreeChunk(chunk));
+                    freeChunks--;
+                } else if (remainder >= minFreeChunkSize()) {
+                    // Split the chunk, leaving its tail in the free list.
+                    final Pointer tail = chunk.plus(requested);
+                    formatFreeChunk(tail, remainder, nextFreeChunk(chunk));
+                    link(previous, tail);
+                } else {
+                    previous = chunk;
+                    chunk = nextFreeChunk(chunk);
+                    continue;
+                }
+                freeBytes -= requested;
+                allocatedBytes += requested;
+                return chunk;
+            }
+        }
+        final Pointer cell = super.allocate(size, adjustForDebugTag);
+        if (!cell.isZero()) {
+            allocatedBytes += size.toLong();
+        }
+        return cell;
+    }
+
+    /**
+     * Removes a target method from this region and gives its space back to the free list.
+     * Must be called at a safepoint, once the method can no longer be executed nor reached from any call site or dispatch table.
+     *
+     * @param targetMethod a target method of this region
+     */
+    public void free(TargetMethod targetMethod) {
+        final int index = Arrays.binarySearch(targetMethods, 0, length, targetMethod, COMPARATOR);
+        assert index >= 0 && targetMethods[index] == targetMethod : "freeing a method not in region " + regionName() + ": " + targetMethod;
+        System.arraycopy(targetMethods, index + 1, targetMethods, index, length - index - 1);
+        length--;
+        targetMethods[length] = null;
+        addFreeChunk(targetMethod.start().asPointer(), targetMethod.size().toLong());
+    }
+
+    private void addFreeChunk(Pointer start, long size) {
+        Pointer chunk = start;
+        long chunkSize = size;
+        Pointer beforePrevious = Pointer.zero();
+        Pointer previous = Pointer.zero();
+        Pointer next = freeList;
+        while (!next.isZero() && next.lessThan(chunk)) {
+            beforePrevious = previous;
+            previous = next;
+            next = nextFreeChunk(next);
+        }
+        freeBytes += size;
+        if (!next.isZero() && chunk.plus(chunkSize).equals(next)) {
+            chunkSize += freeChunkSize(next);
+            next = nextFreeChunk(next);
+            freeChunks--;
+        }
+        if (!previous.isZero() && previous.plus(freeChunkSize(previous)).equals(chunk)) {
+            chunkSize += freeChunkSize(previous);
+            chunk = previous;
+            previous = beforePrevious;
+            freeChunks--;
+        }
+        if (chunk.plus(chunkSize).equals(mark())) {
+            // Nothing is allocated past the chunk: give it back to the linear allocator.
+            assert next.isZero();
+            link(previous, Pointer.zero());
+            freeBytes -= chunkSize;
+            setMark(chunk);
+        } else {
+            formatFreeChunk(chunk, chunkSize, next);
+            link(previous, chunk);
+            freeChunks++;
+        }
+    }
+
+    @Override
+    protected void updateFindIndex(TargetMethod targetMethod, int insertionPoint) {
+        if (insertionPoint == length - 1) {
+            super.updateFindIndex(targetMethod, insertionPoint);
+        } else {
+            // The methods following the insertion point moved in the sorted list.
+            rebuildFindIndex();
+        }
+    }
+
+    /**
+     * Rebuilds the {@link #findIndex} from the sorted list of target methods.
+     * A page starting in free space refers to the last method starting before it.
+     */
+    public void rebuildFindIndex() {
+        final int pages = mark().minus(start()).plus(FIND_INDEX_ALIGN - 1).unsignedShiftedRight(FIND_INDEX_ALIGN_SHIFT).toInt();
+        if (pages > findIndex.length) {
+            findIndex = Arrays.copyOf(findIndex, (pages * 3) / 2 + 1);
+        }
+        Arrays.fill(findIndex, 0);
+        int methodIndex = 0;
+        for (int page = 0; page < pages; page++) {
+            final Address pageStart = start().plus(page << FIND_INDEX_ALIGN_SHIFT);
+            while (methodIndex + 1 < length && targetMethods[methodIndex + 1].start().lessEqual(pageStart)) {
+                methodIndex++;
+            }
+            findIndex[page] = methodIndex;
+        }
+    }
+
+    @Override
+    public TargetMethod find(Address cp) {
+        final TargetMethod targetMethod = super.find(cp);
+        // The address may be in free space preceding the method found.
+        return targetMethod != null && targetMethod.start().lessEqual(cp) ? targetMethod : null;
+    }
+
+    @Override
+    protected boolean validMethodStart(TargetMethod tm, Address address) {
+        // The index of a page starting in free space may refer to a method starting after the address.
+        return true;
+    }
+
+    /**
+     * Gets the target method at a given index of the sorted list of target methods of this region.
+     */
+    public TargetMethod targetMethodAt(int index) {
+        return targetMethods[index];
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.code;
+
+import static com.sun.max.vm.compiler.CallEntryPoint.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.deopt.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.profile.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.ti.*;
+
+/**
+ * Eviction of cold optimized code from the {@linkplain CodeManager#runtimeOptCodeRegion opt code region}.
+ * <p>
+ * Unlike baseline code, optimized code is never {@linkplain CodeEviction relocated}: direct calls from other optimized
+ * and boot code would all need fixing. Instead, the space of evicted methods is {@linkplain FreeListCodeRegion#free(TargetMethod) freed}
+ * and reused by later allocations.
+ * <p>
+ * The hotness of an optimized method is measured by the number of its entries, counted by its prologue in the
+ * {@linkplain MethodProfile#optimizedEntryCount profile} of its baseline version. Methods without a baseline profile have
+ * no entry count, and are never evicted unless deoptimized. An eviction cycle is a safepoint operation that:
+ * <ol>
+ * <li>marks the optimized methods found on any thread stack,</li>
+ * <li>ages all optimized methods: a method's {@linkplain TargetMethod#coldCycles() cold cycle count} is reset if it was
+ * found on a stack or entered at least {@link #OptCodeEvictionHotEntries} times since the last cycle, and incremented otherwise,</li>
+ * <li>selects the methods that are cold, i.e. not on any stack and either already {@linkplain TargetMethod#invalidated() invalidated}
+ * by deoptimization, or cold for {@link #OptCodeEvictionColdCycles} cycles,</li>
+ * <li>resets the direct calls to cold methods in the baseline, opt and boot code regions, and the dispatch table entries
+ * denoting them, back to trampolines,</li>
+ * <li>invalidates the cold methods as {@link Deoptimization} does, so that their next invocation links to their baseline
+ * version, whose invocation counter is restarted to decide whether the method is optimized again. Evictions aren't
+ * counted as deoptimizations in the profile,</li>
+ * <li>and frees their space.</li>
+ * </ol>
+ * A cycle runs when the opt code region is occupied beyond {@link #OptCodeEvictionThreshold} percent of its capacity, once
+ * every {@link #OptCodeEvictionInterval} percent of its capacity allocated, and repeatedly when an allocation in it fails.
+ * Cycles are requested by the {@link CodeManager} while it holds its lock, so no target method is being added to the region.
+ * <p>
+ * Eviction is off by default (see {@code -XX:+EvictOptCode}): counting entries adds a non-atomic increment of a shared counter
+ * to the prologue of every optimized method.
+ */
+public final class OptCodeEviction extends VmOperation {
+
+    private static boolean EvictOptCode;
+    private static int OptCodeEvictionColdCycles = 2;
+    private static int OptCodeEvictionHotEntries = 100;
+    private static int OptCodeEvictionThreshold = 75;
+    private static int OptCodeEvictionInterval = 10;
+    private static boolean TraceOptCodeEviction;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "EvictOptCode", OptCodeEviction.class,
+            "Evict cold optimized code from the opt code region and reuse its space.", MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "OptCodeEvictionColdCycles", OptCodeEviction.class,
+            "Number of consecutive eviction cycles an optimized method must be cold to be evicted (default: 2).",
+            MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "OptCodeEvictionHotEntries", OptCodeEviction.class,
+            "Number of entries into an optimized method between two eviction cycles that keeps it hot (default: 100).",
+            MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "OptCodeEvictionThreshold", OptCodeEviction.class,
+            "Occupancy of the opt code region (in percent) above which optimized code eviction cycles run (default: 75).",
+            MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "OptCodeEvictionInterval", OptCodeEviction.class,
+            "Space allocated in the opt code region (in percent of its size) between two optimized code eviction cycles (default: 10).",
+            MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "TraceOptCodeEviction", OptCodeEviction.class,
+            "Trace optimized code eviction cycles.", MaxineVM.Phase.STARTING);
+    }
+
+    /**
+     * Marks the optimized methods found on the stack.
+     */
+    final class LiveMethodsMarker extends RawStackFrameVisitor {
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod tm = current.targetMethod();
+            if (tm != null && tm.classMethodActor != null && CodeManager.runtimeOptCodeRegion.contains(tm.start())) {
+                tm.mark();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Ages the optimized methods from their entry counts, and counts the cold ones.
+     */
+    final class Ager implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            if (targetMethod.classMethodActor != null) {
+                final MethodProfile profile = entryCountProfile(targetMethod.classMethodActor);
+                // Without an entry count, the method's hotness is unknown: keep it.
+                boolean hot = profile == null || targetMethod.isMarked();
+                if (profile != null) {
+                    hot |= profile.optimizedEntryCount >= OptCodeEvictionHotEntries;
+                    profile.optimizedEntryCount = 0;
+                }
+                targetMethod.notifyEvictionCycle(hot);
+                if (isCold(targetMethod)) {
+                    nCold++;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Resets the direct calls to cold methods in the code of methods that are not evicted.
+     */
+    final class CallSiteResetter implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            if (!targetMethod.isWiped() && !isCold(targetMethod)) {
+                resetColdCallsIn(targetMethod);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Resets the direct calls to cold methods in the code of boot code methods, and tells which of them still call opt code.
+     */
+    final class BootCallSiteResetter implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            return resetColdCallsIn(targetMethod);
+        }
+    }
+
+    /**
+     * Reverts the dispatch table entries denoting an evicted method to trampolines.
+     */
+    final class DispatchTablePatcher implements ClassActor.Closure {
+        Word entryPoint;
+        int vtableIndex;
+        boolean patchStaticHub;
+
+        @Override
+        public boolean doClass(ClassActor classActor) {
+            final DynamicHub hub = classActor.dynamicHub();
+            if (hub == null) {
+                return true;
+            }
+            if (hub.getWord(vtableIndex).equals(entryPoint)) {
+                hub.resetVTableEntry(vtableIndex);
+                nDispatchEntries++;
+            }
+            final int lastITableIndex = hub.iTableStartIndex + hub.iTableLength;
+            for (int i = hub.iTableStartIndex; i < lastITableIndex; i++) {
+                if (hub.getWord(i).equals(entryPoint)) {
+                    hub.resetITableEntry(i);
+                    nDispatchEntries++;
+                }
+            }
+            if (patchStaticHub) {
+                final StaticHub staticHub = classActor.staticHub();
+                if (staticHub.getWord(vtableIndex).equals(entryPoint)) {
+                    staticHub.resetVTableEntry(vtableIndex);
+                    nDispatchEntries++;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final OptCodeEviction optCodeEviction = new OptCodeEviction();
+
+    private static int evictionCount;
+
+    /**
+     * Number of bytes {@linkplain FreeListCodeRegion#allocatedBytes() allocated} in the opt code region at the end of the last cycle.
+     */
+    private static long allocatedBytesAtLastCycle;
+
+    private final VmStackFrameWalker walker = new VmStackFrameWalker(Pointer.zero());
+
+    private final LiveMethodsMarker liveMethodsMarker = new LiveMethodsMarker();
+
+    private final Ager ager = new Ager();
+
+    private final CallSiteResetter callSiteResetter = new CallSiteResetter();
+
+    private final BootCallSiteResetter bootCallSiteResetter = new BootCallSiteResetter();
+
+    private final DispatchTablePatcher dispatchTablePatcher = new DispatchTablePatcher();
+
+    /**
+     * Set by {@link #resetColdCallsIn(TargetMethod)} if the method still calls some opt code.
+     */
+    private boolean callsOptCode;
+
+    private int nCold;
+    private int nEvicted;
+    private long nEvictedBytes;
+    private int nCallSites;
+    private int nDispatchEntries;
+
+    private OptCodeEviction() {
+        super("optimized code eviction", null, Mode.Safepoint);
+    }
+
+    /**
+     * Indicates whether cold optimized code is evicted.
+     */
+    public static boolean isEnabled() {
+        return EvictOptCode;
+    }
+
+    /**
+     * Number of consecutive cycles an optimized method must be cold to be evicted.
+     */
+    public static int coldCycles() {
+        return OptCodeEvictionColdCycles;
+    }
+
+    public static int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the profile counting the entries into the optimized version of a method, i.e., the profile of its baseline version.
+     *
+     * @return the profile of the method's current baseline version, or {@code null} if it hasn't any
+     */
+    public static MethodProfile entryCountProfile(ClassMethodActor cma) {
+        final TargetMethod baseline = Compilations.currentTargetMethod(cma.compiledState, RuntimeCompiler.Nature.BASELINE);
+        return baseline == null ? null : baseline.profile();
+    }
+
+    /**
+     * Determines whether the occupancy of the opt code region and the space allocated in it since the last cycle call for
+     * an eviction cycle. Must be called with the code manager locked.
+     */
+    static boolean isDue() {
+        if (!EvictOptCode) {
+            return false;
+        }
+        final FreeListCodeRegion region = CodeManager.runtimeOptCodeRegion;
+        final long capacity = region.size().toLong();
+        final long occupied = region.used().toLong() - region.freeBytes();
+        return occupied * 100 >= capacity * OptCodeEvictionThreshold &&
+            (region.allocatedBytes() - allocatedBytesAtLastCycle) * 100 >= capacity * OptCodeEvictionInterval;
+    }
+
+    /**
+     * Run an optimized code eviction cycle. Must be called with the code manager locked.
+     */
+    static void run() {
+        optCodeEviction.submit();
+    }
+
+    /**
+     * Determines if a method is to be evicted by the current cycle. Methods being compiled again are kept, as they may not be installed yet.
+     */
+    private static boolean isCold(TargetMethod tm) {
+        final ClassMethodActor cma = tm.classMethodActor;
+        if (cma == null || tm.isMarked() || tm.isProtected() || !CodeManager.runtimeOptCodeRegion.contains(tm.start())) {
+            return false;
+        }
+        if (tm.invalidated() != null) {
+            // Deoptimized: never linked again.
+            return true;
+        }
+        return !(cma.compiledState instanceof Compilation) && tm.coldCycles() >= OptCodeEvictionColdCycles;
+    }
+
+    @Override
+    protected void doIt() {
+        final FreeListCodeRegion region = CodeManager.runtimeOptCodeRegion;
+        ++evictionCount;
+        nCold = 0;
+        nEvicted = 0;
+        nEvictedBytes = 0L;
+        nCallSites = 0;
+        nDispatchEntries = 0;
+
+        doAllThreads();
+        region.doAllTargetMethods(ager);
+
+        if (nCold > 0) {
+            CodeManager.Inspect.notifyEvictionStarted(region);
+
+            // No call site nor dispatch table entry may lead to a cold method once its space is freed.
+            region.doAllTargetMethods(callSiteResetter);
+            CodeManager.runtimeBaselineCodeRegion.doAllTargetMethods(callSiteResetter);
+            CodeManager.retainBootToOptCallers(bootCallSiteResetter);
+
+            int i = 0;
+            while (i < region.numTargetMethods()) {
+                final TargetMethod tm = region.targetMethodAt(i);
+                if (isCold(tm)) {
+                    // Removes the method from the region.
+                    evict(region, tm);
+                } else {
+                    i++;
+                }
+            }
+            region.rebuildFindIndex();
+
+            CodeManager.Inspect.notifyEvictionCompleted(region);
+        }
+
+        for (int i = 0; i < region.numTargetMethods(); i++) {
+            region.targetMethodAt(i).unmark();
+        }
+        allocatedBytesAtLastCycle = region.allocatedBytes();
+
+        if (TraceOptCodeEviction) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Opt code eviction #");
+            Log.print(evictionCount);
+            Log.print(": evicted ");
+            Log.print(nEvicted);
+            Log.print(" methods (");
+            Log.print(nEvictedBytes);
+            Log.print(" bytes), reset ");
+            Log.print(nCallSites);
+            Log.print(" call sites and ");
+            Log.print(nDispatchEntries);
+            Log.print(" dispatch table entries; ");
+            Log.print(region.used().toLong() - region.freeBytes());
+            Log.print(" bytes in use, ");
+            Log.print(region.freeBytes());
+            Log.print(" bytes free in ");
+            Log.print(region.freeChunks());
+            Log.println(" chunks");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    @Override
+    protected void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
+        // bail out if the thread was stopped in native code before invoking any Java method
+        if (ip.isZero() && sp.isZero() && fp.isZero()) {
+            return;
+        }
+        walker.setTLA(vmThread.tla());
+        walker.inspect(ip, sp, fp, liveMethodsMarker);
+    }
+
+    /**
+     * Resets the direct calls to cold methods in the code of a given method.
+     *
+     * @return {@code true} if the method still has direct calls to opt code
+     */
+    private boolean resetColdCallsIn(TargetMethod tm) {
+        final Safepoints safepoints = tm.safepoints();
+        boolean callsOpt = false;
+        int dcIndex = 0;
+        for (int spi = safepoints.nextDirectCall(0); spi >= 0; spi = safepoints.nextDirectCall(spi + 1), dcIndex++) {
+            final TargetMethod callee = CodeEviction.directCallTarget(tm, safepoints.causePosAt(spi)).toTargetMethod();
+            if (callee != null && CodeManager.runtimeOptCodeRegion.contains(callee.start())) {
+                if (isCold(callee)) {
+                    tm.resetDirectCall(spi, dcIndex);
+                    nCallSites++;
+                } else {
+                    callsOpt = true;
+                }
+            }
+        }
+        return callsOpt;
+    }
+
+    private void evict(FreeListCodeRegion region, TargetMethod tm) {
+        final ClassMethodActor cma = tm.classMethodActor;
+        patchDispatchTables(tm);
+        final Object compiledState = cma.compiledState;
+        if (compiledState instanceof Compilations && ((Compilations) compiledState).optimized == tm) {
+            final TargetMethod baseline = ((Compilations) compiledState).baseline;
+            cma.compiledState = baseline == null ? Compilations.EMPTY : new Compilations(baseline, null);
+        }
+        if (tm.invalidate(new InvalidationMarker(tm))) {
+            // Let the baseline version count invocations again before the method is optimized again.
+            // This isn't a deoptimization: the compilers and the deoptimization counts of the profile are left alone.
+            final MethodProfile profile = entryCountProfile(cma);
+            if (profile != null && profile.entryBackedgeCount <= 0) {
+                profile.entryBackedgeCount = MethodInstrumentation.initialEntryBackedgeCount;
+            }
+        }
+        VMTI.handler().methodUnloaded(cma, tm.codeStart().toPointer());
+        nEvicted++;
+        nEvictedBytes += tm.size().toLong();
+        region.free(tm);
+        tm.wipe();
+    }
+
+    private void patchDispatchTables(TargetMethod tm) {
+        final ClassMethodActor cma = tm.classMethodActor;
+        if (!(cma instanceof VirtualMethodActor)) {
+            return;
+        }
+        final int vtableIndex = ((VirtualMethodActor) cma).vTableIndex();
+        if (vtableIndex < 0) {
+            // Nonvirtual methods are only called directly.
+            return;
+        }
+        final ClassActor holder = cma.holder();
+        dispatchTablePatcher.entryPoint = tm.getEntryPoint(VTABLE_ENTRY_POINT).toAddress();
+        dispatchTablePatcher.vtableIndex = vtableIndex;
+        dispatchTablePatcher.patchStaticHub = vtableIndex < StaticHub.vTableStartIndex() + holder.staticHub().vTableLength();
+        dispatchTablePatcher.doClass(holder);
+        holder.allSubclassesDo(dispatchTablePatcher);
+        if (dispatchTablePatcher.patchStaticHub) {
+            // Array classes are not part of the class hierarchy, but inherit the methods of java.lang.Object.
+            ClassActor.allNonInstanceClassesDo(dispatchTablePatcher);
+        }
+    }
+}
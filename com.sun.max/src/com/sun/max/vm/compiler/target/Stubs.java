@@ -888,9 +888,13 @@ public class Stubs {
         final CodePointer calleeEntryPoint = callee.makeTargetMethod(caller).getEntryPoint(caller.callEntryPoint);
         ARMTargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
-            CodeManager.recordBootToBaselineCaller(caller);
+        // remember calls from boot code region to baseline and opt code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress())) {
+            if (Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToBaselineCaller(caller);
+            } else if (Code.getCodeManager().getRuntimeOptCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToOptCaller(caller);
+            }
         }
     }
 
@@ -903,9 +907,13 @@ public class Stubs {
 
         AMD64TargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
-            CodeManager.recordBootToBaselineCaller(caller);
+        // remember calls from boot code region to baseline and opt code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress())) {
+            if (Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToBaselineCaller(caller);
+            } else if (Code.getCodeManager().getRuntimeOptCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToOptCaller(caller);
+            }
         }
     }
 
@@ -919,9 +927,13 @@ public class Stubs {
         final CodePointer calleeEntryPoint = callee.makeTargetMethod(caller).getEntryPoint(caller.callEntryPoint);
         Aarch64TargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
-            CodeManager.recordBootToBaselineCaller(caller);
+        // remember calls from boot code region to baseline and opt code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress())) {
+            if (Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToBaselineCaller(caller);
+            } else if (Code.getCodeManager().getRuntimeOptCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToOptCaller(caller);
+            }
         }
     }
 
@@ -935,9 +947,13 @@ public class Stubs {
         final CodePointer calleeEntryPoint = callee.makeTargetMethod(caller).getEntryPoint(caller.callEntryPoint);
         RISCV64TargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
-            CodeManager.recordBootToBaselineCaller(caller);
+        // remember calls from boot code region to baseline and opt code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress())) {
+            if (Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToBaselineCaller(caller);
+            } else if (Code.getCodeManager().getRuntimeOptCodeRegion().contains(calleeEntryPoint.toAddress())) {
+                CodeManager.recordBootToOptCaller(caller);
+            }
         }
     }
 
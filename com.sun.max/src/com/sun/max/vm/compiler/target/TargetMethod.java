@@ -1479,6 +1479,27 @@ public abstract class TargetMethod extends MemoryRegion {
         return oldStart.equals(Address.allOnes().asAddress());
     }
 
+    /**
+     * Number of consecutive {@linkplain OptCodeEviction optimized code eviction} cycles that found this method cold.
+     */
+    private int coldCycles;
+
+    /**
+     * Gets the number of consecutive {@linkplain OptCodeEviction optimized code eviction} cycles that found this method cold.
+     */
+    public final int coldCycles() {
+        return coldCycles;
+    }
+
+    /**
+     * Records the outcome of an {@linkplain OptCodeEviction optimized code eviction} cycle for this method.
+     *
+     * @param hot specifies if the cycle found this method hot, i.e., on a stack or frequently entered
+     */
+    public final void notifyEvictionCycle(boolean hot) {
+        coldCycles = hot ? 0 : coldCycles + 1;
+    }
+
     /**
      * Determines if this method is protected from eviction.
      */
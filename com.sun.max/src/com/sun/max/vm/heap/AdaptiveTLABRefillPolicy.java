@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.HeapSchemeWithTLAB.TLABStats;
+
+/**
+ * A per-thread TLAB refill policy that sizes the thread's TLABs from its allocation rate.
+ * <p>
+ * The policy tracks how many bytes the thread allocated in TLABs between two {@linkplain #notifyReset(Size) resets} (i.e., between two GCs),
+ * and keeps a weighted average of it. On each reset, the next TLAB size is set so that a thread allocating at its average rate
+ * refills its TLAB {@link #TLABTargetRefills} times between two GCs. Threads allocating fast thus get large TLABs and few refills,
+ * whereas mostly idle threads get small ones and waste little space. The size is bounded by the minimum and maximum TLAB size of the heap scheme.
+ * <p>
+ * A TLAB is refilled only if the space left in it is below a refill waste limit, a fraction of the TLAB size. Otherwise, the allocation
+ * request is satisfied outside the TLAB and the limit is raised slightly, so that a thread repeatedly failing to allocate in its TLAB eventually refills it.
+ */
+public class AdaptiveTLABRefillPolicy extends TLABRefillPolicy {
+    static int TLABTargetRefills = 50;
+    static int TLABAllocationWeight = 35;
+    static int TLABRefillWasteFraction = 64;
+    static int TLABWasteIncrement = 4;
+    static {
+        VMOptions.addFieldOption("-XX:", "TLABTargetRefills", AdaptiveTLABRefillPolicy.class,
+                        "Number of TLAB refills between GCs a resized TLAB is sized for", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABAllocationWeight", AdaptiveTLABRefillPolicy.class,
+                        "Weight (in percent) of the last GC interval in the average allocation of a thread", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABRefillWasteFraction", AdaptiveTLABRefillPolicy.class,
+                        "Maximum space wasted by a TLAB refill, as a fraction of the TLAB size", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABWasteIncrement", AdaptiveTLABRefillPolicy.class,
+                        "Words added to the refill waste limit after each allocation outside the TLAB", MaxineVM.Phase.PRISTINE);
+    }
+
+    /**
+     * Alignment of the computed TLAB sizes.
+     */
+    private static final int TLAB_SIZE_ALIGNMENT = Size.K.toInt();
+
+    private final TLABStats stats;
+
+    private final Size minSize;
+
+    private final Size maxSize;
+
+    /**
+     * Size the TLAB should have on next refill.
+     */
+    private Size nextSize;
+
+    /**
+     * Space left in the TLAB below which the TLAB is refilled on allocation failure.
+     */
+    private Size refillWasteLimit;
+
+    /**
+     * Bytes of TLAB given to the thread since the last reset.
+     */
+    private long filledBytes;
+
+    /**
+     * Bytes left unused in the TLABs retired since the last reset.
+     */
+    private long wastedBytes;
+
+    /**
+     * Number of refills since the last reset.
+     */
+    private int refills;
+
+    /**
+     * Weighted average of the bytes the thread allocated in TLABs between two resets.
+     */
+    private long averageAllocatedBytes;
+
+    AdaptiveTLABRefillPolicy(Size initialTLABSize, Size minSize, Size maxSize, TLABStats stats) {
+        this.stats = stats;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        nextSize = initialTLABSize;
+        refillWasteLimit = nextSize.dividedBy(TLABRefillWasteFraction);
+        // The policy is created once the thread has got its first TLAB.
+        filledBytes = initialTLABSize.toLong();
+        // Start as if the thread was allocating at the rate the initial TLAB size was chosen for.
+        averageAllocatedBytes = initialTLABSize.toLong() * TLABTargetRefills;
+    }
+
+    @Override
+    public boolean shouldRefill(Size size, Pointer allocationMark) {
+        // The end of the TLAB is unknown. Refill.
+        return true;
+    }
+
+    @Override
+    public boolean shouldRefill(Size size, Pointer allocationMark, Pointer tlabEnd) {
+        if (allocationMark.isZero() || tlabEnd.lessEqual(allocationMark)) {
+            // No TLAB, or nothing left in it.
+            return true;
+        }
+        if (tlabEnd.minus(allocationMark).lessEqual(refillWasteLimit)) {
+            return true;
+        }
+        // Refilling would waste too much. Leave the TLAB as is, and raise the limit so that repeated failures eventually refill it.
+        refillWasteLimit = refillWasteLimit.plus(Size.fromInt(TLABWasteIncrement).shiftedLeft(Word.widthValue().log2numberOfBytes));
+        stats.wasteLimitDirectAllocationCount++;
+        return false;
+    }
+
+    @Override
+    public Size nextTlabSize() {
+        return nextSize;
+    }
+
+    @Override
+    public void notifyRefill(Size tlabSize, Size leftover) {
+        filledBytes += tlabSize.toLong();
+        wastedBytes += leftover.toLong();
+        refills++;
+    }
+
+    @Override
+    public void notifyReset(Size leftover) {
+        long allocatedBytes = filledBytes - wastedBytes - leftover.toLong();
+        if (allocatedBytes < 0L) {
+            allocatedBytes = 0L;
+        }
+        averageAllocatedBytes = (TLABAllocationWeight * allocatedBytes + (100 - TLABAllocationWeight) * averageAllocatedBytes) / 100;
+        Size size = Size.fromLong(averageAllocatedBytes / TLABTargetRefills).alignUp(TLAB_SIZE_ALIGNMENT);
+        if (size.lessThan(minSize)) {
+            size = minSize;
+        } else if (size.greaterThan(maxSize)) {
+            size = maxSize;
+        }
+        nextSize = size;
+        refillWasteLimit = size.dividedBy(TLABRefillWasteFraction);
+        stats.recordResize(size, refills);
+        filledBytes = 0L;
+        wastedBytes = 0L;
+        refills = 0;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A spin lock for serializing short critical sections between {@link GCWorkerGang} members.
+ * GC workers run while all mutator threads are stopped and must not block on VM monitors,
+ * so contended critical sections (e.g., refilling an allocation buffer from a shared space) simply spin.
+ */
+public final class GCSpinLock {
+    private volatile int locked;
+
+    @FOLD
+    private static int lockedOffset() {
+        return ClassActor.fromJava(GCSpinLock.class).findLocalInstanceFieldActor("locked").offset();
+    }
+
+    public void lock() {
+        final Reference thisRef = Reference.fromJava(this);
+        while (thisRef.compareAndSwapInt(lockedOffset(), 0, 1) != 0) {
+            while (locked != 0) {
+                Intrinsics.pause();
+            }
+        }
+    }
+
+    public void unlock() {
+        locked = 0;
+    }
+}
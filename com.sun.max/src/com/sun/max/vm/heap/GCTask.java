@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+/**
+ * A unit of work run in parallel by every member of the {@link GCWorkerGang}.
+ * A task is run once per worker, with the worker's index passed as argument. Worker 0 is always the
+ * {@linkplain com.sun.max.vm.runtime.VmOperationThread VM operation thread} that runs the garbage collection.
+ * Tasks must not allocate from the heap, and must only hold references to boot image objects.
+ */
+public abstract class GCTask {
+    /**
+     * Runs the task on behalf of the specified worker.
+     *
+     * @param workerIndex index of the worker running the task, in the range [0, {@link GCWorkerGang#numWorkers()}[
+     */
+    public abstract void run(int workerIndex);
+
+    /**
+     * Indicates whether the task has work left that an idle worker could take over.
+     * Polled by idle workers waiting in {@link GCTaskTerminator#offerTermination(int, GCTask)}. Tasks that don't balance work between workers need not override it.
+     */
+    public boolean hasWork() {
+        return false;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Termination detection for {@link GCTask}s balancing work between the workers of the {@link GCWorkerGang}, e.g., by work stealing.
+ * <p>
+ * The terminator counts the workers still active. A worker that runs out of work {@linkplain #offerTermination(int, GCTask) offers termination}:
+ * it becomes idle and waits until either all workers are idle, in which case the task is complete, or {@linkplain GCTask#hasWork() work}
+ * becomes available again, in which case it becomes active again and looks for it. A worker only creates work while active, and only goes idle
+ * once its local work is exhausted, so there is no work left once the count of active workers drops to zero.
+ * <p>
+ * Terminators are pre-allocated with the task they serve, and must be {@linkplain #reset(int) reset} before each run of the task.
+ */
+public final class GCTaskTerminator {
+    /**
+     * Number of workers still looking for work.
+     */
+    private volatile int activeWorkers;
+
+    @FOLD
+    private static int activeWorkersOffset() {
+        return ClassActor.fromJava(GCTaskTerminator.class).findLocalInstanceFieldActor("activeWorkers").offset();
+    }
+
+    /**
+     * Prepare the terminator for a run of its task. Must be called before handing the task to the gang.
+     *
+     * @param numWorkers number of workers running the task
+     */
+    public void reset(int numWorkers) {
+        activeWorkers = numWorkers;
+    }
+
+    private void addToActiveWorkers(int delta) {
+        final Reference thisRef = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = activeWorkers;
+        } while (thisRef.compareAndSwapInt(activeWorkersOffset(), oldValue, oldValue + delta) != oldValue);
+    }
+
+    /**
+     * Called by a worker that found no work. Returns when either all workers are out of work, or some work became available.
+     *
+     * @param workerIndex index of the calling worker
+     * @param task the task the worker runs
+     * @return true if the task is complete, false if the worker should look for work again
+     */
+    public boolean offerTermination(int workerIndex, GCTask task) {
+        addToActiveWorkers(-1);
+        while (true) {
+            if (activeWorkers == 0) {
+                GCWorkerGang.theGang().notifyTermination(workerIndex, true);
+                return true;
+            }
+            if (task.hasWork()) {
+                addToActiveWorkers(1);
+                GCWorkerGang.theGang().notifyTermination(workerIndex, false);
+                return false;
+            }
+            Intrinsics.pause();
+        }
+    }
+}
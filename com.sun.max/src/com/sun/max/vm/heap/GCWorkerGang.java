@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.log.VMLog.Record;
+import com.sun.max.vm.log.VMLogger.Interval;
+import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A gang of GC worker threads used to run phases of a garbage collection in parallel.
+ * <p>
+ * The worker threads are allocated in the boot image so that they never move, and are started when the VM reaches the
+ * {@linkplain MaxineVM.Phase#STARTING starting} phase. Between collections, they are parked on a VM lock. A
+ * collection running on the {@link VmOperationThread} hands a {@link GCTask} to the gang with {@link #run(GCTask)}:
+ * the task is run once by every worker, the VM operation thread itself acting as worker 0, and the call returns once
+ * every worker is done with the task. Tasks must be handed to the gang by a {@link GCOperation}, which brackets its collection
+ * with {@link #beginCollection()} and {@link #endCollection()}.
+ * <p>
+ * Workers running a task may wait for each other with a {@linkplain #barrier(int) barrier} between the phases of the task, and may
+ * balance their work and detect its completion with a {@link GCTaskTerminator}. Tasks, barriers and termination are traced per worker
+ * by the {@link #logger}.
+ * <p>
+ * GC worker threads are never frozen by a {@link GCOperation} and their stacks are not scanned for roots. They
+ * must therefore only ever hold references to boot image objects, and never allocate.
+ */
+public final class GCWorkerGang {
+    /**
+     * Maximum number of workers, including the VM operation thread.
+     * Worker threads are pre-allocated in the boot image, so this bounds the value of {@code -XX:ParallelGCThreads}.
+     */
+    public static final int MAX_WORKERS = 32;
+
+    static int ParallelGCThreads = 1;
+    static {
+        VMOptions.addFieldOption("-XX:", "ParallelGCThreads", GCWorkerGang.class,
+                        "Number of threads running parallel GC phases, including the VM operation thread (at most " + MAX_WORKERS + ")", MaxineVM.Phase.PRISTINE);
+    }
+
+    /**
+     * Lock the worker threads park on between two tasks.
+     */
+    private static final Object GANG_LOCK = JavaMonitorManager.newVmLock("GC_WORKER_GANG_LOCK");
+
+    private static final GCWorkerGang theGang = new GCWorkerGang();
+
+    public static GCWorkerGang theGang() {
+        return theGang;
+    }
+
+    /**
+     * A worker thread of the gang.
+     */
+    static final class GCWorkerThread extends Thread {
+        final int workerIndex;
+
+        @HOSTED_ONLY
+        GCWorkerThread(int workerIndex) {
+            super(VmThread.systemThreadGroup, "GC Worker " + workerIndex);
+            this.workerIndex = workerIndex;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // Workers run GC code only, which never allocates.
+            Heap.disableAllocationForCurrentThread();
+            theGang.workerLoop(workerIndex);
+        }
+    }
+
+    /**
+     * The VM threads of the workers. Index 0 is unused as the VM operation thread acts as worker 0.
+     */
+    private VmThread [] workerThreads;
+
+    /**
+     * Number of workers, including the VM operation thread.
+     */
+    private int numWorkers = 1;
+
+    /**
+     * Indicates whether the worker threads were started.
+     */
+    private boolean started;
+
+    /**
+     * Task currently run by the gang. Only modified while holding the {@link #GANG_LOCK}.
+     */
+    private GCTask task;
+
+    /**
+     * Sequence number of the current task. Workers compare it with the last sequence number they've seen to find out
+     * whether a new task was handed to the gang. Only modified while holding the {@link #GANG_LOCK}.
+     */
+    private int taskSequence;
+
+    /**
+     * Number of worker threads still running the current task.
+     */
+    private volatile int pendingWorkers;
+
+    /**
+     * Number of workers that reached the current barrier.
+     */
+    private volatile int barrierArrivals;
+
+    /**
+     * Sense of the last completed barrier. Workers waiting at a barrier spin until it changes to their own sense.
+     */
+    private volatile boolean barrierSense;
+
+    /**
+     * Sense of the next barrier for each worker.
+     */
+    private final boolean [] workerBarrierSenses = new boolean[MAX_WORKERS];
+
+    /**
+     * Nesting depth of the GC operations running on the VM operation thread.
+     */
+    private int collectionDepth;
+
+    /**
+     * Statistics of the current collection.
+     */
+    private int tasksRun;
+    private int barriersCrossed;
+    private int terminationOffers;
+
+    public static final GCWorkerLogger logger = new GCWorkerLogger();
+
+    @FOLD
+    private static int pendingWorkersOffset() {
+        return ClassActor.fromJava(GCWorkerGang.class).findLocalInstanceFieldActor("pendingWorkers").offset();
+    }
+
+    @FOLD
+    private static int barrierArrivalsOffset() {
+        return ClassActor.fromJava(GCWorkerGang.class).findLocalInstanceFieldActor("barrierArrivals").offset();
+    }
+
+    @HOSTED_ONLY
+    private GCWorkerGang() {
+    }
+
+    /**
+     * Must be called by heap schemes that use the gang on every phase of their initialization.
+     * The worker threads are allocated when bootstrapping and started when the VM reaches the starting phase.
+     *
+     * @param phase the VM's initialization phase
+     */
+    public void initialize(MaxineVM.Phase phase) {
+        if (phase == MaxineVM.Phase.BOOTSTRAPPING) {
+            if (workerThreads == null) {
+                workerThreads = new VmThread[MAX_WORKERS];
+                for (int i = 1; i < MAX_WORKERS; i++) {
+                    final VmThread workerThread = VmThread.createPreallocatedSystemThread(new GCWorkerThread(i));
+                    workerThread.setAsGCWorkerThread();
+                    workerThreads[i] = workerThread;
+                }
+            }
+        } else if (phase == MaxineVM.Phase.PRISTINE) {
+            numWorkers = ParallelGCThreads < 1 ? 1 : (ParallelGCThreads > MAX_WORKERS ? MAX_WORKERS : ParallelGCThreads);
+        } else if (phase == MaxineVM.Phase.STARTING) {
+            if (!started && numWorkers > 1) {
+                for (int i = 1; i < numWorkers; i++) {
+                    workerThreads[i].startVmSystemThread();
+                }
+                started = true;
+            }
+        }
+    }
+
+    /**
+     * Number of workers a task handed to the gang will be run by, including the VM operation thread.
+     * This is 1 until the worker threads are started.
+     */
+    public int numWorkers() {
+        return started ? numWorkers : 1;
+    }
+
+    /**
+     * Number of workers the gang is configured with, including the VM operation thread.
+     * Valid from the {@linkplain MaxineVM.Phase#PRISTINE pristine} phase on, which lets heap schemes size per-worker
+     * data structures before the worker threads are started.
+     */
+    public int numConfiguredWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Indicates whether tasks are run in parallel, i.e., whether the gang has more than one active worker.
+     */
+    public boolean isParallel() {
+        return numWorkers() > 1;
+    }
+
+    /**
+     * Runs a task with every worker of the gang and waits for all of them to complete it.
+     * Must be called by the VM operation thread.
+     *
+     * @param gcTask the task to run
+     */
+    public void run(GCTask gcTask) {
+        FatalError.check(VmThread.current().isVmOperationThread(), "GC tasks must be submitted by the VM operation thread");
+        FatalError.check(collectionDepth > 0, "GC tasks must be submitted by a GC operation");
+        tasksRun++;
+        if (!isParallel()) {
+            runTask(gcTask, 0);
+            return;
+        }
+        synchronized (GANG_LOCK) {
+            task = gcTask;
+            pendingWorkers = numWorkers - 1;
+            taskSequence++;
+            GANG_LOCK.notifyAll();
+        }
+        runTask(gcTask, 0);
+        while (pendingWorkers > 0) {
+            Intrinsics.pause();
+        }
+        task = null;
+    }
+
+    private static void runTask(GCTask gcTask, int workerIndex) {
+        if (logger.enabled()) {
+            logger.logTask(Interval.BEGIN, workerIndex, ClassActor.fromJava(gcTask.getClass()));
+        }
+        gcTask.run(workerIndex);
+        if (logger.enabled()) {
+            logger.logTask(Interval.END, workerIndex, ClassActor.fromJava(gcTask.getClass()));
+        }
+    }
+
+    /**
+     * Waits until every worker running the current task reaches the barrier. Must be called by all the workers of the task, e.g., to
+     * separate phases of the task that must not overlap.
+     *
+     * @param workerIndex index of the calling worker
+     */
+    public void barrier(int workerIndex) {
+        if (!isParallel()) {
+            return;
+        }
+        if (logger.enabled()) {
+            logger.logBarrier(Interval.BEGIN, workerIndex);
+        }
+        final boolean sense = !workerBarrierSenses[workerIndex];
+        workerBarrierSenses[workerIndex] = sense;
+        if (incrementBarrierArrivals() == numWorkers) {
+            // Last to arrive. Reset the count for the next barrier before releasing the others.
+            barrierArrivals = 0;
+            barriersCrossed++;
+            barrierSense = sense;
+        } else {
+            while (barrierSense != sense) {
+                Intrinsics.pause();
+            }
+        }
+        if (logger.enabled()) {
+            logger.logBarrier(Interval.END, workerIndex);
+        }
+    }
+
+    private int incrementBarrierArrivals() {
+        final Reference thisRef = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = barrierArrivals;
+        } while (thisRef.compareAndSwapInt(barrierArrivalsOffset(), oldValue, oldValue + 1) != oldValue);
+        return oldValue + 1;
+    }
+
+    /**
+     * Records an attempt of a worker to terminate a task. Called by {@link GCTaskTerminator}.
+     *
+     * @param workerIndex index of the worker that offered termination
+     * @param terminated true if the task is complete, false if the worker found more work
+     */
+    void notifyTermination(int workerIndex, boolean terminated) {
+        if (workerIndex == 0) {
+            // Only counted for the VM operation thread, so as to leave the counters free of races.
+            terminationOffers++;
+        }
+        if (logger.enabled()) {
+            logger.logTermination(workerIndex, terminated);
+        }
+    }
+
+    /**
+     * Called by a {@link GCOperation} before it starts collecting. Tasks may only be handed to the gang between this and the
+     * matching call to {@link #endCollection()}.
+     */
+    public void beginCollection() {
+        if (collectionDepth++ == 0) {
+            tasksRun = 0;
+            barriersCrossed = 0;
+            terminationOffers = 0;
+        }
+    }
+
+    /**
+     * Called by a {@link GCOperation} once it is done collecting.
+     */
+    public void endCollection() {
+        if (--collectionDepth == 0 && Heap.verbose() && tasksRun > 0) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("--GC worker gang: ");
+            Log.print(tasksRun);
+            Log.print(" tasks run by ");
+            Log.print(numWorkers());
+            Log.print(" workers, ");
+            Log.print(barriersCrossed);
+            Log.print(" barriers, ");
+            Log.print(terminationOffers);
+            Log.println(" termination offers by the VM operation thread--");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    private void workerLoop(int workerIndex) {
+        int lastSequence = 0;
+        while (true) {
+            GCTask gcTask;
+            synchronized (GANG_LOCK) {
+                while (taskSequence == lastSequence) {
+                    try {
+                        GANG_LOCK.wait();
+                    } catch (InterruptedException e) {
+                        // Ignore: GC workers are never interrupted on purpose.
+                    }
+                }
+                lastSequence = taskSequence;
+                gcTask = task;
+            }
+            runTask(gcTask, workerIndex);
+            decrementPendingWorkers();
+        }
+    }
+
+    private void decrementPendingWorkers() {
+        final Reference thisRef = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = pendingWorkers;
+        } while (thisRef.compareAndSwapInt(pendingWorkersOffset(), oldValue, oldValue - 1) != oldValue);
+    }
+
+    @HOSTED_ONLY
+    @VMLoggerInterface
+    private interface GCWorkerLoggerInterface {
+        void task(
+                        @VMLogParam(name = "interval") Interval interval,
+                        @VMLogParam(name = "workerIndex") int workerIndex,
+                        @VMLogParam(name = "taskClass") ClassActor taskClass);
+        void barrier(
+                        @VMLogParam(name = "interval") Interval interval,
+                        @VMLogParam(name = "workerIndex") int workerIndex);
+        void termination(
+                        @VMLogParam(name = "workerIndex") int workerIndex,
+                        @VMLogParam(name = "terminated") boolean terminated);
+    }
+
+    public static final class GCWorkerLogger extends GCWorkerLoggerAuto {
+        GCWorkerLogger() {
+            super("GCWorkers", "tasks, barriers and termination of the GC worker gang.");
+        }
+
+        private static void traceWorker(int workerIndex) {
+            Log.print("GC worker ");
+            Log.print(workerIndex);
+            Log.print(": ");
+        }
+
+        @Override
+        protected void traceTask(Interval interval, int workerIndex, ClassActor taskClass) {
+            traceWorker(workerIndex);
+            Log.print(interval.name());
+            Log.print(" task ");
+            Log.println(taskClass.name.string);
+        }
+
+        @Override
+        protected void traceBarrier(Interval interval, int workerIndex) {
+            traceWorker(workerIndex);
+            Log.print(interval.name());
+            Log.println(" barrier");
+        }
+
+        @Override
+        protected void traceTermination(int workerIndex, boolean terminated) {
+            traceWorker(workerIndex);
+            Log.println(terminated ? "terminated" : "resumed after offering termination");
+        }
+    }
+
+// START GENERATED CODE
+    private static abstract class GCWorkerLoggerAuto extends com.sun.max.vm.log.VMLogger {
+        public enum Operation {
+            Barrier, Task, Termination;
+
+            @SuppressWarnings("hiding")
+            public static final Operation[] VALUES = values();
+        }
+
+        private static final int[] REFMAPS = null;
+
+        protected GCWorkerLoggerAuto(String name, String optionDescription) {
+            super(name, Operation.VALUES.length, optionDescription, REFMAPS);
+        }
+
+        @Override
+        public String operationName(int opCode) {
+            return Operation.VALUES[opCode].name();
+        }
+
+        @INLINE
+        public final void logBarrier(Interval interval, int workerIndex) {
+            log(Operation.Barrier.ordinal(), intervalArg(interval), intArg(workerIndex));
+        }
+        protected abstract void traceBarrier(Interval interval, int workerIndex);
+
+        @INLINE
+        public final void logTask(Interval interval, int workerIndex, ClassActor taskClass) {
+            log(Operation.Task.ordinal(), intervalArg(interval), intArg(workerIndex), classActorArg(taskClass));
+        }
+        protected abstract void traceTask(Interval interval, int workerIndex, ClassActor taskClass);
+
+        @INLINE
+        public final void logTermination(int workerIndex, boolean terminated) {
+            log(Operation.Termination.ordinal(), intArg(workerIndex), booleanArg(terminated));
+        }
+        protected abstract void traceTermination(int workerIndex, boolean terminated);
+
+        @Override
+        protected void trace(Record r) {
+            switch (r.getOperation()) {
+                case 0: { //Barrier
+                    traceBarrier(toInterval(r, 1), toInt(r, 2));
+                    break;
+                }
+                case 1: { //Task
+                    traceTask(toInterval(r, 1), toInt(r, 2), toClassActor(r, 3));
+                    break;
+                }
+                case 2: { //Termination
+                    traceTermination(toInt(r, 1), toBoolean(r, 2));
+                    break;
+                }
+            }
+        }
+    }
+
+// END GENERATED CODE
+}
@@ -348,6 +348,14 @@ public final class Heap {
         return object;
     }
 
+    public static Object createTenuredTuple(Hub hub) {
+        final Object object = heapScheme().createTenuredTuple(hub);
+        if (MaxineVM.isDebug()) {
+            doDebugAfterCreateTuple(hub, object);
+        }
+        return object;
+    }
+
     @NEVER_INLINE
     private static void doDebugAfterCreateHybrid(Hub hub, Object hybrid) {
         allocationLogger.logUnalignedHybrid(hybrid, hub.classActor);
@@ -527,10 +535,11 @@ public final class Heap {
     private static boolean gcWaitForDisablingThreads = false;
 
     /**
-     * Disable GC. Must be paired with a subsequent call to {@link Heap#enableGC()}
+     * Disable GC. Must be paired with a subsequent call to {@link Heap#enableGC()}.
+     * Heap schemes that can only pin objects in part of the heap may use this to pin the others.
      */
     @INLINE
-    private static void disableGC() {
+    public static void disableGC() {
         final Pointer etla = ETLA.load(currentTLA());
         Pointer count = GC_DISABLING_COUNT.load(etla);
         if (count.isZero()) {
@@ -545,7 +554,7 @@ public final class Heap {
      * Enable GC. Must be paired with a previous call to {@link Heap#disableGC()}
      */
     @INLINE
-    private static void enableGC() {
+    public static void enableGC() {
         final Pointer etla = ETLA.load(currentTLA());
         Pointer count = GC_DISABLING_COUNT.load(etla);
         assert count.greaterThan(Pointer.zero()) :  "thread has not issued a GC disabling request";
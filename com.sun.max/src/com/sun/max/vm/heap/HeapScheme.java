@@ -189,6 +189,13 @@ public interface HeapScheme extends VMScheme {
      */
     Object createTuple(Hub hub);
 
+    /**
+     * Allocate a new tuple expected to be long-lived, e.g., because it comes from an allocation site whose objects
+     * were observed to survive young collections. Generational heap schemes allocate it directly in the old generation;
+     * other schemes treat it like {@link #createTuple(Hub)}.
+     */
+    Object createTenuredTuple(Hub hub);
+
     /**
      * Creates a hybrid object that is both a tuple and an array,
      * but leaving out the array part beyond the tuple for now.
@@ -290,6 +290,10 @@ public abstract class HeapSchemeAdaptor extends AbstractVMScheme implements Heap
     public void trackLifetime(Pointer cell) {
     }
 
+    public Object createTenuredTuple(Hub hub) {
+        return createTuple(hub);
+    }
+
     @Override
     public void walkHeap(CallbackCellVisitor visitor) {
     }
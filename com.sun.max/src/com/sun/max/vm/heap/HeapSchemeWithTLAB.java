@@ -40,6 +40,7 @@ import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
 import com.sun.max.vm.object.*;
+import com.sun.max.vm.profilers.sampling.HeapSamplingProfiler;
 import com.sun.max.vm.profilers.tracing.numa.NUMAProfiler;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.run.java.JavaRunScheme;
@@ -108,6 +109,21 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     private static final VMSizeOption tlabSizeOption = register(new VMSizeOption("-XX:TLABSize=", Size.K.times(64),
         "The size of thread-local allocation buffers."), MaxineVM.Phase.PRISTINE);
 
+    /**
+     * A VM option for sizing each thread's TLABs from its allocation rate. See {@link AdaptiveTLABRefillPolicy}.
+     */
+    static boolean ResizeTLAB;
+    static {
+        VMOptions.addFieldOption("-XX:", "ResizeTLAB", HeapSchemeWithTLAB.class,
+                        "Size the TLABs of each thread from its allocation rate between GCs", MaxineVM.Phase.PRISTINE);
+    }
+
+    private static final VMSizeOption minTlabSizeOption = register(new VMSizeOption("-XX:MinTLABSize=", Size.K.times(2),
+        "The minimum size of thread-local allocation buffers when they are resized."), MaxineVM.Phase.PRISTINE);
+
+    private static final VMSizeOption maxTlabSizeOption = register(new VMSizeOption("-XX:MaxTLABSize=", Size.M,
+        "The maximum size of thread-local allocation buffers when they are resized."), MaxineVM.Phase.PRISTINE);
+
     /**
      * The top of the current thread-local allocation buffer. This will remain zero if TLABs are not
      * {@linkplain #useTLAB enabled}.
@@ -161,6 +177,11 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             final Pointer etla = VmThreadLocal.ETLA.load(tla);
             final Pointer tlabMark = TLAB_MARK.load(etla);
             Pointer tlabTop = TLAB_TOP.load(etla);
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
+            if (HeapSamplingProfiler.isSamplingTLABRefills()) {
+                // Objects haven't moved yet.
+                HeapSamplingProfiler.resolvePendingSample(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()));
+            }
             if (logTLAB()) {
                 logger.logReset(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()), tlabTop, tlabMark);
             }
@@ -168,12 +189,14 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                 // TLAB's top can be null in only two cases:
                 // (1) it has never been filled, in which case it's allocation mark is null too
                 if (tlabMark.equals(Address.zero()))  {
-                    // No TLABs, so nothing to reset.
+                    // No TLABs, so nothing to reset. Still let the refill policy know the thread didn't allocate since the last reset.
+                    if (refillPolicy != null) {
+                        refillPolicy.notifyReset(Size.zero());
+                    }
                     return;
                 }
                 // (2) allocation has been disabled for the thread.
                 FatalError.check(!ALLOCATION_DISABLED.load(currentTLA()).isZero(), "inconsistent TLAB state");
-                TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
                 if (refillPolicy != null) {
                     // Go fetch the actual TLAB top in case the heap scheme needs it for its doBeforeReset handler.
                     tlabTop = refillPolicy.getSavedTlabTop().asPointer();
@@ -181,6 +204,9 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                     refillPolicy.saveTlabTop(Address.zero());
                 }
             }
+            if (refillPolicy != null) {
+                refillPolicy.notifyReset(tlabTop.greaterThan(tlabMark) ? tlabTop.minus(tlabMark).asSize() : Size.zero());
+            }
             doBeforeReset(etla, tlabMark, tlabTop);
             TLAB_TOP.store(etla, Address.zero());
             TLAB_MARK.store(etla, Address.zero());
@@ -204,6 +230,28 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         }
     };
 
+    /**
+     * Creates the refill policy of a thread. Called when the thread gets its first TLAB.
+     *
+     * @param tlabSize size of the first TLAB of the thread
+     * @return a {@link AdaptiveTLABRefillPolicy} if TLABs are {@linkplain #ResizeTLAB resized}, a {@link SimpleTLABRefillPolicy} otherwise
+     */
+    protected final TLABRefillPolicy newTLABRefillPolicy(Size tlabSize) {
+        if (ResizeTLAB) {
+            return new AdaptiveTLABRefillPolicy(tlabSize, minTlabSize, maxTlabSize(), globalTlabStats);
+        }
+        return new SimpleTLABRefillPolicy(tlabSize);
+    }
+
+    /**
+     * Returns the largest TLAB size a {@linkplain #ResizeTLAB resized} TLAB may have.
+     * Heap schemes that cannot allocate TLABs of any size must override this to bound the size.
+     */
+    protected Size maxTlabSize() {
+        final Size maxTlabSize = maxTlabSizeOption.getValue();
+        return maxTlabSize.lessThan(initialTlabSize) ? initialTlabSize : maxTlabSize;
+    }
+
     /**
      * Flags if TLABs are being used for allocation.
      */
@@ -219,6 +267,11 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
      */
     private Size initialTlabSize;
 
+    /**
+     * Smallest size of a {@linkplain #ResizeTLAB resized} TLAB.
+     */
+    private Size minTlabSize;
+
     /*
      * TLAB statistics. For now, something simple shared by all threads without synchronization.
      * Will need to get per-thread, with statistics gathered globally at safepoint,
@@ -244,6 +297,55 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
          */
         volatile long leftover = 0L;
 
+        /**
+         * Count of TLAB resizing, i.e., number of times a thread's TLAB size was recomputed by an {@link AdaptiveTLABRefillPolicy}.
+         */
+        volatile long resizeCount = 0L;
+
+        /**
+         * Sum of the TLAB sizes computed by resizing, for averaging.
+         */
+        volatile long resizedTlabBytes = 0L;
+
+        volatile long minResizedTlabSize = Long.MAX_VALUE;
+
+        volatile long maxResizedTlabSize = 0L;
+
+        /**
+         * Largest number of refills of a thread between two resizing.
+         */
+        volatile long maxRefillsBetweenResize = 0L;
+
+        /**
+         * Count of allocations done outside of the TLAB because refilling it would have wasted more than the refill waste limit.
+         */
+        volatile long wasteLimitDirectAllocationCount = 0L;
+
+        void recordResize(Size tlabSize, int refills) {
+            final long size = tlabSize.toLong();
+            resizeCount++;
+            resizedTlabBytes += size;
+            if (size < minResizedTlabSize) {
+                minResizedTlabSize = size;
+            }
+            if (size > maxResizedTlabSize) {
+                maxResizedTlabSize = size;
+            }
+            if (refills > maxRefillsBetweenResize) {
+                maxRefillsBetweenResize = refills;
+            }
+        }
+
+        private static void printSize(long size) {
+            if (size > Size.K.toLong()) {
+                Log.print(Size.K.plus(size).unsignedShiftedRight(10).toLong());
+                Log.println(" K");
+            } else {
+                Log.print(size);
+                Log.println(" bytes");
+            }
+        }
+
         void printTLABStats() {
             Log.println("\n\n Summary TLAB stats");
             Log.print("   inlined allocation slow-path count: ");
@@ -253,12 +355,20 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             Log.print("   tlab overflow count               :");
             Log.println(tlabOverflowCount);
             Log.print("   leftover at TLAB refill           :");
-            if (leftover > Size.K.toLong()) {
-                Log.print(Size.K.plus(leftover).unsignedShiftedRight(10).toLong());
-                Log.println(" K");
-            } else {
-                Log.print(leftover);
-                Log.println(" bytes");
+            printSize(leftover);
+            if (resizeCount > 0L) {
+                Log.print("   tlab resize count                 :");
+                Log.println(resizeCount);
+                Log.print("   average resized tlab size         :");
+                printSize(resizedTlabBytes / resizeCount);
+                Log.print("   min resized tlab size             :");
+                printSize(minResizedTlabSize);
+                Log.print("   max resized tlab size             :");
+                printSize(maxResizedTlabSize);
+                Log.print("   max refills between resize        :");
+                Log.println(maxRefillsBetweenResize);
+                Log.print("   allocations over waste limit      :");
+                Log.println(wasteLimitDirectAllocationCount);
             }
         }
     }
@@ -282,6 +392,10 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             if (initialTlabSize.lessThan(0)) {
                 FatalError.unexpected("Specified TLAB size is too small");
             }
+            minTlabSize = minTlabSizeOption.getValue();
+            if (minTlabSize.greaterThan(initialTlabSize)) {
+                minTlabSize = initialTlabSize;
+            }
         } else if (phase == MaxineVM.Phase.RUNNING) {
             HeapSchemeWithTLAB.setTraceTLAB(false);
         } else if (phase == MaxineVM.Phase.TERMINATING) {
@@ -382,6 +496,10 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         if (!allocationMark.isZero()) {
             final Pointer oldTop = TLAB_TOP.load(etla);
             globalTlabStats.leftover += oldTop.minus(allocationMark).toLong();
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
+            if (refillPolicy != null) {
+                refillPolicy.notifyRefill(size, oldTop.greaterThan(allocationMark) ? oldTop.minus(allocationMark).asSize() : Size.zero());
+            }
             // It is a refill, not an initial fill. So invoke handler.
             doBeforeTLABRefill(allocationMark, oldTop);
         } else {
@@ -553,10 +671,30 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             return customAllocate(customAllocator, size);
         }
         globalTlabStats.tlabOverflowCount++;
+        if (HeapSamplingProfiler.isSamplingTLABRefills()) {
+            return sampledTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
+        }
         // This path will always be taken if TLAB allocation is not enabled.
         return handleTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
     }
 
+    /**
+     * Handles a TLAB overflow and lets the {@linkplain HeapSamplingProfiler heap sampling profiler} sample it.
+     * The sample of the previous refill is resolved first, as its object is initialized by now.
+     */
+    @NEVER_INLINE
+    @NO_SAFEPOINT_POLLS("sampled object must not move before its hub is planted")
+    private Pointer sampledTLABOverflow(Size size, Pointer etla, Pointer oldAllocationMark, Pointer tlabEnd) {
+        final HeapSamplingProfiler.TLABSampleBuffer buffer = UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()).tlabSampleBuffer();
+        if (buffer == null) {
+            return handleTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
+        }
+        buffer.resolvePendingSample();
+        final Pointer cell = handleTLABOverflow(size, etla, oldAllocationMark, tlabEnd);
+        buffer.notifyRefill(oldAllocationMark, TLAB_MARK.load(etla), size, cell);
+        return cell;
+    }
+
     @NEVER_INLINE
     private void checkAllocationEnabled(Size size) {
         if (!ALLOCATION_DISABLED.load(currentTLA()).isZero()) {
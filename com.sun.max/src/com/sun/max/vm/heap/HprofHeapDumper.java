@@ -0,0 +1,696 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import sun.misc.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * Dumps the heap to a file in the HPROF binary format read by heap analyzers such as Eclipse MAT or VisualVM.
+ * <p>
+ * A dump is requested with {@link #dumpHeap(String, boolean)}, which is called by the {@code HotSpotDiagnosticMXBean.dumpHeap} operation,
+ * on {@code SIGQUIT} if {@link #HeapDumpOnCtrlBreak} is set, and on the first {@link OutOfMemoryError} if {@link #HeapDumpOnOutOfMemoryError} is set.
+ * <p>
+ * The dump is taken by the VM operation thread with all other threads stopped. It is a {@link GCOperation} so that the stack reference maps of the
+ * stopped threads are prepared, which lets the references on their stacks be reported as roots. Objects are enumerated by
+ * {@linkplain HeapScheme#walkHeap(CallbackCellVisitor) walking the heap}, once for the classes and once for the objects. Records are written
+ * into a fixed-size buffer in native memory that is flushed to the file whenever full, so the dump never allocates from the heap and its
+ * memory footprint is independent of the size of the heap.
+ * <p>
+ * Object identifiers are the origins of the objects, and class identifiers the origins of the {@linkplain DynamicHub dynamic hubs} of the classes.
+ * Hubs and static tuples aren't dumped as objects: their content is described by the class records. Objects of the boot and immortal heaps
+ * are reported as roots, as they are never collected.
+ */
+public final class HprofHeapDumper extends GCOperation {
+    static boolean HeapDumpOnCtrlBreak;
+    static boolean HeapDumpOnOutOfMemoryError;
+    static String HeapDumpPath;
+    static int HeapDumpBufferSize = 1024 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "HeapDumpOnCtrlBreak", HprofHeapDumper.class,
+                        "Dump the heap in HPROF format when the VM receives SIGQUIT", Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "HeapDumpOnOutOfMemoryError", HprofHeapDumper.class,
+                        "Dump the heap in HPROF format when the first OutOfMemoryError is thrown", Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "HeapDumpPath", HprofHeapDumper.class,
+                        "File heap dumps are written to (default: java_pid<pid>.hprof)", Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "HeapDumpBufferSize", HprofHeapDumper.class,
+                        "Size in bytes of the native buffer heap dumps are written through", Phase.STARTING);
+    }
+
+    // Record tags.
+    private static final int HPROF_UTF8 = 0x01;
+    private static final int HPROF_LOAD_CLASS = 0x02;
+    private static final int HPROF_TRACE = 0x05;
+    private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1C;
+    private static final int HPROF_HEAP_DUMP_END = 0x2C;
+
+    // Heap dump sub-record tags.
+    private static final int HPROF_GC_ROOT_UNKNOWN = 0xFF;
+    private static final int HPROF_GC_ROOT_JAVA_FRAME = 0x03;
+    private static final int HPROF_GC_ROOT_STICKY_CLASS = 0x05;
+    private static final int HPROF_GC_ROOT_THREAD_OBJ = 0x08;
+    private static final int HPROF_GC_CLASS_DUMP = 0x20;
+    private static final int HPROF_GC_INSTANCE_DUMP = 0x21;
+    private static final int HPROF_GC_OBJ_ARRAY_DUMP = 0x22;
+    private static final int HPROF_GC_PRIM_ARRAY_DUMP = 0x23;
+
+    // Basic types.
+    private static final int HPROF_NORMAL_OBJECT = 2;
+    private static final int HPROF_BOOLEAN = 4;
+    private static final int HPROF_CHAR = 5;
+    private static final int HPROF_FLOAT = 6;
+    private static final int HPROF_DOUBLE = 7;
+    private static final int HPROF_BYTE = 8;
+    private static final int HPROF_SHORT = 9;
+    private static final int HPROF_INT = 10;
+    private static final int HPROF_LONG = 11;
+
+    /**
+     * Serial number of the single, empty, stack trace of the dump.
+     */
+    private static final int STACK_TRACE_SERIAL = 1;
+
+    /**
+     * Heap dump segments are closed once they exceed this size, well below the 4 GB limit of their length field.
+     */
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * The dumper, created in the boot image: a dump on {@link OutOfMemoryError} must not allocate from the exhausted heap.
+     */
+    private static final HprofHeapDumper dumper = new HprofHeapDumper();
+
+    private static boolean dumpedOnOutOfMemoryError;
+
+    @C_FUNCTION
+    private static native int hprof_open(Pointer path);
+
+    @C_FUNCTION
+    private static native int hprof_write(int fd, Pointer buffer, int length);
+
+    @C_FUNCTION
+    private static native int hprof_write_at(int fd, long offset, Pointer buffer, int length);
+
+    @C_FUNCTION
+    private static native int hprof_close(int fd);
+
+    /**
+     * Dumps the heap to a file.
+     *
+     * @param path the file to write, or {@code null} for a file named {@code java_pid<pid>.hprof} in the current directory
+     * @param live if {@code true}, collect garbage first so that mostly live objects are dumped
+     * @return {@code true} if the heap was dumped
+     */
+    public static boolean dumpHeap(String path, boolean live) {
+        if (live) {
+            System.gc();
+        }
+        // Serialize with garbage collections.
+        Heap.lock();
+        try {
+            dumper.path = path;
+            dumper.submit();
+            return dumper.succeeded;
+        } finally {
+            Heap.unlock();
+        }
+    }
+
+    /**
+     * Dumps the heap to the {@linkplain #HeapDumpPath default file} if {@link #HeapDumpOnOutOfMemoryError} is set
+     * and the heap wasn't already dumped on an {@link OutOfMemoryError}.
+     */
+    public static void notifyOutOfMemoryError() {
+        if (!HeapDumpOnOutOfMemoryError || dumpedOnOutOfMemoryError) {
+            return;
+        }
+        final VmThread current = VmThread.current();
+        if (current.isVmOperationThread() || current.isGCWorkerThread()) {
+            // The error was thrown by a VM operation, possibly a GC. A dump can't be nested in it.
+            return;
+        }
+        dumpedOnOutOfMemoryError = true;
+        dumpHeap(HeapDumpPath, false);
+    }
+
+    /**
+     * Installs a {@code SIGQUIT} handler dumping the heap if {@link #HeapDumpOnCtrlBreak} is set.
+     * The handler also runs the handler it replaces.
+     */
+    public static void installCtrlBreakHandler() {
+        if (HeapDumpOnCtrlBreak) {
+            final CtrlBreakHandler handler = new CtrlBreakHandler();
+            handler.previous = Signal.handle(new Signal("QUIT"), handler);
+        }
+    }
+
+    static final class CtrlBreakHandler implements SignalHandler {
+        SignalHandler previous;
+
+        public void handle(Signal signal) {
+            if (previous != null && previous != SignalHandler.SIG_DFL && previous != SignalHandler.SIG_IGN) {
+                previous.handle(signal);
+            }
+            dumpHeap(HeapDumpPath, false);
+        }
+    }
+
+    /**
+     * Visits the objects of the heap, writing the class records on the first pass, and the heap dump sub-records on the second.
+     */
+    final class ObjectVisitor extends CallbackCellVisitor {
+        boolean dumpObjects;
+
+        @Override
+        protected boolean callback(Object object) {
+            final Pointer origin = Reference.fromJava(object).toOrigin();
+            final Hub hub = UnsafeCast.asHub(Layout.readHubReference(origin).toJava());
+            if (hub == dynamicHubHub()) {
+                final DynamicHub classHub = UnsafeCast.asDynamicHub(object);
+                if (!classHub.classActor.isPrimitiveClassActor()) {
+                    if (dumpObjects) {
+                        writeClassDump(origin, classHub.classActor);
+                    } else {
+                        writeClassRecords(origin, classHub.classActor);
+                    }
+                }
+            } else if (dumpObjects && !hub.classActor.isHybridClass() && !(hub instanceof StaticHub) && !isFreeSpace(hub)) {
+                if (Heap.bootHeapRegion.contains(origin) || ImmortalHeap.contains(origin)) {
+                    startSubRecord(HPROF_GC_ROOT_UNKNOWN);
+                    id(origin);
+                }
+                if (hub.classActor.isArrayClass()) {
+                    writeArrayDump(origin, hub);
+                } else {
+                    writeInstanceDump(origin, hub);
+                }
+            }
+            return !failed;
+        }
+    }
+
+    /**
+     * Reports the references found on the stack and in the thread locals of a thread as roots.
+     */
+    final class StackRootVisitor extends PointerIndexVisitor {
+        int threadSerial;
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            final Pointer origin = pointer.getReference(wordIndex).toOrigin();
+            if (!origin.isZero()) {
+                startSubRecord(HPROF_GC_ROOT_JAVA_FRAME);
+                id(origin);
+                u4(threadSerial);
+                u4(-1);
+            }
+        }
+    }
+
+    private final ObjectVisitor objectVisitor = new ObjectVisitor();
+
+    private final StackRootVisitor stackRootVisitor = new StackRootVisitor();
+
+    /**
+     * File to write, or {@code null} for the default file.
+     */
+    private String path;
+
+    private boolean succeeded;
+
+    /**
+     * Set when writing to the file failed. Nothing is written once set.
+     */
+    private boolean failed;
+
+    private int fd;
+
+    private Pointer buffer = Pointer.zero();
+
+    private int bufferSize;
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int position;
+
+    /**
+     * Number of bytes flushed to the file.
+     */
+    private long fileOffset;
+
+    /**
+     * File offset of the first sub-record of the current heap dump segment.
+     */
+    private long segmentStart;
+
+    private HprofHeapDumper() {
+        super("HprofHeapDumper");
+    }
+
+    @FOLD
+    private static Hub dynamicHubHub() {
+        return ClassActor.fromJava(DynamicHub.class).dynamicHub();
+    }
+
+    @INLINE
+    private static boolean isFreeSpace(Hub hub) {
+        return hub == HeapFreeChunk.heapFreeChunkHub() || DarkMatter.isDarkMatterHub(Reference.fromJava(hub).toOrigin());
+    }
+
+    @Override
+    public void doIt() {
+        dump();
+    }
+
+    @Override
+    protected void collect(int invocationCount) {
+        dump();
+    }
+
+    private void dump() {
+        succeeded = false;
+        failed = false;
+        position = 0;
+        fileOffset = 0L;
+        bufferSize = HeapDumpBufferSize < MIN_BUFFER_SIZE ? MIN_BUFFER_SIZE : HeapDumpBufferSize;
+        buffer = Memory.allocate(Size.fromInt(bufferSize));
+        if (buffer.isZero()) {
+            Log.println("Could not allocate heap dump buffer");
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        fd = openFile();
+        if (fd >= 0) {
+            writeHeader(startTime);
+            objectVisitor.dumpObjects = false;
+            vmConfig().heapScheme().walkHeap(objectVisitor);
+
+            beginSegment();
+            doAllThreads();
+            objectVisitor.dumpObjects = true;
+            vmConfig().heapScheme().walkHeap(objectVisitor);
+            endSegment();
+
+            startRecord(HPROF_HEAP_DUMP_END, 0);
+            flush();
+            if (hprof_close(fd) != 0) {
+                failed = true;
+            }
+            succeeded = !failed;
+            final boolean lockDisabledSafepoints = Log.lock();
+            if (succeeded) {
+                Log.print("Heap dump file created [");
+                Log.print(fileOffset);
+                Log.print(" bytes in ");
+                Log.print(System.currentTimeMillis() - startTime);
+                Log.println(" ms]");
+            } else {
+                Log.println("Heap dump failed: error writing heap dump file");
+            }
+            Log.unlock(lockDisabledSafepoints);
+        }
+        Memory.deallocate(buffer);
+        buffer = Pointer.zero();
+    }
+
+    /**
+     * Opens the heap dump file. The UTF-8 encoded path is passed to the native code through the buffer.
+     */
+    private int openFile() {
+        if (path == null) {
+            buffer.writeByte(0, (byte) 0);
+        } else {
+            final int length = path.length();
+            if (utf8Length(path, 0, length) >= bufferSize) {
+                Log.println("Heap dump path too long");
+                return -1;
+            }
+            writeUtf8(path, 0, length);
+            u1(0);
+            position = 0;
+        }
+        return hprof_open(buffer);
+    }
+
+    @Override
+    protected void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
+        final int threadSerial = vmThread.id();
+        final Thread thread = vmThread.javaThread();
+        if (thread != null) {
+            startSubRecord(HPROF_GC_ROOT_THREAD_OBJ);
+            id(Reference.fromJava(thread).toOrigin());
+            u4(threadSerial);
+            u4(STACK_TRACE_SERIAL);
+        }
+        stackRootVisitor.threadSerial = threadSerial;
+        VmThreadLocal.scanReferences(vmThread.tla(), stackRootVisitor);
+    }
+
+    private void writeHeader(long time) {
+        final String format = "JAVA PROFILE 1.0.2";
+        writeUtf8(format, 0, format.length());
+        u1(0);
+        u4(Word.size());
+        u8(time);
+
+        startRecord(HPROF_TRACE, 12);
+        u4(STACK_TRACE_SERIAL);
+        u4(0);
+        u4(0);
+    }
+
+    /**
+     * Writes the name of a class and of its fields, and the record loading the class.
+     */
+    private void writeClassRecords(Pointer hubOrigin, ClassActor classActor) {
+        final String name = classActor.typeDescriptor.string;
+        final int start = name.charAt(0) == 'L' ? 1 : 0;
+        final int end = start == 1 ? name.length() - 1 : name.length();
+        final Pointer nameId = Reference.fromJava(classActor.typeDescriptor).toOrigin();
+        startRecord(HPROF_UTF8, Word.size() + utf8Length(name, start, end));
+        id(nameId);
+        writeUtf8(name, start, end);
+        writeFieldNames(classActor.localInstanceFieldActors());
+        writeFieldNames(classActor.localStaticFieldActors());
+
+        startRecord(HPROF_LOAD_CLASS, 8 + 2 * Word.size());
+        u4(classActor.id + 1);
+        id(hubOrigin);
+        u4(STACK_TRACE_SERIAL);
+        id(nameId);
+    }
+
+    private void writeFieldNames(FieldActor[] fieldActors) {
+        for (FieldActor fieldActor : fieldActors) {
+            final String name = fieldActor.name.string;
+            startRecord(HPROF_UTF8, Word.size() + utf8Length(name, 0, name.length()));
+            id(Reference.fromJava(fieldActor.name).toOrigin());
+            writeUtf8(name, 0, name.length());
+        }
+    }
+
+    private void writeClassDump(Pointer hubOrigin, ClassActor classActor) {
+        startSubRecord(HPROF_GC_ROOT_STICKY_CLASS);
+        id(hubOrigin);
+
+        startSubRecord(HPROF_GC_CLASS_DUMP);
+        id(hubOrigin);
+        u4(STACK_TRACE_SERIAL);
+        final ClassActor superClassActor = classActor.superClassActor;
+        id(superClassActor == null ? Pointer.zero() : Reference.fromJava(superClassActor.dynamicHub()).toOrigin());
+        id(Reference.fromJava(classActor.classLoader).toOrigin());
+        // Signers, protection domain and two reserved identifiers.
+        id(Pointer.zero());
+        id(Pointer.zero());
+        id(Pointer.zero());
+        id(Pointer.zero());
+        u4(classActor.isArrayClass() ? 0 : instanceFieldBytes(classActor));
+        // Constant pool.
+        u2(0);
+
+        final Object staticTuple = classActor.staticTuple();
+        final FieldActor[] staticFieldActors = staticTuple == null ? null : classActor.localStaticFieldActors();
+        if (staticFieldActors == null) {
+            u2(0);
+        } else {
+            final Pointer staticTupleOrigin = Reference.fromJava(staticTuple).toOrigin();
+            u2(staticFieldActors.length);
+            for (FieldActor fieldActor : staticFieldActors) {
+                id(Reference.fromJava(fieldActor.name).toOrigin());
+                u1(basicType(fieldActor.kind));
+                writeValue(fieldActor.kind, staticTupleOrigin, fieldActor.offset());
+            }
+        }
+
+        final FieldActor[] instanceFieldActors = classActor.localInstanceFieldActors();
+        u2(instanceFieldActors.length);
+        for (FieldActor fieldActor : instanceFieldActors) {
+            id(Reference.fromJava(fieldActor.name).toOrigin());
+            u1(basicType(fieldActor.kind));
+        }
+    }
+
+    /**
+     * Number of bytes of the field values of an instance dump of a class.
+     */
+    private static int instanceFieldBytes(ClassActor classActor) {
+        int bytes = 0;
+        for (ClassActor holder = classActor; holder != null; holder = holder.superClassActor) {
+            for (FieldActor fieldActor : holder.localInstanceFieldActors()) {
+                bytes += valueSize(fieldActor.kind);
+            }
+        }
+        return bytes;
+    }
+
+    private void writeInstanceDump(Pointer origin, Hub hub) {
+        final ClassActor classActor = hub.classActor;
+        startSubRecord(HPROF_GC_INSTANCE_DUMP);
+        id(origin);
+        u4(STACK_TRACE_SERIAL);
+        id(Reference.fromJava(classActor.dynamicHub()).toOrigin());
+        u4(instanceFieldBytes(classActor));
+        for (ClassActor holder = classActor; holder != null; holder = holder.superClassActor) {
+            for (FieldActor fieldActor : holder.localInstanceFieldActors()) {
+                writeValue(fieldActor.kind, origin, fieldActor.offset());
+            }
+        }
+    }
+
+    private void writeArrayDump(Pointer origin, Hub hub) {
+        final ArrayLayout arrayLayout = (ArrayLayout) hub.specificLayout;
+        final Kind elementKind = arrayLayout.elementKind();
+        final int length = Layout.readArrayLength(origin);
+        if (elementKind.asEnum == KindEnum.REFERENCE) {
+            startSubRecord(HPROF_GC_OBJ_ARRAY_DUMP);
+            id(origin);
+            u4(STACK_TRACE_SERIAL);
+            u4(length);
+            id(Reference.fromJava(hub.classActor.dynamicHub()).toOrigin());
+            for (int i = 0; i < length; i++) {
+                id(Layout.getReference(origin, i).toOrigin());
+            }
+        } else {
+            startSubRecord(HPROF_GC_PRIM_ARRAY_DUMP);
+            id(origin);
+            u4(STACK_TRACE_SERIAL);
+            u4(length);
+            u1(basicType(elementKind));
+            final int elementSize = valueSize(elementKind);
+            int offset = arrayLayout.getElementOffsetFromOrigin(0).toInt();
+            for (int i = 0; i < length; i++) {
+                switch (elementSize) {
+                    case 1:
+                        u1(origin.readByte(offset));
+                        break;
+                    case 2:
+                        u2(origin.readShort(offset));
+                        break;
+                    case 4:
+                        u4(origin.readInt(offset));
+                        break;
+                    default:
+                        u8(origin.readLong(offset));
+                        break;
+                }
+                offset += elementSize;
+            }
+        }
+    }
+
+    private static int basicType(Kind kind) {
+        switch (kind.asEnum) {
+            case BOOLEAN:
+                return HPROF_BOOLEAN;
+            case BYTE:
+                return HPROF_BYTE;
+            case CHAR:
+                return HPROF_CHAR;
+            case SHORT:
+                return HPROF_SHORT;
+            case INT:
+                return HPROF_INT;
+            case FLOAT:
+                return HPROF_FLOAT;
+            case LONG:
+                return HPROF_LONG;
+            case DOUBLE:
+                return HPROF_DOUBLE;
+            case WORD:
+                // Words are not references: report them as integers of the same width.
+                return Word.size() == 8 ? HPROF_LONG : HPROF_INT;
+            default:
+                return HPROF_NORMAL_OBJECT;
+        }
+    }
+
+    @INLINE
+    private static int valueSize(Kind kind) {
+        return kind.isReference ? Word.size() : kind.width.numberOfBytes;
+    }
+
+    private void writeValue(Kind kind, Pointer origin, int offset) {
+        switch (valueSize(kind)) {
+            case 1:
+                u1(origin.readByte(offset));
+                break;
+            case 2:
+                u2(origin.readShort(offset));
+                break;
+            case 4:
+                if (kind.isReference) {
+                    id(origin.readReference(offset).toOrigin());
+                } else {
+                    u4(origin.readInt(offset));
+                }
+                break;
+            default:
+                if (kind.isReference) {
+                    id(origin.readReference(offset).toOrigin());
+                } else {
+                    u8(origin.readLong(offset));
+                }
+                break;
+        }
+    }
+
+    private void startRecord(int tag, int length) {
+        u1(tag);
+        // Microseconds since the time stamp of the header.
+        u4(0);
+        u4(length);
+    }
+
+    private void beginSegment() {
+        startRecord(HPROF_HEAP_DUMP_SEGMENT, 0);
+        segmentStart = fileOffset + position;
+    }
+
+    /**
+     * Closes the current heap dump segment, patching its length in the file.
+     */
+    private void endSegment() {
+        flush();
+        if (failed) {
+            return;
+        }
+        final int length = (int) (fileOffset - segmentStart);
+        u4(length);
+        if (hprof_write_at(fd, segmentStart - 4, buffer, 4) != 0) {
+            failed = true;
+        }
+        position = 0;
+    }
+
+    /**
+     * Starts a heap dump sub-record, first opening a new segment if the current one is full.
+     */
+    private void startSubRecord(int tag) {
+        if (fileOffset + position - segmentStart >= MAX_SEGMENT_BYTES) {
+            endSegment();
+            beginSegment();
+        }
+        u1(tag);
+    }
+
+    private void flush() {
+        if (position > 0 && !failed) {
+            if (hprof_write(fd, buffer, position) != 0) {
+                failed = true;
+            }
+            fileOffset += position;
+        }
+        position = 0;
+    }
+
+    @INLINE
+    private void u1(int value) {
+        if (position == bufferSize) {
+            flush();
+        }
+        buffer.writeByte(position++, (byte) value);
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void u4(int value) {
+        u2(value >> 16);
+        u2(value);
+    }
+
+    private void u8(long value) {
+        u4((int) (value >>> 32));
+        u4((int) value);
+    }
+
+    private void id(Word value) {
+        if (Word.size() == 8) {
+            u8(value.asAddress().toLong());
+        } else {
+            u4(value.asAddress().toInt());
+        }
+    }
+
+    private static int utf8Length(String s, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    private void writeUtf8(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                u1(c);
+            } else if (c < 0x800) {
+                u1(0xC0 | (c >> 6));
+                u1(0x80 | (c & 0x3F));
+            } else {
+                u1(0xE0 | (c >> 12));
+                u1(0x80 | ((c >> 6) & 0x3F));
+                u1(0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.log.*;
+import com.sun.max.vm.log.VMLog.Record;
+import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Per-class histogram of the objects found live by the last garbage collection, accumulated as a by-product of marking or evacuation.
+ * <p>
+ * A collection that supports the histogram brackets its tracing with {@link #begin(String)} and {@link #end()}, and reports every live
+ * object it traces with {@link #record(int, Hub, Size)}. Each GC worker accumulates counts in its own table, indexed by
+ * {@linkplain ClassActor#id class identifier}. Tables are merged into the published histogram when the collection ends. Objects
+ * of classes whose identifier is beyond the {@linkplain #LiveClassHistogramSize size} of the tables are accounted to a single overflow entry.
+ * <p>
+ * What the histogram covers depends on the collection that published it: all the live objects of the traced area for a full marking,
+ * the survivors of the evacuated area for an evacuation.
+ * Tables are in native memory allocated on first use, so recording never allocates from the heap.
+ * <p>
+ * The classes with the most live bytes are recorded in the {@link VMLog} after each collection if the {@link #logger} is enabled
+ * ({@code -XX:+LogLiveClassHistogram}, or {@code -XX:+TraceLiveClassHistogram} to also print them).
+ */
+public final class LiveClassHistogram {
+    static boolean CollectLiveClassHistogram;
+    static int LiveClassHistogramSize = 8192;
+    static int LiveClassHistogramTop = 20;
+    static {
+        VMOptions.addFieldOption("-XX:", "CollectLiveClassHistogram", LiveClassHistogram.class,
+                        "Collect a per-class histogram of live objects during marking and evacuation", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LiveClassHistogramSize", LiveClassHistogram.class,
+                        "Number of class identifiers tracked individually by the live class histogram", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LiveClassHistogramTop", LiveClassHistogram.class,
+                        "Number of classes logged after each GC by -XX:+LogLiveClassHistogram", Phase.PRISTINE);
+    }
+
+    public static final LiveClassHistogramLogger logger = new LiveClassHistogramLogger();
+
+    /**
+     * Number of words per entry of a table: an object count and a number of bytes.
+     */
+    private static final int ENTRY_WORDS = 2;
+
+    /**
+     * Number of entries of a table, including the overflow entry.
+     */
+    private static int numEntries;
+
+    /**
+     * Per-worker tables, allocated contiguously.
+     */
+    private static Pointer workerTables = Pointer.zero();
+
+    /**
+     * Number of worker tables.
+     */
+    private static int numWorkerTables;
+
+    /**
+     * The histogram published by the last collection that recorded one.
+     */
+    private static Pointer publishedTable = Pointer.zero();
+
+    /**
+     * Description of the collection that published the histogram.
+     */
+    private static String publishedSource;
+
+    /**
+     * Number of histograms published so far.
+     */
+    private static long publicationCount;
+
+    /**
+     * Description of the collection currently recording a histogram, or null if none.
+     */
+    private static String recordingSource;
+
+    private LiveClassHistogram() {
+    }
+
+    /**
+     * Indicates whether the VM collects live class histograms.
+     */
+    public static boolean isEnabled() {
+        return CollectLiveClassHistogram || logger.enabled();
+    }
+
+    /**
+     * Indicates whether a collection is currently recording a histogram.
+     */
+    @INLINE
+    public static boolean isRecording() {
+        return recordingSource != null;
+    }
+
+    @INLINE
+    private static int tableWords() {
+        return numEntries * ENTRY_WORDS;
+    }
+
+    /**
+     * Start recording the histogram of a collection. Does nothing if histograms aren't collected.
+     * Must be called by the VM operation thread while mutators are stopped.
+     *
+     * @param source description of the collection
+     */
+    public static void begin(String source) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (workerTables.isZero()) {
+            numEntries = (LiveClassHistogramSize < 1 ? 1 : LiveClassHistogramSize) + 1;
+            numWorkerTables = GCWorkerGang.theGang().numConfiguredWorkers();
+            final Size tableSize = Size.fromInt(tableWords()).shiftedLeft(Word.widthValue().log2numberOfBytes);
+            workerTables = Memory.allocate(tableSize.times(numWorkerTables));
+            publishedTable = Memory.allocate(tableSize);
+            if (workerTables.isZero() || publishedTable.isZero()) {
+                FatalError.unexpected("Failed to allocate live class histogram");
+            }
+            Memory.clearWords(publishedTable, tableWords());
+        }
+        Memory.clearWords(workerTables, tableWords() * numWorkerTables);
+        recordingSource = source;
+    }
+
+    /**
+     * Record a live object. Must only be called while {@linkplain #isRecording() recording}.
+     *
+     * @param workerIndex index of the GC worker that traced the object, in the range [0, {@link GCWorkerGang#numConfiguredWorkers()}[
+     * @param hub the hub of the object
+     * @param size the size of the object's cell
+     */
+    @INLINE
+    public static void record(int workerIndex, Hub hub, Size size) {
+        int id = hub.classActor.id;
+        if (id >= numEntries - 1) {
+            id = numEntries - 1;
+        }
+        final Pointer entry = workerTables.plusWords(workerIndex * tableWords() + id * ENTRY_WORDS);
+        entry.setLong(0, entry.getLong(0) + 1);
+        entry.setLong(1, entry.getLong(1) + size.toLong());
+    }
+
+    /**
+     * Merge the tables of the workers into the published histogram and stop recording.
+     * Logs the histogram if the {@link #logger} is enabled.
+     */
+    public static void end() {
+        if (!isRecording()) {
+            return;
+        }
+        final int tableWords = tableWords();
+        for (int i = 0; i < tableWords; i++) {
+            long sum = 0L;
+            for (int w = 0; w < numWorkerTables; w++) {
+                sum += workerTables.getLong(w * tableWords + i);
+            }
+            publishedTable.setLong(i, sum);
+        }
+        publishedSource = recordingSource;
+        publicationCount++;
+        recordingSource = null;
+        if (logger.enabled()) {
+            logPublished();
+        }
+    }
+
+    /**
+     * Number of histograms published so far.
+     */
+    public static long publicationCount() {
+        return publicationCount;
+    }
+
+    /**
+     * Description of the collection that published the current histogram, or null if none was published yet.
+     */
+    public static String publishedSource() {
+        return publishedSource;
+    }
+
+    /**
+     * Copy the published histogram. Classes without live objects are skipped. Arrays too short for all the classes of the histogram are filled up.
+     * Safepoints are disabled during the copy so that the histogram isn't updated concurrently.
+     *
+     * @param classIDs the identifiers of the classes, or {@link ClassIDManager#NULL_CLASS_ID} for the overflow entry
+     * @param counts the number of live objects of each class
+     * @param bytes the number of live bytes of each class
+     * @return the number of classes with live objects in the histogram
+     */
+    public static int copyPublished(int [] classIDs, long [] counts, long [] bytes) {
+        if (publishedTable.isZero()) {
+            return 0;
+        }
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        int numClasses = 0;
+        for (int id = 0; id < numEntries; id++) {
+            final long count = publishedTable.getLong(id * ENTRY_WORDS);
+            if (count != 0L) {
+                if (numClasses < classIDs.length) {
+                    classIDs[numClasses] = id == numEntries - 1 ? ClassIDManager.NULL_CLASS_ID : id;
+                    counts[numClasses] = count;
+                    bytes[numClasses] = publishedTable.getLong(id * ENTRY_WORDS + 1);
+                }
+                numClasses++;
+            }
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return numClasses;
+    }
+
+    /**
+     * Log the classes with the most live bytes in the published histogram, largest first.
+     */
+    private static void logPublished() {
+        logger.logHistogram(publishedSource);
+        long totalCount = 0L;
+        long totalBytes = 0L;
+        for (int id = 0; id < numEntries; id++) {
+            totalCount += publishedTable.getLong(id * ENTRY_WORDS);
+            totalBytes += publishedTable.getLong(id * ENTRY_WORDS + 1);
+        }
+        // Selection of the largest entries: the histogram is small and the top is short, so repeated scans are good enough.
+        long previousBytes = Long.MAX_VALUE;
+        int previousId = -1;
+        for (int n = 0; n < LiveClassHistogramTop; n++) {
+            int maxId = -1;
+            long maxBytes = 0L;
+            for (int id = 0; id < numEntries; id++) {
+                final long bytes = publishedTable.getLong(id * ENTRY_WORDS + 1);
+                // Entries are ordered by decreasing bytes, then increasing identifier.
+                final boolean beforePrevious = bytes < previousBytes || (bytes == previousBytes && id > previousId);
+                if (bytes > maxBytes && beforePrevious) {
+                    maxId = id;
+                    maxBytes = bytes;
+                }
+            }
+            if (maxId < 0) {
+                break;
+            }
+            final int classID = maxId == numEntries - 1 ? ClassIDManager.NULL_CLASS_ID : maxId;
+            logger.logClassEntry(classID, publishedTable.getLong(maxId * ENTRY_WORDS), maxBytes);
+            previousBytes = maxBytes;
+            previousId = maxId;
+        }
+        logger.logTotal(totalCount, totalBytes);
+    }
+
+    @HOSTED_ONLY
+    @VMLoggerInterface
+    private interface LiveClassHistogramLoggerInterface {
+        void histogram(
+            @VMLogParam(name = "source") String source);
+
+        void classEntry(
+            @VMLogParam(name = "classID") int classID,
+            @VMLogParam(name = "count") long count,
+            @VMLogParam(name = "bytes") long bytes);
+
+        void total(
+            @VMLogParam(name = "count") long count,
+            @VMLogParam(name = "bytes") long bytes);
+    }
+
+    public static final class LiveClassHistogramLogger extends LiveClassHistogramLoggerAuto {
+        LiveClassHistogramLogger() {
+            super("LiveClassHistogram", "classes with the most live bytes after each GC (implies -XX:+CollectLiveClassHistogram)");
+        }
+
+        @Override
+        protected void traceHistogram(String source) {
+            Log.print("--Live class histogram (");
+            Log.print(source);
+            Log.println(")--");
+        }
+
+        @Override
+        protected void traceClassEntry(int classID, long count, long bytes) {
+            Log.print("  ");
+            Log.print(bytes);
+            Log.print(" bytes, ");
+            Log.print(count);
+            Log.print(" objects: ");
+            if (classID == ClassIDManager.NULL_CLASS_ID) {
+                Log.println("<classes beyond the histogram size>");
+            } else {
+                final ClassActor classActor = ClassIDManager.toClassActor(classID);
+                Log.println(classActor == null ? "<unknown class>" : classActor.name.string);
+            }
+        }
+
+        @Override
+        protected void traceTotal(long count, long bytes) {
+            Log.print("  Total: ");
+            Log.print(bytes);
+            Log.print(" bytes, ");
+            Log.print(count);
+            Log.println(" objects");
+        }
+    }
+
+// START GENERATED CODE
+    private static abstract class LiveClassHistogramLoggerAuto extends com.sun.max.vm.log.VMLogger {
+        public enum Operation {
+            ClassEntry, Histogram, Total;
+
+            @SuppressWarnings("hiding")
+            public static final Operation[] VALUES = values();
+        }
+
+        private static final int[] REFMAPS = new int[] {0x0, 0x1, 0x0};
+
+        protected LiveClassHistogramLoggerAuto(String name, String optionDescription) {
+            super(name, Operation.VALUES.length, optionDescription, REFMAPS);
+        }
+
+        @Override
+        public String operationName(int opCode) {
+            return Operation.VALUES[opCode].name();
+        }
+
+        @INLINE
+        public final void logClassEntry(int classID, long count, long bytes) {
+            log(Operation.ClassEntry.ordinal(), intArg(classID), longArg(count), longArg(bytes));
+        }
+        protected abstract void traceClassEntry(int classID, long count, long bytes);
+
+        @INLINE
+        public final void logHistogram(String source) {
+            log(Operation.Histogram.ordinal(), objectArg(source));
+        }
+        protected abstract void traceHistogram(String source);
+
+        @INLINE
+        public final void logTotal(long count, long bytes) {
+            log(Operation.Total.ordinal(), longArg(count), longArg(bytes));
+        }
+        protected abstract void traceTotal(long count, long bytes);
+
+        @Override
+        protected void trace(Record r) {
+            switch (r.getOperation()) {
+                case 0: { //ClassEntry
+                    traceClassEntry(toInt(r, 1), toLong(r, 2), toLong(r, 3));
+                    break;
+                }
+                case 1: { //Histogram
+                    traceHistogram(toString(r, 1));
+                    break;
+                }
+                case 2: { //Total
+                    traceTotal(toLong(r, 1), toLong(r, 2));
+                    break;
+                }
+            }
+        }
+    }
+
+// END GENERATED CODE
+}
@@ -81,6 +81,11 @@ public class SpecialReferenceManager {
          * @return true if live objects may have relocated.
          */
         boolean mayRelocateLiveObjects();
+
+        /**
+         * Ensures that all objects reachable from the objects {@linkplain #preserve(Reference) preserved} so far survive the current GC.
+         */
+        void completeClosure();
     }
 
     /**
@@ -237,6 +242,222 @@ public class SpecialReferenceManager {
         }
     }
 
+    /**
+     * Serializes discovery of special references by GC worker threads.
+     */
+    private static final GCSpinLock discoveryLock = new GCSpinLock();
+
+    /**
+     * Same as {@link #discoverSpecialReference(Pointer)}, but may be called concurrently by several {@link GCWorkerGang} members.
+     *
+     * @param cell a pointer at the origin of the reference that has been discovered
+     */
+    public static void discoverSpecialReferenceConcurrently(Pointer cell) {
+        discoveryLock.lock();
+        discoverSpecialReference(cell);
+        discoveryLock.unlock();
+    }
+
+    /**
+     * Soft references whose referent is unreachable are kept alive for this many milliseconds per megabyte of heap free after the last GC,
+     * counted from the last time they were accessed.
+     */
+    static int SoftRefLRUPolicyMSPerMB = 1000;
+
+    /**
+     * Enables partitioning of discovered references across the workers of the {@link GCWorkerGang}.
+     */
+    static boolean ParallelRefProcEnabled = true;
+    static {
+        VMOptions.addFieldOption("-XX:", "SoftRefLRUPolicyMSPerMB", SpecialReferenceManager.class,
+                        "Milliseconds per megabyte of free heap an unreachable soft reference is kept alive since its last access", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelRefProcEnabled", SpecialReferenceManager.class,
+                        "Process discovered special references in parallel with the GC worker gang", Phase.PRISTINE);
+    }
+
+    /**
+     * Minimum number of discovered references per worker for references to be processed in parallel.
+     */
+    private static final int MIN_PARALLEL_REFERENCES_PER_WORKER = 256;
+
+    /**
+     * Heap space free after the last GC, in megabytes, or -1 before the first GC. Drives the clearing policy of soft references.
+     */
+    private static long freeMBAtLastGC = -1;
+
+    /**
+     * Maximum time, in milliseconds, since the last access to an unreachable soft reference during which its referent is kept alive by the current GC.
+     */
+    private static long softRefMaxInterval;
+
+    /**
+     * Value of the soft reference clock when the current GC started.
+     */
+    private static long softRefClock;
+
+    /**
+     * An alias type for accessing the fields in java.lang.ref.SoftReference.
+     */
+    static class SoftReferenceAlias {
+        /**
+         * Value of the soft reference clock when the reference was last accessed.
+         */
+        @ALIAS(declaringClass = java.lang.ref.SoftReference.class)
+        long timestamp;
+    }
+
+    @INTRINSIC(UNSAFE_CAST)
+    static native SoftReferenceAlias asSoftReferenceAlias(Object o);
+
+    /**
+     * Update the clock soft references are timestamped with and record the free heap space.
+     * Must be called by the heap scheme at the end of every garbage collection, and only then: heap operations that don't
+     * collect garbage (e.g., {@link HprofHeapDumper}) must not advance the clock.
+     */
+    public static void updateSoftReferenceClock() {
+        clock = System.currentTimeMillis();
+        freeMBAtLastGC = Heap.reportFreeSpace() >> 20;
+    }
+
+    /**
+     * Singly-linked list of references, used to collect the references processed by a worker.
+     */
+    static final class ReferenceList {
+        java.lang.ref.Reference head;
+        java.lang.ref.Reference tail;
+        int length;
+
+        void clear() {
+            head = null;
+            tail = null;
+            length = 0;
+        }
+
+        /**
+         * Add a reference to a list linked through the {@code discovered} field.
+         */
+        void addDiscovered(java.lang.ref.Reference ref) {
+            asJLRRAlias(ref).discovered = head == null ? sentinel : head;
+            if (head == null) {
+                tail = ref;
+            }
+            head = ref;
+            length++;
+        }
+
+        /**
+         * Add a reference to a list linked through the {@code next} field, as the pending list is.
+         * The last reference of the list refers to itself until the list is {@linkplain #appendToPendingList() appended to the pending list}.
+         */
+        void addPending(java.lang.ref.Reference ref) {
+            asJLRRAlias(ref).next = head == null ? ref : head;
+            if (head == null) {
+                tail = ref;
+            }
+            head = ref;
+        }
+
+        void appendToPendingList() {
+            if (head != null) {
+                final java.lang.ref.Reference pending = JLRRAlias.pending;
+                asJLRRAlias(tail).next = pending == null ? tail : pending;
+                JLRRAlias.pending = head;
+            }
+        }
+    }
+
+    /**
+     * Processes a partition of the discovered references with every worker of the {@link GCWorkerGang}.
+     * Workers don't preserve unreachable referents, as {@link GC#preserve(Reference)} may not be called concurrently: the references
+     * needing it are handed over to the VM operation thread.
+     */
+    static final class ParallelReferenceProcessing extends GCTask {
+        final ReferenceList [] partitions = new ReferenceList[GCWorkerGang.MAX_WORKERS];
+        final ReferenceList [] pendingLists = new ReferenceList[GCWorkerGang.MAX_WORKERS];
+        final ReferenceList [] deferredLists = new ReferenceList[GCWorkerGang.MAX_WORKERS];
+        GC gc;
+        boolean updateReachableReferent;
+
+        @HOSTED_ONLY
+        ParallelReferenceProcessing() {
+            for (int i = 0; i < GCWorkerGang.MAX_WORKERS; i++) {
+                partitions[i] = new ReferenceList();
+                pendingLists[i] = new ReferenceList();
+                deferredLists[i] = new ReferenceList();
+            }
+        }
+
+        @Override
+        public void run(int workerIndex) {
+            final ReferenceList pendingList = pendingLists[workerIndex];
+            final ReferenceList deferredList = deferredLists[workerIndex];
+            java.lang.ref.Reference ref = partitions[workerIndex].head;
+            while (ref != null) {
+                final java.lang.ref.Reference next = asJLRRAlias(ref).discovered;
+                processReference(ref, gc, updateReachableReferent, pendingList, deferredList);
+                ref = next == sentinel ? null : next;
+            }
+        }
+
+        /**
+         * Process the discovered references from {@code head} up to {@code end} (exclusive) in parallel.
+         */
+        void process(java.lang.ref.Reference head, java.lang.ref.Reference end, int numWorkers) {
+            for (int i = 0; i < numWorkers; i++) {
+                partitions[i].clear();
+                pendingLists[i].clear();
+                deferredLists[i].clear();
+            }
+            // Deal the references out to the workers.
+            java.lang.ref.Reference ref = head;
+            int worker = 0;
+            while (ref != end) {
+                final java.lang.ref.Reference next = asJLRRAlias(ref).discovered;
+                partitions[worker].addDiscovered(ref);
+                if (++worker == numWorkers) {
+                    worker = 0;
+                }
+                ref = next;
+            }
+            GCWorkerGang.theGang().run(this);
+            // Preserve the unreachable referents the workers couldn't.
+            final ReferenceList pendingList = pendingLists[0];
+            for (int i = 0; i < numWorkers; i++) {
+                ref = deferredLists[i].head;
+                while (ref != null) {
+                    final java.lang.ref.Reference next = asJLRRAlias(ref).discovered;
+                    processReference(ref, gc, updateReachableReferent, pendingList, null);
+                    ref = next == sentinel ? null : next;
+                }
+            }
+            for (int i = numWorkers - 1; i >= 0; i--) {
+                pendingLists[i].appendToPendingList();
+            }
+            // The lists are in the boot heap: don't keep references to the processed references alive.
+            for (int i = 0; i < numWorkers; i++) {
+                partitions[i].clear();
+                pendingLists[i].clear();
+                deferredLists[i].clear();
+            }
+            gc = null;
+        }
+    }
+
+    private static final ParallelReferenceProcessing parallelReferenceProcessing = new ParallelReferenceProcessing();
+
+    /**
+     * Counts the discovered references from {@code head} up to {@code end} (exclusive), up to a limit.
+     */
+    private static int countDiscovered(java.lang.ref.Reference head, java.lang.ref.Reference end, int limit) {
+        int count = 0;
+        java.lang.ref.Reference ref = head;
+        while (ref != end && count < limit) {
+            ref = asJLRRAlias(ref).discovered;
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Processes the special reference objects that were {@linkplain #discoverSpecialReference(Pointer) discovered}
      * during heap scanning.
@@ -246,6 +467,11 @@ public class SpecialReferenceManager {
      * and add them to their respective queues later.
      * The reference handler lock is notified by the thread that {@linkplain VmOperationThread#submit(VmOperation) submitted}
      * the GC operation as it holds the lock. See {@link GCOperation#doItEpilogue(boolean)}.
+     * <p>
+     * Unreachable referents of soft references are kept alive if the reference was accessed recently enough: the more heap was free after
+     * the last GC, the longer (see {@link #SoftRefLRUPolicyMSPerMB}). This is decided first, and the objects reachable from the referents
+     * kept alive are traced, before any reference is cleared: a weak reference must not be cleared if its referent is softly reachable.
+     * If the {@link GCWorkerGang} is parallel and enough references were discovered, references are partitioned across its workers.
      *
      * @param gc interface to the GC implementation
      */
@@ -253,6 +479,15 @@ public class SpecialReferenceManager {
         java.lang.ref.Reference head = discoveredList;
         java.lang.ref.Reference end = sentinel;
         final boolean updateReachableReferent = gc.mayRelocateLiveObjects();
+        final GCWorkerGang gang = GCWorkerGang.theGang();
+        final int numWorkers = ParallelRefProcEnabled && gang.isParallel() && VmThread.current().isVmOperationThread() ? gang.numWorkers() : 1;
+        softRefClock = clock;
+        if (freeMBAtLastGC == 0) {
+            // The heap is nearly exhausted: clear all soft references whose referent is unreachable.
+            softRefMaxInterval = -1;
+        } else {
+            softRefMaxInterval = freeMBAtLastGC < 0 ? 0 : freeMBAtLastGC * SoftRefLRUPolicyMSPerMB;
+        }
 
         if (specialReferenceLogger.enabled()) {
             specialReferenceLogger.logProcessDiscoveredInit(
@@ -260,73 +495,31 @@ public class SpecialReferenceManager {
                             Reference.fromJava(JDK_java_lang_ref_ReferenceQueue.ENQUEUED).toOrigin());
         }
 
+        if (softRefMaxInterval >= 0) {
+            keepRecentlyUsedSoftReferents(gc);
+            head = discoveredList;
+        }
+
         // Process the discovered list until it is empty (new elements may be
         // prepended while processing).
         do {
-            java.lang.ref.Reference ref = head;
-            java.lang.ref.Reference pending = JLRRAlias.pending;
-
-            while (ref != end) {
-                boolean preserved = false;
-                boolean addedToPending = false;
-                JLRRAlias refAlias = asJLRRAlias(ref);
-                final Reference referent = Reference.fromJava(refAlias.referent);
-                if (referent.isZero()) {
-                    // Do not add 'ref' to the pending list as weak references
-                    // with already null referents are not added to ReferenceQueues
-                } else if (!gc.isReachable(referent)) {
-                    if (refAlias.queue == null) {
-                        // This can only occur if there is a GC in the constructor for java.lang.ref.Reference
-                        // between the initialization of 'referent' and 'queue'.
-                        Log.println("WARNING: cannot add weak reference with null 'queue' field to pending list");
-                    } else {
-                        // Only soft and weak references have their referent cleared
-                        if (ref instanceof java.lang.ref.SoftReference || ref instanceof java.lang.ref.WeakReference) {
-                            refAlias.referent = null;
-                        } else {
-                            // The following line MUST run the mutator write barrier
-                            refAlias.referent = gc.preserve(referent).toJava();
-                            preserved = true;
-                        }
-
-                        // Add active reference whose reachability has changed to pending list
-                        if (refAlias.isActive()) {
-                            if (pending == null) {
-                                // 'ref' will be at the end of the pending list
-                                refAlias.next = ref;
-                            } else {
-                                refAlias.next = pending;
-                            }
-                            pending = ref;
-                            addedToPending = true;
-                        }
-                    }
-                } else if (updateReachableReferent) {
-                    // this object is reachable, however the "referent" field was not scanned.
-                    // we need to update this field manually
-                    // The following line MUST run the mutator write barrier
-                    refAlias.referent = gc.preserve(referent).toJava();
-                }
-
-                JLRRAlias r = refAlias;
-                ref = refAlias.discovered;
-                r.discovered = null;
-
-                if (specialReferenceLogger.enabled()) {
-                    final Object newReferent = r.referent;
-                    specialReferenceLogger.logProcessDiscovered(
-                        ObjectAccess.readClassActor(r),
-                        ObjectAccess.toOrigin(r),
-                        referent.toOrigin(),
-                        newReferent == null ? Pointer.zero() : ObjectAccess.toOrigin(newReferent),
-                        Reference.fromJava(r.queue).toOrigin(),
-                        preserved,
-                        updateReachableReferent,
-                        addedToPending,
-                        MaxineVM.isDebug() ? ObjectAccess.toOrigin(ref) : Pointer.zero());
+            final int minParallelReferences = numWorkers * MIN_PARALLEL_REFERENCES_PER_WORKER;
+            if (numWorkers > 1 && countDiscovered(head, end, minParallelReferences) == minParallelReferences) {
+                parallelReferenceProcessing.gc = gc;
+                parallelReferenceProcessing.updateReachableReferent = updateReachableReferent;
+                parallelReferenceProcessing.process(head, end, numWorkers);
+            } else {
+                final ReferenceList pendingList = parallelReferenceProcessing.pendingLists[0];
+                pendingList.clear();
+                java.lang.ref.Reference ref = head;
+                while (ref != end) {
+                    final java.lang.ref.Reference next = asJLRRAlias(ref).discovered;
+                    processReference(ref, gc, updateReachableReferent, pendingList, null);
+                    ref = next;
                 }
+                pendingList.appendToPendingList();
+                pendingList.clear();
             }
-            JLRRAlias.pending = pending;
 
             if (head == discoveredList) {
                 // No further special references were discovered
@@ -339,6 +532,109 @@ public class SpecialReferenceManager {
         } while (true);
     }
 
+    /**
+     * Keeps alive the unreachable referents of the discovered soft references that were accessed recently enough,
+     * along with everything reachable from them. References discovered while doing so are processed as well.
+     *
+     * @param gc interface to the GC implementation
+     */
+    private static void keepRecentlyUsedSoftReferents(GC gc) {
+        java.lang.ref.Reference end = sentinel;
+        do {
+            final java.lang.ref.Reference head = discoveredList;
+            boolean preserved = false;
+            java.lang.ref.Reference ref = head;
+            while (ref != end) {
+                final JLRRAlias refAlias = asJLRRAlias(ref);
+                if (ref instanceof java.lang.ref.SoftReference && softRefClock - asSoftReferenceAlias(ref).timestamp <= softRefMaxInterval) {
+                    final Reference referent = Reference.fromJava(refAlias.referent);
+                    if (!referent.isZero() && !gc.isReachable(referent)) {
+                        // The soft reference was accessed recently: its referent survives this GC. The following line MUST run the mutator write barrier
+                        refAlias.referent = gc.preserve(referent).toJava();
+                        preserved = true;
+                    }
+                }
+                ref = refAlias.discovered;
+            }
+            if (preserved) {
+                gc.completeClosure();
+            }
+            if (head == discoveredList) {
+                // No further special references were discovered
+                return;
+            }
+            end = head;
+        } while (true);
+    }
+
+    /**
+     * Processes a discovered reference. If the reference's referent isn't reachable and must be preserved, and a list of deferred references
+     * is specified, the reference is added to that list instead, to be processed again later without a deferred list.
+     *
+     * @param ref the reference to process
+     * @param gc interface to the GC implementation
+     * @param updateReachableReferent indicates whether reachable referents may have been relocated
+     * @param pendingList list the reference is added to if it must be enqueued
+     * @param deferredList list of references whose processing requires preserving their referent, or null if the referent can be preserved
+     */
+    private static void processReference(java.lang.ref.Reference ref, GC gc, boolean updateReachableReferent, ReferenceList pendingList, ReferenceList deferredList) {
+        boolean preserved = false;
+        boolean addedToPending = false;
+        JLRRAlias refAlias = asJLRRAlias(ref);
+        final Reference referent = Reference.fromJava(refAlias.referent);
+        if (referent.isZero()) {
+            // Do not add 'ref' to the pending list as weak references
+            // with already null referents are not added to ReferenceQueues
+        } else if (!gc.isReachable(referent)) {
+            if (refAlias.queue == null) {
+                // This can only occur if there is a GC in the constructor for java.lang.ref.Reference
+                // between the initialization of 'referent' and 'queue'.
+                Log.println("WARNING: cannot add weak reference with null 'queue' field to pending list");
+            } else {
+                // Only soft and weak references have their referent cleared
+                if (ref instanceof java.lang.ref.SoftReference || ref instanceof java.lang.ref.WeakReference) {
+                    refAlias.referent = null;
+                } else {
+                    if (deferredList != null) {
+                        deferredList.addDiscovered(ref);
+                        return;
+                    }
+                    // The following line MUST run the mutator write barrier
+                    refAlias.referent = gc.preserve(referent).toJava();
+                    preserved = true;
+                }
+
+                // Add active reference whose reachability has changed to pending list
+                if (refAlias.isActive()) {
+                    pendingList.addPending(ref);
+                    addedToPending = true;
+                }
+            }
+        } else if (updateReachableReferent) {
+            // this object is reachable, however the "referent" field was not scanned.
+            // we need to update this field manually
+            // The following line MUST run the mutator write barrier
+            refAlias.referent = gc.preserve(referent).toJava();
+        }
+
+        final java.lang.ref.Reference next = refAlias.discovered;
+        refAlias.discovered = null;
+
+        if (specialReferenceLogger.enabled()) {
+            final Object newReferent = refAlias.referent;
+            specialReferenceLogger.logProcessDiscovered(
+                ObjectAccess.readClassActor(refAlias),
+                ObjectAccess.toOrigin(refAlias),
+                referent.toOrigin(),
+                newReferent == null ? Pointer.zero() : ObjectAccess.toOrigin(newReferent),
+                Reference.fromJava(refAlias.queue).toOrigin(),
+                preserved,
+                updateReachableReferent,
+                addedToPending,
+                MaxineVM.isDebug() ? ObjectAccess.toOrigin(next) : Pointer.zero());
+        }
+    }
+
     @ALIAS(declaringClassName = "java.lang.ref.Finalizer")
     private static native void register(Object finalizee);
 
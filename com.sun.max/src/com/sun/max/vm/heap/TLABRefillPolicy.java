@@ -60,11 +60,37 @@ public abstract class TLABRefillPolicy {
      */
     public abstract boolean shouldRefill(Size size, Pointer allocationMark);
 
+    /**
+     * Return policy decision regarding whether the TLAB for the current thread should be refilled.
+     * Policies that need to know how much space the refill would waste override this; the default ignores the end of the TLAB.
+     * @param size size of the allocation request that causes the request to refill the TLAB
+     * @param allocationMark allocation mark of the TLAB
+     * @param tlabEnd end of the TLAB
+     */
+    public boolean shouldRefill(Size size, Pointer allocationMark, Pointer tlabEnd) {
+        return shouldRefill(size, allocationMark);
+    }
+
     /**
      * Returns the size the TLAB should have on next refill.
      */
     public abstract Size nextTlabSize();
 
+    /**
+     * Notification that the TLAB of the thread was refilled. Default is nothing.
+     * @param tlabSize size of the new TLAB
+     * @param leftover space left unused in the retired TLAB
+     */
+    public void notifyRefill(Size tlabSize, Size leftover) {
+    }
+
+    /**
+     * Notification that the TLAB of the thread was reset, typically before a GC. Default is nothing.
+     * @param leftover space left unused in the reset TLAB
+     */
+    public void notifyReset(Size leftover) {
+    }
+
     @INTRINSIC(UNSAFE_CAST)
     private static native TLABRefillPolicy asTLABRefillPolicy(Object object);
 
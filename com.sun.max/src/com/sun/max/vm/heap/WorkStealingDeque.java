@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A fixed-capacity work-stealing deque of cells, used by parallel GC phases to balance work between {@link GCWorkerGang} members.
+ * The owner of the deque pushes and pops cells at the bottom end of the deque, whereas other workers steal
+ * cells from the top end. Only steals and the pop of the last cell of the deque synchronize with an atomic operation.
+ * This follows Chase &amp; Lev, "Dynamic Circular Work-Stealing Deque", SPAA 2005, without growing the
+ * backing storage: a push on a full deque fails and the owner must handle the overflow itself.
+ * <p>
+ * The backing storage is allocated outside of the heap when the deque is {@linkplain #initialize(int) initialized}.
+ */
+public final class WorkStealingDeque {
+    /**
+     * Storage for the cells, of {@link #capacity} words.
+     */
+    private Pointer base = Pointer.zero();
+    private int capacity;
+    private int mask;
+
+    /**
+     * Index of the top of the deque, i.e., the next cell to steal.
+     */
+    private volatile int top;
+
+    /**
+     * Index of the bottom of the deque, i.e., the next free slot.
+     */
+    private volatile int bottom;
+
+    @FOLD
+    private static int topOffset() {
+        return ClassActor.fromJava(WorkStealingDeque.class).findLocalInstanceFieldActor("top").offset();
+    }
+
+    public WorkStealingDeque() {
+    }
+
+    /**
+     * Allocates the deque's storage.
+     * @param length minimum number of cells the deque can hold. Rounded up to the next power of two.
+     */
+    public void initialize(int length) {
+        capacity = Integer.highestOneBit(length);
+        if (capacity < length) {
+            capacity <<= 1;
+        }
+        mask = capacity - 1;
+        final Size size = Size.fromInt(capacity).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        base = Memory.allocate(size);
+        if (base.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("work stealing deque", "allocate", size);
+        }
+        top = 0;
+        bottom = 0;
+    }
+
+    public boolean isInitialized() {
+        return !base.isZero();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Resets the deque to empty. Must only be called when no other thread accesses the deque.
+     */
+    public void reset() {
+        top = 0;
+        bottom = 0;
+    }
+
+    /**
+     * Approximate test for emptiness, suitable for thieves looking for work.
+     */
+    public boolean isEmpty() {
+        return bottom - top <= 0;
+    }
+
+    /**
+     * Pushes a cell at the bottom of the deque. Must only be called by the owner of the deque.
+     *
+     * @param cell the cell to push
+     * @return false if the deque is full, true otherwise
+     */
+    public boolean push(Pointer cell) {
+        final int b = bottom;
+        if (b - top >= capacity) {
+            return false;
+        }
+        base.setWord(b & mask, cell);
+        // The cell must be visible to thieves before the new bottom is.
+        MemoryBarriers.barrier(MemoryBarriers.STORE_STORE);
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Pops a cell from the bottom of the deque. Must only be called by the owner of the deque.
+     *
+     * @return a cell, or zero if the deque is empty
+     */
+    public Pointer pop() {
+        final int b = bottom - 1;
+        bottom = b;
+        MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        final int t = top;
+        if (t > b) {
+            // Empty deque.
+            bottom = t;
+            return Pointer.zero();
+        }
+        final Pointer cell = base.getWord(b & mask).asPointer();
+        if (t < b) {
+            // More than one cell left: no race with thieves.
+            return cell;
+        }
+        // Last cell: race with thieves for it.
+        final boolean won = Reference.fromJava(this).compareAndSwapInt(topOffset(), t, t + 1) == t;
+        bottom = t + 1;
+        return won ? cell : Pointer.zero();
+    }
+
+    /**
+     * Steals a cell from the top of the deque. May be called by any thread.
+     *
+     * @return a cell, or zero if the deque is empty or if the steal lost a race with another thread.
+     */
+    public Pointer steal() {
+        final int t = top;
+        MemoryBarriers.barrier(MemoryBarriers.LOAD_LOAD);
+        final int b = bottom;
+        if (t >= b) {
+            return Pointer.zero();
+        }
+        final Pointer cell = base.getWord(t & mask).asPointer();
+        if (Reference.fromJava(this).compareAndSwapInt(topOffset(), t, t + 1) != t) {
+            return Pointer.zero();
+        }
+        return cell;
+    }
+}
@@ -80,5 +80,6 @@ public interface WriteBarrierSpecification {
     IntBitSet<WriteBarrierSpec> TUPLE_POST_BARRIER = new IntBitSet<WriteBarrierSpec>().set(WriteBarrierSpec.TUPLE_CELL).set(WriteBarrierSpec.POST_WRITE);
     IntBitSet<WriteBarrierSpec> ARRAY_PRE_BARRIER = new IntBitSet<WriteBarrierSpec>().set(WriteBarrierSpec.ARRAY_CELL).set(WriteBarrierSpec.PRE_WRITE);
     IntBitSet<WriteBarrierSpec> ARRAY_POST_BARRIER = new IntBitSet<WriteBarrierSpec>().set(WriteBarrierSpec.ARRAY_CELL).set(WriteBarrierSpec.POST_WRITE);
+    IntBitSet<WriteBarrierSpec> REF_ADDR_PRE_BARRIER = new IntBitSet<WriteBarrierSpec>().set(WriteBarrierSpec.NEEDS_REF_ADDR).set(WriteBarrierSpec.PRE_WRITE);
 
 }
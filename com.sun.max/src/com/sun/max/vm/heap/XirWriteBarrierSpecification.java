@@ -22,6 +22,8 @@
  */
 package com.sun.max.vm.heap;
 
+import java.util.*;
+
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
 import com.sun.max.util.*;
@@ -63,4 +65,12 @@ public interface XirWriteBarrierSpecification extends WriteBarrierSpecification
      * @param writeBarrierSpec a bit set encoding a write barrier specification.
      */
     XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec);
+
+    /**
+     * Return the XIR stubs called by the code generated by the write-barrier generators.
+     * These must be compiled along with the other stubs of the XIR generator, once all templates have been generated.
+     *
+     * @return a list of XIR stubs, possibly empty
+     */
+    List<XirTemplate> barrierStubs();
 }
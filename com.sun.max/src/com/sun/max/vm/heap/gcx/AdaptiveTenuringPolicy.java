@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+
+/**
+ * Tenuring policy that adapts the tenuring threshold to the occupancy of the survivor space.
+ * After each minor collection, the threshold is set to the smallest age whose cumulative
+ * occupancy of the survivor space (counting younger objects first) exceeds a target percentage of its capacity,
+ * bounded by a maximum threshold.
+ * This keeps the survivor space from overflowing into the old generation while letting short-lived objects die in the nursery.
+ */
+public class AdaptiveTenuringPolicy implements TenuringPolicy {
+    /**
+     * Upper bound of the tenuring threshold.
+     */
+    private final int maxTenuringThreshold;
+
+    /**
+     * Target occupancy of the survivor space after a minor collection, in percent of its capacity.
+     */
+    private final int targetSurvivorPercent;
+
+    private int tenuringThreshold;
+
+    public AdaptiveTenuringPolicy(int maxTenuringThreshold, int targetSurvivorPercent) {
+        this.maxTenuringThreshold = maxTenuringThreshold;
+        this.targetSurvivorPercent = targetSurvivorPercent;
+        this.tenuringThreshold = maxTenuringThreshold;
+    }
+
+    @Override
+    public int tenuringThreshold() {
+        return tenuringThreshold;
+    }
+
+    @Override
+    public void update(long [] survivingBytesPerAge, Size survivorSpaceSize) {
+        final long desiredSurvivorBytes = survivorSpaceSize.dividedBy(100).times(targetSurvivorPercent).toLong();
+        long cumulatedBytes = 0L;
+        int age = 1;
+        while (age < survivingBytesPerAge.length) {
+            cumulatedBytes += survivingBytesPerAge[age];
+            if (cumulatedBytes > desiredSurvivorBytes) {
+                break;
+            }
+            age++;
+        }
+        tenuringThreshold = age < maxTenuringThreshold ? age : maxTenuringThreshold;
+    }
+}
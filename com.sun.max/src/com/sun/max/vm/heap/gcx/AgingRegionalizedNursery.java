@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.HeapScheme.GCRequest;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A nursery made of an eden space and a pair of {@linkplain SurvivorSpaces survivor spaces}, all allocated from a single contiguous range of regions.
+ * Mutators allocate in eden. Minor collections evacuate eden and the survivor from-space: survivors younger than the tenuring threshold
+ * are copied into the survivor to-space, the others are promoted to the next generation.
+ * The survivor spaces occupy the first regions of the range, eden the remaining ones.
+ * <p>
+ * If aging is disabled (see {@link SurvivorSpaces#isAgingEnabled()}), no survivor spaces are set up: the whole range is eden and
+ * minor collections promote all survivors to the next generation.
+ * <p>
+ * If the heap is {@linkplain NUMANodes#isNUMAAware() NUMA-aware}, eden is split into one stripe per NUMA node, each bound to its node
+ * and allocated from with its own bump pointer allocator. TLABs are allocated from the stripe of the node the requesting thread runs on,
+ * or from another stripe if the local one is exhausted. Eden isn't resized in that case. Either way, the next generation is responsible for keeping a reserve large enough to accommodate the
+ * worst-case evacuation, i.e., the {@linkplain #totalSpace() total space} of the nursery.
+ * <p>
+ * Cells of eden that start in a {@linkplain PinnedRegions pinned region} are retained in place by evacuations. After an evacuation that retained cells,
+ * the space of a stripe below its last retained cell is formatted as dark matter and allocation resumes after the last retained cell.
+ */
+public final class AgingRegionalizedNursery implements HeapSpace {
+
+    final class NurseryRefiller extends Refiller {
+        @Override
+        public Address allocateRefill(Size requestedSize, Pointer startOfSpaceLeft, Size spaceLeft) {
+            GCRequest.setGCRequest(requestedSize);
+            if (!Heap.collectGarbage()) {
+                throw new OutOfMemoryError();
+            }
+            // We're out of safepoint. The current thread hold the refill lock and will do the refill of the allocator.
+            return Address.zero();
+        }
+
+        @Override
+        protected void doBeforeGC() {
+            // Nothing to do.
+        }
+
+        @Override
+        public Address allocateLargeRaw(Size size) {
+            FatalError.unimplemented();
+            return Address.zero();
+        }
+    }
+
+    /**
+     * The heap account space for this nursery is allocated from.
+     */
+    private final HeapAccount<? extends HeapAccountOwner> heapAccount;
+
+    private final int regionTag;
+    /**
+     * List of region allocated to the nursery.
+     */
+    private HeapRegionList nurseryRegionsList;
+    /**
+     * List of regions allocated to the nursery but uncommitted.
+     */
+    private HeapRegionList uncommitedNurseryRegionsList;
+
+    /**
+     * Atomic bump pointer allocator over the eden space. The current bounds and size of eden are obtained from the allocator's start and end addresses.
+     */
+    @INSPECTED
+    private final AtomicBumpPointerAllocator<NurseryRefiller> allocator = new AtomicBumpPointerAllocator<NurseryRefiller>(new NurseryRefiller());
+
+    /**
+     * Allocators over the stripes of eden, one per NUMA node. The first one is {@link #allocator}.
+     * Only the first {@link #numStripes} are used.
+     */
+    private final AtomicBumpPointerAllocator<NurseryRefiller> [] stripes;
+
+    /**
+     * Number of stripes eden is split into. Always 1 if the heap isn't NUMA-aware.
+     */
+    private int numStripes = 1;
+
+    @INSPECTED
+    private final SurvivorSpaces survivorSpaces = new SurvivorSpaces();
+
+    /**
+     * Indicates whether the nursery ages objects in its survivor spaces.
+     */
+    private boolean aging;
+
+    /**
+     * Tracks the cells of eden retained in pinned regions by the last evacuation.
+     */
+    private final PinnedRegions pinnedRegions = new PinnedRegions();
+
+    /**
+     * Start of the contiguous range of regions reserved to the nursery.
+     */
+    private Address reservedStart = Address.zero();
+
+    /**
+     * End of the contiguous range of regions reserved to the nursery.
+     */
+    private Address reservedEnd = Address.zero();
+
+    private final SpaceBounds edenBounds;
+
+    private final SpaceBounds nurseryBounds;
+
+    public AgingRegionalizedNursery(HeapAccount<? extends HeapAccountOwner> heapAccount, int regionTag) {
+        this.heapAccount = heapAccount;
+        this.regionTag = regionTag;
+        this.edenBounds = new SpaceBounds() {
+            @Override
+            Address lowestAddress() {
+                return allocator.start();
+            }
+            @Override
+            boolean isIn(Address address) {
+                return address.greaterEqual(lowestAddress()) && address.lessEqual(highestAddress());
+            }
+
+            @Override
+            boolean isContiguous() {
+                return true;
+            }
+            @Override
+            Address highestAddress() {
+                return stripes[numStripes - 1].hardLimit();
+            }
+        };
+        this.nurseryBounds = survivorSpaces.nurseryBounds(edenBounds);
+        this.stripes = createStripes();
+    }
+
+    @SuppressWarnings("unchecked")
+    @HOSTED_ONLY
+    private AtomicBumpPointerAllocator<NurseryRefiller> [] createStripes() {
+        AtomicBumpPointerAllocator<NurseryRefiller> [] stripes = new AtomicBumpPointerAllocator[NUMANodes.MAX_NODES];
+        stripes[0] = allocator;
+        for (int i = 1; i < stripes.length; i++) {
+            stripes[i] = new AtomicBumpPointerAllocator<NurseryRefiller>(new NurseryRefiller());
+        }
+        return stripes;
+    }
+
+    public AgingRegionalizedNursery(HeapAccount<? extends HeapAccountOwner> heapAccount) {
+        this(heapAccount, 0);
+    }
+
+    public void initialize(GenHeapSizingPolicy genSizingPolicy) {
+        nurseryRegionsList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        uncommitedNurseryRegionsList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        final int numRegions = HeapRegionConstants.numberOfRegions(genSizingPolicy.maxYoungGenSize());
+        if (!heapAccount.allocateContiguous(numRegions, nurseryRegionsList, false, false, regionTag)) {
+            FatalError.unexpected("Couldn't allocate contiguous range to the nursery");
+        }
+        pinnedRegions.initialize(numRegions);
+        aging = SurvivorSpaces.isAgingEnabled();
+        final int numSurvivorRegions = aging ? HeapRegionConstants.numberOfRegions(SurvivorSpaces.survivorSpaceSize(genSizingPolicy.maxYoungGenSize())) : 0;
+        if (2 * numSurvivorRegions >= numRegions) {
+            FatalError.unexpected("Nursery too small for its survivor spaces");
+        }
+        int regionID = nurseryRegionsList.head();
+        int numCommittedRegions = HeapRegionConstants.numberOfRegions(genSizingPolicy.initialYoungGenSize());
+        if (numCommittedRegions <= 2 * numSurvivorRegions) {
+            numCommittedRegions = 2 * numSurvivorRegions + 1;
+        }
+        heapAccount.commit(RegionRange.from(regionID, numCommittedRegions));
+
+        int lastCommittedRegion = regionID + numCommittedRegions - 1;
+        while (nurseryRegionsList.tail() != lastCommittedRegion) {
+            uncommitedNurseryRegionsList.prepend(nurseryRegionsList.removeTail());
+        }
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final Size regionSize = Size.fromInt(HeapRegionConstants.regionSizeInBytes);
+        reservedStart = regionTable.regionAddress(regionID);
+        reservedEnd = reservedStart.plus(regionSize.times(numRegions));
+        if (aging) {
+            survivorSpaces.initialize(regionTable.regionAddress(regionID), regionSize.times(numSurvivorRegions));
+        }
+        final int firstEdenRegion = regionID + 2 * numSurvivorRegions;
+        final int numEdenRegions = numCommittedRegions - 2 * numSurvivorRegions;
+        if (NUMANodes.isNUMAAware() && numEdenRegions >= NUMANodes.numberOfNodes()) {
+            numStripes = NUMANodes.numberOfNodes();
+            final int numStripeRegions = numEdenRegions / numStripes;
+            int firstStripeRegion = firstEdenRegion;
+            for (int node = 0; node < numStripes; node++) {
+                // The last stripe takes the remaining regions.
+                final int numRegionsInStripe = node == numStripes - 1 ? firstEdenRegion + numEdenRegions - firstStripeRegion : numStripeRegions;
+                final Address stripeStart = regionTable.regionAddress(firstStripeRegion);
+                final Size stripeSize = regionSize.times(numRegionsInStripe);
+                NUMANodes.bindToNode(stripeStart, stripeSize, node);
+                stripes[node].initialize(stripeStart, stripeSize, regionSize);
+                firstStripeRegion += numRegionsInStripe;
+            }
+        } else {
+            allocator.initialize(regionTable.regionAddress(firstEdenRegion), regionSize.times(numEdenRegions), regionSize);
+        }
+    }
+
+    /**
+     * Select the eden stripe to allocate the specified size from. This is the stripe of the NUMA node the current thread runs on,
+     * unless it doesn't have enough space left and another stripe does.
+     */
+    private AtomicBumpPointerAllocator<NurseryRefiller> stripeForAllocation(Size size) {
+        if (numStripes == 1) {
+            return allocator;
+        }
+        final int node = NUMANodes.currentNode();
+        final AtomicBumpPointerAllocator<NurseryRefiller> local = stripes[node];
+        if (local.freeSpace().greaterEqual(size)) {
+            return local;
+        }
+        for (int i = 1; i < numStripes; i++) {
+            final AtomicBumpPointerAllocator<NurseryRefiller> remote = stripes[(node + i) % numStripes];
+            if (remote.freeSpace().greaterEqual(size)) {
+                return remote;
+            }
+        }
+        // Eden is exhausted. Allocating from the local stripe triggers a GC.
+        return local;
+    }
+
+    private Size edenSize() {
+        if (numStripes == 1) {
+            return allocator.size();
+        }
+        return stripes[numStripes - 1].hardLimit().minus(allocator.start()).asSize();
+    }
+
+    /**
+     * Start of the contiguous range of regions reserved to the nursery, which holds eden and the survivor spaces whatever their size.
+     */
+    public Address reservedStart() {
+        return reservedStart;
+    }
+
+    /**
+     * End of the contiguous range of regions reserved to the nursery.
+     */
+    public Address reservedEnd() {
+        return reservedEnd;
+    }
+
+    /**
+     * The survivor spaces of the nursery, or null if the nursery doesn't age objects.
+     */
+    public SurvivorSpaces survivorSpaces() {
+        return aging ? survivorSpaces : null;
+    }
+
+    /**
+     * Flip the survivor spaces once the nursery has been evacuated. See {@link SurvivorSpaces#flip()}.
+     */
+    public void flipSurvivorSpaces() {
+        if (aging) {
+            survivorSpaces.flip();
+        }
+    }
+
+    /**
+     * The tracker of the cells of eden retained in pinned regions by the last evacuation.
+     */
+    public PinnedRegions pinnedRegions() {
+        return pinnedRegions;
+    }
+
+    /**
+     * Indicate whether the last evacuation of the nursery retained cells in pinned regions.
+     */
+    public boolean hasRetainedCells() {
+        return !pinnedRegions.isEmpty();
+    }
+
+    public Pointer allocate(Size size) {
+        return stripeForAllocation(size).allocateCleared(size);
+    }
+
+    @Override
+    public Size increaseSize(Size delta) {
+        if (numStripes > 1) {
+            return Size.zero();
+        }
+        int numRegions = HeapRegionConstants.numberOfRegions(delta);
+        if (numRegions > uncommitedNurseryRegionsList.size()) {
+            numRegions = uncommitedNurseryRegionsList.size();
+        }
+        // Eden grows by committing the regions following its end.
+        for (int i = 0; i < numRegions; i++) {
+            final int regionID = uncommitedNurseryRegionsList.removeHead();
+            heapAccount.commit(regionID);
+            nurseryRegionsList.append(regionID);
+        }
+        final Size growth = Size.fromInt(numRegions).shiftedLeft(HeapRegionConstants.log2RegionSizeInBytes);
+        allocator.grow(growth);
+        return growth;
+    }
+
+    /**
+     * Shrink eden by uncommitting the regions at its end. Eden always keeps at least one region.
+     * Only regions beyond the allocated part of eden can be uncommitted, so this is typically done right after a minor collection.
+     */
+    @Override
+    public Size decreaseSize(Size delta) {
+        if (numStripes > 1) {
+            return Size.zero();
+        }
+        final int numEdenRegions = allocator.size().unsignedShiftedRight(HeapRegionConstants.log2RegionSizeInBytes).toInt();
+        int numRegions = delta.unsignedShiftedRight(HeapRegionConstants.log2RegionSizeInBytes).toInt();
+        if (numRegions >= numEdenRegions) {
+            numRegions = numEdenRegions - 1;
+        }
+        if (numRegions <= 0) {
+            return Size.zero();
+        }
+        final Size shrinkage = Size.fromInt(numRegions).shiftedLeft(HeapRegionConstants.log2RegionSizeInBytes);
+        if (!allocator.shrink(shrinkage)) {
+            return Size.zero();
+        }
+        for (int i = 0; i < numRegions; i++) {
+            final int regionID = nurseryRegionsList.removeTail();
+            heapAccount.uncommit(regionID);
+            uncommitedNurseryRegionsList.prepend(regionID);
+        }
+        return shrinkage;
+    }
+
+    /**
+     * Space occupied by the evacuated area of the nursery when it is full, i.e., eden and one survivor space.
+     */
+    @Override
+    public Size totalSpace() {
+        return aging ? edenSize().plus(survivorSpaces.spaceSize()) : edenSize();
+    }
+
+    @Override
+    public Size capacity() {
+        final Size capacity = Size.fromInt(HeapRegionConstants.regionSizeInBytes).times(uncommitedNurseryRegionsList.size()).plus(edenSize());
+        return aging ? capacity.plus(survivorSpaces.spaceSize().times(2)) : capacity;
+    }
+
+    @Override
+    public Pointer allocateTLAB(Size size) {
+        final Pointer tlab = stripeForAllocation(size).allocateRaw(size);
+        HeapFreeChunk.format(tlab, size);
+        return tlab;
+    }
+
+    public void retireTLAB(Pointer start, Size size) {
+        final AtomicBumpPointerAllocator<NurseryRefiller> stripe = stripeContaining(start);
+        FatalError.check(stripe != null, "Retired TLAB Space must be in allocating space");
+        if (!stripe.retireTop(start, size)) {
+            DarkMatter.format(start, size);
+        }
+    }
+
+    private AtomicBumpPointerAllocator<NurseryRefiller> stripeContaining(Address address) {
+        for (int i = 0; i < numStripes; i++) {
+            if (stripes[i].inCurrentContiguousChunk(address)) {
+                return stripes[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(Address address) {
+        return stripeContaining(address) != null || (aging && survivorSpaces.contains(address));
+    }
+
+    @Override
+    public void doBeforeGC() {
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i].doBeforeGC();
+        }
+        // Stripes are parsable up to their hard limit at this point. Record the cells of pinned regions before any gets forwarded.
+        pinnedRegions.reset();
+        if (PinnedRegions.UseRegionPinning) {
+            for (int i = 0; i < numStripes; i++) {
+                pinnedRegions.retain(stripes[i].start(), stripes[i].hardLimit());
+            }
+        }
+    }
+
+    @Override
+    public void doAfterGC() {
+        int range = 0;
+        final int numRanges = pinnedRegions.numRanges();
+        for (int i = 0; i < numStripes; i++) {
+            final AtomicBumpPointerAllocator<NurseryRefiller> stripe = stripes[i];
+            if (range < numRanges && pinnedRegions.rangeStart(range).lessThan(stripe.hardLimit())) {
+                // Format the evacuated space around the retained cells of the stripe as dark matter, and resume allocation after them.
+                Address deadSpace = stripe.start();
+                do {
+                    final Address rangeStart = pinnedRegions.rangeStart(range);
+                    if (rangeStart.greaterThan(deadSpace)) {
+                        DarkMatter.format(deadSpace, rangeStart);
+                    }
+                    deadSpace = pinnedRegions.rangeEnd(range);
+                    range++;
+                } while (range < numRanges && pinnedRegions.rangeStart(range).lessThan(stripe.hardLimit()));
+                stripe.top = deadSpace;
+                continue;
+            }
+            if (MaxineVM.isDebug()) {
+                stripe.zap();
+            }
+            stripe.reset();
+        }
+    }
+
+    @Override
+    public Size freeSpace() {
+        Size freeSpace = Size.zero();
+        for (int i = 0; i < numStripes; i++) {
+            freeSpace = freeSpace.plus(stripes[i].freeSpace());
+        }
+        return freeSpace;
+    }
+
+    @Override
+    public Size usedSpace() {
+        Size usedSpace = aging ? survivorSpaces.usedSpace() : Size.zero();
+        for (int i = 0; i < numStripes; i++) {
+            usedSpace = usedSpace.plus(stripes[i].usedSpace());
+        }
+        return usedSpace;
+    }
+
+    @Override
+    public void visit(CellRangeVisitor visitor) {
+        if (aging) {
+            survivorSpaces.visit(visitor);
+        }
+        for (int i = 0; i < numStripes; i++) {
+            visitor.visitCells(stripes[i].start(), stripes[i].top);
+        }
+    }
+
+    @Override
+    public SpaceBounds bounds() {
+        return aging ? nurseryBounds : edenBounds;
+    }
+
+}
@@ -29,6 +29,7 @@ import com.sun.max.vm.runtime.*;
 
 /**
  * Simple debug  utility class to atomically count pin/unpin requests and track unbalanced pinned requests.
+ * The counting logic is also available for int counters embedded in other objects, e.g., the pin count of a {@link HeapRegionInfo}.
  */
 public final class AtomicPinCounter {
     private volatile int pinnedCounter = 0;
@@ -39,22 +40,44 @@ public final class AtomicPinCounter {
     }
 
     public void increment() {
+        increment(this, pinnedCounterOffset());
+    }
+
+    public void decrement() {
+        decrement(this, pinnedCounterOffset());
+    }
+
+    /**
+     * Atomically increment a pin counter.
+     *
+     * @param holder object holding the pin counter
+     * @param counterOffset offset of the int pin counter from the holder's origin
+     */
+    static void increment(Object holder, int counterOffset) {
+        final Reference holderRef = Reference.fromJava(holder);
         int newValue;
         int oldValue;
         do {
-            oldValue = pinnedCounter;
+            oldValue = holderRef.readInt(counterOffset);
             FatalError.check(oldValue >= 0, "Unbalance pinned request");
             newValue  = oldValue + 1;
-        } while (Reference.fromJava(this).compareAndSwapInt(pinnedCounterOffset(), oldValue, newValue) != oldValue);
+        } while (holderRef.compareAndSwapInt(counterOffset, oldValue, newValue) != oldValue);
     }
 
-    public void decrement() {
+    /**
+     * Atomically decrement a pin counter.
+     *
+     * @param holder object holding the pin counter
+     * @param counterOffset offset of the int pin counter from the holder's origin
+     */
+    static void decrement(Object holder, int counterOffset) {
+        final Reference holderRef = Reference.fromJava(holder);
         int newValue;
         int oldValue;
         do {
-            oldValue = pinnedCounter;
+            oldValue = holderRef.readInt(counterOffset);
             FatalError.check(oldValue > 0, "Unbalance pinned request");
             newValue  = oldValue - 1;
-        } while (Reference.fromJava(this).compareAndSwapInt(pinnedCounterOffset(), oldValue, newValue) != oldValue);
+        } while (holderRef.compareAndSwapInt(counterOffset, oldValue, newValue) != oldValue);
     }
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.HeapSchemeAdaptor.*;
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Evacuator of the collection set of the mixed collections of a {@link FirstFitMarkSweepSpace}.
+ * <p>
+ * The sweeper of the space designates the regions with little live data as evacuation candidates
+ * (see {@link FirstFitMarkSweepSpace#setEvacuationCandidateThreshold(int)}). The next marking of the space records references to the candidates in a
+ * {@link CollectionSetRSet}. Once that marking's sweep has designated the candidates anew, the evacuator picks the collection set among the candidates
+ * whose references were recorded, most garbage first, so that the estimated time to evacuate it fits a pause budget. The live cells of the collection set
+ * are evacuated to the allocation regions of the space, and the regions of the collection set are then released as empty regions.
+ * Candidates left over are made available for allocation again, and are considered by the following mixed collections,
+ * so that the space is defragmented incrementally over several pauses.
+ * <p>
+ * Evacuation takes place after marking and reference processing. Referents of special references left alive are treated as strong references.
+ */
+public final class CollectionSetEvacuator extends Evacuator {
+    /**
+     * Copy rate (in bytes per millisecond) assumed for the first mixed collection.
+     */
+    private static final long INITIAL_COPY_RATE = 100 * 1024;
+
+    /**
+     * Maximum number of ranges of evacuated cells waiting to be scanned.
+     */
+    private static final int MAX_EVACUATED_RANGES = 1024;
+
+    /**
+     * Space the collection set is picked from, and where its live cells are evacuated to.
+     */
+    private final FirstFitMarkSweepSpace<?> space;
+
+    /**
+     * Remembered set of the evacuation candidates.
+     */
+    private final CollectionSetRSet rset;
+
+    /**
+     * Heap marker of the space. Evacuated cells are marked black so that the mark bitmap stays consistent with the space until the next marking.
+     */
+    private final TricolorHeapMarker heapMarker;
+
+    /**
+     * Ranges of evacuated cells that haven't been scanned yet.
+     */
+    private final SurvivorRangesQueue evacuatedRanges;
+
+    /**
+     * Regions of the current collection set. Also used to sort the evacuation candidates when picking the collection set.
+     */
+    private int [] collectionSet;
+
+    /**
+     * Number of regions of the current collection set.
+     */
+    private int collectionSetSize;
+
+    /**
+     * Size of the evacuation buffers requested from the space. Larger cells are allocated directly from the space.
+     */
+    private Size evacuationBufferSize;
+
+    /**
+     * Time budget (in milliseconds) for the evacuation of a collection set.
+     */
+    private long pauseBudget;
+
+    /**
+     * Minimum percentage of the space that must be free space of evacuation candidates for a collection set to be evacuated.
+     */
+    private int heapWastePercent;
+
+    /**
+     * Estimated copy rate (in bytes per millisecond), from the previous mixed collections.
+     */
+    private long copyRate = INITIAL_COPY_RATE;
+
+    /**
+     * Allocation hand in the current evacuation buffer.
+     */
+    private Pointer top = Pointer.zero();
+
+    /**
+     * End of the current evacuation buffer.
+     */
+    private Pointer end = Pointer.zero();
+
+    /**
+     * Next chunk of the current evacuation buffer, if any.
+     */
+    private Address nextChunk = Address.zero();
+
+    /**
+     * Start of the cells evacuated in the current evacuation buffer that haven't been queued for scanning yet.
+     */
+    private Pointer rangeStart = Pointer.zero();
+
+    /**
+     * Number of bytes evacuated by the current mixed collection.
+     */
+    private Size evacuatedBytes = Size.zero();
+
+    public CollectionSetEvacuator(FirstFitMarkSweepSpace<?> space, CollectionSetRSet rset, TricolorHeapMarker heapMarker) {
+        this.space = space;
+        this.rset = rset;
+        this.heapMarker = heapMarker;
+        this.evacuatedRanges = new SurvivorRangesQueue(MAX_EVACUATED_RANGES);
+    }
+
+    /**
+     * Initialize the evacuator. Must be called once the heap regions are set up.
+     *
+     * @param evacuationBufferSize size of the evacuation buffers requested from the space
+     * @param pauseBudget time budget (in milliseconds) for the evacuation of a collection set
+     * @param heapWastePercent minimum percentage of the space that must be free space of evacuation candidates for a collection set to be evacuated
+     */
+    public void initialize(Size evacuationBufferSize, long pauseBudget, int heapWastePercent) {
+        this.evacuationBufferSize = evacuationBufferSize;
+        this.pauseBudget = pauseBudget;
+        this.heapWastePercent = heapWastePercent;
+        collectionSet = new int[RegionTable.theRegionTable().length()];
+    }
+
+    private static int liveBytes(int regionID) {
+        return regionSizeInBytes - HeapRegionInfo.fromRegionID(regionID).freeBytesInChunks();
+    }
+
+    /**
+     * Pick the collection set among the evacuation candidates of the space whose references were recorded by the last marking.
+     * Candidates with the least live data are picked first, as long as the estimated time to copy their live data fits the pause budget.
+     * At least one candidate is picked, unless the space doesn't have enough free space to evacuate it.
+     *
+     * @return the number of live bytes of the collection set
+     */
+    private long selectCollectionSet() {
+        collectionSetSize = 0;
+        final long wasteThreshold = space.totalSpace().toLong() / 100 * heapWastePercent;
+        if (space.evacuationCandidatesFreeSpace().toLong() < wasteThreshold) {
+            return 0L;
+        }
+        // Sort the candidates by increasing amount of live data. There are typically few of them.
+        final HeapRegionList candidates = space.evacuationCandidates();
+        int numCandidates = 0;
+        for (int regionID = candidates.head(); regionID != INVALID_REGION_ID; regionID = candidates.next(regionID)) {
+            final HeapRegionInfo regionInfo = HeapRegionInfo.fromRegionID(regionID);
+            if (!regionInfo.isTrackedByRSet() || regionInfo.isPinned()) {
+                continue;
+            }
+            final int liveBytes = liveBytes(regionID);
+            int i = numCandidates++;
+            while (i > 0 && liveBytes(collectionSet[i - 1]) > liveBytes) {
+                collectionSet[i] = collectionSet[i - 1];
+                i--;
+            }
+            collectionSet[i] = regionID;
+        }
+        if (numCandidates == 0) {
+            return 0L;
+        }
+        // Leave room for the fragmentation of the free space of the space.
+        final long maxCopiedBytes = space.freeSpace().toLong() / 2;
+        if (liveBytes(collectionSet[0]) > maxCopiedBytes) {
+            if (Heap.verbose()) {
+                Log.print("Not enough free space to evacuate any of ");
+                Log.print(numCandidates);
+                Log.println(" evacuation candidates");
+            }
+            return 0L;
+        }
+        final long copyBudget = Math.min(pauseBudget * copyRate, maxCopiedBytes);
+        long copiedBytes = liveBytes(collectionSet[0]);
+        collectionSetSize = 1;
+        while (collectionSetSize < numCandidates && copiedBytes + liveBytes(collectionSet[collectionSetSize]) <= copyBudget) {
+            copiedBytes += liveBytes(collectionSet[collectionSetSize]);
+            collectionSetSize++;
+        }
+        for (int i = 0; i < collectionSetSize; i++) {
+            space.addToCollectionSet(collectionSet[i]);
+        }
+        return copiedBytes;
+    }
+
+    /**
+     * Pick a collection set and evacuate it, if the space has evacuation candidates worth evacuating.
+     * The candidates left are then made available for allocation again.
+     * Must be called by a GC operation after the space is marked and swept.
+     *
+     * @param gcOperation the current GC operation
+     */
+    public void evacuateCollectionSet(GCOperation gcOperation) {
+        final long liveBytes = selectCollectionSet();
+        if (collectionSetSize == 0) {
+            space.releaseEvacuationCandidates();
+            return;
+        }
+        final long start = System.nanoTime();
+        setGCOperation(gcOperation);
+        evacuate(Heap.logGCPhases());
+        setGCOperation(null);
+        for (int i = 0; i < collectionSetSize; i++) {
+            space.releaseEvacuatedRegion(collectionSet[i]);
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000L;
+        if (elapsed > 0L) {
+            copyRate = (copyRate + evacuatedBytes.toLong() / elapsed) / 2;
+        }
+        if (Heap.verbose()) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Mixed collection evacuated ");
+            Log.print(collectionSetSize);
+            Log.print(" regions (");
+            Log.print(evacuatedBytes.toLong());
+            Log.print(" bytes, ");
+            Log.print(liveBytes);
+            Log.print(" estimated) in ");
+            Log.print(elapsed);
+            Log.print(" ms, ");
+            Log.print(space.evacuationCandidates().size());
+            Log.println(" evacuation candidates left");
+            Log.unlock(lockDisabledSafepoints);
+        }
+        space.releaseEvacuationCandidates();
+        collectionSetSize = 0;
+    }
+
+    @Override
+    boolean inEvacuatedArea(Pointer origin) {
+        return HeapRegionInfo.fromAddress(origin).isInCollectionSet();
+    }
+
+    private void queueEvacuatedRange() {
+        if (top.greaterThan(rangeStart)) {
+            evacuatedRanges.add(rangeStart, top);
+            rangeStart = top;
+        }
+    }
+
+    /**
+     * Retire the space left in the current evacuation buffer and switch to its next chunk, or to a new buffer.
+     */
+    private void refillEvacuationBuffer() {
+        queueEvacuatedRange();
+        if (end.greaterThan(top)) {
+            space.retireTLAB(top, end.minus(top).asSize());
+        }
+        Address chunk = nextChunk;
+        if (chunk.isZero()) {
+            chunk = space.allocateTLAB(evacuationBufferSize);
+        }
+        nextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
+        top = chunk.asPointer();
+        end = chunk.plus(HeapFreeChunk.getFreechunkSize(chunk)).asPointer();
+        rangeStart = top;
+    }
+
+    private Pointer allocate(Size size) {
+        if (size.greaterThan(evacuationBufferSize.unsignedShiftedRight(2))) {
+            final Pointer cell = space.allocate(size);
+            evacuatedRanges.add(cell, cell.plus(size));
+            return cell;
+        }
+        while (true) {
+            final Pointer cell = top;
+            final Pointer newTop = cell.plus(size);
+            // Leave either no space or enough space to format a dead object at the end of the buffer.
+            if (newTop.equals(end) || newTop.plus(minObjectSize()).lessEqual(end)) {
+                top = newTop;
+                return cell;
+            }
+            refillEvacuationBuffer();
+        }
+    }
+
+    @Override
+    Pointer evacuate(Pointer origin) {
+        final Pointer fromCell = Layout.originToCell(origin);
+        final Size size = Layout.size(origin);
+        final Pointer toCell = allocate(size);
+        Memory.copyBytes(fromCell, toCell, size);
+        heapMarker.markAllocatedBlack(toCell);
+        evacuatedBytes = evacuatedBytes.plus(size);
+        return Layout.cellToOrigin(toCell);
+    }
+
+    @Override
+    protected void evacuateFromRSets() {
+        rset.visitRememberedSlots(this);
+    }
+
+    @Override
+    protected void evacuateReachables() {
+        do {
+            queueEvacuatedRange();
+            while (!evacuatedRanges.isEmpty()) {
+                Pointer cell = evacuatedRanges.start();
+                final Pointer rangeEnd = evacuatedRanges.end();
+                evacuatedRanges.remove();
+                while (cell.lessThan(rangeEnd)) {
+                    cell = scanCellForEvacuatees(cell);
+                }
+            }
+        } while (top.greaterThan(rangeStart));
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        // Special references were processed by the marking: the referents left are live.
+        disableSpecialRefDiscovery();
+        evacuatedBytes = Size.zero();
+    }
+
+    @Override
+    protected void doAfterEvacuation() {
+        if (end.greaterThan(top)) {
+            space.retireTLAB(top, end.minus(top).asSize());
+        }
+        top = Pointer.zero();
+        end = Pointer.zero();
+        rangeStart = Pointer.zero();
+        nextChunk = Address.zero();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Remembered set of the evacuation candidates of a mixed collection.
+ * <p>
+ * The remembered set records the locations of live cells that refer to cells of the regions it {@linkplain HeapRegionInfo#isTrackedByRSet() tracks},
+ * so that the collection set picked among these regions can be evacuated without scanning the whole heap for references to it.
+ * Locations are recorded by the heap marker as it visits live cells (see {@link #recordReferences(int, Pointer, Hub)}), in a bitmap with one bit per
+ * word of the heap. Regions with recorded locations are flagged so that only their part of the bitmap needs to be
+ * {@linkplain #visitRememberedSlots(Evacuator) scanned} by the evacuation.
+ * <p>
+ * Locations are recorded and consumed in the same GC pause, so the remembered set doesn't need to be maintained by mutator write barriers.
+ * References from roots, the boot heap, the code regions and the immortal heap aren't recorded, as evacuators always scan these.
+ */
+public final class CollectionSetRSet {
+    /**
+     * Log2 of the number of heap words covered by a word of the bitmap.
+     */
+    private static final int LOG2_WORDS_COVERED_PER_BITMAP_WORD = 6;
+
+    /**
+     * Start of the heap area covered by the bitmap. Must be aligned on a region boundary.
+     */
+    private Address coveredAreaStart = Address.zero();
+
+    /**
+     * End of the heap area covered by the bitmap.
+     */
+    private Address coveredAreaEnd = Address.zero();
+
+    /**
+     * The bitmap of remembered locations.
+     */
+    private Pointer bitmap = Pointer.zero();
+
+    /**
+     * Indicates whether the heap marker records references to tracked regions.
+     */
+    private boolean recording;
+
+    /**
+     * Per GC worker visitors recording the locations of references to tracked regions.
+     */
+    private final SlotRecorder [] slotRecorders;
+
+    /**
+     * Visitor recording the locations of the references of a cell that refer to a tracked region.
+     */
+    private final class SlotRecorder extends PointerIndexVisitor {
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            recordIfTracked(pointer.plusWords(wordIndex));
+        }
+    }
+
+    @HOSTED_ONLY
+    public CollectionSetRSet() {
+        slotRecorders = new SlotRecorder[GCWorkerGang.MAX_WORKERS];
+        for (int i = 0; i < slotRecorders.length; i++) {
+            slotRecorders[i] = new SlotRecorder();
+        }
+    }
+
+    /**
+     * Allocate the bitmap of the remembered set.
+     *
+     * @param coveredArea the heap area where locations can be recorded
+     */
+    public void initialize(MemoryRegion coveredArea) {
+        coveredAreaStart = coveredArea.start();
+        coveredAreaEnd = coveredArea.end();
+        FatalError.check(coveredAreaStart.isAligned(regionSizeInBytes), "Area covered by remembered set must be region aligned");
+        final Size bitmapSize = coveredArea.size().unsignedShiftedRight(Word.widthValue().log2numberOfBytes + LOG2_WORDS_COVERED_PER_BITMAP_WORD).
+            times(Word.size()).roundedUpBy(Word.size());
+        bitmap = VirtualMemory.allocate(bitmapSize, VirtualMemory.Type.DATA);
+        if (bitmap.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("collection set remembered set", "allocate", bitmapSize);
+        }
+    }
+
+    /**
+     * Start recording references to tracked regions. Must be called before marking begins.
+     */
+    public void beginRecording() {
+        recording = true;
+    }
+
+    /**
+     * Stop recording references to tracked regions. Must be called after marking ends.
+     */
+    public void endRecording() {
+        recording = false;
+    }
+
+    @INLINE
+    public boolean isRecording() {
+        return recording;
+    }
+
+    @INLINE
+    private int bitIndex(Address slot) {
+        return slot.minus(coveredAreaStart).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt();
+    }
+
+    private void recordIfTracked(Pointer slot) {
+        final HeapRegionInfo regionInfo = HeapRegionInfo.fromAddress(slot.getReference().toOrigin());
+        if (!regionInfo.isTrackedByRSet()) {
+            return;
+        }
+        final HeapRegionInfo slotRegionInfo = HeapRegionInfo.fromInRegionAddress(slot);
+        if (slotRegionInfo == regionInfo) {
+            // References internal to a region don't need to be remembered: the cells of the region are either all evacuated, or none is.
+            return;
+        }
+        final int bitIndex = bitIndex(slot);
+        final int wordIndex = bitIndex >>> LOG2_WORDS_COVERED_PER_BITMAP_WORD;
+        final int wordOffset = wordIndex << Word.widthValue().log2numberOfBytes;
+        final long bit = 1L << (bitIndex & ((1 << LOG2_WORDS_COVERED_PER_BITMAP_WORD) - 1));
+        long word;
+        do {
+            word = bitmap.getLong(wordIndex);
+            if ((word & bit) != 0L) {
+                return;
+            }
+            // Parallel markers may record locations in the same bitmap word concurrently.
+        } while (bitmap.compareAndSwapLong(wordOffset, word, word | bit) != word);
+        slotRegionInfo.setHasRememberedSlots(true);
+    }
+
+    /**
+     * Record the locations of the references of a live cell of the heap that refer to tracked regions.
+     * Called by the heap marker for every cell it visits while {@linkplain #isRecording() recording}.
+     *
+     * @param workerIndex index of the GC worker visiting the cell
+     * @param origin origin of the cell
+     * @param hub hub of the cell
+     */
+    public void recordReferences(int workerIndex, Pointer origin, Hub hub) {
+        final SlotRecorder slotRecorder = slotRecorders[workerIndex];
+        slotRecorder.visit(origin, Layout.hubIndex());
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout()) {
+            TupleReferenceMap.visitReferences(hub, origin, slotRecorder);
+            if (hub.isJLRReference) {
+                // Referents kept alive by reference processing must be updated too.
+                slotRecorder.visit(origin, SpecialReferenceManager.referentIndex());
+            }
+        } else if (specificLayout.isHybridLayout()) {
+            TupleReferenceMap.visitReferences(hub, origin, slotRecorder);
+        } else if (specificLayout.isReferenceArrayLayout()) {
+            final int length = Layout.readArrayLength(origin) + Layout.firstElementIndex();
+            for (int index = Layout.firstElementIndex(); index < length; index++) {
+                slotRecorder.visit(origin, index);
+            }
+        }
+    }
+
+    /**
+     * Apply an evacuator to the locations recorded in regions outside of the collection set, and clear the remembered set.
+     * Locations in regions of the collection set are dropped: their cells are evacuated and scanned at their new location.
+     *
+     * @param evacuator the evacuator of the collection set
+     */
+    void visitRememberedSlots(Evacuator evacuator) {
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final int firstRegionID = regionTable.regionID(coveredAreaStart);
+        final int lastRegionID = regionTable.regionID(coveredAreaEnd.minus(1));
+        final int wordsPerRegion = regionSizeInBytes >>> (Word.widthValue().log2numberOfBytes + LOG2_WORDS_COVERED_PER_BITMAP_WORD);
+        for (int regionID = firstRegionID; regionID <= lastRegionID; regionID++) {
+            final HeapRegionInfo regionInfo = regionTable.regionInfo(regionID);
+            if (!regionInfo.hasRememberedSlots()) {
+                continue;
+            }
+            regionInfo.setHasRememberedSlots(false);
+            final Address regionStart = regionInfo.regionStart();
+            final int firstWordIndex = bitIndex(regionStart) >>> LOG2_WORDS_COVERED_PER_BITMAP_WORD;
+            final int endWordIndex = firstWordIndex + wordsPerRegion;
+            for (int wordIndex = firstWordIndex; wordIndex < endWordIndex; wordIndex++) {
+                long word = bitmap.getLong(wordIndex);
+                if (word == 0L) {
+                    continue;
+                }
+                bitmap.setLong(wordIndex, 0L);
+                if (regionInfo.isInCollectionSet()) {
+                    continue;
+                }
+                final Pointer firstSlot = coveredAreaStart.plusWords(wordIndex << LOG2_WORDS_COVERED_PER_BITMAP_WORD).asPointer();
+                do {
+                    final int bitInWord = Long.numberOfTrailingZeros(word);
+                    evacuator.visit(firstSlot.plusWords(bitInWord), 0);
+                    word &= word - 1;
+                } while (word != 0L);
+            }
+        }
+    }
+}
@@ -75,6 +75,22 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     private boolean refDiscoveryEnabled = true;
 
+    /**
+     * Indicates whether special references may be discovered concurrently by other evacuators.
+     */
+    private boolean concurrentRefDiscovery = false;
+
+    /**
+     * When set, references to the evacuated area are not updated but handed over to {@link #deferEvacuatedRef(Pointer)}.
+     */
+    private boolean evacuationDeferred = false;
+
+    /**
+     * When set, some cells of the evacuated area are retained in place by the current evacuation (see {@link PinnedRegions}).
+     * References to these cells from outside of the evacuated area must be remembered.
+     */
+    private boolean retainsCells = false;
+
     private GCOperation currentGCOperation;
 
     private EvacuationTimers timers;
@@ -98,7 +114,11 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     private void updateSpecialReference(Pointer origin) {
         if (refDiscoveryEnabled) {
-            SpecialReferenceManager.discoverSpecialReference(origin);
+            if (concurrentRefDiscovery) {
+                SpecialReferenceManager.discoverSpecialReferenceConcurrently(origin);
+            } else {
+                SpecialReferenceManager.discoverSpecialReference(origin);
+            }
         } else {
             // Treat referent as strong reference.
             if (traceEvacVisitedCell()) {
@@ -120,6 +140,33 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         refDiscoveryEnabled = false;
     }
 
+    final void setConcurrentRefDiscovery(boolean flag) {
+        concurrentRefDiscovery = flag;
+    }
+
+    final void setEvacuationDeferred(boolean flag) {
+        evacuationDeferred = flag;
+    }
+
+    final void setRetainsCells(boolean flag) {
+        retainsCells = flag;
+    }
+
+    @INLINE
+    final boolean retainsCells() {
+        return retainsCells;
+    }
+
+    /**
+     * Record the location of a reference to the evacuated area for later update, when evacuation is deferred.
+     * Evacuators that defer evacuation must override this.
+     *
+     * @param refLocation address of a reference to a cell of the evacuated area
+     */
+    void deferEvacuatedRef(Pointer refLocation) {
+        FatalError.unexpected("evacuation cannot be deferred");
+    }
+
     @INLINE
     private void updateReferenceArray(Pointer refArrayOrigin, final int firstIndex, final int length) {
         for (int index = firstIndex; index < length; index++) {
@@ -190,6 +237,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     /**
      * Remembered set updates to apply to a reference to an evacuated cell.
+     * Also applied to references found outside of the evacuated area while evacuation is deferred.
      * Default is to do nothing.
      *
      * @param refHolderOrigin origin of the reference holder
@@ -269,9 +317,17 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         final Reference ref = refHolderOrigin.getReference(wordIndex);
         final Pointer origin = ref.toOrigin();
         if (inEvacuatedArea(origin)) {
+            if (evacuationDeferred) {
+                deferEvacuatedRef(refHolderOrigin.plusWords(wordIndex));
+                return;
+            }
             final Reference forwardRef = MaxineVM.isDebug() ? getForwardRef(origin, refHolderOrigin.plusWords(wordIndex)) : getForwardRef(origin);
             refHolderOrigin.setReference(wordIndex, forwardRef);
             updateRSet(refHolderOrigin, wordIndex, forwardRef);
+        } else if (evacuationDeferred || retainsCells) {
+            // The card holding the reference was cleaned before the reference was visited. The reference may be to a cell
+            // already evacuated during this evacuation, or to a cell retained in place, so the remembered set must be maintained.
+            updateRSet(refHolderOrigin, wordIndex, ref);
         }
     }
 
@@ -308,6 +364,11 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         return true;
     }
 
+    @Override
+    public void completeClosure() {
+        evacuateReachables();
+    }
+
     /**
      * Evacuate all objects of the evacuated area directly reachable from roots (thread stacks, monitors, etc.).
      */
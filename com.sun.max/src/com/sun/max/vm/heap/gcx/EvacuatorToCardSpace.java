@@ -28,12 +28,15 @@ import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.heap.gcx.EvacuatingSpace.SpaceBounds;
 import com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION;
 import com.sun.max.vm.heap.gcx.rset.ctbl.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 /**
  * A heap space evacuator that evacuates objects from one space to a card-table covered space.
@@ -93,6 +96,54 @@ public class EvacuatorToCardSpace extends Evacuator {
      */
     private Size evacuatedBytes;
 
+    /**
+     * Heap marker tracing the to-space concurrently, if any. Evacuated cells are marked black in its color map.
+     */
+    private TricolorHeapMarker promotedCellsMarker;
+
+    /**
+     * Survivor spaces of the evacuated nursery if it ages objects, null otherwise.
+     * Evacuated cells younger than the tenuring threshold are copied to the survivor to-space instead of the to-space.
+     */
+    private SurvivorSpaces survivorSpaces;
+
+    /**
+     * Tracks the cells of pinned regions of the evacuated space, if any. These cells are retained in place and scanned as roots of the evacuation.
+     */
+    private PinnedRegions pinnedRegions;
+
+    /**
+     * Index of the GC worker running this evacuator. Used to account evacuated cells to the worker's table of the {@link LiveClassHistogram}.
+     */
+    private int workerIndex;
+
+    /**
+     * Allocation hand to the evacuator's private buffer in the survivor to-space.
+     */
+    @INSPECTED
+    private Pointer survivorBufferTop = Pointer.zero();
+
+    /**
+     * End of the evacuator's private buffer in the survivor to-space.
+     */
+    @INSPECTED
+    private Pointer survivorBufferEnd = Pointer.zero();
+
+    /**
+     * Mark to keep track of survivor ranges in the survivor to-space.
+     */
+    private Pointer survivorBufferRangeStart = Pointer.zero();
+
+    /**
+     * Set when the survivor to-space has no room left for the evacuator's requests. Remaining survivors are then promoted.
+     */
+    private boolean survivorSpaceExhausted;
+
+    /**
+     * Size of the buffers evacuators allocate in the survivor to-space.
+     */
+    private static final int SURVIVOR_BUFFER_SIZE = 8 * 1024;
+
    /**
      * Allocation hand to the evacuator's private promotion space.
      */
@@ -149,6 +200,39 @@ public class EvacuatorToCardSpace extends Evacuator {
 
     private final EvacuationLogger logger;
 
+    /**
+     * Minimum amount of evacuated bytes an evacuator accumulates before making them available for stealing
+     * to other evacuators as a survivor range, when evacuating in parallel.
+     */
+    private static final int PARALLEL_SURVIVOR_RANGE_SIZE = 8 * 1024;
+
+    /**
+     * Indicates whether the evacuator currently runs in parallel with other evacuators.
+     */
+    private boolean parallel;
+
+    /**
+     * Lock serializing the refills of evacuation buffers and the overflow allocations in the to-space
+     * when evacuating in parallel. Null if this evacuator never runs in parallel with others.
+     */
+    private GCSpinLock allocationLock;
+
+    /**
+     * Survivor ranges other evacuators may steal from when evacuating in parallel.
+     * Ranges that don't fit are recorded in {@link #survivorRanges}.
+     */
+    private SurvivorRangesDeque stealableSurvivorRanges;
+
+    /**
+     * Locations of references to the evacuated area found while evacuation was {@linkplain #setEvacuationDeferred(boolean) deferred}.
+     */
+    private WorkStealingDeque deferredRefs;
+
+    /**
+     * Set if a deferred reference location didn't fit in {@link #deferredRefs}. The card holding the location was re-dirtied instead.
+     */
+    private boolean deferredRefsOverflowed;
+
     private long [] opEvacuationMarks = new long[TIMED_OPERATION.values().length];
 
     @Override
@@ -157,13 +241,24 @@ public class EvacuatorToCardSpace extends Evacuator {
     }
 
     public EvacuatorToCardSpace(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
+        this(fromSpace, toSpace, evacuationBufferProvider, rset, new EvacuationLogger(name));
+    }
+
+    /**
+     * Creates an evacuator that works in parallel with, and shares the logger of, another evacuator.
+     */
+    protected EvacuatorToCardSpace(EvacuatorToCardSpace master) {
+        this(master.fromSpace, master.toSpace, master.evacuationBufferProvider, master.rset, master.logger);
+    }
+
+    private EvacuatorToCardSpace(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, EvacuationLogger logger) {
         this.fromSpace = fromSpace;
         this.toSpace = toSpace;
         this.rset = rset;
         this.cfoTable = rset.cfoTable;
         this.evacuationBufferProvider = evacuationBufferProvider;
         this.evacuatedAreaBounds = fromSpace.bounds();
-        this.logger = new EvacuationLogger(name);
+        this.logger = logger;
     }
 
     public void setEvacuationSpace(EvacuatingSpace fromSpace,  HeapSpace toSpace) {
@@ -187,6 +282,61 @@ public class EvacuatorToCardSpace extends Evacuator {
         this.retireAfterEvacuation = retireAfterEvacuation;
     }
 
+    /**
+     * Prepare the evacuator for running in parallel with other evacuators.
+     *
+     * @param allocationLock lock shared by all the evacuators running in parallel
+     * @param maxDeferredRefs capacity of the deque of deferred reference locations
+     * @param maxStealableRanges capacity of the deque of survivor ranges other evacuators may steal from
+     */
+    public void initializeParallelEvacuation(GCSpinLock allocationLock, int maxDeferredRefs, int maxStealableRanges) {
+        this.allocationLock = allocationLock;
+        if (deferredRefs == null) {
+            deferredRefs = new WorkStealingDeque();
+            deferredRefs.initialize(maxDeferredRefs);
+            stealableSurvivorRanges = new SurvivorRangesDeque();
+            stealableSurvivorRanges.initialize(maxStealableRanges);
+        }
+    }
+
+    /**
+     * Set the heap marker that must mark evacuated cells black because it is tracing the to-space concurrently.
+     *
+     * @param heapMarker a heap marker with a concurrent marking cycle in progress, or null to stop marking evacuated cells
+     */
+    public void setPromotedCellsMarker(TricolorHeapMarker heapMarker) {
+        promotedCellsMarker = heapMarker;
+    }
+
+    /**
+     * Set the survivor spaces where the evacuator copies cells of the nursery that haven't reached the tenuring threshold.
+     * The evacuator maintains the remembered set of the survivor spaces: cards holding references from outside of the nursery
+     * to the survivor to-space are left dirty.
+     *
+     * The bounds of the evacuated area are refreshed from the evacuated space, which must already include its survivor from-space.
+     *
+     * @param survivorSpaces survivor spaces of the evacuated nursery, or null to promote all evacuated cells
+     */
+    public void setSurvivorSpaces(SurvivorSpaces survivorSpaces) {
+        this.survivorSpaces = survivorSpaces;
+        evacuatedAreaBounds = fromSpace.bounds();
+    }
+
+    /**
+     * Set the tracker of the cells the evacuated space retains in its pinned regions. The evacuated space is responsible for recording the retained
+     * cells when its {@link HeapSpace#doBeforeGC()} method is called. Retained cells are left in place and scanned as roots of the evacuation.
+     * Cards holding references from outside of the evacuated area to retained cells are left dirty.
+     *
+     * @param pinnedRegions the tracker of retained cells of the evacuated space, or null if the evacuated space doesn't support pinning
+     */
+    public void setPinnedRegions(PinnedRegions pinnedRegions) {
+        this.pinnedRegions = pinnedRegions;
+    }
+
+    final void setWorkerIndex(int workerIndex) {
+        this.workerIndex = workerIndex;
+    }
+
     /**
      * Number of bytes evacuated in the last evacuation.
      * @return a number of bytes
@@ -209,13 +359,45 @@ public class EvacuatorToCardSpace extends Evacuator {
 
     @Override
     protected void doBeforeEvacuation() {
+        LiveClassHistogram.begin("evacuation");
         fromSpace.doBeforeGC();
+        prepareEvacuationBuffer();
+        if (logger.enabled()) {
+            SpaceBounds toSpaceBounds = toSpace.bounds();
+            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
+        }
+        setRetainsCells(pinnedRegions != null && !pinnedRegions.isEmpty());
+        if (retainsCells()) {
+            // Retained cells are in the evacuated area: they are scanned as roots but never forwarded.
+            final int numRanges = pinnedRegions.numRanges();
+            for (int i = 0; i < numRanges; i++) {
+                final Address start = pinnedRegions.rangeStart(i);
+                final Address end = pinnedRegions.rangeEnd(i);
+                survivorRanges.add(start, end);
+                if (logger.enabled()) {
+                    logger.logPrefillSurvivorRanges(start, end);
+                }
+            }
+            if (Heap.verbose()) {
+                Log.print("Retaining ");
+                Log.print(pinnedRegions.retainedSpace().toLong());
+                Log.print(" bytes in ");
+                Log.print(numRanges);
+                Log.println(" ranges of pinned regions");
+            }
+        }
+    }
+
+    /**
+     * Set up the evacuator's private promotion space for a new evacuation.
+     */
+    void prepareEvacuationBuffer() {
         evacuatedBytes = Size.zero();
         lastOverflowAllocatedRangeStart = Pointer.zero();
         lastOverflowAllocatedRangeEnd = Pointer.zero();
         debugRetired_ptop = Pointer.zero();
         if (ptop.isZero()) {
-            Address chunk = evacuationBufferProvider.refillEvacuationBuffer();
+            Address chunk = refillEvacuationBuffer();
             Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
             pnextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
             rset.notifyRefill(chunk, chunkSize);
@@ -224,20 +406,29 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
         initialEvacuationMark = ptop;
         allocatedRangeStart = ptop;
-        if (logger.enabled()) {
-            SpaceBounds toSpaceBounds = toSpace.bounds();
-            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
-        }
+        survivorBufferTop = Pointer.zero();
+        survivorBufferEnd = Pointer.zero();
+        survivorBufferRangeStart = Pointer.zero();
+        survivorSpaceExhausted = false;
     }
 
     @Override
     protected void doAfterEvacuation() {
-        survivorRanges.clear();
         fromSpace.doAfterGC();
-        Pointer limit = pend.plus(evacuationBufferHeadroom());
         if (logger.enabled()) {
-            logger.logEndEvacuation(limit);
+            logger.logEndEvacuation(pend.plus(evacuationBufferHeadroom()));
         }
+        releaseEvacuationBuffer();
+        LiveClassHistogram.end();
+    }
+
+    /**
+     * Make the space left in the evacuator's private promotion space iterable, and release it if required.
+     */
+    void releaseEvacuationBuffer() {
+        survivorRanges.clear();
+        releaseSurvivorBuffer();
+        Pointer limit = pend.plus(evacuationBufferHeadroom());
         Size spaceLeft = limit.minus(ptop).asSize();
         if ((alwaysRefill && spaceLeft.greaterThan(minObjectSize())) || spaceLeft.greaterEqual(minRefillThreshold)) {
             // Leave remaining space in an iterable format.
@@ -246,7 +437,7 @@ public class EvacuatorToCardSpace extends Evacuator {
             rset.notifyRetireFreeSpace(ptop, spaceLeft);
             if (retireAfterEvacuation) {
                 // Note: if an overflow occurred and the TLAB isn't in the toSpace but in some other space, the leftover will not be retired but simply formatted as dead object.
-                evacuationBufferProvider.retireEvacuationBuffer(ptop, limit);
+                retireEvacuationBuffer(ptop, limit);
                 // Will trigger refill in doBeforeEvacution on next GC
                 ptop = Pointer.zero();
                 pend = Pointer.zero();
@@ -262,6 +453,60 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
     }
 
+    /**
+     * End of the evacuator's private promotion space, including the headroom reserved for formatting the space left.
+     */
+    protected final Pointer evacuationBufferLimit() {
+        return pend.plus(evacuationBufferHeadroom());
+    }
+
+    /**
+     * Format the unused part of the evacuator's private promotion space so that the to-space can be walked over
+     * by other evacuators (e.g., to scan dirty cards) while this evacuator isn't allocating.
+     */
+    void makeEvacuationBufferIterable() {
+        if (ptop.isZero()) {
+            return;
+        }
+        final Pointer limit = pend.plus(evacuationBufferHeadroom());
+        final Size spaceLeft = limit.minus(ptop).asSize();
+        if (spaceLeft.greaterThan(minObjectSize())) {
+            HeapFreeChunk.format(ptop, spaceLeft);
+        } else if (!spaceLeft.isZero()) {
+            DarkMatter.format(ptop, spaceLeft);
+        }
+    }
+
+    private Address refillEvacuationBuffer() {
+        if (allocationLock == null) {
+            return evacuationBufferProvider.refillEvacuationBuffer();
+        }
+        allocationLock.lock();
+        final Address chunk = evacuationBufferProvider.refillEvacuationBuffer();
+        allocationLock.unlock();
+        return chunk;
+    }
+
+    private void retireEvacuationBuffer(Address startOfSpaceLeft, Address endOfSpaceLeft) {
+        if (allocationLock == null) {
+            evacuationBufferProvider.retireEvacuationBuffer(startOfSpaceLeft, endOfSpaceLeft);
+            return;
+        }
+        allocationLock.lock();
+        evacuationBufferProvider.retireEvacuationBuffer(startOfSpaceLeft, endOfSpaceLeft);
+        allocationLock.unlock();
+    }
+
+    private Pointer overflowAllocate(Size size) {
+        if (allocationLock == null) {
+            return toSpace.allocate(size);
+        }
+        allocationLock.lock();
+        final Pointer cell = toSpace.allocate(size);
+        allocationLock.unlock();
+        return cell;
+    }
+
     private void recordRange(Address start, Address end) {
         final Size rangeSize = end.minus(start).asSize();
         if (rangeSize.isZero()) {
@@ -271,13 +516,19 @@ public class EvacuatorToCardSpace extends Evacuator {
             DarkMatter.checkNoDarkMatterRef(start, end);
         }
         evacuatedBytes = evacuatedBytes.plus(rangeSize);
-        survivorRanges.add(start, end);
+        if (!parallel || !stealableSurvivorRanges.push(start, end)) {
+            survivorRanges.add(start, end);
+        }
         if (logger.enabled()) {
             logger.logUpdateSurvivorRange(start, end);
         }
     }
 
     private void updateSurvivorRanges() {
+        if (survivorBufferTop.greaterThan(survivorBufferRangeStart)) {
+            recordRange(survivorBufferRangeStart, survivorBufferTop);
+            survivorBufferRangeStart = survivorBufferTop;
+        }
         if (ptop.greaterThan(allocatedRangeStart)) {
             // Something was allocated in the current evacuation allocation buffer.
             recordRange(allocatedRangeStart, ptop);
@@ -308,6 +559,22 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
     }
 
+    /**
+     * Prefill survivor ranges with a range of cells outside of the evacuated area and of the to-space that must be scanned as roots of the evacuation,
+     * e.g., the survivor spaces of a nursery when the old generation is evacuated.
+     * This must be done before evacuation start.
+     *
+     * @param start start of the range (inclusive)
+     * @param end end of the range (exclusive)
+     */
+    public void prefillRootRange(Address start, Address end) {
+        FatalError.check(!evacuatedAreaBounds.isIn(start) && !toSpace.contains(start), "Range must be outside of the evacuated area and of the to-space");
+        survivorRanges.add(start, end);
+        if (logger.enabled()) {
+            logger.logPrefillSurvivorRanges(start, end);
+        }
+    }
+
     private Address debugRetired_ptop = Address.zero(); // FIXME: just for debugging for now
 
     protected Pointer refillOrAllocate(Size size) {
@@ -324,7 +591,7 @@ public class EvacuatorToCardSpace extends Evacuator {
                 // Retire and update FOT accordingly
                 // FIXME: same as  rset.notifyRetireDeadSpace(ptop, limit.minus(ptop).asSize()) but faster. It'll be cleaner to use the rset interface though.
                 cfoTable.set(ptop, limit);
-                evacuationBufferProvider.retireEvacuationBuffer(ptop, limit);
+                retireEvacuationBuffer(ptop, limit);
                 if (MaxineVM.isDebug()) {
                     final Address deadSpaceLastWordAddress = limit.minus(Word.size());
                     if (CardTableRSet.alignDownToCard(ptop).lessThan(CardTableRSet.alignDownToCard(deadSpaceLastWordAddress))) {
@@ -335,7 +602,7 @@ public class EvacuatorToCardSpace extends Evacuator {
             // Check if there is another chunk in the lab.
             Address chunk = pnextChunk;
             if (chunk.isZero()) {
-                chunk = evacuationBufferProvider.refillEvacuationBuffer();
+                chunk = refillEvacuationBuffer();
                 FatalError.check(!chunk.isZero() && (alwaysRefill || HeapFreeChunk.getFreechunkSize(chunk).greaterEqual(minRefillThreshold)), "refill request should always succeed");
             }
             pnextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
@@ -356,7 +623,7 @@ public class EvacuatorToCardSpace extends Evacuator {
             return Pointer.zero();
         }
         // Overflow allocate
-        final Pointer cell = toSpace.allocate(size);
+        final Pointer cell = overflowAllocate(size);
         // Allocator must have already fire a notifySplitLive event to the space's DeadSpaceListener (i.e., the CardTableRSet in this case).
         if (!cell.equals(lastOverflowAllocatedRangeEnd)) {
             if (lastOverflowAllocatedRangeEnd.greaterThan(lastOverflowAllocatedRangeStart)) {
@@ -367,10 +634,99 @@ public class EvacuatorToCardSpace extends Evacuator {
         lastOverflowAllocatedRangeEnd = cell.plus(size);
         return cell;
     }
+    /**
+     * Make the space left in the evacuator's survivor buffer iterable and drop the buffer.
+     */
+    private void releaseSurvivorBuffer() {
+        final Size spaceLeft = survivorBufferEnd.minus(survivorBufferTop).asSize();
+        if (!spaceLeft.isZero()) {
+            DarkMatter.format(survivorBufferTop, spaceLeft);
+        }
+        survivorBufferTop = Pointer.zero();
+        survivorBufferEnd = Pointer.zero();
+        survivorBufferRangeStart = Pointer.zero();
+    }
+
+    /**
+     * Refill the evacuator's survivor buffer with enough space for a cell of the specified size.
+     * @return the start of the new buffer, or zero if the survivor to-space is exhausted
+     */
+    private Pointer refillSurvivorBuffer(Size size) {
+        if (survivorSpaceExhausted) {
+            return Pointer.zero();
+        }
+        if (survivorBufferTop.greaterThan(survivorBufferRangeStart)) {
+            recordRange(survivorBufferRangeStart, survivorBufferTop);
+        }
+        releaseSurvivorBuffer();
+        Size bufferSize = size.greaterThan(SURVIVOR_BUFFER_SIZE) ? size : Size.fromInt(SURVIVOR_BUFFER_SIZE);
+        Pointer buffer = survivorSpaces.allocate(bufferSize);
+        if (buffer.isZero()) {
+            // Not enough room left for a full buffer. Try the exact size.
+            bufferSize = size;
+            buffer = survivorSpaces.allocate(bufferSize);
+            if (buffer.isZero()) {
+                survivorSpaceExhausted = true;
+                return Pointer.zero();
+            }
+        }
+        survivorBufferTop = buffer;
+        survivorBufferRangeStart = buffer;
+        survivorBufferEnd = buffer.plus(bufferSize);
+        return buffer;
+    }
+
+    /**
+     * Allocate space in the survivor to-space for a cell of the nursery that hasn't reached the tenuring threshold, and
+     * record the age of its copy.
+     *
+     * @param fromCell the cell being evacuated
+     * @param size size of the cell
+     * @return the address of the copy, or zero if the cell must be promoted
+     */
+    private Pointer allocateInSurvivorSpace(Pointer fromCell, Size size) {
+        if (survivorSpaces == null) {
+            return Pointer.zero();
+        }
+        final int age = survivorSpaces.ageOf(fromCell);
+        if (age >= survivorSpaces.tenuringThreshold()) {
+            return Pointer.zero();
+        }
+        Pointer cell = survivorBufferTop;
+        if (cell.plus(size).greaterThan(survivorBufferEnd)) {
+            cell = refillSurvivorBuffer(size);
+            if (cell.isZero()) {
+                return Pointer.zero();
+            }
+        }
+        survivorBufferTop = cell.plus(size);
+        survivorSpaces.setAge(cell, age + 1);
+        return cell;
+    }
+
+    @Override
+    void updateRSet(Pointer refHolderOrigin, int wordIndex, Reference ref) {
+        if (survivorSpaces != null && survivorSpaces.inToSpace(ref.toOrigin())) {
+            // The reference must be remembered until the referenced survivor is evacuated again, unless the holder is itself in the nursery.
+            final Pointer refLocation = refHolderOrigin.plusWords(wordIndex);
+            final CardTable cardTable = rset.cardTable;
+            if (!survivorSpaces.contains(refLocation) && cardTable.isCovered(refLocation)) {
+                cardTable.dirty(cardTable.tableEntryIndex(refLocation));
+            }
+        } else if (retainsCells() && evacuatedAreaBounds.isIn(ref.toOrigin())) {
+            // The reference is to a retained cell. It must be remembered until the cell is evacuated, unless the holder is itself in the evacuated area.
+            final Pointer refLocation = refHolderOrigin.plusWords(wordIndex);
+            final CardTable cardTable = rset.cardTable;
+            if (!evacuatedAreaBounds.isIn(refLocation) && cardTable.isCovered(refLocation)) {
+                cardTable.dirty(cardTable.tableEntryIndex(refLocation));
+            }
+        }
+    }
+
     @INLINE
     @Override
     final boolean inEvacuatedArea(Pointer origin) {
-        return evacuatedAreaBounds.isIn(origin);
+        return evacuatedAreaBounds.isIn(origin) && !(retainsCells() && PinnedRegions.isRetained(origin));
     }
 
     /**
@@ -400,20 +756,202 @@ public class EvacuatorToCardSpace extends Evacuator {
         if (MaxineVM.isDebug() && checkDarkMatterRefs) {
             DarkMatter.scanCellForDarkMatter(fromOrigin);
         }
+        if (parallel) {
+            return evacuateConcurrently(fromOrigin);
+        }
         final Pointer fromCell = Layout.originToCell(fromOrigin);
         final Size size = Layout.size(fromOrigin);
-        final Pointer toCell = allocate(size);
+        if (LiveClassHistogram.isRecording()) {
+            LiveClassHistogram.record(workerIndex, UnsafeCast.asHub(Layout.readHubReference(fromOrigin).toJava()), size);
+        }
+        Pointer toCell = allocateInSurvivorSpace(fromCell, size);
+        final boolean promoted = toCell.isZero();
+        if (promoted) {
+            toCell = allocate(size);
+        }
         Memory.copyBytes(fromCell, toCell, size);
+        if (promoted && promotedCellsMarker != null) {
+            promotedCellsMarker.markAllocatedBlack(toCell);
+        }
+        if (promoted && StringDeduplication.isEnabled() && StringDeduplication.isStringHub(UnsafeCast.asHub(Layout.readHubReference(fromOrigin).toJava()))) {
+            StringDeduplication.enqueue(toCell);
+        }
         return toCell;
     }
 
+    /**
+     * Size of a cell computed from its hub. Used when the hub word of the cell may be concurrently overwritten with a forwarding reference.
+     */
+    private static Size cellSize(Pointer origin, Hub hub) {
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout()) {
+            return hub.tupleSize;
+        }
+        final int length = Layout.readArrayLength(origin);
+        if (specificLayout.isHybridLayout()) {
+            return Layout.hybridLayout().getArraySize(length);
+        }
+        return Layout.arrayLayout().getArraySize(hub.classActor.componentClassActor().kind, length);
+    }
+
+    /**
+     * Evacuate a cell that other evacuators may try to evacuate at the same time.
+     * The cell is copied first, then the forwarding reference is installed atomically. The copy of the evacuators that
+     * failed to install their forwarding reference is undone.
+     *
+     * @param fromOrigin origin of the cell to evacuate
+     * @return origin of the cell after evacuation
+     */
+    private Pointer evacuateConcurrently(Pointer fromOrigin) {
+        final Reference hubRef = Layout.readHubReference(fromOrigin);
+        if (hubRef.isMarked()) {
+            // Already evacuated by another evacuator.
+            return hubRef.unmarked().toOrigin();
+        }
+        final Pointer fromCell = Layout.originToCell(fromOrigin);
+        final Size size = cellSize(fromOrigin, UnsafeCast.asHub(hubRef.toJava()));
+        Pointer toCell = allocateInSurvivorSpace(fromCell, size);
+        final boolean promoted = toCell.isZero();
+        if (promoted) {
+            toCell = allocate(size);
+        }
+        Memory.copyBytes(fromCell, toCell, size);
+        final Pointer toOrigin = Layout.cellToOrigin(toCell);
+        final Reference witness = Layout.compareAndSwapForwardRef(fromOrigin, hubRef, Reference.fromOrigin(toOrigin));
+        if (witness.toOrigin().equals(hubRef.toOrigin())) {
+            if (promoted && promotedCellsMarker != null) {
+                promotedCellsMarker.markAllocatedBlack(toCell);
+            }
+            if (promoted && StringDeduplication.isEnabled() && StringDeduplication.isStringHub(UnsafeCast.asHub(hubRef.toJava()))) {
+                StringDeduplication.enqueue(toCell);
+            }
+            if (LiveClassHistogram.isRecording()) {
+                LiveClassHistogram.record(workerIndex, UnsafeCast.asHub(hubRef.toJava()), size);
+            }
+            if (ptop.minus(allocatedRangeStart).greaterEqual(PARALLEL_SURVIVOR_RANGE_SIZE) ||
+                            survivorBufferTop.minus(survivorBufferRangeStart).greaterEqual(PARALLEL_SURVIVOR_RANGE_SIZE) ||
+                            lastOverflowAllocatedRangeEnd.greaterThan(lastOverflowAllocatedRangeStart)) {
+                // Make the survivors available to other evacuators.
+                updateSurvivorRanges();
+            }
+            return toOrigin;
+        }
+        // Lost the race with another evacuator.
+        if (!promoted && toCell.plus(size).equals(survivorBufferTop)) {
+            survivorBufferTop = toCell;
+        } else if (promoted && toCell.plus(size).equals(ptop)) {
+            ptop = toCell;
+        } else {
+            DarkMatter.format(toCell, size);
+        }
+        return witness.unmarked().toOrigin();
+    }
+
+    /**
+     * Set whether the evacuator runs in parallel with other evacuators.
+     */
+    void setParallel(boolean flag) {
+        FatalError.check(!flag || allocationLock != null, "evacuator not initialized for parallel evacuation");
+        parallel = flag;
+        setConcurrentRefDiscovery(flag);
+        if (flag) {
+            // Offer survivors evacuated so far to other evacuators.
+            updateSurvivorRanges();
+            while (!survivorRanges.isEmpty() && stealableSurvivorRanges.push(survivorRanges.start(), survivorRanges.end())) {
+                survivorRanges.remove();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the evacuator currently runs in parallel with other evacuators.
+     */
+    final boolean isParallel() {
+        return parallel;
+    }
+
+    @Override
+    void deferEvacuatedRef(Pointer refLocation) {
+        if (!deferredRefs.push(refLocation)) {
+            // Leave it to the next scan of dirty cards.
+            rset.cardTable.dirty(rset.cardTable.tableEntryIndex(refLocation));
+            deferredRefsOverflowed = true;
+        }
+    }
+
+    /**
+     * Indicates whether locations of references to the evacuated area had to be left in dirty cards since the last call.
+     */
+    boolean checkAndClearDeferredRefsOverflow() {
+        final boolean result = deferredRefsOverflowed;
+        deferredRefsOverflowed = false;
+        return result;
+    }
+
+    /**
+     * Indicates whether this evacuator has work other evacuators may steal.
+     */
+    boolean hasStealableWork() {
+        return !deferredRefs.isEmpty() || !stealableSurvivorRanges.isEmpty();
+    }
+
+    /**
+     * Process all the deferred reference updates and survivor ranges local to this evacuator, including those resulting from
+     * the processing itself. Used when evacuating in parallel.
+     */
+    void evacuateLocalReachables() {
+        do {
+            Pointer refLocation = deferredRefs.pop();
+            while (!refLocation.isZero()) {
+                updateEvacuatedRef(refLocation, 0);
+                refLocation = deferredRefs.pop();
+            }
+            while (stealableSurvivorRanges.pop()) {
+                evacuateSurvivorRange(stealableSurvivorRanges.start(), stealableSurvivorRanges.end());
+            }
+            while (!survivorRanges.isEmpty()) {
+                final Pointer start = survivorRanges.start();
+                final Pointer end = survivorRanges.end();
+                survivorRanges.remove();
+                evacuateSurvivorRange(start, end);
+            }
+            updateSurvivorRanges();
+        } while (!deferredRefs.isEmpty() || !stealableSurvivorRanges.isEmpty() || !survivorRanges.isEmpty());
+    }
+
+    /**
+     * Steal a unit of work from another evacuator and process it.
+     *
+     * @param victim the evacuator to steal from
+     * @return true if some work was stolen
+     */
+    boolean stealReachables(EvacuatorToCardSpace victim) {
+        final Pointer refLocation = victim.deferredRefs.steal();
+        if (!refLocation.isZero()) {
+            updateEvacuatedRef(refLocation, 0);
+            return true;
+        }
+        if (stealableSurvivorRanges.steal(victim.stealableSurvivorRanges)) {
+            evacuateSurvivorRange(stealableSurvivorRanges.start(), stealableSurvivorRanges.end());
+            return true;
+        }
+        return false;
+    }
+
+    private void evacuateSurvivorRange(Pointer start, Pointer end) {
+        if (logger.enabled()) {
+            logger.logEvacuateSurvivorRange(start, end);
+        }
+        evacuateRange(start, end);
+    }
+
     private boolean checkDarkMatterRefs = false;
     public void enableDarkMatterRefCheck(boolean b) {
         checkDarkMatterRefs = MaxineVM.isDebug() && b;
     }
 
     @Override
-    final protected void evacuateReachables() {
+    protected void evacuateReachables() {
         updateSurvivorRanges();
         while (!survivorRanges.isEmpty()) {
             final Pointer start = survivorRanges.start();
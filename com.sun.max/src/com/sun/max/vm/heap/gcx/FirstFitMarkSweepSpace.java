@@ -26,6 +26,7 @@ import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionInfo.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 
+import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
@@ -36,6 +37,7 @@ import com.sun.max.vm.heap.gcx.HeapRegionInfo.Flag;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
 /**
  * A region-based, mark-sweep heap space, with bump pointer allocation only.
  * Each partially occupied region has a list of addressed ordered free chunks, used to allocate TLAB refills.
@@ -47,8 +49,32 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     private static final OutOfMemoryError outOfMemoryError = new OutOfMemoryError();
 
     public static boolean TraceLargeObjectAllocations = false;
+    static boolean LazySweep = false;
+    static boolean BackgroundSweep = false;
+    static int BackgroundSweepInterval = 10;
+    static boolean BackgroundZeroing = false;
+    static int BackgroundZeroingInterval = 10;
+    static boolean UncommitIdleRegions = false;
+    static int UncommitAfterGCs = 4;
+    static int UncommitDelay = 0;
     static {
         VMOptions.addFieldOption("-XX:", "TraceLargeObjectAllocations", FirstFitMarkSweepSpace.class, "Trace allocation of large multi-regions objects", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LazySweep", FirstFitMarkSweepSpace.class,
+                        "Sweep regions of mark-sweep spaces on demand after a GC instead of during the GC pause", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "BackgroundSweep", FirstFitMarkSweepSpace.class,
+                        "Sweep regions left unswept by a GC with a background thread (requires -XX:+LazySweep)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "BackgroundSweepInterval", FirstFitMarkSweepSpace.class,
+                        "Time (in milliseconds) the background sweeper waits for before checking again for unswept regions", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "BackgroundZeroing", FirstFitMarkSweepSpace.class,
+                        "Zero-fill empty regions of mark-sweep spaces with a background thread so that allocation needs not zero their memory", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "BackgroundZeroingInterval", FirstFitMarkSweepSpace.class,
+                        "Time (in milliseconds) the background zeroer waits for before checking again for empty regions to zero-fill", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UncommitIdleRegions", FirstFitMarkSweepSpace.class,
+                        "Give back to the OS the memory of empty regions of mark-sweep spaces that stay unused, and commit it again on demand", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UncommitAfterGCs", FirstFitMarkSweepSpace.class,
+                        "Number of GCs empty regions must stay unused for before being uncommitted (requires -XX:+UncommitIdleRegions)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UncommitDelay", FirstFitMarkSweepSpace.class,
+                        "Time (in milliseconds) empty regions must stay unused for before being uncommitted, 0 to only count GCs (requires -XX:+UncommitIdleRegions)", Phase.PRISTINE);
     }
 
     /**
@@ -84,6 +110,81 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
      */
     private HeapRegionList sweepList;
 
+    /**
+     * List of regions of this space whose memory was given back to the OS. These regions are in the {@link HeapRegionState#UNCOMMITTED_REGION} state,
+     * and are committed again on demand when the other lists cannot satisfy an allocation. Address-ordered.
+     */
+    private HeapRegionList uncommittedRegions;
+
+    /**
+     * List of regions withheld from allocation because they are candidates for evacuation by a mixed collection (see {@link CollectionSetEvacuator}).
+     * Regions are added by the sweeper, in address order, and are made available for allocation again at the end of the GC.
+     */
+    private HeapRegionList evacuationCandidates;
+
+    /**
+     * Maximum amount of live data, in bytes, of a swept region for the region to become an evacuation candidate. Zero if the space doesn't
+     * designate evacuation candidates.
+     */
+    private int evacuationCandidateMaxLiveBytes;
+
+    /**
+     * Total free space in the regions of the {@link #evacuationCandidates} list. This space isn't available for allocation.
+     */
+    private Size evacuationCandidatesFreeSpace = Size.zero();
+
+    /**
+     * Minimum number of committed regions. Regions are never uncommitted below the initial size of the space.
+     */
+    private int minCommittedRegions;
+
+    /**
+     * Lowest number of empty regions left unused by the mutator observed since the beginning of the current idle window.
+     * These many regions could have been uncommitted without impeding allocation.
+     */
+    private int idleRegionsLowWaterMark = Integer.MAX_VALUE;
+
+    /**
+     * Number of GCs since the beginning of the current idle window.
+     */
+    private int idleWindowGCs;
+
+    /**
+     * Time (in milliseconds) the current idle window began at.
+     */
+    private long idleWindowStart;
+
+    /**
+     * Heap marker whose color map the regions left in the {@link #sweepList} are swept with when sweeping lazily.
+     * Null when there are no regions left to sweep.
+     */
+    private TricolorHeapMarker lazySweepHeapMarker;
+
+    /**
+     * Indicate whether lazy sweeping is imprecise.
+     */
+    private boolean lazySweepImprecise;
+
+    /**
+     * Total space of the regions left to sweep.
+     */
+    private Size unsweptSpace = Size.zero();
+
+    /**
+     * Live bytes of the regions left to sweep, as counted from the marks of the last GC.
+     */
+    private long unsweptLiveBytes;
+
+    /**
+     * Thread sweeping regions left unswept by a GC in the background. Null if the space doesn't support background sweeping.
+     */
+    private VmThread backgroundSweeperThread;
+
+    /**
+     * Thread zero-filling empty regions in the background. Null if the space doesn't support background zeroing.
+     */
+    private VmThread backgroundZeroerThread;
+
     /**
      * Total number of regions currently allocated to this heap space.
      */
@@ -294,7 +395,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 if (MaxineVM.isDebug()) {
                     checkForSuspisciousGC(gcCount++);
                 }
-            } while (Heap.collectGarbage()); // Always collect for at least one region.
+            } while (completeLazySweep() || recommitRegions(numContiguousRegionNeeded) > 0 || Heap.collectGarbage()); // Always collect for at least one region.
             // Not enough freed memory.
             throw outOfMemoryError;
         }
@@ -302,10 +403,37 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     Pointer allocateLargeCleared(Size size) {
         Pointer cell = allocateLarge(size);
-        Memory.clearWords(cell, size.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        // The regions of the cell aren't empty anymore, so the background zeroer cannot change their zero-filled indication.
+        final int firstRegion = RegionTable.theRegionTable().regionID(cell);
+        final int lastRegion = RegionTable.theRegionTable().regionID(cell.plus(size).minus(1));
+        boolean zeroFilled = true;
+        for (int regionID = firstRegion; regionID <= lastRegion && zeroFilled; regionID++) {
+            zeroFilled = fromRegionID(regionID).isZeroFilled();
+        }
+        if (!zeroFilled) {
+            Memory.clearWords(cell, size.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+            return cell;
+        }
+        // Only the free chunk headers the cell overlaps are left to clear: the one at the cell, and those at the start of the other regions.
+        final int headerWords = HeapFreeChunk.heapFreeChunkHeaderSize().unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt();
+        Memory.clearWords(cell, headerWords);
+        for (int regionID = firstRegion + 1; regionID <= lastRegion; regionID++) {
+            Memory.clearWords(fromRegionID(regionID).regionStart().asPointer(), headerWords);
+        }
         return cell;
     }
 
+    /**
+     * Indicates whether a chunk of free space handed out by the space is zero-filled, except for its {@link HeapFreeChunk} header.
+     * The indication is only meaningful for chunks obtained from the space since the last GC that haven't been used yet.
+     *
+     * @param chunk address of a free chunk allocated from this space
+     * @return true if the chunk only needs its header cleared to be zero-filled
+     */
+    public boolean isZeroFilledChunk(Address chunk) {
+        return fromAddress(chunk).isZeroFilled();
+    }
+
     /**
      * The lock on which refill and region allocation to object spaces synchronize on.
      */
@@ -369,6 +497,128 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         return heapAccount;
     }
 
+    /**
+     * Thread sweeping the regions left unswept by GCs in the background, one region at a time.
+     */
+    final class BackgroundSweeper extends Thread {
+        @HOSTED_ONLY
+        BackgroundSweeper() {
+            super(VmThread.systemThreadGroup, "Background Sweeper");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean swept;
+                synchronized (refillLock()) {
+                    swept = sweepNextUnsweptRegion();
+                    if (!swept && uncommitDelayElapsed()) {
+                        uncommitIdleRegions(false);
+                    }
+                }
+                if (!swept) {
+                    try {
+                        Thread.sleep(BackgroundSweepInterval);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread zero-filling the empty regions of the space in the background, one region at a time.
+     */
+    final class BackgroundZeroer extends Thread {
+        @HOSTED_ONLY
+        BackgroundZeroer() {
+            super(VmThread.systemThreadGroup, "Background Zeroer");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean zeroed;
+                synchronized (refillLock()) {
+                    zeroed = zeroNextEmptyRegion();
+                }
+                if (!zeroed) {
+                    try {
+                        Thread.sleep(BackgroundZeroingInterval);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Zero-fill the first empty region of the allocation list that isn't zero-filled yet. The region's free chunk header is left intact.
+     * Must be called with the {@link #refillLock()} held so that no allocator can take the region while it is being zero-filled.
+     *
+     * @return true if a region was zero-filled, false if there are none left to zero-fill
+     */
+    private boolean zeroNextEmptyRegion() {
+        // The region must not be allocated from, nor swept, before it is entirely zero-filled.
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        boolean zeroed = false;
+        int regionID = allocationRegions.head();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo regionInfo = fromRegionID(regionID);
+            if (regionInfo.isEmpty() && !regionInfo.isZeroFilled()) {
+                final Size headerSize = HeapFreeChunk.heapFreeChunkHeaderSize();
+                final int numWords = Size.fromInt(regionSizeInBytes).minus(headerSize).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt();
+                Memory.clearWords(regionInfo.regionStart().plus(headerSize).asPointer(), numWords);
+                regionInfo.setZeroFilled(true);
+                zeroed = true;
+                break;
+            }
+            regionID = allocationRegions.next(regionID);
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return zeroed;
+    }
+
+    /**
+     * Allocate a thread for sweeping the space in the background. The thread is only started if background sweeping is enabled.
+     * @see #startBackgroundSweeper()
+     */
+    @HOSTED_ONLY
+    public void createBackgroundSweeper() {
+        backgroundSweeperThread = VmThread.createPreallocatedSystemThread(new BackgroundSweeper());
+    }
+
+    /**
+     * Start the background sweeper of the space if background sweeping is enabled. Must be called once the VM can start threads.
+     */
+    public void startBackgroundSweeper() {
+        if (backgroundSweeperThread != null && BackgroundSweep && supportsLazySweep()) {
+            backgroundSweeperThread.startVmSystemThread();
+        }
+    }
+
+    /**
+     * Allocate a thread for zero-filling the empty regions of the space in the background. The thread is only started if background zeroing is enabled.
+     * @see #startBackgroundZeroer()
+     */
+    @HOSTED_ONLY
+    public void createBackgroundZeroer() {
+        backgroundZeroerThread = VmThread.createPreallocatedSystemThread(new BackgroundZeroer());
+    }
+
+    /**
+     * Start the background zeroer of the space if background zeroing is enabled. Must be called once the VM can start threads.
+     */
+    public void startBackgroundZeroer() {
+        if (backgroundZeroerThread != null && BackgroundZeroing) {
+            backgroundZeroerThread.startVmSystemThread();
+        }
+    }
+
     /**
      * Initialization of those elements that relies on parameters available at VM start only.
      * @param minSize
@@ -380,6 +630,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         allocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         unavailableRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         sweepList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        uncommittedRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        evacuationCandidates = HeapRegionList.RegionListUse.OWNERSHIP.createList();
 
         maxRegionsInSpace = numberOfRegions(maxSize);
         FatalError.check(maxRegionsInSpace <= heapAccount.reserve(), "under provisioned heap account");
@@ -391,6 +643,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         }
 
         numRegionsInSpace = initialNumberOfRegions;
+        minCommittedRegions = initialNumberOfRegions;
+        idleWindowStart = System.currentTimeMillis();
         minReclaimableSpace = Size.fromInt(freeChunkMinSizeOption.getValue());
         overflowAllocator.refillManager().setMinRefillSize(minOverflowRefillSize);
         // Set the iterable to the list of committed regions. This is the default. Any exception to this should
@@ -424,6 +678,11 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public void retireTLAB(Pointer start, Size size) {
+        if (tlabAllocator.unsafeTop().equals(start.plus(size))) {
+            // The retired space may be handed out again by the TLAB allocator. It isn't zero-filled anymore, and neither is its region.
+            // This must be done before the space is retired, as other threads may allocate it right after.
+            fromAddress(start).setZeroFilled(false);
+        }
         if (tlabAllocator.retireTop(start, size)) {
             return;
         }
@@ -449,7 +708,14 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public Size totalSpace() {
-        return Size.fromInt(numRegionsInSpace).shiftedLeft(log2RegionSizeInBytes);
+        return Size.fromInt(numCommittedRegions()).shiftedLeft(log2RegionSizeInBytes);
+    }
+
+    /**
+     * Number of regions of the space whose memory is committed.
+     */
+    private int numCommittedRegions() {
+        return numRegionsInSpace - uncommittedRegions.size();
     }
 
     public Size capacity() {
@@ -465,15 +731,36 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public void doBeforeGC() {
+        // Marking overwrites the color map regions left unswept must be swept with.
+        completeLazySweep();
         overflowAllocator.doBeforeGC();
         tlabAllocator.doBeforeGC();
         FatalError.check(tlabAllocator.refillManager.allocatingRegion() == INVALID_REGION_ID, "TLAB allocating region must have been retired");
-        // Move all regions to the sweep list. This tracks all the regions used by the space.
+        if (UncommitIdleRegions) {
+            // Empty regions left in the allocation list weren't used by the mutator since the last GC.
+            idleRegionsLowWaterMark = Math.min(idleRegionsLowWaterMark, countEmptyAllocationRegions());
+            idleWindowGCs++;
+            if (idleWindowGCs >= UncommitAfterGCs || uncommitDelayElapsed()) {
+                uncommitIdleRegions(true);
+            }
+        }
+        // Move all regions to the sweep list. This tracks all the committed regions used by the space.
         sweepList.appendAndClear(unavailableRegions);
         sweepList.appendAndClear(allocationRegions);
         sweepList.appendAndClear(tlabAllocationRegions);
-        FatalError.check(numRegionsInSpace == sweepList.size(), "incorrect account of regions in space");
+        sweepList.appendAndClear(evacuationCandidates);
+        evacuationCandidatesFreeSpace = Size.zero();
+        FatalError.check(numCommittedRegions() == sweepList.size(), "incorrect account of regions in space");
         sweepList.sort();
+        if (evacuationCandidateMaxLiveBytes > 0) {
+            // References to the evacuation candidates are tracked by the coming marking. Sweeping designates the candidates anew.
+            regionInfoIterable.initialize(sweepList);
+            regionInfoIterable.reset();
+            for (HeapRegionInfo regionInfo : regionInfoIterable) {
+                regionInfo.setTrackedByRSet(regionInfo.isEvacuationCandidate());
+                regionInfo.setEvacuationCandidate(false);
+            }
+        }
     }
 
     public void doAfterGC() {
@@ -491,12 +778,100 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         }
         allocationRegionsFreeSpace = Size.zero();
         csrIsLiveMultiRegionObjectTail = false;
+        if (supportsLazySweep()) {
+            // Leave all the regions unswept. They will be swept on demand by allocation, or by the background sweeper.
+            regionInfoIterable.initialize(sweepList);
+            regionInfoIterable.reset();
+            // Record the live bytes of each region from the marks, so that the free space of unswept regions can be estimated.
+            // Live bytes of a cell extending beyond its region are accounted to the following regions.
+            unsweptLiveBytes = 0L;
+            long spilledLiveBytes = 0L;
+            Address endOfPreviousRegion = Address.zero();
+            for (HeapRegionInfo regionInfo : regionInfoIterable) {
+                regionInfo.setUnswept();
+                final Address regionStart = regionInfo.regionStart();
+                if (!regionStart.equals(endOfPreviousRegion)) {
+                    spilledLiveBytes = 0L;
+                }
+                endOfPreviousRegion = regionStart.plus(regionSizeInBytes);
+                long liveBytes = spilledLiveBytes + heapMarker.liveBytes(regionStart, endOfPreviousRegion);
+                spilledLiveBytes = 0L;
+                if (liveBytes > regionSizeInBytes) {
+                    spilledLiveBytes = liveBytes - regionSizeInBytes;
+                    liveBytes = regionSizeInBytes;
+                }
+                regionInfo.setLiveBytes((int) liveBytes);
+                unsweptLiveBytes += liveBytes;
+            }
+            unsweptSpace = Size.fromInt(sweepList.size()).shiftedLeft(log2RegionSizeInBytes);
+            lazySweepHeapMarker = heapMarker;
+            lazySweepImprecise = doImprecise;
+            return;
+        }
         heapMarker.sweep(this, doImprecise);
         FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
     }
 
+    /**
+     * Indicate whether regions can be left unswept after a GC. Dead space must be zapped immediately if an imprecise remembered set
+     * is used for root tracing, so lazy sweeping is only supported by spaces that don't zap dead references.
+     */
+    private boolean supportsLazySweep() {
+        return LazySweep && !zapDeadReferences;
+    }
+
+    /**
+     * Sweep the next region left unswept by the last GC.
+     * Must be called with the {@link #refillLock()} held, or during GC.
+     *
+     * @return true if a region was swept, false if there was no region left to sweep
+     */
+    private boolean sweepNextUnsweptRegion() {
+        // A GC must not interrupt the sweeping of a region.
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        final boolean hasUnsweptRegion = lazySweepHeapMarker != null;
+        if (hasUnsweptRegion && !lazySweepHeapMarker.sweepNextRegion(this, lazySweepImprecise)) {
+            FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
+            lazySweepHeapMarker = null;
+            unsweptSpace = Size.zero();
+            unsweptLiveBytes = 0L;
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return hasUnsweptRegion;
+    }
+
+    /**
+     * Sweep all the regions left unswept by the last GC.
+     * Must be called with the {@link #refillLock()} held, or during GC.
+     *
+     * @return true if there were regions left to sweep
+     */
+    private boolean completeLazySweep() {
+        if (lazySweepHeapMarker == null) {
+            return false;
+        }
+        while (sweepNextUnsweptRegion()) {
+        }
+        return true;
+    }
+
+    /**
+     * Total space of the regions not swept yet since the last GC.
+     */
+    public Size unsweptSpace() {
+        return unsweptSpace;
+    }
+
     private HeapRegionInfo nextRegionToSweep() {
-        return RegionTable.theRegionTable().regionInfo(sweepList.removeHead());
+        final HeapRegionInfo regionInfo = RegionTable.theRegionTable().regionInfo(sweepList.removeHead());
+        if (regionInfo.isUnswept()) {
+            regionInfo.setSwept();
+            unsweptSpace = unsweptSpace.minus(regionSizeInBytes);
+            unsweptLiveBytes -= regionInfo.liveBytes();
+        }
+        return regionInfo;
     }
 
     @Override
@@ -611,17 +986,25 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                     allocationRegions.append(csrInfo.toRegionID());
                     allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(regionSizeInBytes);
                 } else {
+                    final boolean isLargeObjectTail = csrIsLiveMultiRegionObjectTail;
                     if (csrIsLiveMultiRegionObjectTail) {
                         LARGE_TAIL.setState(csrInfo);
                         csrIsLiveMultiRegionObjectTail = false;
                     } else {
                         FREE_CHUNKS_REGION.setState(csrInfo);
                     }
-                    allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(csrFreeBytes);
-                    if (csrFreeChunks == 1 && minOverflowRefillSize.lessEqual(csrFreeBytes)) {
+                    if (!isLargeObjectTail && regionSizeInBytes - csrFreeBytes <= evacuationCandidateMaxLiveBytes && !csrInfo.isPinned()) {
+                        // Withhold the region from allocation until a mixed collection evacuates it.
+                        csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(csrHead),  csrFreeBytes, csrFreeChunks);
+                        csrInfo.setEvacuationCandidate(true);
+                        evacuationCandidates.append(csrInfo.toRegionID());
+                        evacuationCandidatesFreeSpace = evacuationCandidatesFreeSpace.plus(csrFreeBytes);
+                    } else if (csrFreeChunks == 1 && minOverflowRefillSize.lessEqual(csrFreeBytes)) {
+                        allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(csrFreeBytes);
                         csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(csrHead), csrFreeBytes,  csrFreeChunks);
                         allocationRegions.append(csrInfo.toRegionID());
                     } else {
+                        allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(csrFreeBytes);
                         FatalError.check(csrFreeBytes > 0 && (csrFreeChunks > 1 || minOverflowRefillSize.greaterThan(csrFreeBytes)) && csrHead != null, "unknown state for a swept region");
                         csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(csrHead),  csrFreeBytes, csrFreeChunks);
                         tlabAllocationRegions.append(csrInfo.toRegionID());
@@ -651,26 +1034,229 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         csrTail = null;
     }
 
+    /**
+     * Free space after sweeping. If regions were left unswept, their free space is estimated from the live bytes counted
+     * from the marks of the last GC (dead space too small to be reclaimed by the sweeper is counted as free).
+     */
     @Override
     public Size freeSpaceAfterSweep() {
-        return freeSpace();
+        return freeSpace().plus(unsweptSpace).minus(unsweptLiveBytes);
     }
 
 
+    /**
+     * Set the maximum amount of live data of a region for the sweeper to designate it as an evacuation candidate.
+     * Evacuation candidates are withheld from allocation until a {@link CollectionSetEvacuator} either evacuates them or releases them.
+     * Lazily swept spaces don't designate evacuation candidates, as the regions aren't swept yet when the collection set is picked.
+     *
+     * @param maxLiveBytes maximum number of live bytes of an evacuation candidate, or zero to not designate any
+     */
+    public void setEvacuationCandidateThreshold(int maxLiveBytes) {
+        evacuationCandidateMaxLiveBytes = supportsLazySweep() ? 0 : maxLiveBytes;
+    }
+
+    HeapRegionList evacuationCandidates() {
+        return evacuationCandidates;
+    }
+
+    /**
+     * Free space of the evacuation candidates, which is not available for allocation until they are evacuated.
+     */
+    public Size evacuationCandidatesFreeSpace() {
+        return evacuationCandidatesFreeSpace;
+    }
+
+    /**
+     * Move an evacuation candidate to the collection set of the current mixed collection.
+     * The region doesn't belong to any list of the space until it is {@linkplain #releaseEvacuatedRegion(int) released}.
+     */
+    void addToCollectionSet(int regionID) {
+        final HeapRegionInfo regionInfo = fromRegionID(regionID);
+        evacuationCandidates.remove(regionID);
+        evacuationCandidatesFreeSpace = evacuationCandidatesFreeSpace.minus(regionInfo.freeBytesInChunks());
+        regionInfo.setEvacuationCandidate(false);
+        regionInfo.setInCollectionSet(true);
+    }
+
+    /**
+     * Make a region of the collection set whose live cells were all evacuated available for allocation again.
+     */
+    void releaseEvacuatedRegion(int regionID) {
+        final HeapRegionInfo regionInfo = fromRegionID(regionID);
+        regionInfo.setInCollectionSet(false);
+        EMPTY_REGION.setState(regionInfo);
+        HeapFreeChunk.format(regionInfo.regionStart(), regionSizeInBytes);
+        regionInfo.resetOccupancy();
+        insertAddressOrdered(allocationRegions, regionID);
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(regionSizeInBytes);
+    }
+
+    /**
+     * Make the evacuation candidates left out of the collection set available for allocation again.
+     * They remain candidates: references to them are tracked by the next marking, so that the next mixed collection may evacuate them.
+     */
+    void releaseEvacuationCandidates() {
+        while (!evacuationCandidates.isEmpty()) {
+            final int regionID = evacuationCandidates.removeHead();
+            final HeapRegionInfo regionInfo = fromRegionID(regionID);
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(regionInfo.freeBytesInChunks());
+            if (regionInfo.numFreeChunks() == 1 && minOverflowRefillSize.lessEqual(regionInfo.freeBytesInChunks())) {
+                insertAddressOrdered(allocationRegions, regionID);
+            } else {
+                insertAddressOrdered(tlabAllocationRegions, regionID);
+            }
+        }
+        evacuationCandidatesFreeSpace = Size.zero();
+    }
+
     @Override
     public Size increaseSize(Size delta) {
         int numRegions = delta.roundedUpBy(regionSizeInBytes).unsignedShiftedRight(log2RegionSizeInBytes).toInt();
         if (numRegions == 0) {
             numRegions = 1;
         }
-        int allocated = heapAccount.allocate(numRegions, allocationRegions, false, true, true, regionTag);
-        return Size.fromInt(allocated).shiftedLeft(log2RegionSizeInBytes);
+        // Commit back regions given back to the OS first.
+        int grown = recommitRegions(numRegions);
+        if (grown < numRegions) {
+            int allocated = heapAccount.allocate(numRegions - grown, allocationRegions, false, true, true, regionTag);
+            if (allocated > 0) {
+                numRegionsInSpace += allocated;
+                allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(Size.fromInt(allocated).shiftedLeft(log2RegionSizeInBytes));
+                allocationRegions.sort();
+                grown += allocated;
+            }
+        }
+        return Size.fromInt(grown).shiftedLeft(log2RegionSizeInBytes);
     }
 
     @Override
     public Size decreaseSize(Size delta) {
-        // TODO
-        return Size.zero();
+        // Regions stay allocated to the space. Only the memory of empty regions already swept is given back to the OS.
+        final int numRegions = delta.unsignedShiftedRight(log2RegionSizeInBytes).toInt();
+        return Size.fromInt(uncommitEmptyRegions(numRegions)).shiftedLeft(log2RegionSizeInBytes);
+    }
+
+    /**
+     * Count the empty regions in the allocation region list.
+     */
+    private int countEmptyAllocationRegions() {
+        int numEmptyRegions = 0;
+        regionInfoIterable.initialize(allocationRegions);
+        regionInfoIterable.reset();
+        for (HeapRegionInfo regionInfo : regionInfoIterable) {
+            if (regionInfo.isEmpty()) {
+                numEmptyRegions++;
+            }
+        }
+        return numEmptyRegions;
+    }
+
+    /**
+     * Indicate whether empty regions have stayed unused for longer than the uncommit delay.
+     */
+    private boolean uncommitDelayElapsed() {
+        return UncommitIdleRegions && UncommitDelay > 0 && System.currentTimeMillis() - idleWindowStart >= UncommitDelay;
+    }
+
+    /**
+     * Uncommit the empty regions that stayed unused during the idle window that just completed, and begin a new idle window.
+     * Must be called with the {@link #refillLock()} held, or during GC.
+     *
+     * @param atGC true if called at the beginning of a GC, false if called by the background sweeper
+     */
+    private void uncommitIdleRegions(boolean atGC) {
+        int numIdleRegions = idleRegionsLowWaterMark;
+        if (!atGC) {
+            // No GC may have happened during the idle window. The empty regions left unused since then are idle.
+            numIdleRegions = Math.min(numIdleRegions, countEmptyAllocationRegions());
+        }
+        final int numUncommitted = uncommitEmptyRegions(numIdleRegions);
+        if (Heap.verbose() && numUncommitted > 0) {
+            Log.print("Uncommitted ");
+            Log.print(numUncommitted);
+            Log.print(" idle regions after ");
+            Log.print(idleWindowGCs);
+            Log.print(" GCs, committed space now ");
+            Log.printlnToPowerOfTwoUnits(totalSpace());
+        }
+        idleRegionsLowWaterMark = Integer.MAX_VALUE;
+        idleWindowGCs = 0;
+        idleWindowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Insert a region in an address-ordered region list.
+     */
+    private static void insertAddressOrdered(HeapRegionList list, int regionID) {
+        int elem = list.tail();
+        while (elem != INVALID_REGION_ID && elem > regionID) {
+            elem = list.prev(elem);
+        }
+        if (elem == INVALID_REGION_ID) {
+            list.prepend(regionID);
+        } else {
+            list.insertAfter(elem, regionID);
+        }
+    }
+
+    /**
+     * Give back to the OS the memory of up to the specified number of empty regions from the allocation region list.
+     * Regions at the highest addresses are uncommitted first as allocation favors regions at lower addresses.
+     * The space never uncommits regions below its initial size.
+     * Must be called with the {@link #refillLock()} held, or during GC.
+     *
+     * @param numRegions maximum number of regions to uncommit
+     * @return the number of regions uncommitted
+     */
+    private int uncommitEmptyRegions(int numRegions) {
+        numRegions = Math.min(numRegions, numCommittedRegions() - minCommittedRegions);
+        if (numRegions <= 0) {
+            return 0;
+        }
+        // The lists must not be seen half-updated by a GC.
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        int numUncommitted = 0;
+        int regionID = allocationRegions.tail();
+        while (regionID != INVALID_REGION_ID && numUncommitted < numRegions) {
+            final int prevRegionID = allocationRegions.prev(regionID);
+            final HeapRegionInfo regionInfo = fromRegionID(regionID);
+            if (regionInfo.isEmpty()) {
+                allocationRegions.remove(regionID);
+                heapAccount.uncommit(regionID);
+                UNCOMMITTED_REGION.setState(regionInfo);
+                insertAddressOrdered(uncommittedRegions, regionID);
+                numUncommitted++;
+            }
+            regionID = prevRegionID;
+        }
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(Size.fromInt(numUncommitted).shiftedLeft(log2RegionSizeInBytes));
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return numUncommitted;
+    }
+
+    /**
+     * Commit back the memory of up to the specified number of uncommitted regions of the space and make them available for allocation.
+     * Regions at the lowest addresses are committed first.
+     * Must be called with the {@link #refillLock()} held, or during GC.
+     *
+     * @param numRegions maximum number of regions to commit
+     * @return the number of regions committed
+     */
+    private int recommitRegions(int numRegions) {
+        int numCommitted = 0;
+        while (numCommitted < numRegions && !uncommittedRegions.isEmpty()) {
+            final int regionID = uncommittedRegions.removeHead();
+            final HeapRegionInfo regionInfo = fromRegionID(regionID);
+            heapAccount.commit(regionID);
+            EMPTY_REGION.setState(regionInfo);
+            HeapFreeChunk.format(regionInfo.regionStart(), regionSizeInBytes);
+            insertAddressOrdered(allocationRegions, regionID);
+            numCommitted++;
+        }
+        allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(Size.fromInt(numCommitted).shiftedLeft(log2RegionSizeInBytes));
+        return numCommitted;
     }
 
     private void iterateRegions(CellRangeVisitor visitor) {
@@ -692,14 +1278,40 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     @Override
     public void visit(CellRangeVisitor visitor) {
+        // Dead objects in unswept regions may refer to reclaimed space.
+        completeLazySweep();
         // Make allocating regions iterable first.
         tlabAllocator.unsafeMakeParsable();
         overflowAllocator.unsafeMakeParsable();
+        final int tlabAllocatingRegion = tlabAllocator.refillManager().allocatingRegion();
+        if (tlabAllocatingRegion != INVALID_REGION_ID) {
+            // The space left in the TLAB allocator is formatted as dark matter.
+            fromRegionID(tlabAllocatingRegion).setZeroFilled(false);
+        }
         regionsRangeIterable.addMatchingFlags(Flag.IS_ALLOCATING);
         iterateRegions(visitor);
         regionsRangeIterable.resetMatchingFlags();
     }
 
+    /**
+     * Visit the regions of the space that neither mutators nor background threads modify until the next GC, i.e., the swept regions with no
+     * space left for allocation. Must be called by the VM operation thread at the end of a GC.
+     *
+     * @param visitor visitor applied to each full region
+     */
+    public void visitFullRegions(CellRangeVisitor visitor) {
+        final HeapRegionList committedRegions = heapAccount.committedRegions();
+        int regionID = committedRegions.head();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo regionInfo = fromRegionID(regionID);
+            if (regionInfo.tag == regionTag && regionInfo.isFull() && !regionInfo.isUnswept()) {
+                final Address start = regionInfo.regionStart();
+                visitor.visitCells(start, start.plus(regionSizeInBytes));
+            }
+            regionID = committedRegions.next(regionID);
+        }
+    }
+
 
     private void verifyHeapRegionsBalance() {
         int balance = 0;
@@ -710,21 +1322,28 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         balance += tlabAllocationRegions.size();
         balance += allocationRegions.size();
         balance += unavailableRegions.size();
+        balance += uncommittedRegions.size();
+        balance += evacuationCandidates.size();
         FatalError.check(balance == numRegionsInSpace, "incorrect balance of regions in space");
     }
 
     @Override
     public void verify(AfterMarkSweepVerifier verifier) {
+        completeLazySweep();
         verifyHeapRegionsBalance();
         tlabAllocationRegions.checkIsAddressOrdered();
         allocationRegions.checkIsAddressOrdered();
         unavailableRegions.checkIsAddressOrdered();
+        uncommittedRegions.checkIsAddressOrdered();
+        evacuationCandidates.checkIsAddressOrdered();
         iterateRegions(verifier);
     }
 
     public void retireAllocatingRegion(int regionID) {
         // No more free chunks in this region.
         final HeapRegionInfo regionInfo = fromRegionID(regionID);
+        // Chunks handed out from the region may be in use until the next GC, and may not be zero-filled anymore when next used.
+        regionInfo.setZeroFilled(false);
         if (regionInfo.hasFreeChunks()) {
             allocationRegionsFreeSpace = allocationRegionsFreeSpace.plus(regionInfo.freeBytes());
             tlabAllocationRegions.append(regionID);
@@ -734,7 +1353,10 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public int getAllocatingRegion() {
-        final int regionID = tlabAllocationRegionList().removeHead();
+        int regionID = tlabAllocationRegionList().removeHead();
+        while (regionID == INVALID_REGION_ID && (sweepNextUnsweptRegion() || recommitRegions(1) > 0)) {
+            regionID = tlabAllocationRegionList().removeHead();
+        }
         if (regionID != INVALID_REGION_ID) {
             final HeapRegionInfo regionInfo = fromRegionID(regionID);
             final int numFreeBytes = regionInfo.isEmpty() ?  regionSizeInBytes : regionInfo.freeBytesInChunks();
@@ -745,20 +1367,22 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     public int getAllocatingRegion(Size minFreeBytes, int maxFreeChunks) {
         final int minFreeSpace = minFreeBytes.toInt();
-        regionInfoIterable.initialize(allocationRegions);
-        regionInfoIterable.reset();
-        for (HeapRegionInfo regionInfo : regionInfoIterable) {
-            if (regionInfo.isEmpty()) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
-            } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
-            } else {
-                continue;
+        do {
+            regionInfoIterable.initialize(allocationRegions);
+            regionInfoIterable.reset();
+            for (HeapRegionInfo regionInfo : regionInfoIterable) {
+                if (regionInfo.isEmpty()) {
+                    allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
+                } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
+                    allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
+                } else {
+                    continue;
+                }
+                // Found a refill.
+                regionInfoIterable.remove();
+                return  regionInfo.toRegionID();
             }
-            // Found a refill.
-            regionInfoIterable.remove();
-            return  regionInfo.toRegionID();
-        }
+        } while (sweepNextUnsweptRegion() || recommitRegions(1) > 0);
         return INVALID_REGION_ID;
     }
 
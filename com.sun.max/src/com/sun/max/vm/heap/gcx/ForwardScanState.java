@@ -170,6 +170,45 @@ final class ForwardScanState extends ColorMapScanState implements SpecialReferen
         }
     }
 
+    /**
+     * Forward scan over a bounded number of words of the mark bitmap past the finger. Used to trace the heap in increments when marking concurrently.
+     * As with {@link #visitGreyObjects()}, the marking stack is drained before returning.
+     * If no grey objects were found within the scanned words, the finger is moved to the next marked object so that the next increment makes progress.
+     *
+     * @param maxBitmapWords maximum number of words of the mark bitmap to scan
+     * @return true if grey objects may be left past the finger, false if the scan reached the rightmost marked object.
+     */
+    boolean visitGreyObjectsIncrementally(int maxBitmapWords) {
+        final int rightmostBitmapWordIndex = rightmostBitmapWordIndex();
+        final int fingerBitmapWordIndex = heapMarker.bitmapWordIndex(finger);
+        final int limit = fingerBitmapWordIndex + maxBitmapWords;
+        if (limit >= rightmostBitmapWordIndex) {
+            visitGreyObjects(rightmostBitmapWordIndex);
+            return rightmostBitmapWordIndex() > rightmostBitmapWordIndex;
+        }
+        final Address fingerBeforeScan = finger;
+        visitGreyObjects(limit);
+        if (finger.equals(fingerBeforeScan) && !hasGreyMarks(fingerBitmapWordIndex, limit)) {
+            // Nothing to visit in the scanned words. Move the finger to the first mark past them.
+            final int bitmapWordIndex = heapMarker.firstNonWhiteBitmapWord(limit + 1, rightmostBitmapWordIndex);
+            if (bitmapWordIndex > rightmostBitmapWordIndex) {
+                finger = rightmost;
+            } else {
+                final long bitmapWord = heapMarker.base.asPointer().getLong(bitmapWordIndex);
+                final int bitIndex = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + Pointer.fromLong(bitmapWord).leastSignificantBitSet();
+                finger = heapMarker.addressOf(bitIndex);
+                if (finger.greaterThan(rightmost)) {
+                    finger = rightmost;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasGreyMarks(int firstBitmapWordIndex, int lastBitmapWordIndex) {
+        return heapMarker.firstGreyMark(firstBitmapWordIndex, lastBitmapWordIndex) >= 0;
+    }
+
     public void visitGreyObjects() {
         int rightmostBitmapWordIndex = rightmostBitmapWordIndex();
         do {
@@ -205,6 +244,10 @@ final class ForwardScanState extends ColorMapScanState implements SpecialReferen
         return false;
     }
 
+    public void completeClosure() {
+        heapMarker.visitPreservedObjects();
+    }
+
     @Override
     public String toString() {
         return "forward scan";
@@ -23,6 +23,7 @@
 package com.sun.max.vm.heap.gcx;
 
 import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
 import com.sun.max.platform.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.MaxineVM.Phase;
@@ -102,6 +103,8 @@ public final class HeapRegionConstants {
      * The minimum region size, and the one used by default, is specified by the {@link #DefaultHeapRegionSize} option.
      * The maximum region size is specified by the {@link #MaxHeapRegionSize} option.
      * The maximum length of the {@link RegionTable}  is specified by {@value #MaxNumberOfRegions} option.
+     * If the heap is backed with {@linkplain VirtualMemory#useHugePages() huge pages}, regions are at least as large as a huge page,
+     * so that committing or uncommitting a region never splits a huge page.
      *
      * @param maxHeapSize the maximum heap size specified at VM startup
      */
@@ -120,6 +123,9 @@ public final class HeapRegionConstants {
                 regionSize = MaxHeapRegionSize;
             }
         }
+        if (VirtualMemory.useHugePages() && regionSize.lessThan(VirtualMemory.HUGE_PAGE_SIZE)) {
+            regionSize = VirtualMemory.HUGE_PAGE_SIZE;
+        }
         initializeConstants(regionSize.toInt());
     }
 }
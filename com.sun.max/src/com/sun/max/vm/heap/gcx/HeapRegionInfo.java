@@ -29,6 +29,7 @@ import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 import com.sun.max.annotate.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.reference.*;
 /**
@@ -68,7 +69,12 @@ public class HeapRegionInfo {
         /**
          * Region is the last region of a multi-regions object. Space after the end of the large object may be used for allocation.
          */
-        IS_TAIL;
+        IS_TAIL,
+        /**
+         * Region is allocated to a heap account but its backing virtual memory has been given back to the OS.
+         * The region must be committed again before any access to its memory.
+         */
+        IS_UNCOMMITTED;
 
         private final int mask = 1 << ordinal();
 
@@ -172,6 +178,59 @@ public class HeapRegionInfo {
      */
     HeapAccountOwner owner;
 
+    /**
+     * Indicates that the region hasn't been swept since the last marking of its heap space.
+     * The region may still hold dead objects, and its state and occupancy are those it had before the marking.
+     */
+    private boolean unswept;
+
+    /**
+     * Number of pending pin requests on objects overlapping the region. Objects of a pinned region must not be moved.
+     * @see PinnedRegions
+     */
+    private volatile int pinCount;
+
+    /**
+     * Indicates that the cells starting in the region are retained in place by the evacuation of its space, because the region
+     * was pinned when the evacuation began.
+     */
+    private boolean retained;
+
+    /**
+     * Indicates that the region is a candidate for evacuation by a mixed collection. References to candidate regions are tracked by
+     * the next marking.
+     * @see CollectionSetEvacuator
+     */
+    private boolean evacuationCandidate;
+
+    /**
+     * Indicates that references to the cells of the region from other regions are recorded in the {@link CollectionSetRSet} by the current marking.
+     */
+    private boolean trackedByRSet;
+
+    /**
+     * Indicates that the region belongs to the collection set of the current mixed collection, i.e., that its live cells are being evacuated.
+     */
+    private boolean inCollectionSet;
+
+    /**
+     * Indicates that the {@link CollectionSetRSet} holds locations of the region that refer to tracked regions.
+     */
+    private boolean hasRememberedSlots;
+
+    /**
+     * Indicates that the free space of the region is zero-filled, except for the headers of its free chunks.
+     * Regions are zero-filled in the background by their {@link FirstFitMarkSweepSpace} so that allocators can skip zeroing their memory.
+     * The indication is dropped when the region leaves a non-empty state (see {@link HeapRegionState#setState(HeapRegionInfo)}), or when
+     * it is retired from allocation.
+     */
+    private boolean zeroFilled;
+
+    @FOLD
+    private static int pinCountOffset() {
+        return ClassActor.fromJava(HeapRegionInfo.class).findLocalInstanceFieldActor("pinCount").offset();
+    }
+
     public final boolean isEmpty() {
         return flags == EMPTY_REGION.flags;
     }
@@ -204,6 +263,82 @@ public class HeapRegionInfo {
         return IS_TAIL.isSet(flags);
     }
 
+    public final boolean isUncommitted() {
+        return IS_UNCOMMITTED.isSet(flags);
+    }
+
+    public final boolean isUnswept() {
+        return unswept;
+    }
+
+    public final boolean isPinned() {
+        return pinCount > 0;
+    }
+
+    final void pin() {
+        AtomicPinCounter.increment(this, pinCountOffset());
+    }
+
+    final void unpin() {
+        AtomicPinCounter.decrement(this, pinCountOffset());
+    }
+
+    public final boolean isRetained() {
+        return retained;
+    }
+
+    final void setRetained(boolean retained) {
+        this.retained = retained;
+    }
+
+    public final boolean isEvacuationCandidate() {
+        return evacuationCandidate;
+    }
+
+    final void setEvacuationCandidate(boolean evacuationCandidate) {
+        this.evacuationCandidate = evacuationCandidate;
+    }
+
+    public final boolean isTrackedByRSet() {
+        return trackedByRSet;
+    }
+
+    final void setTrackedByRSet(boolean trackedByRSet) {
+        this.trackedByRSet = trackedByRSet;
+    }
+
+    public final boolean isInCollectionSet() {
+        return inCollectionSet;
+    }
+
+    final void setInCollectionSet(boolean inCollectionSet) {
+        this.inCollectionSet = inCollectionSet;
+    }
+
+    final boolean hasRememberedSlots() {
+        return hasRememberedSlots;
+    }
+
+    final void setHasRememberedSlots(boolean hasRememberedSlots) {
+        this.hasRememberedSlots = hasRememberedSlots;
+    }
+
+    public final boolean isZeroFilled() {
+        return zeroFilled;
+    }
+
+    final void setZeroFilled(boolean zeroFilled) {
+        this.zeroFilled = zeroFilled;
+    }
+
+    final void setUnswept() {
+        unswept = true;
+    }
+
+    final void setSwept() {
+        unswept = false;
+    }
+
     HeapRegionInfo() {
         // Not a class one can allocate. Allocation is the responsibility of the region table.
     }
@@ -237,6 +372,12 @@ public class HeapRegionInfo {
         Log.print(regionStart().plus(regionSizeInBytes));
         Log.print(" [ ");
         Flag.log(flags);
+        if (unswept) {
+            Log.print(" (unswept)");
+        }
+        if (zeroFilled) {
+            Log.print(" (zero-filled)");
+        }
         Log.print(", free: ");
         Log.print(freeBytes());
         Log.print(" live: ");
@@ -285,6 +426,10 @@ public class HeapRegionInfo {
         freeSpace = 0;
     }
 
+    final void setLiveBytes(int numBytes) {
+        liveData = numBytes >> Word.widthValue().log2numberOfBytes;
+    }
+
     final void setFreeChunks(Address firstChunkAddress, int numBytes, int numChunks) {
         firstFreeChunkOffset = offsetInRegion(firstChunkAddress);
         numFreeChunks = numChunks;
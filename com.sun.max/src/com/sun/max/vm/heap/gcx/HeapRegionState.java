@@ -38,7 +38,8 @@ public enum HeapRegionState {
     LARGE_BODY(IS_ITERABLE.or(IS_LARGE.or(0))),
     LARGE_FULL_TAIL(IS_ITERABLE.or(IS_LARGE.or(IS_TAIL.or(0)))),
     LARGE_TAIL(IS_ITERABLE.or(IS_LARGE.or(IS_TAIL.or(HAS_FREE_CHUNK.or(0))))),
-    LARGE_ALLOCATING_TAIL(IS_ALLOCATING.or(IS_LARGE.or(IS_TAIL.or(0))));
+    LARGE_ALLOCATING_TAIL(IS_ALLOCATING.or(IS_LARGE.or(IS_TAIL.or(0)))),
+    UNCOMMITTED_REGION(IS_UNCOMMITTED.or(0));
 
     private static final boolean [][] validStateTransitions = new boolean[HeapRegionState.values().length][HeapRegionState.values().length];
     private static final IntHashMap<HeapRegionState> allValidStates = new IntHashMap<HeapRegionState>(values().length);
@@ -63,7 +64,7 @@ public enum HeapRegionState {
         // Initialize the valid state transitions.
         // FIXME: may want to introduce a special  "SWEPT" state to distinguish between valid empty->state transitions that correspond to sweeping transitions from the empty -> allocating
         // transitions.
-        initialize(EMPTY_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FULL_REGION, FREE_CHUNKS_REGION, LARGE_HEAD, LARGE_BODY, LARGE_FULL_TAIL, LARGE_TAIL});
+        initialize(EMPTY_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FULL_REGION, FREE_CHUNKS_REGION, LARGE_HEAD, LARGE_BODY, LARGE_FULL_TAIL, LARGE_TAIL, UNCOMMITTED_REGION});
         initialize(ALLOCATING_REGION, new HeapRegionState [] {FULL_REGION, FREE_CHUNKS_REGION});
         initialize(FULL_REGION, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION});
         initialize(FREE_CHUNKS_REGION, new HeapRegionState [] {EMPTY_REGION, ALLOCATING_REGION, FREE_CHUNKS_REGION});
@@ -72,6 +73,8 @@ public enum HeapRegionState {
         initialize(LARGE_FULL_TAIL, new HeapRegionState [] {EMPTY_REGION, FREE_CHUNKS_REGION, LARGE_TAIL});
         initialize(LARGE_TAIL, new HeapRegionState [] {EMPTY_REGION, LARGE_ALLOCATING_TAIL});
         initialize(LARGE_ALLOCATING_TAIL, new HeapRegionState [] {LARGE_FULL_TAIL, LARGE_TAIL});
+        // Only empty regions can have their memory uncommitted. They are formatted as empty again when committed back.
+        initialize(UNCOMMITTED_REGION, new HeapRegionState [] {EMPTY_REGION});
     }
 
     static public boolean isValidTransition(HeapRegionState from, HeapRegionState to) {
@@ -112,6 +115,10 @@ public enum HeapRegionState {
         if (MaxineVM.isDebug()) {
             checkStateTransition(rinfo, this);
         }
+        if (rinfo.flags != EMPTY_REGION.flags) {
+            // The region may hold dead objects whose space becomes free. Its free space is no longer known to be zero-filled.
+            rinfo.setZeroFilled(false);
+        }
         rinfo.flags = flags;
     }
 
@@ -29,7 +29,9 @@ import com.sun.max.util.timer.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
 import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
 
 /**
  * Adaptor for factoring a number of common boiler plate for HeapScheme implemented with components of the gcx package.
@@ -76,6 +78,49 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
         }
     }
     protected final TLABFiller tlabFiller = new TLABFiller();
+
+    /**
+     * Passes the cells of the iterable ranges of a heap space to a {@link CallbackCellVisitor}, skipping free chunks.
+     */
+    static final class HeapSpaceWalker implements CellRangeVisitor {
+        CallbackCellVisitor visitor;
+        /**
+         * Set when the visitor aborted the walk.
+         */
+        boolean aborted;
+
+        @Override
+        public void visitCells(Address start, Address end) {
+            Pointer cell = start.asPointer();
+            while (!aborted && cell.lessThan(end)) {
+                if (HeapFreeChunk.isHeapFreeChunkOrigin(Layout.cellToOrigin(cell))) {
+                    cell = cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+                } else {
+                    cell = visitor.visitCell(cell);
+                    aborted = cell.isZero();
+                }
+            }
+        }
+    }
+
+    private final HeapSpaceWalker heapSpaceWalker = new HeapSpaceWalker();
+
+    /**
+     * Walks the immortal and boot heaps, then the specified heap spaces, after having made the TLABs of all threads iterable.
+     * Must be called at a safepoint.
+     */
+    protected final void walkHeap(CallbackCellVisitor visitor, HeapSpace space1, HeapSpace space2) {
+        ImmortalHeap.visitCells(visitor);
+        Heap.bootHeapRegion.visitCells(visitor);
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+        heapSpaceWalker.visitor = visitor;
+        heapSpaceWalker.aborted = false;
+        space1.visit(heapSpaceWalker);
+        if (space2 != null && !heapSpaceWalker.aborted) {
+            space2.visit(heapSpaceWalker);
+        }
+        heapSpaceWalker.visitor = null;
+    }
     public HeapSchemeWithTLABAdaptor() {
         super();
     }
@@ -97,6 +142,7 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        GCWorkerGang.theGang().initialize(phase);
         if (phase == MaxineVM.Phase.PRISTINE) {
             heapStartupTime.start();
             allocateHeapAndGCStorage();
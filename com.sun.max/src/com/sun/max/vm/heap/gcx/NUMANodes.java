@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.lang.*;
+import com.sun.max.platform.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.util.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.intrinsics.*;
+
+/**
+ * NUMA topology support for heap spaces that place memory and allocation buffers according to the NUMA node of allocating threads.
+ * NUMA-aware placement is enabled with the {@link #UseNUMA} option, and is only available on Linux x86-64 with libnuma,
+ * where the node of the running thread can be cheaply obtained with {@link Intrinsics#getCpuID()}.
+ */
+public final class NUMANodes {
+    static boolean UseNUMA = false;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseNUMA", NUMANodes.class,
+                        "Bind heap memory to NUMA nodes and allocate TLABs from the node of the requesting thread", Phase.PRISTINE);
+    }
+
+    /**
+     * Maximum number of NUMA nodes heap spaces are partitioned across. Additional nodes share the memory of the first ones.
+     */
+    public static final int MAX_NODES = 8;
+
+    /**
+     * Number of NUMA nodes heap memory is partitioned across, or zero if not computed yet.
+     */
+    private static int numberOfNodes;
+
+    private NUMANodes() {
+    }
+
+    /**
+     * Number of NUMA nodes heap memory should be partitioned across. This is 1 if NUMA-aware placement is disabled or not supported.
+     */
+    public static int numberOfNodes() {
+        if (numberOfNodes == 0) {
+            int n = 1;
+            if (UseNUMA && Platform.platform().isa == ISA.AMD64 && Platform.platform().os == OS.LINUX && NUMALib.numalib_available() != -1) {
+                n = NUMALib.numaMaxNode() + 1;
+                if (n > MAX_NODES) {
+                    n = MAX_NODES;
+                }
+                if (Heap.verbose()) {
+                    Log.print("NUMA-aware heap placement across ");
+                    Log.print(n);
+                    Log.println(" nodes");
+                }
+            }
+            numberOfNodes = n;
+        }
+        return numberOfNodes;
+    }
+
+    /**
+     * Indicates whether heap memory is partitioned across more than one NUMA node.
+     */
+    public static boolean isNUMAAware() {
+        return numberOfNodes() > 1;
+    }
+
+    /**
+     * The NUMA node the current thread is running on, bounded by the {@linkplain #numberOfNodes() number of nodes}.
+     * Must only be called if heap memory is {@linkplain #isNUMAAware() partitioned across nodes}.
+     */
+    @INLINE
+    public static int currentNode() {
+        return (Intrinsics.getCpuID() >> MaxineIntrinsicIDs.NUMA_NODE_SHIFT) % numberOfNodes;
+    }
+
+    /**
+     * Bind a range of virtual memory to a NUMA node. Pages of the range not touched yet will be allocated on that node.
+     */
+    public static void bindToNode(Address start, Size size, int node) {
+        NUMALib.numaBindToNode(start.toLong(), size.toLong(), node);
+    }
+}
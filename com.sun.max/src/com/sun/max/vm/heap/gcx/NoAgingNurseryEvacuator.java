@@ -62,7 +62,7 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         public Pointer visitCell(Pointer cell, Address start, Address end) {
             if (cell.equals(ptop)) {
                 // Skip allocating area.
-                return pend;
+                return evacuationBufferLimit();
             }
             return scanCellForEvacuatees(cell, start, end);
         }
@@ -71,7 +71,7 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         public Pointer visitCell(Pointer cell) {
             if (cell.equals(ptop)) {
                 // Skip allocating area
-                return pend;
+                return evacuationBufferLimit();
             }
             return scanCellForEvacuatees(cell);
         }
@@ -119,6 +119,15 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
     }
 
+    /**
+     * Creates an evacuator that evacuates the same space as, and in parallel with, another evacuator.
+     */
+    protected NoAgingNurseryEvacuator(NoAgingNurseryEvacuator master) {
+        super(master);
+        this.heapSpaceDirtyCardClosure = new DirtyCardEvacuationClosure();
+        this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
+    }
+
     @Override
     public void setGCOperation(GCOperation gcOperation) {
         super.setGCOperation(gcOperation);
@@ -136,6 +145,15 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
         bootHeapRegion.discoverSpecialReference();
     }
 
+    /**
+     * Evacuate the cells of the evacuated area referenced from the dirty cards of a range of the to-space.
+     * @param start start of an iterable range of the to-space
+     * @param end end of the range
+     */
+    final void evacuateFromDirtyCards(Address start, Address end) {
+        heapSpaceDirtyCardClosure.visitCells(start, end);
+    }
+
     @Override
     protected void evacuateFromRSets() {
         // Visit the dirty cards of the old gen (i.e., the toSpace).
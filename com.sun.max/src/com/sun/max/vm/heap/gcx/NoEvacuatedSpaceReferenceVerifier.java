@@ -39,6 +39,14 @@ public final class NoEvacuatedSpaceReferenceVerifier extends PointerIndexVisitor
      * Controls whether the whole iterable range passed to {@link #visitCells(Address, Address)} is verified or only dirty cards in the range.
      */
     boolean dirtyCardsOnly;
+    /**
+     * Survivor spaces of the evacuated space, if any. References to survivors are allowed if their card is dirty.
+     */
+    SurvivorSpaces survivorSpaces;
+    /**
+     * Tracker of the cells the evacuated space retains in its pinned regions, if any. References to retained cells are allowed if their card is dirty.
+     */
+    PinnedRegions pinnedRegions;
 
     public NoEvacuatedSpaceReferenceVerifier(CardTableRSet cardTableRSet, EvacuatingSpace evacuatedSpace) {
         this.cardTableRSet = cardTableRSet;
@@ -65,6 +73,24 @@ public final class NoEvacuatedSpaceReferenceVerifier extends PointerIndexVisitor
         this.dirtyCardsOnly = dirtyCardsOnly;
     }
 
+    public void setSurvivorSpaces(SurvivorSpaces survivorSpaces) {
+        this.survivorSpaces = survivorSpaces;
+    }
+
+    public void setPinnedRegions(PinnedRegions pinnedRegions) {
+        this.pinnedRegions = pinnedRegions;
+    }
+
+    private boolean isRememberedSurvivorRef(Pointer refLocation, Pointer cell) {
+        final boolean isSurvivor = survivorSpaces != null && survivorSpaces.contains(cell);
+        final boolean isRetained = pinnedRegions != null && !pinnedRegions.isEmpty() && PinnedRegions.isRetained(cell);
+        if (!isSurvivor && !isRetained) {
+            return false;
+        }
+        final CardTable cardTable = cardTableRSet.cardTable;
+        return cardTable.get(cardTable.tableEntryIndex(refLocation)) == DIRTY_CARD.value();
+    }
+
     private Pointer visitCell(Pointer cell) {
         final Pointer origin = Layout.cellToOrigin(cell);
         checkNoRef(origin, Layout.hubIndex());
@@ -139,7 +165,7 @@ public final class NoEvacuatedSpaceReferenceVerifier extends PointerIndexVisitor
 
     private void checkNoRef(Pointer pointer, int wordIndex) {
         final Pointer cell = pointer.getReference(wordIndex).toOrigin();
-        if (evacuatedSpace.contains(cell)) {
+        if (evacuatedSpace.contains(cell) && !isRememberedSurvivorRef(pointer.plusWords(wordIndex), cell)) {
             Log.print("Reference in ");
             Log.print(pointer);
             Log.print(" at ");
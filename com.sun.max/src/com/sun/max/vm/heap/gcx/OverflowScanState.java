@@ -108,41 +108,19 @@ abstract class OverflowScanState extends ColorMapScanState {
             bitmapWordIndex = beforeRightmostBitmapWordIndex;
         }
 
-        final Pointer colorMapBase = heapMarker.colorMapBase();
-        while (bitmapWordIndex <= rightmostBitmapWordIndex) {
-            long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
-            if (bitmapWord != 0L) {
-                final long greyMarksInWord = bitmapWord & (bitmapWord >>> 1);
-                if (greyMarksInWord != 0L) {
-                    // First grey mark is the least set bit.
-                    final int bitIndexInWord = Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
-                    final int bitIndexOfGreyCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord;
-                    Pointer p = heapMarker.addressOf(bitIndexOfGreyCell).asPointer();
-                    if (p.greaterEqual(endOfScan)) {
-                        return;
-                    }
-                    p = markAndVisitCell(p);
-                    // Get bitmap word index at the end of the object. This may avoid reading multiple mark bitmap words
-                    // when marking objects crossing multiple mark bitmap words.
-                    bitmapWordIndex = heapMarker.bitmapWordIndex(p);
-                    continue;
-                } else if ((bitmapWord >>> TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD) == 1L) {
-                    // Mark span two words. Check first bit of next word to decide if mark is grey.
-                    bitmapWord = colorMapBase.getLong(bitmapWordIndex + 1);
-                    if ((bitmapWord & 1) != 0) {
-                        // it is a grey object.
-                        final int bitIndexOfGreyCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD;
-                        Pointer p = heapMarker.addressOf(bitIndexOfGreyCell).asPointer();
-                        if (p.greaterEqual(endOfScan)) {
-                            return;
-                        }
-                        p = markAndVisitCell(p);
-                        bitmapWordIndex = heapMarker.bitmapWordIndex(p);
-                        continue;
-                    }
-                }
+        while (true) {
+            final int bitIndexOfGreyCell = heapMarker.firstGreyMark(bitmapWordIndex, rightmostBitmapWordIndex);
+            if (bitIndexOfGreyCell < 0) {
+                return;
             }
-            bitmapWordIndex++;
+            Pointer p = heapMarker.addressOf(bitIndexOfGreyCell).asPointer();
+            if (p.greaterEqual(endOfScan)) {
+                return;
+            }
+            p = markAndVisitCell(p);
+            // Get bitmap word index at the end of the object. This may avoid reading multiple mark bitmap words
+            // when marking objects crossing multiple mark bitmap words.
+            bitmapWordIndex = heapMarker.bitmapWordIndex(p);
         }
     }
 
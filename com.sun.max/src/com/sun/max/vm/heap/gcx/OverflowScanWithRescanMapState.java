@@ -77,6 +77,9 @@ final class OverflowScanWithRescanMapState extends OverflowScanState {
      */
     @INLINE
     private void markObjectGrey(Pointer cell) {
+        if (heapMarker.isIgnored(cell)) {
+            return;
+        }
         if (cell.greaterThan(finger)) {
             // Object is after the finger. Mark grey and update rightmost if white.
             if (heapMarker.markGreyIfWhite(cell)) {
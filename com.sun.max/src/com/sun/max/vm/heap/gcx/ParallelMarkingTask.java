@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Parallel tracing of the grey objects left by root marking, used by a {@link TricolorHeapMarker} when the
+ * {@link GCWorkerGang} has more than one worker.
+ * <p>
+ * The color map is divided into chunks of {@link #CHUNK_BITMAP_WORDS} bitmap words that workers claim in address order
+ * by atomically bumping a shared claim cursor, up to the rightmost marked cell. A worker scans the chunks it claims for
+ * grey marks, much like the sequential forward scan. References to white objects are marked grey atomically; if the
+ * object is in an already claimed chunk, the worker pushes it on its own {@link WorkStealingDeque}, otherwise it is left
+ * grey for the worker that will claim its chunk. Workers that run out of work steal from the deques of other workers.
+ * A grey object is only visited by the worker that succeeds in turning it black, so each object is visited once.
+ * <p>
+ * Cells that cannot be pushed because a deque is full are left grey and the leftmost such cell is recorded.
+ * Once all workers are done, the sequential forward scan of the heap marker resumes from that cell and completes
+ * marking using its marking stack and overflow recovery machinery.
+ */
+final class ParallelMarkingTask extends GCTask {
+    static boolean UseParallelMarking = true;
+    static int ParallelMarkingStackSize = 32 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseParallelMarking", ParallelMarkingTask.class,
+                        "Trace the heap with the GC worker gang when -XX:ParallelGCThreads is greater than 1", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelMarkingStackSize", ParallelMarkingTask.class,
+                        "Capacity (in number of cells) of the marking stack of each parallel marking worker", MaxineVM.Phase.PRISTINE);
+    }
+
+    /**
+     * Number of color map words in a chunk of work claimed by a worker.
+     */
+    static final int CHUNK_BITMAP_WORDS = 256;
+
+    final TricolorHeapMarker heapMarker;
+
+    /**
+     * Per-worker state. Allocated when building the boot image for the maximum number of workers of the gang.
+     */
+    private final Worker [] workers;
+
+    /**
+     * Number of workers running the current marking.
+     */
+    private int numWorkers;
+
+    /**
+     * Index of the first color map word not claimed yet by any worker.
+     */
+    private volatile int claimCursor;
+
+    /**
+     * Rightmost cell marked so far.
+     */
+    private volatile Address rightmost;
+
+    /**
+     * Leftmost grey cell that a worker failed to push on its deque.
+     */
+    private volatile Address leftmostOverflow;
+
+    /**
+     * Detects the termination of the task.
+     */
+    private final GCTaskTerminator terminator = new GCTaskTerminator();
+
+    @FOLD
+    private static int claimCursorOffset() {
+        return ClassActor.fromJava(ParallelMarkingTask.class).findLocalInstanceFieldActor("claimCursor").offset();
+    }
+
+    @FOLD
+    private static int rightmostOffset() {
+        return ClassActor.fromJava(ParallelMarkingTask.class).findLocalInstanceFieldActor("rightmost").offset();
+    }
+
+    @FOLD
+    private static int leftmostOverflowOffset() {
+        return ClassActor.fromJava(ParallelMarkingTask.class).findLocalInstanceFieldActor("leftmostOverflow").offset();
+    }
+
+    @HOSTED_ONLY
+    ParallelMarkingTask(TricolorHeapMarker heapMarker) {
+        this.heapMarker = heapMarker;
+        workers = new Worker[GCWorkerGang.MAX_WORKERS];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(this, i);
+        }
+        rightmost = Address.zero();
+        leftmostOverflow = Address.zero();
+    }
+
+    /**
+     * Allocate the marking stacks of the workers. Must be called once the number of workers of the gang is known.
+     */
+    void initialize() {
+        final int configuredWorkers = GCWorkerGang.theGang().numConfiguredWorkers();
+        if (UseParallelMarking && configuredWorkers > 1) {
+            for (int i = 0; i < configuredWorkers; i++) {
+                if (!workers[i].deque.isInitialized()) {
+                    workers[i].deque.initialize(ParallelMarkingStackSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether marking should be performed in parallel.
+     */
+    boolean isEnabled() {
+        return UseParallelMarking && GCWorkerGang.theGang().isParallel();
+    }
+
+    /**
+     * Trace in parallel the grey cells between the specified leftmost and rightmost cells, and update the forward scan state
+     * of the heap marker so that it completes the tracing.
+     *
+     * @param leftmost leftmost grey cell after root marking
+     * @param rightmostAfterRootMarking rightmost grey cell after root marking
+     * @param forwardScanState the forward scan state of the heap marker
+     */
+    void trace(Address leftmost, Address rightmostAfterRootMarking, ForwardScanState forwardScanState) {
+        final GCWorkerGang gang = GCWorkerGang.theGang();
+        numWorkers = gang.numWorkers();
+        claimCursor = heapMarker.bitmapWordIndex(leftmost) & ~(CHUNK_BITMAP_WORDS - 1);
+        rightmost = rightmostAfterRootMarking;
+        leftmostOverflow = heapMarker.coveredAreaEnd;
+        terminator.reset(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].reset();
+        }
+        gang.run(this);
+
+        forwardScanState.rightmost = rightmost;
+        forwardScanState.finger = leftmostOverflow.lessThan(rightmost) ? leftmostOverflow : rightmost;
+        if (Heap.logGCPhases()) {
+            for (int i = 0; i < numWorkers; i++) {
+                workers[i].printStats();
+            }
+        }
+    }
+
+    @Override
+    public void run(int workerIndex) {
+        workers[workerIndex].trace();
+    }
+
+    private int claimChunk() {
+        final Reference thisRef = Reference.fromJava(this);
+        while (true) {
+            final int firstBitmapWordIndex = claimCursor;
+            if (firstBitmapWordIndex > heapMarker.bitmapWordIndex(rightmost)) {
+                return -1;
+            }
+            if (thisRef.compareAndSwapInt(claimCursorOffset(), firstBitmapWordIndex, firstBitmapWordIndex + CHUNK_BITMAP_WORDS) == firstBitmapWordIndex) {
+                return firstBitmapWordIndex;
+            }
+        }
+    }
+
+    private void updateRightmost(Address cell) {
+        final Reference thisRef = Reference.fromJava(this);
+        Address current = rightmost;
+        while (cell.greaterThan(current)) {
+            final Address witness = thisRef.compareAndSwapWord(rightmostOffset(), current, cell).asAddress();
+            if (witness.equals(current)) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    private void recordOverflow(Address cell) {
+        final Reference thisRef = Reference.fromJava(this);
+        Address current = leftmostOverflow;
+        while (cell.lessThan(current)) {
+            final Address witness = thisRef.compareAndSwapWord(leftmostOverflowOffset(), current, cell).asAddress();
+            if (witness.equals(current)) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    @Override
+    public boolean hasWork() {
+        if (claimCursor <= heapMarker.bitmapWordIndex(rightmost)) {
+            return true;
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            if (!workers[i].deque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static final class Worker extends PointerIndexVisitor {
+        final ParallelMarkingTask task;
+        final TricolorHeapMarker heapMarker;
+        final int workerIndex;
+        final WorkStealingDeque deque = new WorkStealingDeque();
+
+        int visitedCells;
+        int claimedChunks;
+        int stolenCells;
+        int overflows;
+
+        @HOSTED_ONLY
+        Worker(ParallelMarkingTask task, int workerIndex) {
+            this.task = task;
+            this.heapMarker = task.heapMarker;
+            this.workerIndex = workerIndex;
+        }
+
+        void reset() {
+            deque.reset();
+            visitedCells = 0;
+            claimedChunks = 0;
+            stolenCells = 0;
+            overflows = 0;
+        }
+
+        private void markObjectGrey(Pointer cell) {
+            if (heapMarker.isCovered(cell) && heapMarker.markGreyIfWhiteAtomic(cell)) {
+                task.updateRightmost(cell);
+                // The claim cursor must be read after the cell was marked grey: if the chunk of the cell
+                // is claimed afterwards, its scan is guaranteed to see the grey mark.
+                if (heapMarker.bitmapWordIndex(cell) < task.claimCursor && !deque.push(cell)) {
+                    task.recordOverflow(cell);
+                    overflows++;
+                }
+            }
+        }
+
+        @INLINE
+        private void markRefGrey(Reference ref) {
+            markObjectGrey(Layout.originToCell(ref.toOrigin()));
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            markRefGrey(pointer.getReference(wordIndex));
+        }
+
+        /**
+         * Visit the references of a cell this worker turned black.
+         */
+        private void visitBlackCell(Pointer cell) {
+            visitedCells++;
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            if (MaxineVM.isDebug()) {
+                heapMarker.checkGreyCellHub(origin, hub);
+            }
+            if (LiveClassHistogram.isRecording()) {
+                LiveClassHistogram.record(workerIndex, hub, Layout.size(origin));
+            }
+            if (heapMarker.collectionSetRSet != null && heapMarker.collectionSetRSet.isRecording()) {
+                heapMarker.collectionSetRSet.recordReferences(workerIndex, origin, hub);
+            }
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    SpecialReferenceManager.discoverSpecialReferenceConcurrently(cell);
+                }
+            } else if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    markRefGrey(Layout.getReference(origin, index));
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            }
+        }
+
+        private void drain() {
+            Pointer cell = deque.pop();
+            while (!cell.isZero()) {
+                if (heapMarker.markBlackFromGreyAtomic(cell)) {
+                    visitBlackCell(cell);
+                }
+                cell = deque.pop();
+            }
+        }
+
+        /**
+         * Scan a chunk of the color map for grey cells and visit those this worker can turn black.
+         */
+        private void scanChunk(int firstBitmapWordIndex) {
+            // Cells marked grey in this chunk after it was claimed are pushed on a deque by whoever marked them,
+            // so the scan doesn't need to go past the rightmost cell known at this point.
+            int endBitmapWordIndex = firstBitmapWordIndex + CHUNK_BITMAP_WORDS;
+            final int rightmostBitmapWordIndex = heapMarker.bitmapWordIndex(task.rightmost);
+            if (endBitmapWordIndex > rightmostBitmapWordIndex + 1) {
+                endBitmapWordIndex = rightmostBitmapWordIndex + 1;
+            }
+            int bitmapWordIndex = firstBitmapWordIndex;
+            while (true) {
+                final int bitIndexOfGreyCell = heapMarker.firstGreyMark(bitmapWordIndex, endBitmapWordIndex - 1);
+                if (bitIndexOfGreyCell < 0) {
+                    return;
+                }
+                final Pointer cell = heapMarker.addressOf(bitIndexOfGreyCell).asPointer();
+                if (heapMarker.markBlackFromGreyAtomic(cell)) {
+                    visitBlackCell(cell);
+                    drain();
+                }
+                // The cell is black now. Re-scan from the same word to find the next grey cell.
+                bitmapWordIndex = heapMarker.bitmapWordIndex(bitIndexOfGreyCell);
+            }
+        }
+
+        private boolean steal() {
+            final ParallelMarkingTask task = this.task;
+            for (int i = 1; i < task.numWorkers; i++) {
+                final Worker victim = task.workers[(workerIndex + i) % task.numWorkers];
+                final Pointer cell = victim.deque.steal();
+                if (!cell.isZero()) {
+                    stolenCells++;
+                    if (heapMarker.markBlackFromGreyAtomic(cell)) {
+                        visitBlackCell(cell);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void trace() {
+            do {
+                drain();
+                int firstBitmapWordIndex = task.claimChunk();
+                while (firstBitmapWordIndex >= 0) {
+                    claimedChunks++;
+                    scanChunk(firstBitmapWordIndex);
+                    firstBitmapWordIndex = task.claimChunk();
+                }
+                while (steal()) {
+                    drain();
+                }
+            } while (!task.terminator.offerTermination(workerIndex, task));
+        }
+
+        void printStats() {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Parallel marking worker ");
+            Log.print(workerIndex);
+            Log.print(": visited ");
+            Log.print(visitedCells);
+            Log.print(" cells, claimed ");
+            Log.print(claimedChunks);
+            Log.print(" chunks, stole ");
+            Log.print(stolenCells);
+            Log.print(" cells, ");
+            Log.print(overflows);
+            Log.println(" overflows");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+}
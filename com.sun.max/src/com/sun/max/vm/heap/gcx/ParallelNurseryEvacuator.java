@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.DebugHeap.DetailLogger;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * A nursery evacuator that promotes survivors with the help of the {@link GCWorkerGang} when the gang has more than one worker.
+ * The evacuator acts as the first worker; the other workers use helper evacuators allocated when building the boot image.
+ * Each evacuator promotes into its own evacuation buffer; refills of evacuation buffers and overflow allocations are serialized
+ * with a spin lock. Survivors are forwarded by atomically installing the forwarding pointer in the hub word of the evacuated cell,
+ * so an object is promoted once even if several evacuators race to evacuate it.
+ * <p>
+ * Roots, boot heap, code and immortal references are evacuated by this evacuator only. The dirty cards of the old generation are
+ * then scanned in parallel, each worker claiming chunks of the to-space. While scanning dirty cards, locations of references
+ * to the nursery are only recorded on the worker's deque, as evacuating at this point would allocate in the to-space being scanned.
+ * Workers then process their deferred references and the survivor ranges resulting from it, stealing from other workers when they
+ * run out of work. If a worker's deque of deferred references overflowed, the card of the reference was re-dirtied and the
+ * whole process is repeated. Weak references are processed by this evacuator only.
+ */
+public final class ParallelNurseryEvacuator extends NoAgingNurseryEvacuator {
+    static int ParallelEvacuationStackSize = 64 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "ParallelEvacuationStackSize", ParallelNurseryEvacuator.class,
+                        "Capacity (in number of references) of the deque of deferred references of each parallel evacuation worker", MaxineVM.Phase.PRISTINE);
+    }
+
+    /**
+     * Maximum number of survivor ranges an evacuator may offer to other evacuators.
+     */
+    private static final int MAX_STEALABLE_SURVIVOR_RANGES = 4096;
+
+    /**
+     * Size of the chunks of to-space claimed by workers scanning dirty cards in parallel. A multiple of the card size.
+     */
+    private static final int RSET_CHUNK_SIZE = 1 << (CardTableRSet.LOG2_CARD_SIZE + 6);
+
+    /**
+     * All the evacuators, this one included at index 0. Evacuator at index i is used by the worker at index i.
+     */
+    private final NoAgingNurseryEvacuator [] evacuators;
+
+    private final GCSpinLock allocationLock = new GCSpinLock();
+
+    /**
+     * Number of evacuators participating to the current evacuation.
+     */
+    private int numEvacuators;
+
+    /**
+     * Iterable ranges of the to-space, as pairs of start and end addresses.
+     */
+    private long [] rsetRanges;
+
+    private int numRSetRanges;
+
+    /**
+     * Lock serializing the claiming of to-space chunks.
+     */
+    private final GCSpinLock rsetClaimLock = new GCSpinLock();
+
+    /**
+     * Index of the to-space range the next chunk is claimed from.
+     */
+    private int rsetRangeCursor;
+
+    /**
+     * Start of the next chunk to claim in the current to-space range.
+     */
+    private Address rsetChunkCursor = Address.zero();
+
+    /**
+     * End of the chunk last claimed by each worker.
+     */
+    private final long [] claimedChunkEnds = new long[GCWorkerGang.MAX_WORKERS];
+
+    /**
+     * Detects the termination of the task.
+     */
+    private final GCTaskTerminator terminator = new GCTaskTerminator();
+
+    private final CellRangeVisitor rsetRangeCollector = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            FatalError.check(numRSetRanges * 2 < rsetRanges.length, "too many to-space ranges");
+            rsetRanges[numRSetRanges * 2] = start.toLong();
+            rsetRanges[numRSetRanges * 2 + 1] = end.toLong();
+            numRSetRanges++;
+        }
+    };
+
+    private final GCTask rsetScanTask = new GCTask() {
+        @Override
+        public void run(int workerIndex) {
+            final NoAgingNurseryEvacuator evacuator = evacuators[workerIndex];
+            Address chunk = claimRSetChunk(workerIndex);
+            while (!chunk.isZero()) {
+                evacuator.evacuateFromDirtyCards(chunk, Address.fromLong(claimedChunkEnds[workerIndex]));
+                chunk = claimRSetChunk(workerIndex);
+            }
+        }
+    };
+
+    private final GCTask evacuationTask = new GCTask() {
+        @Override
+        public void run(int workerIndex) {
+            final NoAgingNurseryEvacuator evacuator = evacuators[workerIndex];
+            do {
+                evacuator.evacuateLocalReachables();
+                while (steal(workerIndex)) {
+                    evacuator.evacuateLocalReachables();
+                }
+            } while (!terminator.offerTermination(workerIndex, this));
+        }
+
+        @Override
+        public boolean hasWork() {
+            return ParallelNurseryEvacuator.this.hasWork();
+        }
+    };
+
+    @HOSTED_ONLY
+    public ParallelNurseryEvacuator(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
+        super(fromSpace, toSpace, evacuationBufferProvider, rset, name);
+        evacuators = new NoAgingNurseryEvacuator[GCWorkerGang.MAX_WORKERS];
+        evacuators[0] = this;
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i] = new NoAgingNurseryEvacuator(this);
+            evacuators[i].setWorkerIndex(i);
+        }
+    }
+
+    /**
+     * Initialize the evacuator and, if the GC worker gang is configured with more than one worker, the helper evacuators
+     * of the other workers. Must be called once the number of workers of the gang is known.
+     */
+    @Override
+    public void initialize(int maxSurvivorRanges, boolean alwaysRefill, Size minRefillThreshold, boolean retireAfterEvacuation) {
+        super.initialize(maxSurvivorRanges, alwaysRefill, minRefillThreshold, retireAfterEvacuation);
+        final int configuredWorkers = GCWorkerGang.theGang().numConfiguredWorkers();
+        if (configuredWorkers > 1) {
+            for (int i = 1; i < configuredWorkers; i++) {
+                evacuators[i].initialize(maxSurvivorRanges, alwaysRefill, minRefillThreshold, retireAfterEvacuation);
+            }
+            for (int i = 0; i < configuredWorkers; i++) {
+                evacuators[i].initializeParallelEvacuation(allocationLock, ParallelEvacuationStackSize, MAX_STEALABLE_SURVIVOR_RANGES);
+            }
+            rsetRanges = new long[2 * HeapRegionConstants.numberOfRegions(HeapRegionManager.theHeapRegionManager().bounds().size())];
+        }
+    }
+
+    private boolean canEvacuateInParallel() {
+        return rsetRanges != null && GCWorkerGang.theGang().isParallel();
+    }
+
+    @Override
+    public void setGCOperation(GCOperation gcOperation) {
+        super.setGCOperation(gcOperation);
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i].setGCOperation(gcOperation);
+        }
+    }
+
+    @Override
+    public void setDumper(HeapRangeDumper dumper) {
+        super.setDumper(dumper);
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i].setDumper(dumper);
+        }
+    }
+
+    @Override
+    public void setDetailLogger(DetailLogger detailLogger) {
+        super.setDetailLogger(detailLogger);
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i].setDetailLogger(detailLogger);
+        }
+    }
+
+    @Override
+    public void setPromotedCellsMarker(TricolorHeapMarker heapMarker) {
+        super.setPromotedCellsMarker(heapMarker);
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i].setPromotedCellsMarker(heapMarker);
+        }
+    }
+
+    @Override
+    public void setSurvivorSpaces(SurvivorSpaces survivorSpaces) {
+        super.setSurvivorSpaces(survivorSpaces);
+        for (int i = 1; i < evacuators.length; i++) {
+            evacuators[i].setSurvivorSpaces(survivorSpaces);
+        }
+    }
+
+    @Override
+    public void doBeforeGC() {
+        super.doBeforeGC();
+        if (rsetRanges != null) {
+            final int configuredWorkers = GCWorkerGang.theGang().numConfiguredWorkers();
+            for (int i = 1; i < configuredWorkers; i++) {
+                evacuators[i].doBeforeGC();
+            }
+        }
+    }
+
+    @Override
+    public void doAfterGC() {
+        super.doAfterGC();
+        if (rsetRanges != null) {
+            final int configuredWorkers = GCWorkerGang.theGang().numConfiguredWorkers();
+            for (int i = 1; i < configuredWorkers; i++) {
+                evacuators[i].doAfterGC();
+            }
+        }
+    }
+
+    @Override
+    public Size evacuatedBytes() {
+        Size evacuatedBytes = super.evacuatedBytes();
+        for (int i = 1; i < numEvacuators; i++) {
+            evacuatedBytes = evacuatedBytes.plus(evacuators[i].evacuatedBytes());
+        }
+        return evacuatedBytes;
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        super.doBeforeEvacuation();
+        numEvacuators = canEvacuateInParallel() ? GCWorkerGang.theGang().numWorkers() : 1;
+        for (int i = 1; i < numEvacuators; i++) {
+            // Workers only need to know whether cells are retained: the retained ranges are scanned from this evacuator's survivor ranges.
+            evacuators[i].setRetainsCells(retainsCells());
+            evacuators[i].prepareEvacuationBuffer();
+        }
+    }
+
+    @Override
+    protected void doAfterEvacuation() {
+        super.doAfterEvacuation();
+        for (int i = 1; i < numEvacuators; i++) {
+            evacuators[i].releaseEvacuationBuffer();
+        }
+    }
+
+    @Override
+    protected void evacuateFromRSets() {
+        if (numEvacuators == 1) {
+            super.evacuateFromRSets();
+            return;
+        }
+        for (int i = 0; i < numEvacuators; i++) {
+            evacuators[i].setParallel(true);
+        }
+        scanDirtyCardsInParallel();
+    }
+
+    @Override
+    protected void evacuateReachables() {
+        if (numEvacuators == 1 || !isParallel()) {
+            // Either sequential evacuation, or weak reference processing after a parallel evacuation.
+            super.evacuateReachables();
+            return;
+        }
+        evacuateReachablesInParallel();
+        while (checkAndClearDeferredRefsOverflows()) {
+            scanDirtyCardsInParallel();
+            evacuateReachablesInParallel();
+        }
+        for (int i = 0; i < numEvacuators; i++) {
+            evacuators[i].setParallel(false);
+        }
+    }
+
+    private boolean checkAndClearDeferredRefsOverflows() {
+        boolean overflowed = false;
+        for (int i = 0; i < numEvacuators; i++) {
+            if (evacuators[i].checkAndClearDeferredRefsOverflow()) {
+                overflowed = true;
+            }
+        }
+        return overflowed;
+    }
+
+    /**
+     * Scan the dirty cards of the to-space in parallel, recording the locations of references to the nursery
+     * on the deque of deferred references of the worker that found them.
+     */
+    private void scanDirtyCardsInParallel() {
+        for (int i = 0; i < numEvacuators; i++) {
+            evacuators[i].makeEvacuationBufferIterable();
+        }
+        numRSetRanges = 0;
+        toSpace.visit(rsetRangeCollector);
+        rsetRangeCursor = 0;
+        rsetChunkCursor = numRSetRanges == 0 ? Address.zero() : Address.fromLong(rsetRanges[0]);
+
+        for (int i = 0; i < numEvacuators; i++) {
+            evacuators[i].setEvacuationDeferred(true);
+        }
+        GCWorkerGang.theGang().run(rsetScanTask);
+        for (int i = 0; i < numEvacuators; i++) {
+            evacuators[i].setEvacuationDeferred(false);
+        }
+    }
+
+    private void evacuateReachablesInParallel() {
+        terminator.reset(numEvacuators);
+        GCWorkerGang.theGang().run(evacuationTask);
+    }
+
+    /**
+     * Claim the next chunk of the to-space to scan for dirty cards.
+     *
+     * @param workerIndex index of the claiming worker
+     * @return the start of the chunk, or zero if there is none left. The end of the chunk is in {@link #claimedChunkEnds}.
+     */
+    private Address claimRSetChunk(int workerIndex) {
+        rsetClaimLock.lock();
+        while (rsetRangeCursor < numRSetRanges) {
+            final Address rangeEnd = Address.fromLong(rsetRanges[rsetRangeCursor * 2 + 1]);
+            final Address chunk = rsetChunkCursor;
+            if (chunk.lessThan(rangeEnd)) {
+                Address chunkEnd = chunk.plus(RSET_CHUNK_SIZE).alignDown(RSET_CHUNK_SIZE);
+                if (chunkEnd.greaterThan(rangeEnd)) {
+                    chunkEnd = rangeEnd;
+                }
+                rsetChunkCursor = chunkEnd;
+                claimedChunkEnds[workerIndex] = chunkEnd.toLong();
+                rsetClaimLock.unlock();
+                return chunk;
+            }
+            rsetRangeCursor++;
+            if (rsetRangeCursor < numRSetRanges) {
+                rsetChunkCursor = Address.fromLong(rsetRanges[rsetRangeCursor * 2]);
+            }
+        }
+        rsetClaimLock.unlock();
+        return Address.zero();
+    }
+
+    private boolean steal(int workerIndex) {
+        final NoAgingNurseryEvacuator evacuator = evacuators[workerIndex];
+        for (int i = 1; i < numEvacuators; i++) {
+            if (evacuator.stealReachables(evacuators[(workerIndex + i) % numEvacuators])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasWork() {
+        for (int i = 0; i < numEvacuators; i++) {
+            if (evacuators[i].hasStealableWork()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.profile.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Generation sizing policy driven by a pause time goal and a GC overhead goal.
+ *
+ * The initial sizes of the generations are computed as for the {@link FixedRatioGenHeapSizingPolicy}. The space reserved for the
+ * young generation is however sized for the largest young generation the policy may grow to (see {@link #MaxYoungGenHeapPercent}).
+ * The policy records the duration of each collection pause, and the time mutators ran in between, as exponentially decaying averages.
+ * After each collection, it resizes the generations as follows:
+ * <ul>
+ * <li>if the average minor pause exceeds the pause time goal, the young generation is shrunk in proportion of the excess,</li>
+ * <li>otherwise, if the fraction of time spent in GC exceeds the overhead goal, the young generation is grown so as to reduce the
+ * frequency of minor collections,</li>
+ * <li>otherwise, if the overhead is well below its goal, the young generation is shrunk to reduce footprint.</li>
+ * </ul>
+ * The young generation is grown only if the old generation can still accommodate the worst-case evacuation of the larger young generation.
+ * The old generation is grown after an old generation collection if its free space drops below {@link #MinOldGenFreePercent}, and shrunk if its
+ * free space exceeds {@link #MaxOldGenFreePercent}.
+ */
+public final class PauseTimeGoalGenHeapSizingPolicy extends FixedRatioGenHeapSizingPolicy {
+    /**
+     * Target maximum pause time, in milliseconds.
+     */
+    static int MaxGCPauseMillis = 200;
+    /**
+     * Target maximum percentage of time spent in GC.
+     */
+    static int GCTimePercent = 5;
+    /**
+     * Upper bound of the size of the young generation, as a percentage of the maximum heap size.
+     */
+    static int MaxYoungGenHeapPercent = 60;
+    /**
+     * Percentage of the current size the young generation is grown or shrunk by when a goal isn't met.
+     */
+    static int YoungGenSizeDeltaPercent = 20;
+    /**
+     * Weight, as a percentage, of the last sample in the decaying averages of pause and mutator times.
+     */
+    static int GCTimeSampleWeight = 30;
+    static int MinOldGenFreePercent = 30;
+    static int MaxOldGenFreePercent = 70;
+    static {
+        VMOptions.addFieldOption("-XX:", "MaxGCPauseMillis", PauseTimeGoalGenHeapSizingPolicy.class, "Pause time goal (in ms) of generation resizing", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "GCTimePercent", PauseTimeGoalGenHeapSizingPolicy.class, "Goal of maximum percentage of time spent in GC", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxYoungGenHeapPercent", PauseTimeGoalGenHeapSizingPolicy.class,
+                        "Maximum percentage of heap size the young gen can grow to", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "YoungGenSizeDeltaPercent", PauseTimeGoalGenHeapSizingPolicy.class,
+                        "Percentage of its size the young gen is resized by when a goal isn't met", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "GCTimeSampleWeight", PauseTimeGoalGenHeapSizingPolicy.class,
+                        "Weight (in %) of the last sample in the averages of GC and mutator times", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MinOldGenFreePercent", PauseTimeGoalGenHeapSizingPolicy.class,
+                        "Min percentage of old gen free after an old gen GC to avoid growing it", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxOldGenFreePercent", PauseTimeGoalGenHeapSizingPolicy.class,
+                        "Max percentage of old gen free after an old gen GC to avoid shrinking it", Phase.PRISTINE);
+    }
+
+    private static final Clock CLOCK = Clock.SYSTEM_NANOSECONDS;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * Smallest size the young generation can be shrunk to.
+     */
+    private final Size minYoungGenSize;
+
+    /**
+     * Decaying average of minor collection pauses, in nanoseconds.
+     */
+    private long avgMinorPause;
+    /**
+     * Decaying average of pauses that included an old generation collection, in nanoseconds.
+     */
+    private long avgFullPause;
+    /**
+     * Decaying average of all pauses, in nanoseconds.
+     */
+    private long avgPause;
+    /**
+     * Decaying average of the mutator time between two pauses, in nanoseconds.
+     */
+    private long avgMutatorTime;
+
+    private long pauseStart;
+    private long lastPauseEnd;
+    private boolean oldGenCollected;
+
+    public PauseTimeGoalGenHeapSizingPolicy(Size initHeapSize, Size maxHeapSize, int youngGenHeapPercentage, int log2Alignment) {
+        super(initHeapSize, maxHeapSize, youngGenHeapPercentage, log2Alignment);
+        FatalError.check(MaxYoungGenHeapPercent >= youngGenHeapPercentage && MaxYoungGenHeapPercent < 100, "Not a valid maximum percentage of heap size");
+        FatalError.check(MinOldGenFreePercent < MaxOldGenFreePercent, "Minimum old gen free percentage must be lower than maximum");
+        minYoungGenSize = alignUp(Size.fromInt(1));
+    }
+
+    @Override
+    public Size maxYoungGenSize() {
+        return alignUp(maxHeapSize.times(MaxYoungGenHeapPercent).dividedBy(100));
+    }
+
+    private static long decayingAverage(long average, long sample) {
+        if (average == 0L) {
+            return sample;
+        }
+        return (average * (100 - GCTimeSampleWeight) + sample * GCTimeSampleWeight) / 100;
+    }
+
+    /**
+     * Must be called at the beginning of every collection pause.
+     */
+    public void notifyPauseStart() {
+        pauseStart = CLOCK.getTicks();
+        oldGenCollected = false;
+        if (lastPauseEnd != 0L) {
+            avgMutatorTime = decayingAverage(avgMutatorTime, pauseStart - lastPauseEnd);
+        }
+    }
+
+    /**
+     * Must be called if the current pause collects the old generation, either fully or by completing a concurrent marking cycle.
+     */
+    public void notifyOldGenCollection() {
+        oldGenCollected = true;
+    }
+
+    /**
+     * Must be called at the end of every collection pause, before {@link #resizeAfterCollection}.
+     */
+    public void notifyPauseEnd() {
+        lastPauseEnd = CLOCK.getTicks();
+        final long pause = lastPauseEnd - pauseStart;
+        avgPause = decayingAverage(avgPause, pause);
+        if (oldGenCollected) {
+            avgFullPause = decayingAverage(avgFullPause, pause);
+        } else {
+            avgMinorPause = decayingAverage(avgMinorPause, pause);
+        }
+    }
+
+    /**
+     * Percentage of time spent in GC, based on the average pause and mutator times.
+     */
+    private int gcTimePercent() {
+        final long total = avgPause + avgMutatorTime;
+        return total == 0L ? 0 : (int) (avgPause * 100 / total);
+    }
+
+    private Size youngGenDelta(Size youngGenSize, int percent) {
+        final Size delta = alignUp(youngGenSize.times(percent).dividedBy(100));
+        return delta.isZero() ? unitSize : delta;
+    }
+
+    /**
+     * Resize the generations according to the goals of the policy. Must be called at the end of a collection, when the young generation is empty.
+     *
+     * @param youngGen the young generation
+     * @param oldGen the old generation
+     * @param oldGenFreeSpace space available for allocation in the old generation
+     */
+    public void resizeAfterCollection(ResizableSpace youngGen, ResizableSpace oldGen, Size oldGenFreeSpace) {
+        final Size youngGenSize = youngGen.totalSpace();
+        final long maxPause = MaxGCPauseMillis * NANOS_PER_MILLI;
+        final int gcTimePercent = gcTimePercent();
+        Size freeSpace = oldGenFreeSpace;
+
+        if (oldGenCollected) {
+            final Size oldGenSize = oldGen.totalSpace();
+            final Size minFree = oldGenSize.dividedBy(100).times(MinOldGenFreePercent);
+            final Size maxFree = oldGenSize.dividedBy(100).times(MaxOldGenFreePercent);
+            if (freeSpace.lessThan(minFree) || freeSpace.lessThan(youngGenSize)) {
+                Size needed = minFree.greaterThan(youngGenSize) ? minFree : youngGenSize;
+                final Size grown = oldGen.increaseSize(needed.minus(freeSpace));
+                freeSpace = freeSpace.plus(grown);
+                if (Heap.verbose()) {
+                    Log.print("Grow old gen by ");
+                    Log.printlnToPowerOfTwoUnits(grown);
+                }
+            } else if (freeSpace.greaterThan(maxFree) && avgFullPause < maxPause) {
+                final Size shrunk = oldGen.decreaseSize(alignDown(freeSpace.minus(maxFree)));
+                freeSpace = freeSpace.minus(shrunk);
+                if (Heap.verbose() && shrunk.isNotZero()) {
+                    Log.print("Shrink old gen by ");
+                    Log.printlnToPowerOfTwoUnits(shrunk);
+                }
+            }
+        }
+
+        if (avgMinorPause > maxPause) {
+            // Shrink in proportion of the pause excess, but never by more than half of the young generation.
+            int percent = (int) ((avgMinorPause - maxPause) * 100 / avgMinorPause);
+            if (percent < YoungGenSizeDeltaPercent) {
+                percent = YoungGenSizeDeltaPercent;
+            } else if (percent > 50) {
+                percent = 50;
+            }
+            shrinkYoungGen(youngGen, youngGenSize, youngGenDelta(youngGenSize, percent));
+        } else if (gcTimePercent > GCTimePercent) {
+            Size delta = youngGenDelta(youngGenSize, YoungGenSizeDeltaPercent);
+            // The old generation must still be able to accommodate the worst-case evacuation of the larger young generation.
+            final Size evacuationReserve = freeSpace.greaterThan(youngGenSize) ? freeSpace.minus(youngGenSize).asSize() : Size.zero();
+            if (delta.greaterThan(evacuationReserve)) {
+                delta = alignDown(evacuationReserve);
+            }
+            if (delta.isNotZero()) {
+                final Size grown = youngGen.increaseSize(delta);
+                if (Heap.verbose() && grown.isNotZero()) {
+                    Log.print("Grow young gen by ");
+                    Log.printToPowerOfTwoUnits(grown);
+                    Log.print(" (GC time % = ");
+                    Log.print(gcTimePercent);
+                    Log.println(")");
+                }
+            }
+        } else if (gcTimePercent < GCTimePercent / 2) {
+            shrinkYoungGen(youngGen, youngGenSize, youngGenDelta(youngGenSize, YoungGenSizeDeltaPercent / 2));
+        }
+    }
+
+    private void shrinkYoungGen(ResizableSpace youngGen, Size youngGenSize, Size delta) {
+        if (youngGenSize.minus(delta).lessThan(minYoungGenSize)) {
+            if (youngGenSize.lessEqual(minYoungGenSize)) {
+                return;
+            }
+            delta = youngGenSize.minus(minYoungGenSize).asSize();
+        }
+        final Size shrunk = youngGen.decreaseSize(delta);
+        if (Heap.verbose() && shrunk.isNotZero()) {
+            Log.print("Shrink young gen by ");
+            Log.printToPowerOfTwoUnits(shrunk);
+            Log.print(" (avg minor pause = ");
+            Log.print(avgMinorPause / NANOS_PER_MILLI);
+            Log.println(" ms)");
+        }
+    }
+}
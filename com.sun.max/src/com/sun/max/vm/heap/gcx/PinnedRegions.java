@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Region-level object pinning for evacuating heap spaces.
+ * <p>
+ * Pinning an object increments the pin count of the {@link HeapRegionInfo} of every region its cell overlaps. Instead of waiting
+ * for pinned objects to be released, an evacuation of a space with pinned regions {@linkplain #retain(Address, Address) retains}
+ * in place the cells that start in these regions: they aren't evacuated, and are scanned as roots of the evacuation. Cells of retained
+ * regions are identified by the {@linkplain HeapRegionInfo#isRetained() retained} flag of their region, which is a snapshot of the
+ * pinned state of the region taken when the evacuation begins. Retained cells stay in the space until an evacuation finds their region
+ * unpinned.
+ * <p>
+ * References to retained cells from outside of the evacuated area must be remembered across evacuations: evacuators keep the card
+ * of such references dirty (see {@link EvacuatorToCardSpace#setPinnedRegions(PinnedRegions)}).
+ */
+public final class PinnedRegions {
+    public static boolean UseRegionPinning = true;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseRegionPinning", PinnedRegions.class,
+                        "Pin the heap regions of objects accessed directly by native code (e.g., JNI critical arrays) instead of disabling GC", Phase.PRISTINE);
+    }
+
+    /**
+     * Start and end addresses of the ranges of cells retained by the current evacuation, in address order.
+     */
+    private long [] ranges;
+
+    /**
+     * Number of retained ranges.
+     */
+    private int numRanges;
+
+    /**
+     * Allocate the storage for tracking the ranges of retained cells of a space.
+     *
+     * @param maxRegions maximum number of regions of the space
+     */
+    public void initialize(int maxRegions) {
+        // Ranges are separated by an unpinned region or by the boundary of a contiguous range of the space.
+        ranges = new long[2 * (maxRegions + 1)];
+        numRanges = 0;
+    }
+
+    /**
+     * Pin all the regions overlapped by the cell of an object. Objects outside of heap regions (e.g., in the boot heap) are never moved
+     * and are ignored.
+     */
+    public static void pin(Object object) {
+        // The object must not be moved by a GC while its regions are being pinned.
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final Pointer origin = Reference.fromJava(object).toOrigin();
+        final Pointer cell = Layout.originToCell(origin);
+        final int firstRegion = regionTable.regionID(cell);
+        if (firstRegion != INVALID_REGION_ID) {
+            final int lastRegion = regionTable.regionID(cell.plus(Layout.size(origin)).minus(1));
+            for (int regionID = firstRegion; regionID <= lastRegion; regionID++) {
+                regionTable.regionInfo(regionID).pin();
+            }
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    /**
+     * Unpin all the regions overlapped by the cell of an object previously pinned with {@link #pin(Object)}.
+     */
+    public static void unpin(Object object) {
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final Pointer origin = Reference.fromJava(object).toOrigin();
+        final Pointer cell = Layout.originToCell(origin);
+        final int firstRegion = regionTable.regionID(cell);
+        if (firstRegion != INVALID_REGION_ID) {
+            final int lastRegion = regionTable.regionID(cell.plus(Layout.size(origin)).minus(1));
+            for (int regionID = firstRegion; regionID <= lastRegion; regionID++) {
+                regionTable.regionInfo(regionID).unpin();
+            }
+        }
+    }
+
+    /**
+     * Indicate whether the cell at the specified origin is retained by the current evacuation.
+     * @param origin origin of a cell located in a heap region
+     */
+    @INLINE
+    public static boolean isRetained(Pointer origin) {
+        return HeapRegionInfo.fromInRegionAddress(Layout.originToCell(origin)).isRetained();
+    }
+
+    /**
+     * Indicate whether any of the regions overlapping a range of addresses is pinned.
+     */
+    private static boolean hasPinnedRegion(Address start, Address end) {
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final int lastRegion = regionTable.regionID(end.minus(1));
+        for (int regionID = regionTable.regionID(start); regionID <= lastRegion; regionID++) {
+            if (regionTable.regionInfo(regionID).isPinned()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the ranges retained by the last evacuation and clear the retained flag of their regions.
+     * Must be called before the space records the ranges retained by a new evacuation.
+     */
+    public void reset() {
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        for (int i = 0; i < numRanges; i++) {
+            final int lastRegion = regionTable.regionID(rangeEnd(i).minus(1));
+            for (int regionID = regionTable.regionID(rangeStart(i)); regionID <= lastRegion; regionID++) {
+                regionTable.regionInfo(regionID).setRetained(false);
+            }
+        }
+        numRanges = 0;
+    }
+
+    /**
+     * Retain the cells of a parsable, contiguous range of the space that start in a pinned region. Free chunks and dark matter are never retained,
+     * but don't split ranges of retained cells: all the cells of contiguous pinned regions are recorded as a single range, which ends with
+     * the last retained cell. This must be done before evacuation begins, as the range can't be parsed once cells have been forwarded.
+     *
+     * @param start start of the first cell of the range
+     * @param end end of the last cell of the range
+     * @return the number of ranges of retained cells recorded for the range
+     */
+    public int retain(Address start, Address end) {
+        if (start.greaterEqual(end) || !hasPinnedRegion(start, end)) {
+            return 0;
+        }
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        final int firstRange = numRanges;
+        Address rangeStart = Address.zero();
+        Address rangeEnd = Address.zero();
+        Pointer cell = start.asPointer();
+        while (cell.lessThan(end)) {
+            final HeapRegionInfo regionInfo = regionTable.inHeapAddressRegionInfo(cell);
+            final Pointer origin = Layout.cellToOrigin(cell);
+            if (HeapFreeChunk.isHeapFreeChunkOrigin(origin)) {
+                cell = cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+                continue;
+            }
+            final Pointer nextCell = cell.plus(Layout.size(origin));
+            if (!regionInfo.isPinned()) {
+                if (!rangeStart.isZero()) {
+                    addRange(rangeStart, rangeEnd);
+                    rangeStart = Address.zero();
+                }
+            } else if (!DarkMatter.isDarkMatterHub(Layout.readHubReference(Reference.fromOrigin(origin)).toOrigin())) {
+                regionInfo.setRetained(true);
+                if (rangeStart.isZero()) {
+                    rangeStart = cell;
+                }
+                rangeEnd = nextCell;
+            }
+            cell = nextCell;
+        }
+        if (!rangeStart.isZero()) {
+            addRange(rangeStart, rangeEnd);
+        }
+        return numRanges - firstRange;
+    }
+
+    private void addRange(Address start, Address end) {
+        FatalError.check(2 * numRanges < ranges.length, "Too many retained ranges");
+        ranges[2 * numRanges] = start.toLong();
+        ranges[2 * numRanges + 1] = end.toLong();
+        numRanges++;
+    }
+
+    public boolean isEmpty() {
+        return numRanges == 0;
+    }
+
+    public int numRanges() {
+        return numRanges;
+    }
+
+    public Address rangeStart(int index) {
+        return Address.fromLong(ranges[2 * index]);
+    }
+
+    public Address rangeEnd(int index) {
+        return Address.fromLong(ranges[2 * index + 1]);
+    }
+
+    /**
+     * Apply a visitor to the ranges of retained cells.
+     */
+    public void visit(CellRangeVisitor visitor) {
+        for (int i = 0; i < numRanges; i++) {
+            visitor.visitCells(rangeStart(i), rangeEnd(i));
+        }
+    }
+
+    /**
+     * Total size of the cells currently retained.
+     */
+    public Size retainedSpace() {
+        Size size = Size.zero();
+        for (int i = 0; i < numRanges; i++) {
+            size = size.plus(rangeEnd(i).minus(rangeStart(i)));
+        }
+        return size;
+    }
+}
@@ -188,6 +188,13 @@ public final class RegionTable {
         return index;
     }
 
+    /**
+     * Number of regions covered by the table.
+     */
+    int length() {
+        return length;
+    }
+
     public boolean isValidRegionID(int regionID) {
         return regionID >= 0 && regionID < length;
     }
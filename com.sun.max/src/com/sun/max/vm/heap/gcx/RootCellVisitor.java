@@ -74,7 +74,7 @@ abstract class RootCellVisitor extends PointerIndexVisitor implements CellVisito
 
     final void markExternalRoot(Pointer cell) {
         // Note: the first test also acts as a null pointer filter.
-        if (cell.greaterEqual(bottom) && isNonNullCovered(cell)) {
+        if (cell.greaterEqual(bottom) && isNonNullCovered(cell) && !heapMarker.isIgnored(cell)) {
             heapMarker.markGrey(cell);
             if (cell.lessThan(leftmost)) {
                 leftmost = cell;
@@ -111,7 +111,11 @@ abstract class RootCellVisitor extends PointerIndexVisitor implements CellVisito
         if (specificLayout == Layout.tupleLayout()) {
             TupleReferenceMap.visitReferences(hub, origin, this);
             if (hub.isJLRReference) {
-                SpecialReferenceManager.discoverSpecialReference(cell);
+                if (heapMarker.isConcurrentMarking()) {
+                    markExternalRoot(Layout.originToCell(origin.getReference(SpecialReferenceManager.referentIndex()).toOrigin()));
+                } else {
+                    SpecialReferenceManager.discoverSpecialReference(cell);
+                }
             }
             return cell.plus(hub.tupleSize);
         }
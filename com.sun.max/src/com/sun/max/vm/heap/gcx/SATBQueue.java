@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.thread.VmThread.*;
+import static com.sun.max.vm.thread.VmThreadLocal.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.TricolorHeapMarker.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
+
+/**
+ * Snapshot-at-the-beginning (SATB) queue of the references overwritten by mutators while the heap is marked concurrently.
+ * While the queue is {@linkplain #isActive() active}, the pre-write barrier of the heap scheme records the value of a reference
+ * location before it is overwritten. The heap marker traces these references so that every object reachable when marking started
+ * is marked, even if the mutators cut the paths to it before the marker reached it.
+ * <p>
+ * References are recorded in a buffer private to each thread. Full buffers are appended to a global list of completed buffers
+ * drained by the heap marker in between increments of concurrent marking. The buffers of all threads are drained when marking
+ * completes, while mutators are stopped. Buffers are chunks of native memory recycled through a free list.
+ * The first two words of a buffer hold the link to the next buffer in a list and the number of references in the buffer.
+ */
+public final class SATBQueue {
+    /**
+     * Number of references a buffer can hold.
+     */
+    static int SATBBufferSize = 256;
+    static {
+        VMOptions.addFieldOption("-XX:", "SATBBufferSize", SATBQueue.class, "Number of references held by a thread-local SATB buffer", Phase.PRISTINE);
+    }
+
+    public static final VmThreadLocal SATB_BUFFER
+        = new VmThreadLocal("SATB_BUFFER", false, "SATBQueue: current SATB buffer of the thread, zero if none", Nature.Single);
+
+    private static final int NEXT_INDEX = 0;
+    private static final int COUNT_INDEX = 1;
+    private static final int FIRST_ENTRY_INDEX = 2;
+
+    /**
+     * Non-zero while mutators must record the references they overwrite. Read directly by compiled pre-write barriers.
+     */
+    private static volatile int active;
+
+    /**
+     * List of buffers filled up by mutators and not yet drained.
+     */
+    private static Pointer completedBuffers = Pointer.zero();
+
+    /**
+     * List of buffers available for reuse.
+     */
+    private static Pointer freeBuffers = Pointer.zero();
+
+    /**
+     * Lock protecting the lists of buffers. Only ever held with safepoints disabled, so that a thread holding it can't be stopped by a GC.
+     */
+    private static final GCSpinLock lock = new GCSpinLock();
+
+    private SATBQueue() {
+    }
+
+    @FOLD
+    public static int activeFieldOffset() {
+        return ClassActor.fromJava(SATBQueue.class).findLocalStaticFieldActor("active").offset();
+    }
+
+    @HOSTED_ONLY
+    public static Object staticTuple() {
+        return ClassActor.fromJava(SATBQueue.class).staticTuple();
+    }
+
+    @INLINE
+    public static boolean isActive() {
+        return active != 0;
+    }
+
+    /**
+     * Start recording overwritten references. Must be called while mutators are stopped.
+     * Any reference left over in the SATB buffers from a previous activation is discarded.
+     */
+    public static void activate() {
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, resetThreadBuffer);
+        while (!completedBuffers.isZero()) {
+            final Pointer buffer = completedBuffers;
+            completedBuffers = buffer.getWord(NEXT_INDEX).asPointer();
+            release(buffer);
+        }
+        active = 1;
+    }
+
+    /**
+     * Stop recording overwritten references. Must be called while mutators are stopped.
+     */
+    public static void deactivate() {
+        active = 0;
+    }
+
+    /**
+     * Record a reference about to be overwritten by the current thread.
+     * Called by pre-write barriers while the queue is active. Must not be interrupted by a GC
+     * between the loading of the thread's buffer and the update of its count.
+     *
+     * @param ref the reference about to be overwritten
+     */
+    @NO_SAFEPOINT_POLLS("SATB buffer update must be atomic with respect to GC")
+    public static void enqueue(Reference ref) {
+        if (ref.isZero()) {
+            return;
+        }
+        final Pointer etla = ETLA.load(currentTLA());
+        final Pointer buffer = SATB_BUFFER.load(etla);
+        if (!buffer.isZero()) {
+            final int count = buffer.getWord(COUNT_INDEX).asAddress().toInt();
+            if (count < SATBBufferSize) {
+                buffer.setWord(FIRST_ENTRY_INDEX + count, ref.toOrigin());
+                buffer.setWord(COUNT_INDEX, Address.fromInt(count + 1));
+                return;
+            }
+        }
+        enqueueInNewBuffer(etla, ref);
+    }
+
+    @NEVER_INLINE
+    private static void enqueueInNewBuffer(Pointer etla, Reference ref) {
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        final Pointer buffer = SATB_BUFFER.load(etla);
+        lock.lock();
+        if (!buffer.isZero()) {
+            buffer.setWord(NEXT_INDEX, completedBuffers);
+            completedBuffers = buffer;
+        }
+        Pointer newBuffer = freeBuffers;
+        if (!newBuffer.isZero()) {
+            freeBuffers = newBuffer.getWord(NEXT_INDEX).asPointer();
+        }
+        lock.unlock();
+        if (newBuffer.isZero()) {
+            newBuffer = Memory.allocate(Size.fromInt(FIRST_ENTRY_INDEX + SATBBufferSize).shiftedLeft(Word.widthValue().log2numberOfBytes));
+            if (newBuffer.isZero()) {
+                FatalError.unexpected("Failed to allocate SATB buffer");
+            }
+        }
+        newBuffer.setWord(FIRST_ENTRY_INDEX, ref.toOrigin());
+        newBuffer.setWord(COUNT_INDEX, Address.fromInt(1));
+        SATB_BUFFER.store(etla, newBuffer);
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    /**
+     * Hand the buffer of the current thread over to the heap marker. Called when the current thread terminates.
+     */
+    public static void releaseCurrentThreadBuffer() {
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        final Pointer etla = ETLA.load(currentTLA());
+        final Pointer buffer = SATB_BUFFER.load(etla);
+        if (!buffer.isZero()) {
+            SATB_BUFFER.store(etla, Pointer.zero());
+            lock.lock();
+            if (isActive() && !buffer.getWord(COUNT_INDEX).isZero()) {
+                buffer.setWord(NEXT_INDEX, completedBuffers);
+                completedBuffers = buffer;
+            } else {
+                release(buffer);
+            }
+            lock.unlock();
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+    }
+
+    private static void release(Pointer buffer) {
+        buffer.setWord(NEXT_INDEX, freeBuffers);
+        freeBuffers = buffer;
+    }
+
+    private static void drain(Pointer buffer, ColorMapScanState scanState) {
+        final int count = buffer.getWord(COUNT_INDEX).asAddress().toInt();
+        for (int i = 0; i < count; i++) {
+            scanState.visit(Reference.fromOrigin(buffer.getWord(FIRST_ENTRY_INDEX + i).asPointer()));
+        }
+        buffer.setWord(COUNT_INDEX, Address.zero());
+    }
+
+    /**
+     * Mark grey the references held in the completed buffers. Must be called with safepoints disabled.
+     *
+     * @param scanState the scan state of the heap marker
+     * @return true if any buffer was drained
+     */
+    static boolean drainCompletedBuffers(ColorMapScanState scanState) {
+        lock.lock();
+        Pointer buffer = completedBuffers;
+        completedBuffers = Pointer.zero();
+        lock.unlock();
+        if (buffer.isZero()) {
+            return false;
+        }
+        while (!buffer.isZero()) {
+            final Pointer next = buffer.getWord(NEXT_INDEX).asPointer();
+            drain(buffer, scanState);
+            lock.lock();
+            release(buffer);
+            lock.unlock();
+            buffer = next;
+        }
+        return true;
+    }
+
+    private static ColorMapScanState threadBuffersScanState;
+
+    private static final Pointer.Procedure drainThreadBuffer = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final Pointer buffer = SATB_BUFFER.load(ETLA.load(tla));
+            if (!buffer.isZero()) {
+                drain(buffer, threadBuffersScanState);
+            }
+        }
+    };
+
+    private static final Pointer.Procedure resetThreadBuffer = new Pointer.Procedure() {
+        public void run(Pointer tla) {
+            final Pointer buffer = SATB_BUFFER.load(ETLA.load(tla));
+            if (!buffer.isZero()) {
+                buffer.setWord(COUNT_INDEX, Address.zero());
+            }
+        }
+    };
+
+    /**
+     * Mark grey the references held in all the buffers, including those of the threads. Must be called while mutators are stopped.
+     *
+     * @param scanState the scan state of the heap marker
+     */
+    static void drainAllBuffers(ColorMapScanState scanState) {
+        drainCompletedBuffers(scanState);
+        threadBuffersScanState = scanState;
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, drainThreadBuffer);
+        threadBuffersScanState = null;
+    }
+}
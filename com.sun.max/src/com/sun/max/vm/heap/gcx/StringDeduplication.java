@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Deduplication of the character arrays of the strings promoted to the old generation of a generational heap scheme.
+ * <p>
+ * Evacuators {@linkplain #enqueue(Pointer) enqueue} the strings they promote to the old generation. Once evacuation is complete,
+ * the heap scheme {@linkplain #deduplicate(HeapSpace) processes} the queue: the character array of each queued string is looked up,
+ * by content, in a table of the character arrays of the old generation. If an identical array is found, the string is made to refer
+ * to it and its own array becomes garbage. Otherwise, the array is added to the table.
+ * <p>
+ * The table refers to old generation arrays without keeping them alive. Heap schemes must {@linkplain #clear() clear} it whenever
+ * the old generation is collected, and must not deduplicate while the old generation is being marked concurrently.
+ * The queue and the table are in native memory allocated at initialization, so deduplication never allocates from the heap.
+ * Strings enqueued once the queue is full are not deduplicated.
+ */
+public final class StringDeduplication {
+    static boolean UseStringDeduplication;
+    static boolean PrintStringDeduplicationStatistics;
+    static int StringDeduplicationTableSize = 64 * 1024;
+    static int StringDeduplicationQueueSize = 16 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseStringDeduplication", StringDeduplication.class,
+                        "Share the character arrays of identical strings promoted to the old generation", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PrintStringDeduplicationStatistics", StringDeduplication.class,
+                        "Print statistics of string deduplication after each GC", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "StringDeduplicationTableSize", StringDeduplication.class,
+                        "Number of entries of the string deduplication table (rounded up to a power of two)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "StringDeduplicationQueueSize", StringDeduplication.class,
+                        "Maximum number of strings enqueued for deduplication per GC", Phase.PRISTINE);
+    }
+
+    /**
+     * Number of words per entry of the table: the origin of a character array, and the hash of its content.
+     */
+    private static final int ENTRY_WORDS = 2;
+
+    /**
+     * Queue of the cells of strings to deduplicate.
+     */
+    private static Pointer queue = Pointer.zero();
+
+    private static int queueCapacity;
+
+    /**
+     * Number of strings enqueued. May exceed the capacity of the queue, in which case the strings in excess were dropped.
+     */
+    private static volatile int queueLength;
+
+    /**
+     * Table of character arrays, with open addressing.
+     */
+    private static Pointer table = Pointer.zero();
+
+    private static int tableMask;
+
+    private static int tableEntries;
+
+    /**
+     * Maximum number of entries of the table, so that probing always terminates quickly.
+     */
+    private static int maxTableEntries;
+
+    private static long inspectedStrings;
+    private static long deduplicatedStrings;
+    private static long droppedStrings;
+    private static long deduplicatedBytes;
+
+    private StringDeduplication() {
+    }
+
+    @FOLD
+    private static int queueLengthOffset() {
+        return ClassActor.fromJava(StringDeduplication.class).findLocalStaticFieldActor("queueLength").offset();
+    }
+
+    @FOLD
+    private static Object staticTuple() {
+        return ClassActor.fromJava(StringDeduplication.class).staticTuple();
+    }
+
+    @FOLD
+    private static int valueOffset() {
+        return ClassActor.fromJava(String.class).findLocalInstanceFieldActor("value").offset();
+    }
+
+    @FOLD
+    private static Hub stringHub() {
+        return ClassActor.fromJava(String.class).dynamicHub();
+    }
+
+    /**
+     * Indicates whether strings are deduplicated.
+     */
+    @INLINE
+    public static boolean isEnabled() {
+        return UseStringDeduplication;
+    }
+
+    /**
+     * Allocate the queue and the table if string deduplication is enabled. Must be called by heap schemes supporting deduplication
+     * during the {@linkplain MaxineVM.Phase#PRISTINE pristine} phase.
+     */
+    public static void initialize() {
+        if (!isEnabled() || !queue.isZero()) {
+            return;
+        }
+        queueCapacity = StringDeduplicationQueueSize < 1 ? 1 : StringDeduplicationQueueSize;
+        int tableCapacity = Integer.highestOneBit(StringDeduplicationTableSize < 2 ? 2 : StringDeduplicationTableSize);
+        if (tableCapacity < StringDeduplicationTableSize) {
+            tableCapacity <<= 1;
+        }
+        tableMask = tableCapacity - 1;
+        maxTableEntries = tableCapacity - (tableCapacity >> 2);
+        final int log2WordSize = Word.widthValue().log2numberOfBytes;
+        queue = Memory.allocate(Size.fromInt(queueCapacity).shiftedLeft(log2WordSize));
+        table = Memory.allocate(Size.fromInt(tableCapacity * ENTRY_WORDS).shiftedLeft(log2WordSize));
+        if (queue.isZero() || table.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("string deduplication table", "allocate",
+                            Size.fromInt(queueCapacity + tableCapacity * ENTRY_WORDS).shiftedLeft(log2WordSize));
+        }
+        clear();
+    }
+
+    /**
+     * Indicates whether a hub is the hub of {@link String}.
+     */
+    @INLINE
+    public static boolean isStringHub(Hub hub) {
+        return hub == stringHub();
+    }
+
+    /**
+     * Enqueue a promoted string for deduplication. May be called concurrently by several GC workers.
+     *
+     * @param cell the cell of the string in the old generation
+     */
+    public static void enqueue(Pointer cell) {
+        final Reference staticTupleRef = Reference.fromJava(staticTuple());
+        int index;
+        do {
+            index = queueLength;
+        } while (staticTupleRef.compareAndSwapInt(queueLengthOffset(), index, index + 1) != index);
+        if (index < queueCapacity) {
+            queue.setWord(index, cell);
+        }
+    }
+
+    /**
+     * Remove all the entries of the table. Must be called when the old generation is collected, as the table doesn't keep
+     * the arrays it refers to alive and doesn't track their moves.
+     */
+    public static void clear() {
+        if (!table.isZero()) {
+            Memory.clearWords(table, (tableMask + 1) * ENTRY_WORDS);
+            tableEntries = 0;
+        }
+    }
+
+    /**
+     * Drop the strings enqueued by the last evacuation without deduplicating them.
+     */
+    public static void discard() {
+        queueLength = 0;
+    }
+
+    private static int hash(Pointer arrayOrigin, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + Layout.getChar(Reference.fromOrigin(arrayOrigin), i);
+        }
+        return h;
+    }
+
+    private static boolean sameChars(Pointer arrayOrigin, Pointer otherArrayOrigin, int length) {
+        if (Layout.readArrayLength(otherArrayOrigin) != length) {
+            return false;
+        }
+        final Reference array = Reference.fromOrigin(arrayOrigin);
+        final Reference otherArray = Reference.fromOrigin(otherArrayOrigin);
+        for (int i = 0; i < length; i++) {
+            if (Layout.getChar(array, i) != Layout.getChar(otherArray, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Look up a character array in the table and add it if no identical array is found.
+     *
+     * @return the origin of an identical array of the table, or zero if the array was added or the table is full
+     */
+    private static Pointer lookupOrInsert(Pointer arrayOrigin) {
+        final int length = Layout.readArrayLength(arrayOrigin);
+        final int h = hash(arrayOrigin, length);
+        int index = h & tableMask;
+        while (true) {
+            final Pointer entry = table.plusWords(index * ENTRY_WORDS);
+            final Pointer entryOrigin = entry.getWord(0).asPointer();
+            if (entryOrigin.isZero()) {
+                if (tableEntries < maxTableEntries) {
+                    entry.setWord(0, arrayOrigin);
+                    entry.setInt(Word.size() >> 2, h);
+                    tableEntries++;
+                }
+                return Pointer.zero();
+            }
+            if (entry.getInt(Word.size() >> 2) == h && sameChars(arrayOrigin, entryOrigin, length)) {
+                return entryOrigin;
+            }
+            index = (index + 1) & tableMask;
+        }
+    }
+
+    /**
+     * Deduplicate the character arrays of the strings enqueued since the last call. Must be called by the VM operation thread
+     * once evacuation is complete. Only arrays in the old generation are deduplicated, as others may still move.
+     *
+     * @param oldSpace the old generation
+     */
+    public static void deduplicate(HeapSpace oldSpace) {
+        final int length = queueLength < queueCapacity ? queueLength : queueCapacity;
+        long deduplicated = 0L;
+        long bytes = 0L;
+        for (int i = 0; i < length; i++) {
+            final Pointer stringOrigin = Layout.cellToOrigin(queue.getWord(i).asPointer());
+            final Pointer arrayOrigin = stringOrigin.readReference(valueOffset()).toOrigin();
+            if (arrayOrigin.isZero() || !oldSpace.contains(arrayOrigin)) {
+                continue;
+            }
+            final Pointer sharedArrayOrigin = lookupOrInsert(arrayOrigin);
+            if (!sharedArrayOrigin.isZero() && !sharedArrayOrigin.equals(arrayOrigin)) {
+                // Old generation to old generation store: no remembered set update needed.
+                stringOrigin.writeReference(valueOffset(), Reference.fromOrigin(sharedArrayOrigin));
+                deduplicated++;
+                bytes += Layout.size(arrayOrigin).toLong();
+            }
+        }
+        inspectedStrings += length;
+        droppedStrings += queueLength - length;
+        deduplicatedStrings += deduplicated;
+        deduplicatedBytes += bytes;
+        queueLength = 0;
+        if (PrintStringDeduplicationStatistics) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("String deduplication: ");
+            Log.print(deduplicated);
+            Log.print(" of ");
+            Log.print(length);
+            Log.print(" strings (");
+            Log.print(bytes);
+            Log.print(" bytes), table ");
+            Log.print(tableEntries);
+            Log.print(" entries; total ");
+            Log.print(deduplicatedStrings);
+            Log.print(" of ");
+            Log.print(inspectedStrings);
+            Log.print(" strings (");
+            Log.print(deduplicatedBytes);
+            Log.print(" bytes), ");
+            Log.print(droppedStrings);
+            Log.println(" dropped");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A work-stealing variant of {@link SurvivorRangesQueue} used by parallel evacuators.
+ * Same algorithm as {@link WorkStealingDeque}, but each entry is a range of survivor addresses. The range removed by the last
+ * successful {@link #pop()} or {@link #steal(SurvivorRangesDeque)} is available via {@link #start()} and {@link #end()}:
+ * these are only meant to be used by the owner of the deque.
+ */
+final class SurvivorRangesDeque {
+    /**
+     * Storage for the ranges, of twice {@link #capacity} words.
+     */
+    private Pointer base = Pointer.zero();
+    private int capacity;
+    private int mask;
+
+    private volatile int top;
+    private volatile int bottom;
+
+    private Pointer start = Pointer.zero();
+    private Pointer end = Pointer.zero();
+
+    @FOLD
+    private static int topOffset() {
+        return ClassActor.fromJava(SurvivorRangesDeque.class).findLocalInstanceFieldActor("top").offset();
+    }
+
+    SurvivorRangesDeque() {
+    }
+
+    void initialize(int maxRanges) {
+        capacity = Integer.highestOneBit(maxRanges);
+        if (capacity < maxRanges) {
+            capacity <<= 1;
+        }
+        mask = capacity - 1;
+        final Size size = Size.fromInt(capacity).shiftedLeft(Word.widthValue().log2numberOfBytes + 1);
+        base = Memory.allocate(size);
+        if (base.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("survivor ranges deque", "allocate", size);
+        }
+        top = 0;
+        bottom = 0;
+    }
+
+    boolean isInitialized() {
+        return !base.isZero();
+    }
+
+    void reset() {
+        top = 0;
+        bottom = 0;
+    }
+
+    boolean isEmpty() {
+        return bottom - top <= 0;
+    }
+
+    Pointer start() {
+        return start;
+    }
+
+    Pointer end() {
+        return end;
+    }
+
+    /**
+     * Push a range at the bottom of the deque. Owner only.
+     * @return false if the deque is full
+     */
+    boolean push(Address rangeStart, Address rangeEnd) {
+        final int b = bottom;
+        if (b - top >= capacity) {
+            return false;
+        }
+        final int index = (b & mask) << 1;
+        base.setWord(index, rangeStart);
+        base.setWord(index + 1, rangeEnd);
+        MemoryBarriers.barrier(MemoryBarriers.STORE_STORE);
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Pop a range from the bottom of the deque. Owner only.
+     * @return true if a range was removed from the deque, in which case it is available via {@link #start()} and {@link #end()}
+     */
+    boolean pop() {
+        final int b = bottom - 1;
+        bottom = b;
+        MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        final int t = top;
+        if (t > b) {
+            bottom = t;
+            return false;
+        }
+        final int index = (b & mask) << 1;
+        start = base.getWord(index).asPointer();
+        end = base.getWord(index + 1).asPointer();
+        if (t < b) {
+            return true;
+        }
+        final boolean won = Reference.fromJava(this).compareAndSwapInt(topOffset(), t, t + 1) == t;
+        bottom = t + 1;
+        return won;
+    }
+
+    /**
+     * Steal a range from another deque. Must be called by the owner of this deque.
+     * @param victim the deque to steal from
+     * @return true if a range was stolen, in which case it is available via {@link #start()} and {@link #end()}
+     */
+    boolean steal(SurvivorRangesDeque victim) {
+        final int t = victim.top;
+        MemoryBarriers.barrier(MemoryBarriers.LOAD_LOAD);
+        final int b = victim.bottom;
+        if (t >= b) {
+            return false;
+        }
+        final int index = (t & victim.mask) << 1;
+        final Pointer rangeStart = victim.base.getWord(index).asPointer();
+        final Pointer rangeEnd = victim.base.getWord(index + 1).asPointer();
+        if (Reference.fromJava(victim).compareAndSwapInt(topOffset(), t, t + 1) != t) {
+            return false;
+        }
+        start = rangeStart;
+        end = rangeEnd;
+        return true;
+    }
+}
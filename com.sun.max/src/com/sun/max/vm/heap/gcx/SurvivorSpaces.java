@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A pair of equal-size contiguous survivor spaces that lets a nursery age its objects before tenuring them.
+ * On a minor collection, survivors of the nursery (i.e., of eden and of the survivor from-space) younger than the
+ * {@linkplain TenuringPolicy#tenuringThreshold() tenuring threshold} are copied into the survivor to-space, the others
+ * are promoted to the old generation. The two survivor spaces are {@linkplain #flip() flipped} once evacuation completes.
+ * <p>
+ * The monitor scheme uses all the bits of the misc word of object headers, so the age of survivors is kept in a side table
+ * holding one byte per word of survivor space. Only the entry of the first word of a cell is meaningful.
+ * <p>
+ * Old objects referencing survivors must be remembered across minor collections: evacuators re-dirty the card
+ * of such references (see {@link EvacuatorToCardSpace#setSurvivorSpaces(SurvivorSpaces)}).
+ */
+public final class SurvivorSpaces {
+    /**
+     * Maximum age an object can reach. Ages are kept in a byte, but, like the HotSpot VM, we keep it to 4 bits.
+     */
+    public static final int MAX_AGE = 15;
+
+    public static int MaxTenuringThreshold = 0;
+    public static int TargetSurvivorPercent = 50;
+    public static int SurvivorRatio = 8;
+    static {
+        VMOptions.addFieldOption("-XX:", "MaxTenuringThreshold", SurvivorSpaces.class,
+                        "Maximum number of minor collections an object survives before being tenured (at most 15). Zero disables aging in the nursery.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TargetSurvivorPercent", SurvivorSpaces.class,
+                        "Desired occupancy of the survivor space after a minor collection, in percent of its capacity.", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "SurvivorRatio", SurvivorSpaces.class,
+                        "Ratio of the size of eden to the size of one survivor space of the nursery.", Phase.PRISTINE);
+    }
+
+    /**
+     * Indicates whether the nursery must age objects, i.e., whether survivor spaces must be set up.
+     */
+    public static boolean isAgingEnabled() {
+        return MaxTenuringThreshold > 0;
+    }
+
+    /**
+     * Size of one survivor space for a nursery of the specified size, based on the {@link #SurvivorRatio} option.
+     * @param youngGenSize size of the nursery, including its survivor spaces
+     * @return the size of one survivor space, not aligned
+     */
+    public static Size survivorSpaceSize(Size youngGenSize) {
+        return youngGenSize.dividedBy(SurvivorRatio + 2);
+    }
+
+    @FOLD
+    private static int toTopOffset() {
+        return ClassActor.fromJava(SurvivorSpaces.class).findLocalInstanceFieldActor("toTop").offset();
+    }
+
+    /**
+     * Start of the first survivor space.
+     */
+    @INSPECTED
+    private Address start = Address.zero();
+
+    /**
+     * Size of one survivor space.
+     */
+    private Size spaceSize = Size.zero();
+
+    @INSPECTED
+    private Address fromStart = Address.zero();
+
+    /**
+     * End of the survivors in the from-space.
+     */
+    @INSPECTED
+    private Address fromTop = Address.zero();
+
+    @INSPECTED
+    private Address toStart = Address.zero();
+
+    /**
+     * Allocation hand of the to-space. Updated atomically as several evacuators may allocate concurrently.
+     */
+    @INSPECTED
+    private volatile Address toTop = Address.zero();
+
+    private Address toEnd = Address.zero();
+
+    /**
+     * Side table holding the age of survivors.
+     */
+    private Pointer ageTable = Pointer.zero();
+
+    private TenuringPolicy tenuringPolicy;
+
+    /**
+     * Number of bytes of the survivor space occupied by objects of each age after the last minor collection.
+     */
+    private final long [] survivingBytesPerAge = new long[MAX_AGE + 1];
+
+    /**
+     * Initialize the survivor spaces over the specified range of committed memory, which must be twice the size of a survivor space.
+     *
+     * @param start start of the first survivor space
+     * @param spaceSize size of one survivor space
+     */
+    public void initialize(Address start, Size spaceSize) {
+        this.start = start;
+        this.spaceSize = spaceSize;
+        fromStart = start;
+        fromTop = start;
+        toStart = start.plus(spaceSize);
+        toTop = toStart;
+        toEnd = toStart.plus(spaceSize);
+        final Size ageTableSize = spaceSize.times(2).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).asSize();
+        ageTable = VirtualMemory.allocate(ageTableSize, VirtualMemory.Type.DATA);
+        if (ageTable.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("survivor age table", "allocate", ageTableSize);
+        }
+        tenuringPolicy = new AdaptiveTenuringPolicy(MaxTenuringThreshold < MAX_AGE ? MaxTenuringThreshold : MAX_AGE, TargetSurvivorPercent);
+    }
+
+    public Address start() {
+        return start;
+    }
+
+    public Address end() {
+        return start.plus(spaceSize.times(2));
+    }
+
+    /**
+     * Size of one survivor space.
+     */
+    public Size spaceSize() {
+        return spaceSize;
+    }
+
+    /**
+     * Space occupied by the survivors of the last minor collection.
+     */
+    public Size usedSpace() {
+        return fromTop.minus(fromStart).asSize();
+    }
+
+    public int tenuringThreshold() {
+        return tenuringPolicy.tenuringThreshold();
+    }
+
+    /**
+     * Indicates whether an address is in one of the two survivor spaces.
+     */
+    @INLINE
+    public boolean contains(Address address) {
+        return address.greaterEqual(start) && address.lessThan(end());
+    }
+
+    @INLINE
+    public boolean inFromSpace(Address address) {
+        return address.greaterEqual(fromStart) && address.lessThan(fromTop);
+    }
+
+    @INLINE
+    public boolean inToSpace(Address address) {
+        return address.greaterEqual(toStart) && address.lessThan(toEnd);
+    }
+
+    @INLINE
+    private int ageTableIndex(Pointer cell) {
+        return cell.minus(start).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt();
+    }
+
+    /**
+     * Age of a cell of the nursery, i.e., the number of minor collections it survived. Cells outside of the survivor from-space
+     * haven't survived any.
+     */
+    @INLINE
+    int ageOf(Pointer cell) {
+        return inFromSpace(cell) ? ageTable.readByte(ageTableIndex(cell)) : 0;
+    }
+
+    @INLINE
+    void setAge(Pointer cell, int age) {
+        ageTable.writeByte(ageTableIndex(cell), (byte) age);
+    }
+
+    /**
+     * Allocate space in the survivor to-space. May be called concurrently by several evacuators.
+     *
+     * @param size number of bytes to allocate
+     * @return a pointer to the allocated space, or zero if the to-space is exhausted
+     */
+    Pointer allocate(Size size) {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Pointer cell;
+        Pointer newTop;
+        do {
+            cell = toTop.asPointer();
+            newTop = cell.plus(size);
+            if (newTop.greaterThan(toEnd)) {
+                return Pointer.zero();
+            }
+        } while (!thisAddress.compareAndSwapWord(toTopOffset(), cell, newTop).equals(cell));
+        return cell;
+    }
+
+    /**
+     * Exchange the roles of the two survivor spaces and adapt the tenuring threshold to the survivors of the last minor collection.
+     * Must be called once evacuation is complete and evacuators have made the space left in their survivor buffers iterable.
+     */
+    public void flip() {
+        for (int age = 0; age <= MAX_AGE; age++) {
+            survivingBytesPerAge[age] = 0L;
+        }
+        Pointer cell = toStart.asPointer();
+        while (cell.lessThan(toTop)) {
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Size size = Layout.size(origin);
+            if (!DarkMatter.isDarkMatterHub(Layout.readHubReference(origin).toOrigin())) {
+                survivingBytesPerAge[ageTable.readByte(ageTableIndex(cell))] += size.toLong();
+            }
+            cell = cell.plus(size);
+        }
+        final Address oldFromStart = fromStart;
+        fromStart = toStart;
+        fromTop = toTop;
+        toStart = oldFromStart;
+        toTop = toStart;
+        toEnd = toStart.plus(spaceSize);
+        tenuringPolicy.update(survivingBytesPerAge, spaceSize);
+        if (Heap.verbose()) {
+            Log.print("Survivor space: ");
+            Log.print(usedSpace().toLong());
+            Log.print(" bytes used, new tenuring threshold: ");
+            Log.println(tenuringPolicy.tenuringThreshold());
+        }
+    }
+
+    /**
+     * Bounds of the evacuated area of a nursery made of an eden and these survivor spaces, i.e., of the eden and the survivor from-space.
+     * @param edenBounds bounds of the eden space of the nursery
+     */
+    public EvacuatingSpace.SpaceBounds nurseryBounds(final EvacuatingSpace.SpaceBounds edenBounds) {
+        return new EvacuatingSpace.SpaceBounds() {
+            @Override
+            boolean isIn(Address address) {
+                return edenBounds.isIn(address) || inFromSpace(address);
+            }
+
+            @Override
+            boolean isContiguous() {
+                return false;
+            }
+
+            @Override
+            Address lowestAddress() {
+                final Address edenLowest = edenBounds.lowestAddress();
+                return edenLowest.lessThan(start) ? edenLowest : start;
+            }
+
+            @Override
+            Address highestAddress() {
+                final Address edenHighest = edenBounds.highestAddress();
+                final Address end = end();
+                return edenHighest.greaterThan(end) ? edenHighest : end;
+            }
+        };
+    }
+
+    /**
+     * Visit the survivors of the last minor collection.
+     */
+    public void visit(CellRangeVisitor visitor) {
+        if (fromTop.greaterThan(fromStart)) {
+            visitor.visitCells(fromStart, fromTop);
+        }
+    }
+
+    /**
+     * Visit the cells of the survivors of the last minor collection.
+     */
+    public void visitAllocatedCells(CellVisitor visitor) {
+        Pointer cell = fromStart.asPointer();
+        while (cell.lessThan(fromTop)) {
+            cell = visitor.visitCell(cell);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+
+/**
+ * Policy deciding how many minor collections an object of the nursery survives before being tenured.
+ */
+public interface TenuringPolicy {
+
+    /**
+     * Current tenuring threshold. Survivors of a minor collection whose age is less than the threshold are copied
+     * to the survivor space, the others are promoted to the old generation. A threshold of zero promotes all survivors.
+     * @return a number of minor collections
+     */
+    int tenuringThreshold();
+
+    /**
+     * Update the tenuring threshold after a minor collection.
+     *
+     * @param survivingBytesPerAge number of bytes of the survivor space occupied by objects of each age, indexed by age
+     * @param survivorSpaceSize capacity of the survivor space
+     */
+    void update(long [] survivingBytesPerAge, Size survivorSpaceSize);
+
+}
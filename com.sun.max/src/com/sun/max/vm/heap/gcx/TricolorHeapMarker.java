@@ -294,6 +294,57 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         return address.greaterEqual(coveredAreaStart) && address.lessThan(coveredAreaEnd);
     }
 
+    /**
+     * Indicates whether a concurrent marking cycle is in progress, i.e., the heap marker was started with
+     * {@link #startConcurrentMarking(HeapRegionRangeIterable, EvacuatingSpace)} and not yet completed with {@link #finishConcurrentMarking()}.
+     */
+    private boolean concurrentMarking;
+
+    /**
+     * Bounds of an area of the covered area whose objects are not traced during concurrent marking.
+     * Used to ignore references to a nursery that is evacuated while the heap is marked concurrently.
+     * Empty when no concurrent marking is in progress.
+     */
+    private Address ignoredAreaStart = Address.zero();
+    private Address ignoredAreaEnd = Address.zero();
+
+    /**
+     * Cells retained in place in pinned regions of a space not swept after marking, scanned as roots by the current marking (see
+     * {@link #markAll(HeapRegionRangeIterable, PinnedRegions)}). Null if there are none.
+     */
+    private PinnedRegions retainedRootCells;
+
+    /**
+     * Rightmost cell marked black by {@link #markAllocatedBlack(Pointer)} during the current concurrent marking cycle.
+     */
+    private volatile Address rightmostAllocatedBlack = Address.zero();
+
+    @FOLD
+    private static int rightmostAllocatedBlackOffset() {
+        return ClassActor.fromJava(TricolorHeapMarker.class).findLocalInstanceFieldActor("rightmostAllocatedBlack").offset();
+    }
+
+    public final boolean isConcurrentMarking() {
+        return concurrentMarking;
+    }
+
+    @INLINE
+    final boolean isIgnored(Pointer cell) {
+        return cell.lessThan(ignoredAreaEnd) && cell.greaterEqual(ignoredAreaStart);
+    }
+
+    /**
+     * Scan the cells of the space ignored by concurrent marking as roots.
+     */
+    private final CellRangeVisitor ignoredSpaceRootsScanner = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            Pointer cell = start.asPointer();
+            while (cell.lessThan(end)) {
+                cell = rootCellVisitor.visitCell(cell);
+            }
+        }
+    };
+
     /**
      * Base of the bitmap biased with offset to the first word's bit. For fast-computing of heap word's color index in
      * the color map.
@@ -526,6 +577,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         heapRootsScanner = null;
         overflowLinearScanState = null;
         overflowScanWithRescanMapState = null;
+        parallelMarkingTask = null;
         initialize(start, end, bitmapStorage, bitmapSize);
     }
 
@@ -546,6 +598,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         heapRootsScanner = new SequentialHeapRootsScanner(rootCellVisitor);
         overflowLinearScanState = new OverflowLinearScanState(this);
         overflowScanWithRescanMapState = new OverflowScanWithRescanMapState(this);
+        parallelMarkingTask = new ParallelMarkingTask(this);
     }
 
     @FOLD
@@ -585,6 +638,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                 overflowScanState = overflowLinearScanState;
             }
             overflowScanState.initialize();
+            if (parallelMarkingTask != null) {
+                parallelMarkingTask.initialize();
+            }
         }
     }
 
@@ -666,6 +722,73 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         return base.asPointer().plus(bitmapWordIndex(bitIndex) << Word.widthValue().log2numberOfBytes);
     }
 
+    // Word-at-a-time color map scanning primitives.
+
+    /**
+     * Skip the white words of a range of the color map. Pairs of words are tested at once so that
+     * sparsely marked areas are crossed with half as many tests.
+     *
+     * @param bitmapWordIndex index of the first word of the range
+     * @param lastBitmapWordIndex index of the last word of the range
+     * @return index of the first word of the range with at least one mark bit set, or {@code lastBitmapWordIndex + 1} if all words are white
+     */
+    final int firstNonWhiteBitmapWord(int bitmapWordIndex, int lastBitmapWordIndex) {
+        final Pointer colorMapBase = base.asPointer();
+        while (bitmapWordIndex < lastBitmapWordIndex) {
+            if ((colorMapBase.getLong(bitmapWordIndex) | colorMapBase.getLong(bitmapWordIndex + 1)) != 0L) {
+                return colorMapBase.getLong(bitmapWordIndex) != 0L ? bitmapWordIndex : bitmapWordIndex + 1;
+            }
+            bitmapWordIndex += 2;
+        }
+        if (bitmapWordIndex == lastBitmapWordIndex && colorMapBase.getLong(bitmapWordIndex) == 0L) {
+            bitmapWordIndex++;
+        }
+        return bitmapWordIndex;
+    }
+
+    /**
+     * Find the first grey mark of a word of the color map. Grey marks are two consecutive bits set, so the grey marks of
+     * the word are found with a single shift-and-mask, and the first one with a trailing-zero count.
+     * A grey mark starting on the last bit of the word spans the next word, which is read only in that case.
+     *
+     * @param bitmapWordIndex index of the word in the color map
+     * @param bitmapWord the content of the word
+     * @return bit index in the color map of the first grey mark of the word, or -1 if there is none
+     */
+    @INLINE
+    final int firstGreyMarkInWord(int bitmapWordIndex, long bitmapWord) {
+        final long greyMarksInWord = bitmapWord & (bitmapWord >>> 1);
+        if (greyMarksInWord != 0L) {
+            return (bitmapWordIndex << Word.widthValue().log2numberOfBits) + Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
+        }
+        if ((bitmapWord >>> LAST_BIT_INDEX_IN_WORD) == 1L && (base.asPointer().getLong(bitmapWordIndex + 1) & 1L) != 0L) {
+            return (bitmapWordIndex << Word.widthValue().log2numberOfBits) + LAST_BIT_INDEX_IN_WORD;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first grey mark in a range of words of the color map, skipping white words.
+     *
+     * @param bitmapWordIndex index of the first word of the range
+     * @param lastBitmapWordIndex index of the last word of the range
+     * @return bit index in the color map of the first grey mark of the range, or -1 if there is none
+     */
+    final int firstGreyMark(int bitmapWordIndex, int lastBitmapWordIndex) {
+        final Pointer colorMapBase = base.asPointer();
+        while (true) {
+            bitmapWordIndex = firstNonWhiteBitmapWord(bitmapWordIndex, lastBitmapWordIndex);
+            if (bitmapWordIndex > lastBitmapWordIndex) {
+                return -1;
+            }
+            final int bitIndexOfGreyMark = firstGreyMarkInWord(bitmapWordIndex, colorMapBase.getLong(bitmapWordIndex));
+            if (bitIndexOfGreyMark >= 0) {
+                return bitIndexOfGreyMark;
+            }
+            bitmapWordIndex++;
+        }
+    }
+
     /**
      *  Bit index in the bitmap for the address into the covered area.
      */
@@ -743,6 +866,73 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markBlackFromGrey(bitIndex);
     }
 
+    /**
+     * Atomically set bits in a word of the color map.
+     */
+    private void atomicSetBits(Pointer basePointer, int wordIndex, long bits) {
+        final int wordOffset = wordIndex << Word.widthValue().log2numberOfBytes;
+        long word;
+        do {
+            word = basePointer.getLong(wordIndex);
+        } while (basePointer.compareAndSwapLong(wordOffset, word, word | bits) != word);
+    }
+
+    /**
+     * Thread-safe variant of {@link #markGreyIfWhite(Pointer)} for use by parallel marking.
+     * The first bit of the color is set first. When the color spans two words, the second bit is set afterwards,
+     * so other threads may transiently see the cell as black. This is harmless: a cell is only ever visited by the
+     * thread that turns it from grey to black with {@link #markBlackFromGreyAtomic(Pointer)}.
+     *
+     * @param cell a cell in the covered area
+     * @return true if the calling thread turned the cell from white to grey
+     */
+    final boolean markGreyIfWhiteAtomic(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        final Pointer basePointer = base.asPointer();
+        final int wordIndex = bitmapWordIndex(bitIndex);
+        final int wordOffset = wordIndex << Word.widthValue().log2numberOfBytes;
+        final long blackBit = bitmaskFor(bitIndex);
+        final boolean colorSpanWords = colorSpanWords(bitIndex);
+        final long colorBits = colorSpanWords ? blackBit : GREY << bitIndexInWord(bitIndex);
+        long word;
+        do {
+            word = basePointer.getLong(wordIndex);
+            if ((word & blackBit) != 0L) {
+                return false;
+            }
+        } while (basePointer.compareAndSwapLong(wordOffset, word, word | colorBits) != word);
+        if (colorSpanWords) {
+            atomicSetBits(basePointer, wordIndex + 1, 1L);
+        }
+        traceGreyMark(cell, bitIndex);
+        return true;
+    }
+
+    /**
+     * Thread-safe variant of {@link #markBlackFromGrey(Address)} for use by parallel marking.
+     * Used to claim a grey cell: only one of the threads racing to blacken a grey cell succeeds.
+     *
+     * @param cell a cell in the covered area
+     * @return true if the calling thread turned the cell from grey to black
+     */
+    final boolean markBlackFromGreyAtomic(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        final Pointer basePointer = base.asPointer();
+        final int greyBitIndex = bitIndex + 1;
+        final int wordIndex = bitmapWordIndex(greyBitIndex);
+        final int wordOffset = wordIndex << Word.widthValue().log2numberOfBytes;
+        final long greyBit = bitmaskFor(greyBitIndex);
+        long word;
+        do {
+            word = basePointer.getLong(wordIndex);
+            if ((word & greyBit) == 0L) {
+                return false;
+            }
+        } while (basePointer.compareAndSwapLong(wordOffset, word, word & ~greyBit) != word);
+        traceBlackMark(cell, bitIndex);
+        return true;
+    }
+
     final boolean isGrey(int bitIndex) {
         int bitIndexInWord = bitIndexInWord(bitIndex);
         if (bitIndexInWord == LAST_BIT_INDEX_IN_WORD) {
@@ -933,6 +1123,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
          */
         @INLINE
         private void markObjectGrey(Pointer cell) {
+            if (heapMarker.isIgnored(cell)) {
+                return;
+            }
             if (cell.greaterThan(finger)) {
                 // Object is after the finger. Mark grey and update rightmost if white.
                 if (heapMarker.markGreyIfWhite(cell) && cell.greaterThan(rightmost)) {
@@ -981,12 +1174,22 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             if (MaxineVM.isDebug()) {
                 heapMarker.checkGreyCellHub(origin, hub);
             }
+            if (LiveClassHistogram.isRecording()) {
+                LiveClassHistogram.record(0, hub, Layout.size(origin));
+            }
+            if (heapMarker.collectionSetRSet != null && heapMarker.collectionSetRSet.isRecording()) {
+                heapMarker.collectionSetRSet.recordReferences(0, origin, hub);
+            }
             // Update the other references in the object
             final SpecificLayout specificLayout = hub.specificLayout;
             if (specificLayout.isTupleLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
                 if (hub.isJLRReference) {
-                    SpecialReferenceManager.discoverSpecialReference(cell);
+                    if (heapMarker.concurrentMarking) {
+                        markRefGrey(origin.getReference(SpecialReferenceManager.referentIndex()));
+                    } else {
+                        SpecialReferenceManager.discoverSpecialReference(cell);
+                    }
                 }
             } else if (specificLayout.isHybridLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
@@ -1096,6 +1299,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
          */
         @INLINE
         private void markObjectGrey(Pointer cell) {
+            if (heapMarker.isIgnored(cell)) {
+                return;
+            }
             if (cell.greaterThan(finger)) {
                 // Object is after the finger. Mark grey and update rightmost if white.
                 if (heapMarker.markGreyIfWhite(cell) && cell.greaterThan(rightmost)) {
@@ -1139,10 +1345,21 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             if (MaxineVM.isDebug()) {
                 heapMarker.checkGreyCellHub(origin, hub);
             }
+            if (LiveClassHistogram.isRecording()) {
+                LiveClassHistogram.record(0, hub, Layout.size(origin));
+            }
+            if (heapMarker.collectionSetRSet != null && heapMarker.collectionSetRSet.isRecording()) {
+                heapMarker.collectionSetRSet.recordReferences(0, origin, hub);
+            }
             final SpecificLayout specificLayout = hub.specificLayout;
             if (specificLayout.isTupleLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
                 if (hub.isJLRReference) {
+                    if (heapMarker.concurrentMarking) {
+                        // Special references are traced strongly during concurrent marking (see startConcurrentMarking).
+                        markRefGrey(origin.getReference(SpecialReferenceManager.referentIndex()));
+                        return cell.plus(hub.tupleSize);
+                    }
                     // The marking stack might have overflow before reaching this point, and doing so, it
                     // might have already register this reference to the SpecialReferenceManager
                     // (e.g., if using deep mark stack flush).
@@ -1194,40 +1411,22 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
          * @param rightmostBitmapWordIndex
          */
         protected final void visitGreyObjects(int bitmapWordIndex, int rightmostBitmapWordIndex) {
-            final Pointer colorMapBase = heapMarker.base.asPointer();
-            while (bitmapWordIndex <= rightmostBitmapWordIndex) {
-                long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
-                if (bitmapWord != 0L) {
-                    // FIXME (ld) this way of scanning the mark bitmap may cause black objects to end up on the marking stack.
-                    // Here's how.
-                    // If the object pointed by the finger contains backward references to objects covered by the same word
-                    // of the mark bitmap, and its end is covered by the same word, we will end up visiting these objects although
-                    // there were pushed on the marking stack.
-                    // One way to avoid that is to leave the finger set to the beginning of the word and iterate over all grey marks
-                    // of the word until reaching a fix point where all mark are white or black on the mark bitmap word.
-                    final long greyMarksInWord = bitmapWord & (bitmapWord >>> 1);
-                    if (greyMarksInWord != 0L) {
-                        // First grey mark is the least set bit.
-                        final int bitIndexInWord = Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
-                        final int bitIndexOfGreyCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord;
-                        final Pointer p = markAndVisitCell(heapMarker.addressOf(bitIndexOfGreyCell).asPointer());
-                        // Get bitmap word index at the end of the object. This may avoid reading multiple mark bitmap words
-                        // when marking objects crossing multiple mark bitmap words.
-                        bitmapWordIndex = heapMarker.bitmapWordIndex(p);
-                        continue;
-                    } else if ((bitmapWord >>> TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD) == 1L) {
-                        // Mark span two words. Check first bit of next word to decide if mark is grey.
-                        bitmapWord = colorMapBase.getLong(bitmapWordIndex + 1);
-                        if ((bitmapWord & 1L) != 0L) {
-                            // it is a grey object.
-                            final int bitIndexOfGreyCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD;
-                            final Pointer p = markAndVisitCell(heapMarker.addressOf(bitIndexOfGreyCell).asPointer());
-                            bitmapWordIndex = heapMarker.bitmapWordIndex(p);
-                            continue;
-                        }
-                    }
+            // FIXME (ld) this way of scanning the mark bitmap may cause black objects to end up on the marking stack.
+            // Here's how.
+            // If the object pointed by the finger contains backward references to objects covered by the same word
+            // of the mark bitmap, and its end is covered by the same word, we will end up visiting these objects although
+            // there were pushed on the marking stack.
+            // One way to avoid that is to leave the finger set to the beginning of the word and iterate over all grey marks
+            // of the word until reaching a fix point where all mark are white or black on the mark bitmap word.
+            while (true) {
+                final int bitIndexOfGreyCell = heapMarker.firstGreyMark(bitmapWordIndex, rightmostBitmapWordIndex);
+                if (bitIndexOfGreyCell < 0) {
+                    return;
                 }
-                bitmapWordIndex++;
+                final Pointer p = markAndVisitCell(heapMarker.addressOf(bitIndexOfGreyCell).asPointer());
+                // Get bitmap word index at the end of the object. This may avoid reading multiple mark bitmap words
+                // when marking objects crossing multiple mark bitmap words.
+                bitmapWordIndex = heapMarker.bitmapWordIndex(p);
             }
         }
 
@@ -1251,6 +1450,11 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
     private final OverflowLinearScanState overflowLinearScanState;
     private final OverflowScanWithRescanMapState overflowScanWithRescanMapState;
 
+    /**
+     * Parallel tracing of grey objects after root marking. Only used when the GC worker gang has more than one worker.
+     */
+    private final ParallelMarkingTask parallelMarkingTask;
+
     /**
      * Indicates whether we're recovering from a marking stack overflow
      * (i.e., a scan of the marking stack in recovery mode is initiated).
@@ -1262,6 +1466,16 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     private final SequentialHeapRootsScanner heapRootsScanner;
 
+    /**
+     * Remembered set of the evacuation candidates of mixed collections, if any. References to candidates are recorded in it
+     * while the references of marked cells are visited.
+     */
+    CollectionSetRSet collectionSetRSet;
+
+    public void setCollectionSetRSet(CollectionSetRSet collectionSetRSet) {
+        this.collectionSetRSet = collectionSetRSet;
+    }
+
     void markBootHeap() {
         Heap.bootHeapRegion.visitReferences(rootCellVisitor);
     }
@@ -1476,6 +1690,17 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         overflowScanState.numMarkinkgStackOverflow = 0;
     }
 
+    /**
+     * Trace the grey objects left by root marking with the GC worker gang, if parallel marking is enabled.
+     * On return, the forward scan state is set up so that the sequential scan completes the trace, which
+     * only leaves it grey objects the parallel workers failed to push on their marking stacks.
+     */
+    private void visitGreyObjectsInParallel() {
+        if (parallelMarkingTask != null && parallelMarkingTask.isEnabled() && forwardScanState.finger.lessEqual(forwardScanState.rightmost)) {
+            parallelMarkingTask.trace(forwardScanState.finger, forwardScanState.rightmost, forwardScanState);
+        }
+    }
+
     private void visitGreyObjects() {
         currentScanState = forwardScanState;
         overflowScanState.markingStackFlusher().setScanState(currentScanState);
@@ -1488,6 +1713,26 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         forwardScanState.visitGreyObjects(regionRanges);
     }
 
+    /**
+     * Heap region ranges traced by the current {@link #markAll(HeapRegionRangeIterable)}, or null if the whole covered area is traced.
+     */
+    private HeapRegionRangeIterable tracedRegionsRanges;
+
+    /**
+     * Visit the objects marked grey by the {@link SpecialReferenceManager} when preserving referents.
+     */
+    void visitPreservedObjects() {
+        if (tracedRegionsRanges == null) {
+            visitGreyObjects();
+        } else {
+            // Note: the VISIT_GREY_FORWARD has already visited the whole heap, so any additional grey reference added by the special reference
+            // manager are on the marking stack. Draining that stack may nevertheless add new grey reference after the finger, so we still
+            // need to iterate over the region ranges past the finger, hence the reset.
+            tracedRegionsRanges.reset();
+            visitGreyObjects(tracedRegionsRanges);
+        }
+    }
+
     /**
      * Visit all objects marked grey during root marking that resides in list of memory region ranges.
      * Regions are numbered from 0, where in the address to the first bytes of region 0 coincide with
@@ -1497,6 +1742,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     void visitGreyObjectsAfterRootMarking(HeapRegionRangeIterable regionsRanges) {
         initAfterRootMarking();
+        visitGreyObjectsInParallel();
         visitGreyObjects(regionsRanges);
     }
 
@@ -1505,6 +1751,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     void visitGreyObjectsAfterRootMarking() {
         initAfterRootMarking();
+        visitGreyObjectsInParallel();
         visitGreyObjects();
     }
 
@@ -1518,21 +1765,70 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
     int firstBlackMark(int firstBitIndex, int lastBitIndex) {
         final Pointer colorMapBase = base.asPointer();
         final int lastBitmapWordIndex = bitmapWordIndex(lastBitIndex);
+        final int bitmapWordIndex = firstNonWhiteBitmapWord(bitmapWordIndex(firstBitIndex), lastBitmapWordIndex);
+        if (bitmapWordIndex > lastBitmapWordIndex) {
+            return -1;
+        }
+        // First mark is the least set bit.
+        final int bitIndexInWord = Pointer.fromLong(colorMapBase.getLong(bitmapWordIndex)).leastSignificantBitSet();
+        final int bitIndexOfCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord;
+        if (bitIndexOfCell >= lastBitIndex) {
+            return -1;
+        }
+        return bitIndexOfCell;
+    }
+
+    /**
+     * Count the bytes of the live cells whose black mark is in a range of the covered area.
+     * Must be called once marking is complete, and before the color map is cleared.
+     * A live cell is counted in full, even if it extends beyond the end of the range.
+     *
+     * @param start start of the range
+     * @param end end of the range
+     * @return the number of bytes of the live cells starting in the range
+     */
+    public long liveBytes(Address start, Address end) {
+        final Address rightmostLiveObject = forwardScanState.rightmost;
+        if (start.greaterThan(rightmostLiveObject)) {
+            return 0L;
+        }
+        final Pointer colorMapBase = base.asPointer();
+        final int firstBitIndex = bitIndexOf(start);
+        final int lastBitIndex = bitIndexOf(end.greaterThan(rightmostLiveObject) ? rightmostLiveObject : end.minusWords(1));
+        final int lastBitmapWordIndex = bitmapWordIndex(lastBitIndex);
         int bitmapWordIndex = bitmapWordIndex(firstBitIndex);
-        while (bitmapWordIndex <= lastBitmapWordIndex) {
-            long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
-            if (bitmapWord != 0) {
-                // First mark is the least set bit.
-                final int bitIndexInWord = Pointer.fromLong(bitmapWord).leastSignificantBitSet();
-                final int bitIndexOfCell = (bitmapWordIndex << Word.widthValue().log2numberOfBits) + bitIndexInWord;
-                if (bitIndexOfCell >= lastBitIndex) {
-                    return -1;
-                }
-                return bitIndexOfCell;
+        long liveBytes = 0L;
+
+        while (true) {
+            bitmapWordIndex = firstNonWhiteBitmapWord(bitmapWordIndex, lastBitmapWordIndex);
+            if (bitmapWordIndex > lastBitmapWordIndex) {
+                return liveBytes;
             }
-            bitmapWordIndex++;
+            final long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+            final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+            Address nextBitmapWordLimit = addressOf(bitmapWordFirstBitIndex + Word.widthValue().numberOfBits);
+            int bitIndexInWord = 0;
+            long w = bitmapWord;
+            do {
+                bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
+                final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
+                if (bitIndexOfBlackMark > lastBitIndex) {
+                    return liveBytes;
+                }
+                if (bitIndexOfBlackMark >= firstBitIndex) {
+                    final Address cell = addressOf(bitIndexOfBlackMark);
+                    final Address endOfCell = endOfCell(cell);
+                    liveBytes += endOfCell.minus(cell).toLong();
+                    if (endOfCell.greaterEqual(nextBitmapWordLimit)) {
+                        nextBitmapWordLimit = endOfCell;
+                        break;
+                    }
+                }
+                bitIndexInWord += 2;
+                w = bitmapWord >>> bitIndexInWord;
+            } while (w != 0L && bitIndexInWord < Word.widthValue().numberOfBits);
+            bitmapWordIndex = bitmapWordIndex(nextBitmapWordLimit);
         }
-        return -1;
     }
 
     private void preciseSweep(Sweeper sweeper, int leftmostBitIndex, int rightmostBitIndex) {
@@ -1540,38 +1836,39 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         final int rightmostBitmapWordIndex = bitmapWordIndex(rightmostBitIndex);
         int bitmapWordIndex = bitmapWordIndex(leftmostBitIndex);
 
-        while (bitmapWordIndex <= rightmostBitmapWordIndex) {
-            long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
-            if (bitmapWord != 0) {
-                // At least one mark is set.
-                int bitIndexInWord = 0;
-                final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
-                Pointer nextBitmapWordLimit = addressOf(bitmapWordFirstBitIndex + Word.widthValue().numberOfBits).asPointer();
-                long w = bitmapWord;
-                do {
-                    // First mark is the least set bit.
-                    bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
-                    final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
-                    if (MaxineVM.isDebug()) {
-                        debugBitmapWordIndex = bitmapWordIndex;
-                        debugBitIndex = bitIndexInWord;
-                        debugCursor = addressOf(bitIndexOfBlackMark).asPointer();
-                    }
-                    final Pointer endOfLastVisitedCell = sweeper.processLiveObject(addressOf(bitIndexOfBlackMark).asPointer());
-                    if (endOfLastVisitedCell.greaterEqual(nextBitmapWordLimit)) {
-                        nextBitmapWordLimit = endOfLastVisitedCell;
-                        break;
-                    }
-                    // End of visited cell is within the same mark word. Just
-                    // right-shift the bitmap word to skip the mark bits already processed and loop back to
-                    // find the next black object with this word.
-                    bitIndexInWord += 2;
-                    w = bitmapWord >>> bitIndexInWord;
-                } while (w != 0L);
-                bitmapWordIndex = bitmapWordIndex(nextBitmapWordLimit);
-            } else {
-                bitmapWordIndex++;
+        while (true) {
+            // Skip white words.
+            bitmapWordIndex = firstNonWhiteBitmapWord(bitmapWordIndex, rightmostBitmapWordIndex);
+            if (bitmapWordIndex > rightmostBitmapWordIndex) {
+                break;
             }
+            final long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+            // At least one mark is set.
+            int bitIndexInWord = 0;
+            final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+            Pointer nextBitmapWordLimit = addressOf(bitmapWordFirstBitIndex + Word.widthValue().numberOfBits).asPointer();
+            long w = bitmapWord;
+            do {
+                // First mark is the least set bit.
+                bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
+                final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
+                if (MaxineVM.isDebug()) {
+                    debugBitmapWordIndex = bitmapWordIndex;
+                    debugBitIndex = bitIndexInWord;
+                    debugCursor = addressOf(bitIndexOfBlackMark).asPointer();
+                }
+                final Pointer endOfLastVisitedCell = sweeper.processLiveObject(addressOf(bitIndexOfBlackMark).asPointer());
+                if (endOfLastVisitedCell.greaterEqual(nextBitmapWordLimit)) {
+                    nextBitmapWordLimit = endOfLastVisitedCell;
+                    break;
+                }
+                // End of visited cell is within the same mark word. Just
+                // right-shift the bitmap word to skip the mark bits already processed and loop back to
+                // find the next black object with this word.
+                bitIndexInWord += 2;
+                w = bitmapWord >>> bitIndexInWord;
+            } while (w != 0L);
+            bitmapWordIndex = bitmapWordIndex(nextBitmapWordLimit);
         }
     }
 
@@ -1635,18 +1932,33 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      * This can server region-based heap as well as contiguous heap, wherein a single region is passed in this case.
      */
     public void sweep(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
+        while (sweepNextRegion(regionsSweeper, doImprecise)) {
+        }
+    }
+
+    /**
+     * Sweep the next region of the heap region sweeper. This allows sweeping to be performed incrementally, one region at a time,
+     * as long as the color map isn't modified (i.e., until the next marking).
+     *
+     * @param regionsSweeper sweeper the dead space of the region is notified to
+     * @param doImprecise indicate whether to do imprecise sweeping
+     * @return true if there are regions left to sweep, false if the sweeper reached the rightmost live region
+     */
+    public boolean sweepNextRegion(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
         final Address endOfRightmostLiveObject = endOfCell(forwardScanState.rightmost);
-        do {
-            assert regionsSweeper.hasNextSweepingRegion();
-            regionsSweeper.beginSweep();
-            if (doImprecise) {
-                impreciseRegionSweep(regionsSweeper);
-            } else {
-                preciseRegionSweep(regionsSweeper);
-            }
-            regionsSweeper.endSweep();
-        } while (regionsSweeper.endOfSweepingRegion().lessThan(endOfRightmostLiveObject));
+        assert regionsSweeper.hasNextSweepingRegion();
+        regionsSweeper.beginSweep();
+        if (doImprecise) {
+            impreciseRegionSweep(regionsSweeper);
+        } else {
+            preciseRegionSweep(regionsSweeper);
+        }
+        regionsSweeper.endSweep();
+        if (regionsSweeper.endOfSweepingRegion().lessThan(endOfRightmostLiveObject)) {
+            return true;
+        }
         regionsSweeper.reachedRightmostLiveRegion();
+        return false;
     }
 
     /**
@@ -1715,54 +2027,55 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             debugGapRightObject =  Pointer.zero();
             debugRightmostBitmapWordIndex = rightmostBitmapWordIndex;
         }
-        while (bitmapWordIndex <= rightmostBitmapWordIndex) {
+        while (true) {
+            // Skip white words.
+            bitmapWordIndex = firstNonWhiteBitmapWord(bitmapWordIndex, rightmostBitmapWordIndex);
+            if (bitmapWordIndex > rightmostBitmapWordIndex) {
+                break;
+            }
             final long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
-            if (bitmapWord != 0L) {
-                // At least one mark is set.
-                int bitIndexInWord = 0;
-                final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
-                int nextCellBitmapWordIndex = bitmapWordIndex + 1;
-                long w = bitmapWord;
-                do {
-                    // First mark is the least set bit.
-                    bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
-                    final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
-                    if (bitIndexOfBlackMark < nextReclaimableMark) {
-                        // Too small a gap between two live marks to be worth reporting to the sweeper.
-                        // NOTE: it may be live data only, or it may comprise dead data. If the latter, we have some unaccounted dark matter.
-                        // Reset the next mark.
-                        lastLiveMark = bitIndexOfBlackMark;
-                        nextReclaimableMark = bitIndexOfBlackMark + minBitsBetweenMark;
-                        if (bitIndexInWord >= 62) {
-                            // next object begins in next word.
-                            break;
-                        }
-                    } else {
-                        if (MaxineVM.isDebug()) {
-                            debugBitIndex = bitIndexOfBlackMark;
-                            debugBitmapWordIndex = bitmapWordIndex;
-                            debugGapLeftObject = addressOf(lastLiveMark).asPointer();
-                            debugGapRightObject = addressOf(bitIndexOfBlackMark).asPointer();
-                        }
-                        final Pointer endOfLastVisitedCell = sweeper.processLargeGap(addressOf(lastLiveMark).asPointer(), addressOf(bitIndexOfBlackMark).asPointer());
-                        lastLiveMark  = bitIndexOfBlackMark;
-                        nextReclaimableMark = bitIndexOf(endOfLastVisitedCell) + minBitsBetweenMark;
-                        final int index =  bitmapWordIndex(endOfLastVisitedCell);
-                        if (index > bitmapWordIndex) {
-                            nextCellBitmapWordIndex = index;
-                            break;
-                        }
-                        // End of visited cell is within the same mark word. Just
-                        // right-shift the bitmap word to skip the mark bits already processed and loop back to
-                        // find the next black object with this word.
+            // At least one mark is set.
+            int bitIndexInWord = 0;
+            final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+            int nextCellBitmapWordIndex = bitmapWordIndex + 1;
+            long w = bitmapWord;
+            do {
+                // First mark is the least set bit.
+                bitIndexInWord += Pointer.fromLong(w).leastSignificantBitSet();
+                final int bitIndexOfBlackMark = bitmapWordFirstBitIndex + bitIndexInWord;
+                if (bitIndexOfBlackMark < nextReclaimableMark) {
+                    // Too small a gap between two live marks to be worth reporting to the sweeper.
+                    // NOTE: it may be live data only, or it may comprise dead data. If the latter, we have some unaccounted dark matter.
+                    // Reset the next mark.
+                    lastLiveMark = bitIndexOfBlackMark;
+                    nextReclaimableMark = bitIndexOfBlackMark + minBitsBetweenMark;
+                    if (bitIndexInWord >= 62) {
+                        // next object begins in next word.
+                        break;
                     }
-                    bitIndexInWord += 2;
-                    w = bitmapWord >>> bitIndexInWord;
-                } while (w != 0L);
-                bitmapWordIndex = nextCellBitmapWordIndex;
-            } else {
-                bitmapWordIndex++;
-            }
+                } else {
+                    if (MaxineVM.isDebug()) {
+                        debugBitIndex = bitIndexOfBlackMark;
+                        debugBitmapWordIndex = bitmapWordIndex;
+                        debugGapLeftObject = addressOf(lastLiveMark).asPointer();
+                        debugGapRightObject = addressOf(bitIndexOfBlackMark).asPointer();
+                    }
+                    final Pointer endOfLastVisitedCell = sweeper.processLargeGap(addressOf(lastLiveMark).asPointer(), addressOf(bitIndexOfBlackMark).asPointer());
+                    lastLiveMark  = bitIndexOfBlackMark;
+                    nextReclaimableMark = bitIndexOf(endOfLastVisitedCell) + minBitsBetweenMark;
+                    final int index =  bitmapWordIndex(endOfLastVisitedCell);
+                    if (index > bitmapWordIndex) {
+                        nextCellBitmapWordIndex = index;
+                        break;
+                    }
+                    // End of visited cell is within the same mark word. Just
+                    // right-shift the bitmap word to skip the mark bits already processed and loop back to
+                    // find the next black object with this word.
+                }
+                bitIndexInWord += 2;
+                w = bitmapWord >>> bitIndexInWord;
+            } while (w != 0L);
+            bitmapWordIndex = nextCellBitmapWordIndex;
         }
 
         Address tail = endOfCell(addressOf(lastLiveMark));
@@ -1782,6 +2095,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             recoveryScanTimer.reset();
         }
         FatalError.check(markingStack.isEmpty(), "Marking stack must be empty");
+        LiveClassHistogram.begin("full marking");
 
         clearColorMap();
         markRoots();
@@ -1806,7 +2120,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
         SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
-        visitGreyObjects();
+        visitPreservedObjects();
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1814,6 +2128,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             verifyHasNoGreyMarks(coveredAreaStart, forwardScanState.endOfRightmostVisitedObject());
         }
         markPhase = MARK_PHASE.DONE;
+        LiveClassHistogram.end();
     }
 
     /**
@@ -1831,6 +2146,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         overflowScanState.setHeapRegionsRanges(regionsRanges);
 
         markRoots();
+        if (retainedRootCells != null) {
+            retainedRootCells.visit(ignoredSpaceRootsScanner);
+        }
 
         markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
         markPhase.traceBegin(traceGCPhases);
@@ -1860,6 +2178,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         if (traceGCTimes) {
             recoveryScanTimer.reset();
         }
+        LiveClassHistogram.begin("full marking");
         if (MaxineVM.isDebug()) {
             MarkingError markFailure = null;
             try {
@@ -1897,16 +2216,135 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.SPECIAL_REF;
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
+        tracedRegionsRanges = regionsRanges;
         SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
-        // Note: the VISIT_GREY_FORWARD has already visited the whole heap, so any additional grey reference added by the special reference
-        // manager are on the marking stack. Draining that stack may nevertheless add new grey reference after the finger, so we still
-        // need to iterate over the region ranges past the finger, hence the reset.
-        regionsRanges.reset();
-        visitGreyObjects(regionsRanges);
+        visitPreservedObjects();
+        tracedRegionsRanges = null;
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
         FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after special references are processed.");
         markPhase = MARK_PHASE.DONE;
+        LiveClassHistogram.end();
+    }
+
+    /**
+     * Same as {@link #markAll(HeapRegionRangeIterable)}, but also scan as roots the cells retained in place by the last evacuation of a space.
+     * The retained cells may be dead, but they will be scanned again by the next evacuation of their space, so the cells they refer to must be kept alive.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     * @param retainedCells cells retained in the pinned regions of an evacuated space
+     */
+    public void markAll(HeapRegionRangeIterable regionsRanges, PinnedRegions retainedCells) {
+        retainedRootCells = retainedCells.isEmpty() ? null : retainedCells;
+        markAll(regionsRanges);
+        retainedRootCells = null;
+    }
+
+    /**
+     * Start a concurrent marking cycle. This is the initial-mark step of a snapshot-at-the-beginning (SATB) concurrent marking and
+     * must be performed while mutators are stopped. The color map is cleared and the roots are marked grey. Tracing from the roots is
+     * then performed in bounded increments by {@link #markConcurrently(int)} while mutators run, and completed by
+     * {@link #finishConcurrentMarking()}.
+     * <p>
+     * Mutators must record references they overwrite in the {@link SATBQueue} for the duration of the cycle, and objects allocated in
+     * the covered area during the cycle must be marked with {@link #markAllocatedBlack(Pointer)}.
+     * References to the area enclosed by the bounds of the ignored space are not traced. Instead, the cells of the ignored space are scanned
+     * as roots when the cycle starts (e.g., the survivors of an aging nursery). The area must not move until the cycle completes.
+     * Special references are traced strongly during concurrent marking: their referents are kept alive until the next stop-the-world marking.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     * @param ignoredSpace a heap space whose objects are not traced (typically, a nursery)
+     */
+    public void startConcurrentMarking(HeapRegionRangeIterable regionsRanges, HeapSpace ignoredSpace) {
+        final EvacuatingSpace.SpaceBounds ignoredBounds = ignoredSpace.bounds();
+        final boolean traceGCPhases = Heap.logGCPhases();
+        traceGCTimes = Heap.logGCTime();
+        if (traceGCTimes) {
+            recoveryScanTimer.reset();
+        }
+        markingStack.reset();
+        clearColorMap();
+        overflowScanState.setHeapRegionsRanges(regionsRanges);
+        ignoredAreaStart = ignoredBounds.lowestAddress();
+        ignoredAreaEnd = ignoredBounds.highestAddress();
+        rightmostAllocatedBlack = Address.zero();
+        concurrentMarking = true;
+
+        markRoots();
+        ignoredSpace.visit(ignoredSpaceRootsScanner);
+        initAfterRootMarking();
+        markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
+        markPhase.traceBegin(traceGCPhases);
+    }
+
+    /**
+     * Perform an increment of concurrent marking. References from the completed buffers of the {@link SATBQueue} are marked grey first,
+     * then grey objects are visited over at most the specified number of words of the color map.
+     * Must be called with safepoints disabled so that the increment is atomic with respect to garbage collection.
+     *
+     * @param maxBitmapWords maximum number of words of the color map to scan
+     * @return true if there may be grey objects left to visit
+     */
+    public boolean markConcurrently(int maxBitmapWords) {
+        FatalError.check(concurrentMarking, "No concurrent marking in progress");
+        currentScanState = forwardScanState;
+        overflowScanState.markingStackFlusher().setScanState(currentScanState);
+        final boolean drainedBuffers = SATBQueue.drainCompletedBuffers(forwardScanState);
+        return forwardScanState.visitGreyObjectsIncrementally(maxBitmapWords) || drainedBuffers;
+    }
+
+    /**
+     * Complete the current concurrent marking cycle. This is the remark step of a SATB concurrent marking and must be performed
+     * while mutators are stopped and the SATB queue is inactive. The references left in the SATB buffers of all threads are marked, and
+     * the trace is completed. On return, the color map can be used to sweep the heap.
+     */
+    public void finishConcurrentMarking() {
+        FatalError.check(concurrentMarking && !SATBQueue.isActive(), "Invalid concurrent marking state");
+        final boolean traceGCPhases = Heap.logGCPhases();
+        startTimer(heapMarkingTimer);
+        currentScanState = forwardScanState;
+        overflowScanState.markingStackFlusher().setScanState(currentScanState);
+        SATBQueue.drainAllBuffers(forwardScanState);
+        forwardScanState.visitGreyObjects();
+        stopTimer(heapMarkingTimer);
+        markPhase.traceEnd(traceGCPhases);
+        FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after visiting grey objects.");
+
+        if (traceGCTimes) {
+            totalRecoveryScanCount += recoveryScanTimer.getCount();
+            totalRecoveryElapsedTime += recoveryScanTimer.getElapsedTime();
+        }
+        // Objects allocated black are live too: make sure the sweeper doesn't stop before the rightmost of them.
+        if (rightmostAllocatedBlack.greaterThan(forwardScanState.rightmost)) {
+            forwardScanState.rightmost = rightmostAllocatedBlack;
+        }
+        concurrentMarking = false;
+        ignoredAreaStart = Address.zero();
+        ignoredAreaEnd = Address.zero();
+        rightmostAllocatedBlack = Address.zero();
+        markPhase = MARK_PHASE.DONE;
+    }
+
+    /**
+     * Mark black a cell allocated in the covered area while a concurrent marking cycle is in progress.
+     * The cell is considered live by the cycle, and its references aren't traced.
+     * May be called concurrently by several {@link GCWorkerGang} members.
+     *
+     * @param cell a newly allocated cell in the covered area
+     */
+    public void markAllocatedBlack(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        atomicSetBits(base.asPointer(), bitmapWordIndex(bitIndex), bitmaskFor(bitIndex));
+        traceBlackMark(cell, bitIndex);
+        final Reference thisRef = Reference.fromJava(this);
+        Address rightmost = rightmostAllocatedBlack;
+        while (cell.greaterThan(rightmost)) {
+            final Address witness = thisRef.compareAndSwapWord(rightmostAllocatedBlackOffset(), rightmost, cell).asAddress();
+            if (witness.equals(rightmost)) {
+                break;
+            }
+            rightmost = witness;
+        }
     }
 
     /**
@@ -31,8 +31,14 @@ import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.heap.gcx.gen.mse.GenMSEHeapScheme.GenMSEHeapRegionTag.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
+import java.util.*;
+
+import com.sun.cri.ci.*;
+import com.sun.cri.ci.CiAddress.Scale;
 import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
+import com.sun.cri.xir.CiXirAssembler.XirParameter;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.platform.*;
@@ -46,9 +52,12 @@ import com.sun.max.vm.heap.gcx.*;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.heap.gcx.rset.ctbl.*;
 import com.sun.max.vm.layout.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.profile.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.thread.*;
+import com.sun.max.vm.thread.VmThreadLocal.Nature;
 
 
 /**
@@ -60,12 +69,54 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      * Knob for the fixed ratio resizing policy.
      */
     static int YoungGenHeapPercent = 30;
+    /**
+     * Knob for resizing the generations after each GC to meet a pause time goal and a GC overhead goal.
+     * See {@link PauseTimeGoalGenHeapSizingPolicy}.
+     */
+    static boolean UsePauseTimeGoalSizing = false;
     static Size ELABSize = Size.K.times(64);
+    static Size TenuredLABSize = Size.K.times(16);
+    /**
+     * Knobs for concurrent marking of the old generation.
+     */
+    static boolean ConcurrentOldGenMarking = false;
+    static int ConcurrentMarkingOccupancyPercent = 45;
+    static int ConcurrentMarkingStepWords = 1024;
+    static int ConcurrentMarkingInterval = 10;
     static {
         VMOptions.addFieldOption("-XX:", "YoungGenHeapPercent", GenMSEHeapScheme.class, "Fixed percentage of heap size that must be used by young gen", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UsePauseTimeGoalSizing", GenMSEHeapScheme.class,
+                        "Resize generations after GC to meet pause time and GC overhead goals", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "ELABSize", GenMSEHeapScheme.class, "Size of evacuation buffers for young gen evacuation to old gen", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TenuredLABSize", GenMSEHeapScheme.class, "Size of the thread-local buffers pretenured tuples are allocated in", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentOldGenMarking", GenMSEHeapScheme.class, "Mark the old generation concurrently with mutators", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingOccupancyPercent", GenMSEHeapScheme.class,
+                        "Percentage of old generation occupancy that starts a concurrent marking cycle", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingStepWords", GenMSEHeapScheme.class,
+                        "Number of mark bitmap words scanned per increment of concurrent marking", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkingInterval", GenMSEHeapScheme.class,
+                        "Time (in ms) the concurrent marker sleeps when it has no marking work", Phase.PRISTINE);
     }
 
+    /**
+     * Allocation mark of the current chunk of a thread's tenured LAB, i.e., the old generation buffer pretenured tuples are allocated in.
+     * Zero if the thread has no tenured LAB.
+     */
+    private static final VmThreadLocal TENURED_LAB_MARK
+        = new VmThreadLocal("TENURED_LAB_MARK", false, "GenMSEHeapScheme: allocation mark of current tenured LAB chunk, zero if not used", Nature.Single);
+
+    /**
+     * End of the current chunk of a thread's tenured LAB. Zero if the thread has no tenured LAB.
+     */
+    private static final VmThreadLocal TENURED_LAB_END
+        = new VmThreadLocal("TENURED_LAB_END", false, "GenMSEHeapScheme: end of current tenured LAB chunk, zero if not used", Nature.Single);
+
+    /**
+     * Next chunk of a thread's tenured LAB. Zero if the current chunk is the last one.
+     */
+    private static final VmThreadLocal TENURED_LAB_NEXT_CHUNK
+        = new VmThreadLocal("TENURED_LAB_NEXT_CHUNK", false, "GenMSEHeapScheme: next chunk of current tenured LAB, zero if none", Nature.Single);
+
     public enum GenMSEHeapRegionTag {
         UNTAGGED,
         YOUNG,
@@ -86,7 +137,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      * Young generation.
      */
     @INSPECTED
-    private final NoAgingRegionalizedNursery youngSpace;
+    private final AgingRegionalizedNursery youngSpace;
     /**
      * Tenured generation.
      */
@@ -98,15 +149,30 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     private GenHeapSizingPolicy heapResizingPolicy;
 
+    /**
+     * Same as {@link #heapResizingPolicy} if generations are sized to meet pause time goals, null otherwise.
+     */
+    private PauseTimeGoalGenHeapSizingPolicy pauseTimeGoalPolicy;
+
     /**
      * Card-table based remembered set for the nursery.
      */
     @INSPECTED
     private final CardTableRSet cardTableRSet;
+
+    /**
+     * Refines the dirty cards of the full regions of the old generation between GCs when {@link ConcurrentCardRefiner#isEnabled()}.
+     */
+    private final ConcurrentCardRefiner cardRefiner;
+
+    /**
+     * Adds the full regions of the old generation to the refinable ranges of the {@link #cardRefiner} at the end of a GC.
+     */
+    private final RefinableRegionCollector refinableRegionCollector;
     /**
      * Implementation of young space evacuation. Used by minor collection operations.
      */
-    private final NoAgingNurseryEvacuator youngSpaceEvacuator;
+    private final ParallelNurseryEvacuator youngSpaceEvacuator;
 
     /**
      * Operation to submit to the {@link VmOperationThread} to perform a generational collection.
@@ -124,12 +190,41 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     private final NoEvacuatedSpaceReferenceVerifier noYoungReferencesVerifier;
     private final FOTVerifier fotVerifier;
 
+    /**
+     * Thread tracing the old generation concurrently with mutators when {@link #ConcurrentOldGenMarking} is enabled.
+     */
+    private final VmThread concurrentMarkerThread;
+
+    /**
+     * Set by the concurrent marker when it runs out of marking work. The concurrent marking cycle is then completed at the next collection.
+     */
+    private volatile boolean concurrentTraceCompleted;
+
+    /**
+     * Tells the {@link AllocationSiteProfiler} which of its sampled cells survived a nursery evacuation.
+     */
+    private final SampledCellSurvivorPredicate sampledCellSurvivorPredicate;
+
+    /**
+     * Retires the tenured LABs of all threads before a GC.
+     */
+    private final TenuredLABRetirer tenuredLABRetirer;
+
+    /**
+     * XIR stub entering the SATB queue from compiled pre-write barriers.
+     */
+    @HOSTED_ONLY
+    private XirTemplate satbEnqueueStub;
+
     @HOSTED_ONLY
     public GenMSEHeapScheme() {
         heapAccount = new HeapAccount<GenMSEHeapScheme>(this);
         heapMarker = new TricolorHeapMarker(WORDS_COVERED_PER_BIT, new HeapAccounRootCellVisitor(this));
         cardTableRSet = new CardTableRSet();
-        youngSpace = new NoAgingRegionalizedNursery(heapAccount, YOUNG.tag());
+        cardRefiner = new ConcurrentCardRefiner(cardTableRSet);
+        cardRefiner.createRefinementThread();
+        refinableRegionCollector = new RefinableRegionCollector();
+        youngSpace = new AgingRegionalizedNursery(heapAccount, YOUNG.tag());
 
         final ChunkListAllocator<RegionChunkListRefillManager> tlabAllocator =
             new ChunkListAllocator<RegionChunkListRefillManager>(new RegionChunkListRefillManager(cardTableRSet));
@@ -137,16 +232,110 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             new CardSpaceAllocator<RegionOverflowAllocatorRefiller>(new RegionOverflowAllocatorRefiller(cardTableRSet), cardTableRSet);
 
         oldSpace = new FirstFitMarkSweepSpace<GenMSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, true, cardTableRSet, OLD.tag());
-        youngSpaceEvacuator = new NoAgingNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
+        youngSpaceEvacuator = new ParallelNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
         noYoungReferencesVerifier = new NoEvacuatedSpaceReferenceVerifier(cardTableRSet, youngSpace);
         fotVerifier = new FOTVerifier(cardTableRSet);
         genCollection = new GenCollection();
+        concurrentMarkerThread = VmThread.createPreallocatedSystemThread(new ConcurrentMarker());
+        sampledCellSurvivorPredicate = new SampledCellSurvivorPredicate();
+        tenuredLABRetirer = new TenuredLABRetirer();
+        pinningSupportFlags = PIN_SUPPORT_FLAG.makePinSupportFlags(true, false, true);
     }
 
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
         cardTableRSet.initialize(phase);
+        if (phase == MaxineVM.Phase.STARTING) {
+            if (ConcurrentOldGenMarking) {
+                concurrentMarkerThread.startVmSystemThread();
+            }
+            cardRefiner.startRefinementThread();
+        } else if (phase == MaxineVM.Phase.RUNNING) {
+            AllocationSiteProfiler.initialize();
+        }
+    }
+
+    /**
+     * Full regions of the old generation are neither allocated in nor swept until the next GC: their cards can be refined concurrently.
+     */
+    final class RefinableRegionCollector implements CellRangeVisitor {
+        @HOSTED_ONLY
+        RefinableRegionCollector() {
+        }
+
+        public void visitCells(Address start, Address end) {
+            cardRefiner.addRefinableRange(start, end);
+        }
+    }
+
+    /**
+     * Leaves the space left in a thread's tenured LAB iterable and the first-object table consistent with it.
+     */
+    final class TenuredLABRetirer implements Pointer.Procedure {
+        @HOSTED_ONLY
+        TenuredLABRetirer() {
+        }
+
+        public void run(Pointer tla) {
+            retireTenuredLAB(VmThreadLocal.ETLA.load(tla));
+        }
+    }
+
+    /**
+     * A cell sampled by the {@link AllocationSiteProfiler} survived a nursery evacuation if it was forwarded.
+     * Cells retained in pinned regions are accounted as dead.
+     */
+    final class SampledCellSurvivorPredicate implements Pointer.Predicate {
+        @HOSTED_ONLY
+        SampledCellSurvivorPredicate() {
+        }
+
+        public boolean evaluate(Pointer cell) {
+            return youngSpace.contains(cell) && !Layout.readForwardRef(Layout.cellToOrigin(cell)).isZero();
+        }
+    }
+
+    /**
+     * Thread performing the concurrent phase of old generation marking, in small increments so as not to delay garbage collections.
+     */
+    final class ConcurrentMarker extends Thread {
+        @HOSTED_ONLY
+        ConcurrentMarker() {
+            super(VmThread.systemThreadGroup, "Concurrent Marker");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!markConcurrently()) {
+                    try {
+                        Thread.sleep(ConcurrentMarkingInterval);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Perform an increment of concurrent marking if a concurrent marking cycle is in progress.
+     * The increment runs with safepoints disabled so that no collection can take place in the middle of it.
+     *
+     * @return true if an increment was performed and more marking work may be left
+     */
+    private boolean markConcurrently() {
+        boolean hasMoreWork = false;
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        if (heapMarker.isConcurrentMarking() && !concurrentTraceCompleted) {
+            hasMoreWork = heapMarker.markConcurrently(ConcurrentMarkingStepWords);
+            concurrentTraceCompleted = !hasMoreWork;
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return hasMoreWork;
     }
 
     /**
@@ -236,17 +425,35 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                 MaxineVM.reportPristineMemoryFailure("reserved space leftover", "deallocate", leftoverSize);
             }
 
-            heapResizingPolicy = new FixedRatioGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, log2RegionSizeInBytes);
+            if (UsePauseTimeGoalSizing) {
+                pauseTimeGoalPolicy = new PauseTimeGoalGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, log2RegionSizeInBytes);
+                heapResizingPolicy = pauseTimeGoalPolicy;
+            } else {
+                heapResizingPolicy = new FixedRatioGenHeapSizingPolicy(initSize, maxSize, YoungGenHeapPercent, log2RegionSizeInBytes);
+            }
             if (!heapAccount().open(numberOfRegions(applicationHeapMaxSize))) {
                 FatalError.unexpected("Failed to create application heap");
             }
             youngSpace.initialize(heapResizingPolicy);
             oldSpace.initialize(heapResizingPolicy.initialOldGenSize(), heapResizingPolicy.maxOldGenSize());
+            if (ConcurrentCardRefiner.isEnabled()) {
+                // At worst, each region of the old generation is a refinable range of its own.
+                cardRefiner.setMaxRefinableRanges(heapAccount.reserve());
+                cardRefiner.setYoungGeneration(youngSpace.reservedStart(), youngSpace.reservedEnd());
+            }
+            StringDeduplication.initialize();
 
             // FIXME: the capacity of the survivor range queues should be dynamic. Its upper bound could be computed based on the
             // worst case evacuation and the number of fragments of old space available for allocation.
             // Same with the lab size. In non parallel evacuators, this should be all the space available for allocation in a region.
             youngSpaceEvacuator.initialize(1000, false, oldSpace.minReclaimableSpace(), false);
+            final SurvivorSpaces survivorSpaces = youngSpace.survivorSpaces();
+            if (survivorSpaces != null) {
+                youngSpaceEvacuator.setSurvivorSpaces(survivorSpaces);
+                noYoungReferencesVerifier.setSurvivorSpaces(survivorSpaces);
+            }
+            youngSpaceEvacuator.setPinnedRegions(youngSpace.pinnedRegions());
+            noYoungReferencesVerifier.setPinnedRegions(youngSpace.pinnedRegions());
 
             if (HeapRangeDumper.DumpOnError) {
                 MemoryRegion dumpingCoverage = new MemoryRegion();
@@ -292,7 +499,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         private void verifyAfterEvacuation() {
             // Verify that:
             // 1. offset table is correctly setup
-            // 2. there are no pointer from old to young.
+            // 2. there are no pointer from old to young, except to survivors from dirty cards.
             // 3. cards are all cleaned (except for those holding special references, which may have been dirtied during reference discovery)
             oldSpace.visit(fotVerifier);
             oldSpace.visit(noYoungReferencesVerifier);
@@ -300,14 +507,68 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
 
         /**
          * Perform old generation collection. This is done after the young generation has been fully evacuated.
+         * If the nursery ages objects, its survivor spaces are in the heap account and are traced along with the old generation.
          */
         private void doOldGenCollection() {
+            if (pauseTimeGoalPolicy != null) {
+                pauseTimeGoalPolicy.notifyOldGenCollection();
+            }
             youngSpaceEvacuator.doBeforeGC();
             youngSpace.doBeforeGC();
             oldSpace.doBeforeGC();
+            StringDeduplication.clear();
             regionsRangeIterable.initialize(heapAccount.committedRegions());
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
-            heapMarker.markAll(regionsRangeIterable);
+            // Cells retained in eden by the last evacuation are scanned again by the next one: what they refer to must survive the sweep.
+            heapMarker.markAll(regionsRangeIterable, youngSpace.pinnedRegions());
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
+            oldSpace.sweep(heapMarker, false);
+            oldSpace.doAfterGC();
+            youngSpaceEvacuator.doAfterGC();
+            fullCollectionCount++;
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+        }
+
+        /**
+         * Indicate whether a concurrent marking cycle of the old generation should be started.
+         */
+        private boolean shouldStartConcurrentMarking() {
+            return ConcurrentOldGenMarking && !heapMarker.isConcurrentMarking() &&
+                oldSpace.usedSpace().greaterEqual(oldSpace.totalSpace().dividedBy(100).times(ConcurrentMarkingOccupancyPercent));
+        }
+
+        /**
+         * Start a concurrent marking cycle of the old generation. This is done after the young generation has been fully evacuated.
+         * From then on, mutators record the references they overwrite in the SATB queue, and cells promoted to the old generation
+         * are marked black.
+         */
+        private void doConcurrentMarkingInitialMark() {
+            regionsRangeIterable.initialize(heapAccount.committedRegions());
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            SATBQueue.activate();
+            // Arrays of the deduplication table may die during the cycle, and no deduplication happens until it completes.
+            StringDeduplication.clear();
+            concurrentTraceCompleted = false;
+            heapMarker.startConcurrentMarking(regionsRangeIterable, youngSpace);
+            youngSpaceEvacuator.setPromotedCellsMarker(heapMarker);
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+        }
+
+        /**
+         * Complete the concurrent marking cycle in progress and sweep the old generation.
+         * This is done after the young generation has been fully evacuated.
+         */
+        private void doConcurrentMarkingRemark() {
+            youngSpaceEvacuator.setPromotedCellsMarker(null);
+            if (pauseTimeGoalPolicy != null) {
+                pauseTimeGoalPolicy.notifyOldGenCollection();
+            }
+            youngSpaceEvacuator.doBeforeGC();
+            youngSpace.doBeforeGC();
+            oldSpace.doBeforeGC();
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            SATBQueue.deactivate();
+            heapMarker.finishConcurrentMarking();
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
             oldSpace.sweep(heapMarker, false);
             oldSpace.doAfterGC();
@@ -327,8 +588,12 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // The rationale for this is that in order for mutator to proceeds, the nursery must be empty again.
             // This requires evacuating all of its objects somehow. Rather that doing a full GC covering both
             // the old and young gen and somehow reclaim enough regions for a fresh nursery, we just perform a nursery evacuation.
-            // The full GC is thereafter just a old gen GC with an empty young gen.
+            // The full GC is thereafter just a old gen GC with an empty young gen (or, with aging, with only survivors left in the young gen).
+            if (pauseTimeGoalPolicy != null) {
+                pauseTimeGoalPolicy.notifyPauseStart();
+            }
             VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, tenuredLABRetirer);
             vmConfig().monitorScheme().beforeGarbageCollection();
             if (Heap.verbose()) {
                 Log.println("--Begin nursery evacuation");
@@ -336,6 +601,16 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             youngSpaceEvacuator.setGCOperation(this);
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
             youngSpaceEvacuator.evacuate(Heap.logGCPhases());
+            if (StringDeduplication.isEnabled()) {
+                if (heapMarker.isConcurrentMarking()) {
+                    // Sharing an array the concurrent marker may not have visited would break the snapshot.
+                    StringDeduplication.discard();
+                } else {
+                    StringDeduplication.deduplicate(oldSpace);
+                }
+            }
+            AllocationSiteProfiler.recordSurvivors(sampledCellSurvivorPredicate);
+            youngSpace.flipSurvivorSpaces();
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
             youngSpaceEvacuator.setGCOperation(null);
             if (Heap.verbose()) {
@@ -347,6 +622,21 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             Size worstCaseEvac = youngSpace.totalSpace();
             Size freeSpace = oldSpace.freeSpace();
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+            if (heapMarker.isConcurrentMarking() && (concurrentTraceCompleted || worstCaseEvac.greaterThan(freeSpace))) {
+                // Complete the concurrent marking cycle in progress, either because the concurrent marker is done, or
+                // because the old generation can't take another evacuation.
+                if (Heap.verbose()) {
+                    Log.println("--Begin concurrent marking remark");
+                }
+                doConcurrentMarkingRemark();
+                if (Heap.verbose()) {
+                    Log.println("--End   concurrent marking remark");
+                }
+                if (VerifyAfterGC) {
+                    verifyAfterEvacuation();
+                }
+                freeSpace = oldSpace.freeSpace();
+            }
             if (worstCaseEvac.greaterThan(freeSpace)) {
                 if (Heap.verbose()) {
                     Log.println("--Begin old geneneration collection");
@@ -364,7 +654,26 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                     // TODO: 3 and 4.
                     FatalError.unimplemented();
                 }
+            } else if (shouldStartConcurrentMarking()) {
+                if (Heap.verbose()) {
+                    Log.println("--Begin concurrent marking initial mark");
+                }
+                doConcurrentMarkingInitialMark();
+                if (Heap.verbose()) {
+                    Log.println("--End   concurrent marking initial mark");
+                }
+            }
+            if (pauseTimeGoalPolicy != null) {
+                pauseTimeGoalPolicy.notifyPauseEnd();
+                // The nursery is empty at this point, so eden can be resized freely.
+                pauseTimeGoalPolicy.resizeAfterCollection(youngSpace, oldSpace, oldSpace.freeSpace());
             }
+            if (ConcurrentCardRefiner.isEnabled()) {
+                // The refinement thread refines in batches with safepoints disabled, so it is paused until this point.
+                cardRefiner.clearRefinableRanges();
+                oldSpace.visitFullRegions(refinableRegionCollector);
+            }
+            SpecialReferenceManager.updateSoftReferenceClock();
             final GCRequest gcRequest = callingThread().gcRequest;
             gcRequest.lastInvocationCount = invocationCount;
         }
@@ -391,14 +700,56 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         return oldSpace.usedSpace().plus(youngSpace.usedSpace());
     }
 
+    @Override
+    public void walkHeap(CallbackCellVisitor visitor) {
+        walkHeap(visitor, oldSpace, youngSpace);
+    }
+
+    private boolean inSurvivorSpaces(Object object) {
+        final SurvivorSpaces survivorSpaces = youngSpace.survivorSpaces();
+        return survivorSpaces != null && survivorSpaces.contains(Reference.fromJava(object).toOrigin());
+    }
+
+    /**
+     * Pin an object by pinning the heap regions it overlaps: cells of eden in pinned regions are retained in place by evacuations, and
+     * the old generation never moves cells. Survivors are aged by copying, so objects in the survivor spaces are pinned by disabling GC instead.
+     */
     @Override
     public boolean pin(Object object) {
-        return false;
+        if (!PinnedRegions.UseRegionPinning) {
+            Heap.disableGC();
+            return true;
+        }
+        while (true) {
+            // The object mustn't move between the test and the pinning of its regions.
+            final boolean safepointsWereDisabled = SafepointPoll.disable();
+            final boolean inSurvivorSpaces = inSurvivorSpaces(object);
+            if (!inSurvivorSpaces) {
+                PinnedRegions.pin(object);
+            }
+            if (!safepointsWereDisabled) {
+                SafepointPoll.enable();
+            }
+            if (!inSurvivorSpaces) {
+                return true;
+            }
+            Heap.disableGC();
+            if (inSurvivorSpaces(object)) {
+                return true;
+            }
+            // A GC promoted the object before GC could be disabled.
+            Heap.enableGC();
+        }
     }
 
     @Override
     public void unpin(Object object) {
-        throw new UnsupportedOperationException();
+        // Pinned objects don't move, so they are still where they were when pinned.
+        if (!PinnedRegions.UseRegionPinning || inSurvivorSpaces(object)) {
+            Heap.enableGC();
+        } else {
+            PinnedRegions.unpin(object);
+        }
     }
 
     @Override
@@ -414,7 +765,23 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     @INLINE
     @Override
     public boolean needsBarrier(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
-        return writeBarrierSpec.isSet(WriteBarrierSpec.POST_WRITE);
+        return writeBarrierSpec.isSet(WriteBarrierSpec.POST_WRITE) || writeBarrierSpec.isSet(WriteBarrierSpec.PRE_WRITE);
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref, Offset offset, Reference value) {
+        if (SATBQueue.isActive()) {
+            SATBQueue.enqueue(ref.readReference(offset));
+        }
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref,  int displacement, int index, Reference value) {
+        if (SATBQueue.isActive()) {
+            SATBQueue.enqueue(ref.getReference(displacement, index));
+        }
     }
 
     @INLINE
@@ -434,6 +801,16 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      * @param etla the thread whose TLAB will be refilled
      * @param tlabSize the size of the chunk of memory used to refill the TLAB
      */
+    /**
+     * The nursery allocates TLABs within a single region.
+     */
+    @Override
+    protected Size maxTlabSize() {
+        final Size maxTlabSize = super.maxTlabSize();
+        final Size regionSize = Size.fromInt(regionSizeInBytes);
+        return maxTlabSize.greaterThan(regionSize) ? regionSize : maxTlabSize;
+    }
+
     private void allocateAndRefillTLAB(Pointer etla, Size tlabSize) {
         Pointer tlab = youngSpace.allocate(tlabSize);
         Size effectiveSize = tlabSize.minus(tlabHeadroom());
@@ -458,7 +835,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -470,13 +847,128 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // always return zero for the next TLAB size.
             return youngSpace.allocate(size);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the young generation.
             return youngSpace.allocate(size);
         }
         // Refill TLAB and allocate (we know the request can be satisfied with a fresh TLAB and will therefore succeed).
         allocateAndRefillTLAB(etla, nextTLABSize);
-        return tlabAllocate(size);
+        final Pointer cell = tlabAllocate(size);
+        if (AllocationSiteProfiler.isProfiling()) {
+            // Sample the first allocation of every refilled TLAB.
+            AllocationSiteProfiler.sample(cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Allocate a tuple directly in the old generation. Used for the allocation sites the {@link AllocationSiteProfiler} found long-lived.
+     * Tuples are bump-allocated in the thread's tenured LAB, which all GCs retire.
+     * They are allocated in the young generation while the old generation is being marked concurrently: the concurrent marker updates
+     * the color map without atomics, and could lose the black mark of a cell allocated by a mutator in the old generation.
+     */
+    @Override
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    public Object createTenuredTuple(Hub hub) {
+        if (!heapMarker.isConcurrentMarking()) {
+            final Pointer cell = tenuredLABAllocate(VmThreadLocal.ETLA.load(VmThread.currentTLA()), hub.tupleSize);
+            if (!cell.isZero()) {
+                return Cell.plantTuple(cell, hub);
+            }
+        }
+        return createTuple(hub);
+    }
+
+    @INLINE
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    private Pointer tenuredLABAllocate(Pointer etla, Size size) {
+        final Pointer cell = TENURED_LAB_MARK.load(etla);
+        final Pointer newMark = cell.plus(size);
+        if (newMark.greaterThan(TENURED_LAB_END.load(etla))) {
+            return refillTenuredLABAndAllocate(etla, size);
+        }
+        TENURED_LAB_MARK.store(etla, newMark);
+        // Dirty cards overlapping the tuple are scanned from the first-object table, as for tuples promoted by the evacuator.
+        cardTableRSet.cfoTable.set(cell, newMark);
+        return cell;
+    }
+
+    /**
+     * Move the tenured LAB of the current thread to its next chunk, refilling it if it has none left, and allocate from it.
+     *
+     * @return the allocated cell, or zero if the tuple must be allocated in the young generation instead
+     */
+    @NEVER_INLINE
+    @NO_SAFEPOINT_POLLS("object allocation and initialization must be atomic")
+    private Pointer refillTenuredLABAndAllocate(Pointer etla, Size size) {
+        Pointer chunk = TENURED_LAB_NEXT_CHUNK.load(etla);
+        boolean refilled = false;
+        while (true) {
+            retireTenuredLAB(etla);
+            if (chunk.isZero()) {
+                if (refilled) {
+                    // No chunk of a fresh LAB fits the tuple.
+                    return Pointer.zero();
+                }
+                // The refill may trigger a GC.
+                chunk = oldSpace.allocateTLAB(TenuredLABSize);
+                refilled = true;
+                if (heapMarker.isConcurrentMarking()) {
+                    // The GC started a marking cycle. Give the first chunk back; the others are left formatted as free chunks.
+                    retireTenuredLABSpace(chunk, chunk.plus(HeapFreeChunk.getFreechunkSize(chunk)));
+                    return Pointer.zero();
+                }
+            }
+            final Size chunkSize = HeapFreeChunk.getFreechunkSize(chunk);
+            final Pointer nextChunk = HeapFreeChunk.getFreeChunkNext(chunk).asPointer();
+            Size clearedSize = chunkSize;
+            if (oldSpace.isZeroFilledChunk(chunk) && HeapFreeChunk.heapFreeChunkHeaderSize().lessThan(chunkSize)) {
+                clearedSize = HeapFreeChunk.heapFreeChunkHeaderSize();
+            }
+            Memory.clearWords(chunk, clearedSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+            TENURED_LAB_MARK.store(etla, chunk);
+            TENURED_LAB_END.store(etla, chunk.plus(chunkSize));
+            TENURED_LAB_NEXT_CHUNK.store(etla, nextChunk);
+            if (size.lessEqual(chunkSize)) {
+                return tenuredLABAllocate(etla, size);
+            }
+            chunk = nextChunk;
+        }
+    }
+
+    /**
+     * Retire the current chunk of a thread's tenured LAB. Chunks the LAB didn't get to are left formatted as free chunks.
+     */
+    private void retireTenuredLAB(Pointer etla) {
+        final Pointer end = TENURED_LAB_END.load(etla);
+        if (!end.isZero()) {
+            retireTenuredLABSpace(TENURED_LAB_MARK.load(etla), end);
+            TENURED_LAB_MARK.store(etla, Address.zero());
+            TENURED_LAB_END.store(etla, Address.zero());
+            TENURED_LAB_NEXT_CHUNK.store(etla, Address.zero());
+        }
+    }
+
+    /**
+     * Leave the space left in a tenured LAB chunk iterable, with the first-object table covering it, and give it back to the old generation.
+     */
+    private void retireTenuredLABSpace(Pointer start, Pointer end) {
+        final Size spaceLeft = end.minus(start).asSize();
+        if (spaceLeft.greaterEqual(oldSpace.minRetiredFreeChunkSize())) {
+            HeapFreeChunk.format(start, spaceLeft);
+            cardTableRSet.notifyRetireFreeSpace(start, spaceLeft);
+            oldSpace.retireTLAB(start, spaceLeft);
+        } else if (!spaceLeft.isZero()) {
+            DarkMatter.format(start, spaceLeft);
+            cardTableRSet.notifyRetireDeadSpace(start, spaceLeft);
+        }
+    }
+
+    @Override
+    public void notifyCurrentThreadDetach() {
+        super.notifyCurrentThreadDetach();
+        retireTenuredLAB(VmThreadLocal.ETLA.load(VmThread.currentTLA()));
+        SATBQueue.releaseCurrentThreadBuffer();
     }
 
     @Override
@@ -505,10 +997,80 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                     cardTableRSet.genArrayPostWriteBarrier(asm, operands[0], operands[1]);
                 }
             };
+        } else if (writeBarrierSpec.equals(TUPLE_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    genSATBPreWriteBarrier(asm, operands[0], operands[1], null);
+                }
+            };
+        } else if (writeBarrierSpec.equals(ARRAY_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    genSATBPreWriteBarrier(asm, operands[0], null, operands[1]);
+                }
+            };
+        } else if (writeBarrierSpec.equals(REF_ADDR_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                    genSATBPreWriteBarrier(asm, operands[0], null, null);
+                }
+            };
         }
         return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
     }
 
+    @HOSTED_ONLY
+    public List<XirTemplate> barrierStubs() {
+        if (satbEnqueueStub == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(satbEnqueueStub);
+    }
+
+    /**
+     * Generate a pre-write barrier that records the overwritten reference in the {@link SATBQueue} while the queue is active.
+     * The test of the queue's activation is inlined; recording the reference is out of line.
+     *
+     * @param asm the XIR assembler
+     * @param cell the cell whose reference is about to be overwritten, or the precise address of the reference if both
+     *            {@code fieldOffset} and {@code elemIndex} are null
+     * @param fieldOffset offset to the field of a tuple cell, or null if the cell is an array
+     * @param elemIndex index of the element of an array cell, or null if the cell is a tuple
+     */
+    @HOSTED_ONLY
+    private void genSATBPreWriteBarrier(CiXirAssembler asm, XirOperand cell, XirOperand fieldOffset, XirOperand elemIndex) {
+        if (satbEnqueueStub == null) {
+            final CiXirAssembler stubAsm = asm.copy();
+            final XirOperand result = stubAsm.restart(CiKind.Void);
+            final XirParameter ref = stubAsm.createInputParameter("ref", CiKind.Object);
+            stubAsm.callRuntime(new CriticalMethod(SATBQueue.class, "enqueue", null).classMethodActor, result, ref);
+            satbEnqueueStub = stubAsm.finishStub("stub-satbEnqueue");
+        }
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        final XirLabel enqueue = asm.createOutOfLineLabel("satbEnqueue");
+        final XirOperand active = asm.createTemp("satbActive", CiKind.Int);
+        final XirOperand overwritten = asm.createTemp("overwritten", CiKind.Object);
+        asm.pload(CiKind.Int, active, asm.createConstant(CiConstant.forObject(SATBQueue.staticTuple())), asm.i(SATBQueue.activeFieldOffset()), false);
+        asm.jneq(enqueue, active, asm.i(0));
+        asm.bindInline(done);
+
+        asm.bindOutOfLine(enqueue);
+        if (fieldOffset == null && elemIndex == null) {
+            asm.pload(CiKind.Object, overwritten, cell, false);
+        } else if (elemIndex == null) {
+            asm.pload(CiKind.Object, overwritten, cell, fieldOffset, true);
+        } else {
+            final int disp = Layout.referenceArrayLayout().getElementOffsetInCell(0).toInt();
+            asm.pload(CiKind.Object, overwritten, cell, elemIndex, disp, Scale.fromInt(Word.size()), false);
+        }
+        asm.jeq(done, overwritten, asm.o(null));
+        asm.callStub(satbEnqueueStub, null, overwritten);
+        asm.jmp(done);
+    }
+
     @Override
     public PhaseLogger phaseLogger() {
         return HeapSchemeLoggerAdaptor.phaseLogger;
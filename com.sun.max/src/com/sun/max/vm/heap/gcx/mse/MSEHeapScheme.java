@@ -36,6 +36,7 @@ import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.*;
 import com.sun.max.vm.heap.gcx.*;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.layout.*;
@@ -52,10 +53,22 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     static boolean DumpFragStatsAfterGC = false;
     static boolean DumpFragStatsAtGCFailure = false;
     static boolean DoImpreciseSweep = false;
+    static boolean MixedCollections = false;
+    static int MixedGCLiveThresholdPercent = 65;
+    static int MixedGCHeapWastePercent = 5;
+    static int MixedGCPauseBudget = 10;
     static {
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAfterGC", MSEHeapScheme.class, "Dump region fragmentation stats after GC", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAtGCFailure", MSEHeapScheme.class, "Dump region fragmentation when GC failed to reclaim enough space", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DoImpreciseSweep", MSEHeapScheme.class, "Control whether to do precise or imprecise sweep", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MixedCollections", MSEHeapScheme.class,
+                        "Evacuate the regions with the least live data after sweeping, most garbage first", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MixedGCLiveThresholdPercent", MSEHeapScheme.class,
+                        "Maximum percentage of live data of a region for it to be evacuated by a mixed collection", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MixedGCHeapWastePercent", MSEHeapScheme.class,
+                        "Percentage of the heap wasted in evacuation candidates below which mixed collections don't evacuate", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MixedGCPauseBudget", MSEHeapScheme.class,
+                        "Time budget (in milliseconds) for the evacuation of a mixed collection", Phase.PRISTINE);
     }
 
     /**
@@ -68,6 +81,16 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
      */
     private final FirstFitMarkSweepSpace<MSEHeapScheme> markSweepSpace;
 
+    /**
+     * Remembered set of the evacuation candidates of mixed collections. Built by the marking of the heap.
+     */
+    private final CollectionSetRSet collectionSetRSet;
+
+    /**
+     * Evacuator of the collection sets of mixed collections.
+     */
+    private final CollectionSetEvacuator collectionSetEvacuator;
+
     private final AtomicPinCounter pinnedCounter = MaxineVM.isDebug() ? new AtomicPinCounter() : null;
 
     final MarkSweepCollection collect = new MarkSweepCollection();
@@ -96,12 +119,23 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         markSweepSpace = new FirstFitMarkSweepSpace<MSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, false, NullDeadSpaceListener.nullDeadSpaceListener(), 0);
         heapMarker = new TricolorHeapMarker(WORDS_COVERED_PER_BIT, new HeapAccounRootCellVisitor(this));
         afterGCVerifier = new AfterMarkSweepVerifier(heapMarker, markSweepSpace, AfterMarkSweepBootHeapVerifier.makeVerifier(heapMarker, this));
+        markSweepSpace.createBackgroundSweeper();
+        markSweepSpace.createBackgroundZeroer();
+        collectionSetRSet = new CollectionSetRSet();
+        collectionSetEvacuator = new CollectionSetEvacuator(markSweepSpace, collectionSetRSet, heapMarker);
+        collectionSetEvacuator.setTimers(new EvacuationTimers());
+        collectionSetEvacuator.setPhaseLogger(new Evacuator.PhaseLogger());
+        collectionSetEvacuator.setDetailLogger(new DebugHeap.DetailLogger());
         pinningSupportFlags = PIN_SUPPORT_FLAG.makePinSupportFlags(true, false, true);
     }
 
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        if (phase == MaxineVM.Phase.STARTING) {
+            markSweepSpace.startBackgroundSweeper();
+            markSweepSpace.startBackgroundZeroer();
+        }
     }
 
     /**
@@ -154,6 +188,12 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 MaxineVM.reportPristineMemoryFailure("heapMarkerDataStart", "commit", heapMarkerDatasize);
             }
             heapMarker.initialize(heapBounds.start(), heapBounds.end(), heapMarkerDataStart, heapMarkerDatasize);
+            if (MixedCollections) {
+                collectionSetRSet.initialize(heapBounds);
+                collectionSetEvacuator.initialize(Size.fromInt(HeapRegionConstants.regionSizeInBytes).unsignedShiftedRight(2), MixedGCPauseBudget, MixedGCHeapWastePercent);
+                markSweepSpace.setEvacuationCandidateThreshold(HeapRegionConstants.regionSizeInBytes / 100 * MixedGCLiveThresholdPercent);
+                heapMarker.setCollectionSetRSet(collectionSetRSet);
+            }
 
             if (DumpFragStatsAfterGC || DumpFragStatsAtGCFailure) {
                 fragmentationStats = new HeapRegionStatistics(markSweepSpace.minReclaimableSpace());
@@ -241,12 +281,25 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         return markSweepSpace.usedSpace();
     }
 
+    @Override
+    public void walkHeap(CallbackCellVisitor visitor) {
+        walkHeap(visitor, markSweepSpace, null);
+    }
+
     @INLINE
     public boolean pin(Object object) {
-        // Objects never relocate. So this is always safe.
         if (MaxineVM.isDebug()) {
             pinnedCounter.increment();
         }
+        if (MixedCollections) {
+            // Mixed collections mustn't evacuate the regions of the object.
+            if (PinnedRegions.UseRegionPinning) {
+                PinnedRegions.pin(object);
+            } else {
+                Heap.disableGC();
+            }
+        }
+        // Otherwise, objects never relocate. So this is always safe.
         return true;
     }
 
@@ -255,6 +308,13 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         if (MaxineVM.isDebug()) {
             pinnedCounter.decrement();
         }
+        if (MixedCollections) {
+            if (PinnedRegions.UseRegionPinning) {
+                PinnedRegions.unpin(object);
+            } else {
+                Heap.enableGC();
+            }
+        }
     }
 
     @Override
@@ -333,7 +393,13 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
             theHeapRegionManager().checkOutgoingReferences();
 
+            if (MixedCollections) {
+                collectionSetRSet.beginRecording();
+            }
             markSweepSpace.mark(heapMarker);
+            if (MixedCollections) {
+                collectionSetRSet.endRecording();
+            }
 
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
 
@@ -342,11 +408,14 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             }
             startTimer(reclaimTimer);
             markSweepSpace.sweep(heapMarker, DoImpreciseSweep);
-            Size freeSpaceAfterGC = markSweepSpace.freeSpace();
             stopTimer(reclaimTimer);
             if (traceGCPhases) {
                 Log.println("END: Sweeping");
             }
+            if (MixedCollections) {
+                collectionSetEvacuator.evacuateCollectionSet(this);
+            }
+            Size freeSpaceAfterGC = markSweepSpace.freeSpaceAfterSweep();
 
             if (VerifyAfterGC) {
                 afterGCVerifier.run();
@@ -356,6 +425,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             heapResizingPolicy.resizeAfterCollection(freeSpaceAfterGC, markSweepSpace);
             markSweepSpace.doAfterGC();
 
+            SpecialReferenceManager.updateSoftReferenceClock();
             final GCRequest gcRequest = callingThread().gcRequest;
             gcRequest.lastInvocationCount = invocationCount;
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
@@ -375,12 +445,22 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         Size chunkSize =  HeapFreeChunk.getFreechunkSize(chunk);
         Address nextChunk = HeapFreeChunk.getFreeChunkNext(chunk);
         Size effectiveSize = chunkSize.minus(tlabHeadroom());
-        // Zap chunk data to leave allocation area clean.
-        Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        clearTLABChunk(chunk, effectiveSize);
         chunk.plus(effectiveSize).setWord(nextChunk);
         return effectiveSize;
     }
 
+    /**
+     * Zap chunk data to leave allocation area clean. Chunks from regions zero-filled in the background only have their header to clear.
+     */
+    private void clearTLABChunk(Pointer chunk, Size effectiveSize) {
+        Size clearedSize = effectiveSize;
+        if (markSweepSpace.isZeroFilledChunk(chunk) && HeapFreeChunk.heapFreeChunkHeaderSize().lessThan(effectiveSize)) {
+            clearedSize = HeapFreeChunk.heapFreeChunkHeaderSize();
+        }
+        Memory.clearWords(chunk, clearedSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+    }
+
     @INLINE
     private Size setNextTLABChunk(Pointer etla, Pointer nextChunk) {
         Size nextChunkEffectiveSize = setNextTLABChunk(nextChunk);
@@ -411,8 +491,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         // We will not reuse the leftover, turn it into dark matter.
         DarkMatter.format(tlabMark, tlabHardLimit);
         Size effectiveSize = chunkSize.minus(tlabHeadroom());
-        // Zap chunk data to leave allocation area clean.
-        Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        clearTLABChunk(chunk, effectiveSize);
         chunk.plus(effectiveSize).setWord(nextChunk);
         fastRefillTLAB(etla, chunk, effectiveSize);
         return tlabAllocate(size);
@@ -459,7 +538,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
@@ -493,7 +572,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 return changeTLABChunkOrAllocate(etla, tlabMark, hardLimit, nextChunk, size);
             }
 
-            if (!refillPolicy.shouldRefill(size, tlabMark)) {
+            if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
                 // Size would fit in a new tlab, but the policy says we shouldn't refill the tlab yet, so allocate directly in the heap.
                 return markSweepSpace.allocate(size);
             }
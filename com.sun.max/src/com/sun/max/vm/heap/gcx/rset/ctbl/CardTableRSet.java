@@ -297,7 +297,7 @@ public final class CardTableRSet extends DeadSpaceListener implements HeapManage
      * @param cardIndex index of the card
      * @param cellVisitor the logic to apply to the visited cell
      */
-    private void visitCard(int cardIndex, OverlappingCellVisitor cellVisitor) {
+    void visitCard(int cardIndex, OverlappingCellVisitor cellVisitor) {
         visitCards(cardIndex, cardIndex + 1, cellVisitor);
     }
 
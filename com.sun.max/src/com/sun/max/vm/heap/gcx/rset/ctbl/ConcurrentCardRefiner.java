@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.gcx.rset.ctbl;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Concurrent refinement of the dirty cards of a {@link CardTableRSet} covering the old generation of a generational heap.
+ * <p>
+ * Between two GCs, a refinement thread walks the dirty cards of the ranges of the old generation that the heap scheme designated as refinable
+ * at the end of the last GC, e.g., the range allocated at the last GC for a contiguous old generation, or its full regions for a regional one.
+ * Each dirty card is cleaned, then the cells overlapping it are located with the {@link CardFirstObjectTable} and scanned for references
+ * to the young generation. The card is dirtied again if any is found, so that only cards that still hold young references are left for the
+ * evacuation pause. A mutator storing into a card after it was cleaned dirties it again, so refinement never hides a reference from the pause.
+ * <p>
+ * Cards are refined in batches, each with safepoints disabled, so that GCs never observe a card in the middle of its refinement.
+ * Cards allocated since the last GC (e.g., large objects allocated directly in the old generation) may not be formatted yet, and are left to the pause.
+ */
+public final class ConcurrentCardRefiner extends PointerIndexVisitor implements OverlappingCellVisitor {
+    static boolean ConcurrentCardRefinement;
+    static int CardRefinementInterval = 10;
+    static int CardRefinementBatchSize = 512;
+    static {
+        VMOptions.addFieldOption("-XX:", "ConcurrentCardRefinement", ConcurrentCardRefiner.class,
+                        "Clean the old generation's dirty cards that hold no young references between GCs", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CardRefinementInterval", ConcurrentCardRefiner.class,
+                        "Milliseconds the card refinement thread waits between two passes over the card table", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CardRefinementBatchSize", ConcurrentCardRefiner.class,
+                        "Number of cards refined with safepoints disabled", Phase.PRISTINE);
+    }
+
+    private final CardTableRSet rset;
+
+    private final CardTable cardTable;
+
+    /**
+     * The refinement thread. Null if the refiner wasn't created for the VM being built.
+     */
+    private VmThread refinerThread;
+
+    /**
+     * Start of the young generation.
+     */
+    private Address youngStart = Address.zero();
+
+    /**
+     * End of the young generation.
+     */
+    private Address youngEnd = Address.zero();
+
+    /**
+     * Index of the first card of each refinable range.
+     */
+    private int [] firstCardIndices = new int[1];
+
+    /**
+     * Index of the card after the last card of each refinable range.
+     */
+    private int [] endCardIndices = new int[1];
+
+    /**
+     * Number of refinable ranges.
+     */
+    private int numRanges;
+
+    /**
+     * Index of the refinable range the refinement thread examines.
+     */
+    private int currentRange;
+
+    /**
+     * Index of the next card the refinement thread examines.
+     */
+    private int nextCardIndex;
+
+    /**
+     * Indicates whether a reference to the young generation was found in the card being refined.
+     */
+    private boolean foundYoungReference;
+
+    /**
+     * Number of cards cleaned by refinement since the last GC.
+     */
+    private int cleanedCards;
+
+    /**
+     * Number of cards scanned by refinement since the last GC and left dirty because they hold young references.
+     */
+    private int keptCards;
+
+    /**
+     * Time spent scanning cards since the last GC, in nanoseconds.
+     */
+    private long refinementNanos;
+
+    /**
+     * Number of cards cleaned by refinement before the last GC.
+     */
+    private long totalCleanedCards;
+
+    /**
+     * Number of cards scanned by refinement since VM start.
+     */
+    private long totalRefinedCards;
+
+    public ConcurrentCardRefiner(CardTableRSet rset) {
+        this.rset = rset;
+        this.cardTable = rset.cardTable;
+    }
+
+    /**
+     * Indicates whether dirty cards are refined concurrently.
+     */
+    @INLINE
+    public static boolean isEnabled() {
+        return ConcurrentCardRefinement;
+    }
+
+    /**
+     * Thread refining dirty cards in the background, one batch at a time.
+     */
+    final class CardRefinementThread extends Thread {
+        @HOSTED_ONLY
+        CardRefinementThread() {
+            super(VmThread.systemThreadGroup, "Card Refinement");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!refineNextCards()) {
+                    try {
+                        Thread.sleep(CardRefinementInterval);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocate the refinement thread. The thread is only started if concurrent refinement is enabled.
+     * @see #startRefinementThread()
+     */
+    @HOSTED_ONLY
+    public void createRefinementThread() {
+        refinerThread = VmThread.createPreallocatedSystemThread(new CardRefinementThread());
+    }
+
+    /**
+     * Start the refinement thread if concurrent refinement is enabled. Must be called once the VM can start threads.
+     */
+    public void startRefinementThread() {
+        if (refinerThread != null && isEnabled()) {
+            refinerThread.startVmSystemThread();
+        }
+    }
+
+    /**
+     * Set the bounds of the young generation. References to addresses in these bounds keep the card holding them dirty.
+     *
+     * @param start start of the young generation
+     * @param end end of the young generation
+     */
+    public void setYoungGeneration(Address start, Address end) {
+        youngStart = start;
+        youngEnd = end;
+    }
+
+    /**
+     * Set the maximum number of refinable ranges. Must be called before the first GC if the old generation may have more than one.
+     *
+     * @param maxRanges maximum number of ranges {@linkplain #addRefinableRange(Address, Address) added} after a GC
+     */
+    public void setMaxRefinableRanges(int maxRanges) {
+        firstCardIndices = new int[maxRanges];
+        endCardIndices = new int[maxRanges];
+    }
+
+    /**
+     * Set the range of the old generation whose cards may be refined until the next GC and restart refinement from its first card.
+     * Must be called by the VM operation thread at the end of every GC, once the range is iterable. Only the cards entirely within the range are refined.
+     *
+     * @param start start of the refinable range
+     * @param end end of the refinable range
+     */
+    public void setRefinableRange(Address start, Address end) {
+        clearRefinableRanges();
+        addRefinableRange(start, end);
+    }
+
+    /**
+     * Remove all refinable ranges. Must be called by the VM operation thread at the end of every GC, before adding the ranges that are refinable until the next GC.
+     */
+    public void clearRefinableRanges() {
+        numRanges = 0;
+        currentRange = 0;
+        totalCleanedCards += cleanedCards;
+        cleanedCards = 0;
+        keptCards = 0;
+        refinementNanos = 0L;
+    }
+
+    /**
+     * Add a range of the old generation whose cards may be refined until the next GC. The range must be iterable, and stay untouched by mutators
+     * and by other threads until then. A range contiguous to the last one added extends it. Only the cards entirely within the range are refined.
+     *
+     * @param start start of the refinable range
+     * @param end end of the refinable range
+     */
+    public void addRefinableRange(Address start, Address end) {
+        final int firstCardIndex = cardTable.tableEntryIndex(CardTableRSet.alignUpToCard(start.minus(1)));
+        final int endCardIndex = end.greaterThan(start) ? cardTable.tableEntryIndex(CardTableRSet.alignDownToCard(end)) : firstCardIndex;
+        if (endCardIndex <= firstCardIndex) {
+            return;
+        }
+        if (numRanges > 0 && endCardIndices[numRanges - 1] == firstCardIndex) {
+            // Contiguous with the last range: extend it.
+            endCardIndices[numRanges - 1] = endCardIndex;
+            return;
+        }
+        FatalError.check(numRanges < firstCardIndices.length, "too many refinable ranges");
+        firstCardIndices[numRanges] = firstCardIndex;
+        endCardIndices[numRanges] = endCardIndex;
+        if (numRanges == 0) {
+            nextCardIndex = firstCardIndex;
+        }
+        numRanges++;
+    }
+
+    /**
+     * Refine the dirty cards of the next batch of cards of the current refinable range.
+     *
+     * @return true if there are cards left to examine in the current pass, false if the pass over the refinable ranges is complete
+     */
+    private boolean refineNextCards() {
+        // GCs must not take place while a card is clean but not yet scanned.
+        final boolean safepointsWereDisabled = SafepointPoll.disable();
+        if (numRanges == 0) {
+            if (!safepointsWereDisabled) {
+                SafepointPoll.enable();
+            }
+            return false;
+        }
+        final int endCardIndex = endCardIndices[currentRange];
+        final int end = nextCardIndex + CardRefinementBatchSize < endCardIndex ? nextCardIndex + CardRefinementBatchSize : endCardIndex;
+        int cardIndex = cardTable.first(nextCardIndex, end, CardState.DIRTY_CARD);
+        if (cardIndex < end) {
+            final long start = System.nanoTime();
+            int refined = 0;
+            do {
+                refineCard(cardIndex);
+                refined++;
+                cardIndex = cardTable.first(cardIndex + 1, end, CardState.DIRTY_CARD);
+            } while (cardIndex < end);
+            refinementNanos += System.nanoTime() - start;
+            totalRefinedCards += refined;
+        }
+        boolean more = true;
+        if (end < endCardIndex) {
+            nextCardIndex = end;
+        } else if (currentRange + 1 < numRanges) {
+            currentRange++;
+            nextCardIndex = firstCardIndices[currentRange];
+        } else {
+            // Start the next pass over from the first card.
+            currentRange = 0;
+            nextCardIndex = firstCardIndices[0];
+            more = false;
+        }
+        if (!safepointsWereDisabled) {
+            SafepointPoll.enable();
+        }
+        return more;
+    }
+
+    private void refineCard(int cardIndex) {
+        cardTable.clean(cardIndex);
+        // The card must be seen clean before its references are read: a mutator storing a young reference from now on dirties it again.
+        MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+        foundYoungReference = false;
+        rset.visitCard(cardIndex, this);
+        if (foundYoungReference) {
+            cardTable.dirty(cardIndex);
+            keptCards++;
+        } else {
+            cleanedCards++;
+        }
+    }
+
+    @INLINE
+    private boolean isYoung(Address address) {
+        return address.greaterEqual(youngStart) && address.lessThan(youngEnd);
+    }
+
+    @Override
+    public void visit(Pointer pointer, int wordIndex) {
+        if (isYoung(pointer.getReference(wordIndex).toOrigin())) {
+            foundYoungReference = true;
+        }
+    }
+
+    /**
+     * Look for references to the young generation in a cell overlapping the card being refined.
+     * Follows the same rules as the evacuation of dirty cards: all the references of a tuple or hybrid are scanned, but only the elements of
+     * a reference array that lie in the card.
+     */
+    @Override
+    public Pointer visitCell(Pointer cell, Address start, Address end) {
+        final Pointer origin = Layout.cellToOrigin(cell);
+        final Hub hub = UnsafeCast.asHub(origin.getReference(Layout.hubIndex()));
+        if (hub == HeapFreeChunk.heapFreeChunkHub()) {
+            return cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+        }
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout == Layout.tupleLayout()) {
+            if (hub.isJLRReference) {
+                // The referent isn't a mapped reference, and special references are only discovered on dirty cards. Leave the card to the pause.
+                foundYoungReference = true;
+            } else {
+                hub.visitMappedReferences(origin, this);
+            }
+            return cell.plus(hub.tupleSize);
+        }
+        if (specificLayout == Layout.referenceArrayLayout()) {
+            final int length = Layout.readArrayLength(origin) + Layout.firstElementIndex();
+            final Address firstElement = origin.plusWords(Layout.firstElementIndex());
+            int index = start.greaterThan(firstElement) ? start.minus(origin).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt() : Layout.firstElementIndex();
+            final Address endOfArray = origin.plusWords(length);
+            final int endIndex = endOfArray.greaterThan(end) ? end.minus(origin).unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt() : length;
+            while (index < endIndex && !foundYoungReference) {
+                visit(origin, index++);
+            }
+        } else if (specificLayout == Layout.hybridLayout()) {
+            hub.visitMappedReferences(origin, this);
+        }
+        return cell.plus(Layout.size(origin));
+    }
+
+    /**
+     * Print the refinement statistics since the last GC, and an estimate of the card scanning time they saved to the coming evacuation pause.
+     * The estimate assumes that the pause would have scanned each cleaned card as fast as the refinement thread did.
+     */
+    public void printStatistics() {
+        final long refined = cleanedCards + keptCards;
+        final long savedMicros = refined == 0 ? 0L : cleanedCards * refinementNanos / refined / 1000L;
+        Log.print("# cards refined since last GC: cleaned=");
+        Log.print(cleanedCards);
+        Log.print(", kept dirty=");
+        Log.print(keptCards);
+        Log.print(", estimated pause time saved=");
+        Log.print(savedMicros);
+        Log.print(" us; total cleaned=");
+        Log.print(totalCleanedCards + cleanedCards);
+        Log.print(" of ");
+        Log.println(totalRefinedCards);
+    }
+}
@@ -44,6 +44,16 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
     @INSPECTED
     protected T allocator;
 
+    /**
+     * Survivor spaces where minor collections age objects of the space, if it is a nursery that ages objects. Null otherwise.
+     */
+    private SurvivorSpaces survivorSpaces;
+
+    /**
+     * Bounds of the evacuated area when the space has survivor spaces, i.e., of the space and the survivor from-space.
+     */
+    private SpaceBounds nurseryBounds;
+
     ContiguousAllocatingSpace(T allocator, String name) {
         this.allocator = allocator;
         this.space = new ContiguousHeapSpace(name);
@@ -53,6 +63,15 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
         return allocator;
     }
 
+    /**
+     * Set the survivor spaces that minor collections evacuate together with this space.
+     * From then on, the survivor spaces are considered part of this space.
+     */
+    public void setSurvivorSpaces(SurvivorSpaces survivorSpaces) {
+        this.survivorSpaces = survivorSpaces;
+        nurseryBounds = survivorSpaces.nurseryBounds(space.bounds());
+    }
+
     public void initialize(Address start, Size maxSize, Size initialSize) {
         space.setReserved(start, maxSize);
         space.growCommittedSpace(initialSize);
@@ -107,7 +126,7 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
     }
 
     public boolean contains(Address address) {
-        return space.contains(address);
+        return space.contains(address) || (survivorSpaces != null && survivorSpaces.contains(address));
     }
 
     public void doBeforeGC() {
@@ -127,10 +146,14 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
 
     public Size usedSpace() {
         // Allocator may be refilled with the top of the space, so we need to count what's before as well.
-        return allocator.usedSpace();
+        final Size usedSpace = allocator.usedSpace();
+        return survivorSpaces == null ? usedSpace : usedSpace.plus(survivorSpaces.usedSpace());
     }
 
     public void visit(CellRangeVisitor visitor) {
+        if (survivorSpaces != null) {
+            survivorSpaces.visit(visitor);
+        }
         Address atop = allocator.unsafeTop();
         if (space.contains(atop)) {
             // Normal situation. The allocator is within the bound
@@ -146,6 +169,9 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
     }
 
     public void visitAllocatedCells(CellVisitor visitor) {
+        if (survivorSpaces != null) {
+            survivorSpaces.visitAllocatedCells(visitor);
+        }
         final Address top = allocator.unsafeTop();
         Pointer cell = space.start().asPointer();
         do {
@@ -155,7 +181,7 @@ public class ContiguousAllocatingSpace<T extends BaseAtomicBumpPointerAllocator<
 
     @Override
     public SpaceBounds bounds() {
-        return space.bounds();
+        return survivorSpaces == null ? space.bounds() : nurseryBounds;
     }
 
 }
@@ -27,6 +27,8 @@ import static com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
 import java.lang.management.*;
+import java.util.Collections;
+import java.util.List;
 
 import com.sun.cri.xir.*;
 import com.sun.cri.xir.CiXirAssembler.XirOperand;
@@ -288,13 +290,37 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     final ContiguousSemiSpace<CardSpaceAllocator<OldSpaceRefiller>> oldSpace;
 
     /**
-     * Young generation, organized as a simple linear space. The collector doesn't do aging
-     * in this first prototype. Later, this will be changed for a semi-space variant
-     * (either with equal-size semi-space, or with a eden / survivor semi-space).
+     * Young generation, organized as a simple linear space (eden). If {@linkplain SurvivorSpaces#isAgingEnabled() aging} is enabled,
+     * the young generation also comprises a pair of survivor spaces, carved out of the space reserved to the young generation.
      */
     @INSPECTED
     final ContiguousAllocatingSpace<AtomicBumpPointerAllocator<YoungSpaceRefiller>> youngSpace;
 
+    /**
+     * Survivor spaces of the young generation. Only used if {@link #agingNursery} is set.
+     */
+    @INSPECTED
+    private final SurvivorSpaces survivorSpaces = new SurvivorSpaces();
+
+    /**
+     * Indicates whether minor collections age objects in the survivor spaces of the young generation.
+     */
+    private boolean agingNursery;
+
+    /**
+     * Memory region holding the survivor spaces. Used for reference verification.
+     */
+    private final MemoryRegion survivorArea = new MemoryRegion("Survivor Spaces");
+
+    /**
+     * Makes the survivors of the young generation roots of full collections.
+     */
+    private final CellRangeVisitor survivorRootsPrefiller = new CellRangeVisitor() {
+        public void visitCells(Address start, Address end) {
+            oldSpaceEvacuator.prefillRootRange(start, end);
+        }
+    };
+
     /**
      * Policy for resizing the heap after each GC.
      */
@@ -317,6 +343,11 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     @INSPECTED
     private final CardTableRSet cardTableRSet;
 
+    /**
+     * Cleans the old generation's dirty cards that hold no young references between GCs.
+     */
+    private final ConcurrentCardRefiner cardRefiner;
+
     /**
      * Implementation of young space evacuation. Used by minor collection operations.
      */
@@ -426,6 +457,8 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
     @HOSTED_ONLY
     public GenSSHeapScheme() {
         cardTableRSet = new CardTableRSet();
+        cardRefiner = new ConcurrentCardRefiner(cardTableRSet);
+        cardRefiner.createRefinementThread();
         AtomicBumpPointerAllocator<YoungSpaceRefiller> nurseryAllocator =
             new AtomicBumpPointerAllocator<YoungSpaceRefiller>(new YoungSpaceRefiller());
         CardSpaceAllocator<OldSpaceRefiller> tenuredAllocator =
@@ -460,6 +493,10 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         }
         if (phase == PRISTINE) {
             lastFullGCTime = System.currentTimeMillis();
+            StringDeduplication.initialize();
+        }
+        if (phase == STARTING) {
+            cardRefiner.startRefinementThread();
         }
         if (phase == TERMINATING) {
             if (Heap.logGCTime()) {
@@ -542,9 +579,9 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         noFromSpaceReferencesVerifiers.setEvacuatedSpace(youngSpace);
         if (resizingPolicy.minorEvacuationOverflow()) {
             // Have to visit both the old gen's to space and the overflow in the old gen from space (i.e., the bound of the oldSpace's allocator.
-            refVerifier.setValidSpaces(oldToSpace, overflowedArea);
+            refVerifier.setValidSpaces(oldToSpace, overflowedArea, agingNursery ? survivorArea : null, null);
         } else {
-            refVerifier.setValidHeapSpace(oldSpace.space);
+            refVerifier.setValidSpaces(oldSpace.space, agingNursery ? survivorArea : null);
         }
         verifyCommon();
         if (resizingPolicy.minorEvacuationOverflow()) {
@@ -561,7 +598,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             Memory.zapRegion(oldSpace.fromSpace);
         }
         noFromSpaceReferencesVerifiers.setEvacuatedSpace(oldSpace.fromSpace);
-        refVerifier.setValidHeapSpace(oldSpace.space);
+        refVerifier.setValidSpaces(oldSpace.space, agingNursery ? survivorArea : null);
         verifyCommon();
         oldSpace.visit(noFromSpaceReferencesVerifiers);
     }
@@ -579,7 +616,16 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             oldSpaceEvacuator.prefillSurvivorRanges(overflowedArea.start(), overflowedArea.end());
         }
         oldSpaceEvacuator.setEvacuationSpace(oldSpace.fromSpace, oldSpace);
+        if (agingNursery) {
+            // Survivors aged in the young generation aren't evacuated, but may reference old objects.
+            survivorSpaces.visit(survivorRootsPrefiller);
+        }
+        // The old generation is evacuated: arrays of the deduplication table move. Strings evacuated are deduplicated again.
+        StringDeduplication.clear();
         oldSpaceEvacuator.evacuate(Heap.logGCPhases());
+        if (StringDeduplication.isEnabled()) {
+            StringDeduplication.deduplicate(oldSpace);
+        }
 
         if (OldSpaceDirtyCardsStats) {
             countOldSpaceDirtyCards("after old gen evacuation");
@@ -600,6 +646,10 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             oldSpace.allocator.refill(oldSpace.space.start(), oldSpace.space.committedSize());
             oldSpace.allocator.unsafeSetTopToLimit();
             resizingPolicy.notifyFullEvacuationOverflowRange(youngSpace.allocator.start(), top);
+        } else if (agingNursery && survivorSpaces.usedSpace().isNotZero()) {
+            // Evacuated old objects may reference survivors of the young generation. Leave all cards dirty so that
+            // the next minor collection finds these references.
+            cardTableRSet.setCards(oldSpace.space.start(), oldSpace.allocator().unsafeTop(), CardState.DIRTY_CARD);
         } else {
             cardTableRSet.setCards(oldSpace.space.start(), oldSpace.allocator().unsafeTop(), CardState.CLEAN_CARD);
         }
@@ -731,6 +781,10 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         evacTimers.resetTrackTime();
         if (OldSpaceDirtyCardsStats) {
             countOldSpaceDirtyCards("before minor collection");
+            if (ConcurrentCardRefiner.isEnabled()) {
+                // Cards cleaned by refinement are not scanned by the coming minor collection.
+                cardRefiner.printStatistics();
+            }
         }
         VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
         Heap.invokeGCCallbacks(GCCallbackPhase.BEFORE);
@@ -742,6 +796,12 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         youngSpaceEvacuator.setGCOperation(genCollection);
         HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
         youngSpaceEvacuator.evacuate(Heap.logGCPhases());
+        if (StringDeduplication.isEnabled()) {
+            StringDeduplication.deduplicate(oldSpace);
+        }
+        if (agingNursery) {
+            survivorSpaces.flip();
+        }
         if (resizingPolicy.minorEvacuationOverflow()) {
             overflowedArea.setStart(oldSpace.allocator.start());
             overflowedArea.setEnd(oldSpace.allocator.unsafeTop());
@@ -759,9 +819,10 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             verifyAfterMinorCollection();
         }
 
-        if (ForceCleanCardsAfterMinorGC && !resizingPolicy.minorEvacuationOverflow()) {
+        if (ForceCleanCardsAfterMinorGC && !resizingPolicy.minorEvacuationOverflow() && !agingNursery) {
             // Don't need to clean card if a minor evacuation overflow occurred as this will trigger a full GC.
             // Also, the boundary isn't correct in that case, as the allocator's is pointing to the other old semi-space in that case.
+            // Cards must not be cleaned either if the young generation ages objects, as they remember references to survivors.
             cardTableRSet.setCards(oldSpace.space.start(), oldSpace.allocator().unsafeTop(), CardState.CLEAN_CARD);
         }
         final Size estimatedEvac = estimatedNextEvac();
@@ -813,6 +874,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         }
         // WARNING: do not use a local variable holding the gcRequest across evacuation as the GCRequest may be a young object and therefore relocate between
         // two uses. The stack frame of this method somehow is not processed by the GC (FIXME: why ?).
+        SpecialReferenceManager.updateSoftReferenceClock();
         final GenSSGCRequest gcRequest = genCollection.gcRequest();
         gcRequest.lastInvocationCount = invocationCount;
         gcRequest.oldGenFreeSpace = oldSpace.freeSpace();
@@ -843,6 +905,8 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             requiresFullGC = false;
         }
         accumulatedGCTime = endGCTime - startGCTime;
+        // Cards of the old generation allocated so far are iterable until the next GC. A full evacuation overflow leaves old objects in the young space: don't refine then.
+        cardRefiner.setRefinableRange(oldSpace.space.start(), resizingPolicy.fullEvacuationOverflow() ? oldSpace.space.start() : oldSpace.allocator().unsafeTop());
         Heap.invokeGCCallbacks(GCCallbackPhase.AFTER);
         HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
     }
@@ -943,13 +1007,43 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
                 final Size newTLABSize = Size.fromLong(Long.highestOneBit(largeObjectSizeThreshold.toLong()));
                 setInitialTlabSize(newTLABSize);
             }
-            youngSpace.initialize(firstUnusedByteAddress, resizingPolicy.maxYoungGenSize(), resizingPolicy.initialYoungGenSize());
+            agingNursery = SurvivorSpaces.isAgingEnabled();
+            Size maxEdenSize = resizingPolicy.maxYoungGenSize();
+            Size initialEdenSize = resizingPolicy.initialYoungGenSize();
+            Size survivorSpaceSize = Size.zero();
+            if (agingNursery) {
+                // The survivor spaces are carved out of the end of the space reserved to the young generation.
+                survivorSpaceSize = SurvivorSpaces.survivorSpaceSize(maxEdenSize).alignUp(pageSize).asSize();
+                maxEdenSize = maxEdenSize.minus(survivorSpaceSize.times(2)).alignDown(pageSize).asSize();
+                FatalError.check(maxEdenSize.greaterThan(largeObjectSizeThreshold), "Young generation too small for its survivor spaces");
+                if (initialEdenSize.greaterThan(maxEdenSize)) {
+                    initialEdenSize = maxEdenSize;
+                }
+            }
+            youngSpace.initialize(firstUnusedByteAddress, maxEdenSize, initialEdenSize);
             youngSpace.allocator().initialize(youngSpace.space.start(), youngSpace.space.committedSize(), largeObjectSizeThreshold);
             Address startOfOldSpace = youngSpace.space.end().alignUp(pageSize);
+            if (agingNursery) {
+                final Size survivorAreaSize = survivorSpaceSize.times(2);
+                if (!Heap.AvoidsAnonOperations) {
+                    if (!VirtualMemory.commitMemory(startOfOldSpace, survivorAreaSize, VirtualMemory.Type.HEAP)) {
+                        MaxineVM.reportPristineMemoryFailure("survivor spaces", "commit", survivorAreaSize);
+                    }
+                }
+                survivorSpaces.initialize(startOfOldSpace, survivorSpaceSize);
+                survivorArea.setStart(startOfOldSpace);
+                survivorArea.setSize(survivorAreaSize);
+                youngSpace.setSurvivorSpaces(survivorSpaces);
+                youngSpaceEvacuator.setSurvivorSpaces(survivorSpaces);
+                noFromSpaceReferencesVerifiers.setSurvivorSpaces(survivorSpaces);
+                startOfOldSpace = survivorArea.end().alignUp(pageSize);
+            }
             oldSpace.initialize(startOfOldSpace, resizingPolicy.maxOldGenSize(), resizingPolicy.initialOldGenSize());
             // Set old space's allocator size limit to the max old space size  to never call allocate large, but always refill instead.
             oldSpace.allocator.setSizeLimit(resizingPolicy.maxOldGenSize());
             initializeCoverage(firstUnusedByteAddress, oldSpace.highestAddress().minus(firstUnusedByteAddress).asSize());
+            // The survivor spaces, if any, lie between the young space and the old space.
+            cardRefiner.setYoungGeneration(youngSpace.space.start(), startOfOldSpace);
             cardTableRSet.initializeXirStartupConstants();
             refExclusions[0] = cardTableRSet.cardTable.biasedTableAddress().toLong();
             refVerifier.setExclusions(refExclusions);
@@ -969,7 +1063,8 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
              * Since the evacuation buffer is refilled before evacuation with the entire free space, the first allocation failure correspond to an overflow situation
              */
             youngSpaceEvacuator.initialize(2, true, Size.zero(), true);
-            oldSpaceEvacuator.initialize(2, true, Size.zero(), true);
+            // When aging, the survivor spaces of the young generation take an extra survivor range in full collections.
+            oldSpaceEvacuator.initialize(agingNursery ? 3 : 2, true, Size.zero(), true);
 
             Address unusedReservedSpaceStart = cardTableRSet.memory().end().alignUp(pageSize);
             // Free reserved space we will not be using.
@@ -1001,6 +1096,16 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         return MaxineVM.isDebug() && TLABLog.TraceTLABAllocation;
     }
 
+    /**
+     * Resized TLABs are no larger than the large object size threshold, as is the initial TLAB size.
+     */
+    @Override
+    protected Size maxTlabSize() {
+        final Size maxTlabSize = super.maxTlabSize();
+        final Size bound = largeObjectSizeThreshold.lessThan(initialTlabSize()) ? initialTlabSize() : largeObjectSizeThreshold;
+        return maxTlabSize.greaterThan(bound) ? bound : maxTlabSize;
+    }
+
     /**
      * Allocate a chunk of memory of the specified size and refill a thread's TLAB with it.
      * @param etla the thread whose TLAB will be refilled
@@ -1033,7 +1138,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -1045,7 +1150,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             // always return zero for the next TLAB size.
             return youngSpace.allocate(size);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the young generation.
             return youngSpace.allocate(size);
         }
@@ -1105,6 +1210,11 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
     }
 
+    @HOSTED_ONLY
+    public List<XirTemplate> barrierStubs() {
+        return Collections.emptyList();
+    }
+
     @Override
     public GarbageCollectorMXBean getGarbageCollectorMXBean() {
         return new GenSSGarbageCollectorMXBean();
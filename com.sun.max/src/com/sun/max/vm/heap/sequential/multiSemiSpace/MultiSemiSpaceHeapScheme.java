@@ -343,6 +343,10 @@ public class MultiSemiSpaceHeapScheme extends HeapSchemeWithTLAB implements Cell
         public boolean mayRelocateLiveObjects() {
             return true;
         }
+
+        public void completeClosure() {
+            // preserve() already moves the objects reachable from the preserved object
+        }
     }
 
     /**
@@ -470,6 +474,7 @@ public class MultiSemiSpaceHeapScheme extends HeapSchemeWithTLAB implements Cell
                     fromSpaces[i].mark.set(fromSpaces[i].start());
                 }
 
+                SpecialReferenceManager.updateSoftReferenceClock();
                 final MultiSemiSpaceGCRequest gcRequest = gcRequest();
                 gcRequest.lastInvocationCount = invocationCount;
 
@@ -963,7 +968,7 @@ public class MultiSemiSpaceHeapScheme extends HeapSchemeWithTLAB implements Cell
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -976,7 +981,7 @@ public class MultiSemiSpaceHeapScheme extends HeapSchemeWithTLAB implements Cell
             // always return zero for the next TLAB size.
             return retryAllocate(size, true);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the heap.
             return retryAllocate(size, true);
         }
@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.heap.sequential.semiSpace;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.debug.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Copies the objects reachable from the roots of a {@link SemiSpaceHeapScheme} with the {@link GCWorkerGang}
+ * when the gang has more than one worker.
+ * <p>
+ * Thread stacks are partitioned statically across workers. The other roots (boot heap, code regions, immortal heap)
+ * are cut into chunks that workers claim dynamically. Each worker copies objects into its own allocation buffer
+ * (LAB) carved out of to-space, installs the forwarding reference with a compare-and-swap on the hub word of the
+ * from-space copy, and pushes the to-space copy on its {@link WorkStealingDeque}. A worker that loses the race to
+ * forward an object undoes its copy by moving its LAB top back. Workers that run out of work steal from the deques
+ * of other workers.
+ * <p>
+ * When a worker's deque is full, the forwarded from-space copy of the object is chained to the worker's overflow list
+ * through its misc word, which is dead once the object is forwarded. Workers drain their own overflow list before
+ * looking for work elsewhere.
+ * <p>
+ * LABs are retired at the end of the scavenge by formatting their unused space as {@link DarkMatter}, so to-space
+ * stays parsable for the sequential special reference processing that follows.
+ */
+final class ParallelScavenger extends GCTask {
+    static boolean UseParallelScavenge = true;
+    static int ParallelScavengeStackSize = 32 * 1024;
+    static int ParallelScavengeLABSize = 64 * 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseParallelScavenge", ParallelScavenger.class,
+                        "Copy reachable objects with the GC worker gang when -XX:ParallelGCThreads is greater than 1", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelScavengeStackSize", ParallelScavenger.class,
+                        "Capacity (in number of cells) of the deque of each parallel scavenging worker", MaxineVM.Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelScavengeLABSize", ParallelScavenger.class,
+                        "Size (in bytes) of the to-space allocation buffers of parallel scavenging workers", MaxineVM.Phase.PRISTINE);
+    }
+
+    /**
+     * Size of the chunks of the boot heap claimed by workers scanning boot heap references.
+     */
+    private static final int LOG2_BOOT_HEAP_CHUNK_SIZE = 18;
+    private static final int BOOT_HEAP_CHUNK_SIZE = 1 << LOG2_BOOT_HEAP_CHUNK_SIZE;
+
+    /**
+     * Root chunk index of the runtime baseline code region.
+     */
+    private static final int BASELINE_CODE_ROOT_CHUNK = 0;
+
+    /**
+     * Root chunk index of the runtime optimized code region.
+     */
+    private static final int OPT_CODE_ROOT_CHUNK = 1;
+
+    /**
+     * Root chunk index of the immortal heap.
+     */
+    private static final int IMMORTAL_HEAP_ROOT_CHUNK = 2;
+
+    /**
+     * Index of the first root chunk of the boot heap.
+     */
+    private static final int FIRST_BOOT_HEAP_ROOT_CHUNK = 3;
+
+    final SemiSpaceHeapScheme heapScheme;
+
+    /**
+     * Per-worker state. Allocated when building the boot image for the maximum number of workers of the gang.
+     */
+    private final Worker [] workers;
+
+    /**
+     * Number of workers running the current scavenge.
+     */
+    private int numWorkers;
+
+    /**
+     * Number of root chunks of the current scavenge.
+     */
+    private int numRootChunks;
+
+    /**
+     * Start of the boot heap range holding mutable references.
+     */
+    private Address bootHeapStart = Address.zero();
+
+    /**
+     * End of the boot heap range holding mutable references.
+     */
+    private Address bootHeapEnd = Address.zero();
+
+    /**
+     * Index of the next root chunk to claim.
+     */
+    private volatile int rootChunkCursor;
+
+    /**
+     * Detects the termination of the task.
+     */
+    private final GCTaskTerminator terminator = new GCTaskTerminator();
+
+    @FOLD
+    private static int rootChunkCursorOffset() {
+        return ClassActor.fromJava(ParallelScavenger.class).findLocalInstanceFieldActor("rootChunkCursor").offset();
+    }
+
+    @HOSTED_ONLY
+    ParallelScavenger(SemiSpaceHeapScheme heapScheme) {
+        this.heapScheme = heapScheme;
+        workers = new Worker[GCWorkerGang.MAX_WORKERS];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(this, i);
+        }
+    }
+
+    /**
+     * Allocate the deques of the workers. Must be called once the number of workers of the gang is known.
+     */
+    void initialize() {
+        final int configuredWorkers = GCWorkerGang.theGang().numConfiguredWorkers();
+        if (UseParallelScavenge && configuredWorkers > 1) {
+            for (int i = 0; i < configuredWorkers; i++) {
+                if (!workers[i].deque.isInitialized()) {
+                    workers[i].deque.initialize(ParallelScavengeStackSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the scavenge should be performed in parallel.
+     */
+    boolean isEnabled() {
+        return UseParallelScavenge && GCWorkerGang.theGang().isParallel();
+    }
+
+    /**
+     * Copy to to-space all the objects reachable from the roots, the boot heap, the code regions and the immortal heap.
+     * On return, the allocation mark of to-space is the end of the last copied object, and to-space is parsable.
+     */
+    void scavenge() {
+        final GCWorkerGang gang = GCWorkerGang.theGang();
+        numWorkers = gang.numWorkers();
+        bootHeapStart = Heap.bootHeapRegion.start();
+        bootHeapEnd = Heap.bootHeapRegion.lastMutableReferenceAddress().plus(Word.widthValue().numberOfBytes);
+        final int numBootHeapChunks = bootHeapEnd.minus(bootHeapStart).plus(BOOT_HEAP_CHUNK_SIZE - 1).unsignedShiftedRight(LOG2_BOOT_HEAP_CHUNK_SIZE).toInt();
+        numRootChunks = FIRST_BOOT_HEAP_ROOT_CHUNK + numBootHeapChunks;
+        rootChunkCursor = 0;
+        terminator.reset(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].reset();
+        }
+        // Special references of the boot heap aren't found by scanning its reference map.
+        Heap.bootHeapRegion.discoverSpecialReference();
+
+        gang.run(this);
+
+        if (Heap.logGCPhases()) {
+            for (int i = 0; i < numWorkers; i++) {
+                workers[i].printStats();
+            }
+        }
+    }
+
+    @Override
+    public void run(int workerIndex) {
+        workers[workerIndex].scavenge();
+    }
+
+    private int claimRootChunk() {
+        final Reference thisRef = Reference.fromJava(this);
+        while (true) {
+            final int rootChunk = rootChunkCursor;
+            if (rootChunk >= numRootChunks) {
+                return -1;
+            }
+            if (thisRef.compareAndSwapInt(rootChunkCursorOffset(), rootChunk, rootChunk + 1) == rootChunk) {
+                return rootChunk;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasWork() {
+        if (rootChunkCursor < numRootChunks) {
+            return true;
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            if (!workers[i].deque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Size of a cell computed from its hub. Used when the hub word of the cell may be concurrently overwritten with a forwarding reference.
+     */
+    private static Size cellSize(Pointer origin, Hub hub) {
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout()) {
+            return hub.tupleSize;
+        }
+        final int length = Layout.readArrayLength(origin);
+        if (specificLayout.isHybridLayout()) {
+            return Layout.hybridLayout().getArraySize(length);
+        }
+        return Layout.arrayLayout().getArraySize(hub.classActor.componentClassActor().kind, length);
+    }
+
+    /**
+     * Space left at the end of a LAB so that its unused part can always be formatted as dark matter when it is retired.
+     */
+    @FOLD
+    private static Size labHeadroom() {
+        return DebugHeap.adjustForDebugTag(Pointer.zero()).asSize().plus(DarkMatter.minSize());
+    }
+
+    static final class Worker extends PointerIndexVisitor implements CellVisitor {
+        final ParallelScavenger scavenger;
+        final SemiSpaceHeapScheme heapScheme;
+        final int workerIndex;
+        final WorkStealingDeque deque = new WorkStealingDeque();
+
+        /**
+         * Allocation mark of the worker's LAB.
+         */
+        private Pointer labTop = Pointer.zero();
+
+        /**
+         * Allocation limit of the worker's LAB, {@link ParallelScavenger#labHeadroom()} below the actual end of the LAB.
+         */
+        private Pointer labEnd = Pointer.zero();
+
+        /**
+         * End of the space last allocated by {@link #allocateShared(Size, Size)}.
+         */
+        private Pointer allocatedEnd = Pointer.zero();
+
+        /**
+         * Origin of the last from-space object chained to the overflow list, or zero if the list is empty.
+         */
+        private Pointer overflowList = Pointer.zero();
+
+        /**
+         * Position of the next thread visited when scanning thread roots.
+         */
+        private int threadPosition;
+
+        private final Pointer.Procedure threadRootsScanner = new Pointer.Procedure() {
+            public void run(Pointer tla) {
+                if (threadPosition++ % scavenger.numWorkers == workerIndex) {
+                    if (Heap.logGCPhases()) {
+                        Heap.phaseLogger.logScanningThreadRoots(VmThread.fromTLA(tla));
+                    }
+                    VmThreadLocal.scanReferences(tla, Worker.this);
+                }
+            }
+        };
+
+        int copiedCells;
+        long copiedBytes;
+        int lostRaces;
+        int claimedRootChunks;
+        int stolenCells;
+        int overflows;
+
+        @HOSTED_ONLY
+        Worker(ParallelScavenger scavenger, int workerIndex) {
+            this.scavenger = scavenger;
+            this.heapScheme = scavenger.heapScheme;
+            this.workerIndex = workerIndex;
+        }
+
+        void reset() {
+            deque.reset();
+            labTop = Pointer.zero();
+            labEnd = Pointer.zero();
+            overflowList = Pointer.zero();
+            threadPosition = 0;
+            copiedCells = 0;
+            copiedBytes = 0L;
+            lostRaces = 0;
+            claimedRootChunks = 0;
+            stolenCells = 0;
+            overflows = 0;
+        }
+
+        /**
+         * Format the unused part of the LAB as dark matter.
+         */
+        private void retireLAB() {
+            if (!labTop.isZero()) {
+                final Pointer end = labEnd.plus(labHeadroom());
+                final Pointer cell = DebugHeap.adjustForDebugTag(labTop);
+                DebugHeap.writeCellTag(cell);
+                DarkMatter.format(cell, end);
+                labTop = Pointer.zero();
+                labEnd = Pointer.zero();
+            }
+        }
+
+        /**
+         * Allocate space in to-space directly after the allocation mark of to-space.
+         * Contended with other workers, so the allocation mark is updated with a compare-and-swap.
+         *
+         * @param size number of bytes to allocate
+         * @param minSize minimum number of bytes the allocation can be satisfied with
+         * @return the start of the allocated space, whose end is stored in {@link #allocatedEnd}
+         */
+        private Pointer allocateShared(Size size, Size minSize) {
+            final LinearAllocationMemoryRegion toSpace = heapScheme.toSpace();
+            final Address top = heapScheme.top();
+            while (true) {
+                final Pointer start = toSpace.mark().asPointer();
+                Address end = start.plus(size);
+                if (end.greaterThan(top)) {
+                    end = top;
+                    FatalError.check(end.minus(start).greaterEqual(minSize), "GC allocation overflow");
+                }
+                if (toSpace.mark.compareAndSwap(start, end).equals(start)) {
+                    allocatedEnd = end.asPointer();
+                    return start;
+                }
+            }
+        }
+
+        /**
+         * Allocate a cell for the copy of an object, either in the LAB or, for objects larger than a LAB, directly in to-space.
+         *
+         * @param size size of the cell
+         * @return the cell, preceded by space for a {@linkplain DebugHeap#writeCellTag(Pointer) debug tag}
+         */
+        private Pointer allocate(Size size) {
+            Pointer cell = DebugHeap.adjustForDebugTag(labTop);
+            if (labTop.isZero() || cell.plus(size).greaterThan(labEnd)) {
+                final Size cellSpace = DebugHeap.adjustForDebugTag(Pointer.zero()).asSize().plus(size);
+                if (cellSpace.plus(labHeadroom()).greaterThan(ParallelScavengeLABSize)) {
+                    // Too large for a LAB.
+                    final Pointer start = allocateShared(cellSpace, cellSpace);
+                    return DebugHeap.adjustForDebugTag(start);
+                }
+                retireLAB();
+                labTop = allocateShared(Size.fromInt(ParallelScavengeLABSize), cellSpace.plus(labHeadroom()));
+                labEnd = allocatedEnd.minus(labHeadroom());
+                cell = DebugHeap.adjustForDebugTag(labTop);
+            }
+            labTop = cell.plus(size);
+            return cell;
+        }
+
+        /**
+         * Undo the allocation of a cell whose copy lost the race to forward the object.
+         */
+        private void undoAllocation(Pointer cell, Size size) {
+            if (cell.plus(size).equals(labTop)) {
+                labTop = cell.minus(DebugHeap.adjustForDebugTag(Pointer.zero()).asSize());
+            } else {
+                // Allocated directly in to-space, which other workers may have allocated from since.
+                DebugHeap.writeCellTag(cell);
+                DarkMatter.format(cell, size);
+            }
+        }
+
+        /**
+         * Maps a reference to the reference of its object in to-space, copying the object if it wasn't already.
+         *
+         * @param ref a reference to an object in from-space or outside of it
+         * @return the reference to the object's copy in to-space, or {@code ref} if it doesn't refer to from-space
+         */
+        private Reference mapRef(Reference ref) {
+            final Pointer fromOrigin = ref.toOrigin();
+            if (!heapScheme.fromSpace().contains(fromOrigin)) {
+                return ref;
+            }
+            final Reference hubRef = Layout.readHubReference(fromOrigin);
+            if (hubRef.isMarked()) {
+                return hubRef.unmarked();
+            }
+            heapScheme.verifyReference(ref);
+            final Pointer fromCell = Layout.originToCell(fromOrigin);
+            final Size size = cellSize(fromOrigin, UnsafeCast.asHub(hubRef.toJava()));
+            final Pointer toCell = allocate(size);
+            Memory.copyBytes(fromCell, toCell, size);
+            final Pointer toOrigin = Layout.cellToOrigin(toCell);
+            final Reference toRef = Reference.fromOrigin(toOrigin);
+            final Reference witness = Layout.compareAndSwapForwardRef(fromOrigin, hubRef, toRef);
+            if (!witness.toOrigin().equals(hubRef.toOrigin())) {
+                // Lost the race with another worker.
+                lostRaces++;
+                undoAllocation(toCell, size);
+                return witness.unmarked();
+            }
+            DebugHeap.writeCellTag(toCell);
+            copiedCells++;
+            copiedBytes += size.toLong();
+            if (!deque.push(toCell)) {
+                // The from-space copy is dead: chain it to the overflow list through its misc word.
+                Layout.writeMisc(fromOrigin, overflowList);
+                overflowList = fromOrigin;
+                overflows++;
+            }
+            return toRef;
+        }
+
+        private Pointer popOverflowList() {
+            final Pointer fromOrigin = overflowList;
+            if (fromOrigin.isZero()) {
+                return Pointer.zero();
+            }
+            overflowList = Layout.readMisc(Reference.fromOrigin(fromOrigin)).asPointer();
+            return Layout.originToCell(Layout.readForwardRef(fromOrigin).toOrigin());
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            final Reference oldRef = pointer.getReference(wordIndex);
+            final Reference newRef = mapRef(oldRef);
+            if (newRef != oldRef) {
+                pointer.setReference(wordIndex, newRef);
+            }
+        }
+
+        /**
+         * Update the references of a cell to refer to to-space, copying the objects they refer to if need be.
+         */
+        public Pointer visitCell(Pointer cell) {
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference oldHubRef = Layout.readHubReference(origin);
+            final Reference newHubRef = mapRef(oldHubRef);
+            if (newHubRef != oldHubRef) {
+                Layout.writeHubReference(origin, newHubRef);
+            }
+            final Hub hub = UnsafeCast.asHub(newHubRef.toJava());
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    SpecialReferenceManager.discoverSpecialReferenceConcurrently(cell);
+                }
+                return cell.plus(hub.tupleSize);
+            }
+            if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    final Reference oldRef = Layout.getReference(origin, index);
+                    final Reference newRef = mapRef(oldRef);
+                    if (newRef != oldRef) {
+                        Layout.setReference(origin, index, newRef);
+                    }
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            }
+            return cell.plus(Layout.size(origin));
+        }
+
+        private void drain() {
+            while (true) {
+                Pointer cell = deque.pop();
+                if (cell.isZero()) {
+                    cell = popOverflowList();
+                    if (cell.isZero()) {
+                        return;
+                    }
+                }
+                visitCell(cell);
+            }
+        }
+
+        private void scanRootChunk(int rootChunk) {
+            claimedRootChunks++;
+            if (rootChunk == BASELINE_CODE_ROOT_CHUNK) {
+                Code.visitCells(this, Code.getCodeManager().getRuntimeBaselineCodeRegion());
+            } else if (rootChunk == OPT_CODE_ROOT_CHUNK) {
+                Code.visitCells(this, Code.getCodeManager().getRuntimeOptCodeRegion());
+            } else if (rootChunk == IMMORTAL_HEAP_ROOT_CHUNK) {
+                ImmortalHeap.visitCells(this);
+            } else {
+                final Address start = scavenger.bootHeapStart.plus((rootChunk - FIRST_BOOT_HEAP_ROOT_CHUNK) * BOOT_HEAP_CHUNK_SIZE);
+                Address end = start.plus(BOOT_HEAP_CHUNK_SIZE);
+                if (end.greaterThan(scavenger.bootHeapEnd)) {
+                    end = scavenger.bootHeapEnd;
+                }
+                Heap.bootHeapRegion.visitReferences(start, end, this);
+            }
+        }
+
+        private boolean steal() {
+            final ParallelScavenger scavenger = this.scavenger;
+            for (int i = 1; i < scavenger.numWorkers; i++) {
+                final Worker victim = scavenger.workers[(workerIndex + i) % scavenger.numWorkers];
+                final Pointer cell = victim.deque.steal();
+                if (!cell.isZero()) {
+                    stolenCells++;
+                    visitCell(cell);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void scavenge() {
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, threadRootsScanner);
+            if (workerIndex == 0) {
+                vmConfig().monitorScheme().scanReferences(this);
+            }
+            do {
+                drain();
+                int rootChunk = scavenger.claimRootChunk();
+                while (rootChunk >= 0) {
+                    scanRootChunk(rootChunk);
+                    drain();
+                    rootChunk = scavenger.claimRootChunk();
+                }
+                while (steal()) {
+                    drain();
+                }
+            } while (!scavenger.terminator.offerTermination(workerIndex, scavenger));
+            retireLAB();
+        }
+
+        void printStats() {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Parallel scavenging worker ");
+            Log.print(workerIndex);
+            Log.print(": copied ");
+            Log.print(copiedCells);
+            Log.print(" cells (");
+            Log.print(copiedBytes);
+            Log.print(" bytes), lost ");
+            Log.print(lostRaces);
+            Log.print(" races, claimed ");
+            Log.print(claimedRootChunks);
+            Log.print(" root chunks, stole ");
+            Log.print(stolenCells);
+            Log.print(" cells, ");
+            Log.print(overflows);
+            Log.println(" overflows");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+}
@@ -93,6 +93,11 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
      */
     private final SequentialHeapRootsScanner heapRootsScanner = new SequentialHeapRootsScanner(refUpdater);
 
+    /**
+     * Copies reachable objects with the GC worker gang when it has more than one worker.
+     */
+    private final ParallelScavenger parallelScavenger = new ParallelScavenger(this);
+
 
     /**
      * A VM option for enabling extra checking of references. This should be disabled when running GC benchmarks.
@@ -194,9 +199,11 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        GCWorkerGang.theGang().initialize(phase);
 
         if (phase == MaxineVM.Phase.PRISTINE) {
             allocateHeap();
+            parallelScavenger.initialize();
 
             safetyZoneSize = Math.max(safetyZoneSizeOption.getValue(), initialTlabSize().toInt());
 
@@ -268,6 +275,30 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
         return toSpace.mark().asAddress();
     }
 
+    LinearAllocationMemoryRegion fromSpace() {
+        return fromSpace;
+    }
+
+    LinearAllocationMemoryRegion toSpace() {
+        return toSpace;
+    }
+
+    /**
+     * The limit of allocations in 'toSpace'.
+     */
+    Address top() {
+        return top;
+    }
+
+    /**
+     * Verifies a reference to an object about to be copied, if {@code -XX:+VerifyReferences} is set.
+     */
+    void verifyReference(Reference ref) {
+        if (VerifyReferences) {
+            refVerifier.verifyRefAtIndex(Address.zero(), 0, ref);
+        }
+    }
+
     private static void startTimer(Timer timer) {
         if (Heap.logGCTime()) {
             timer.start();
@@ -305,6 +336,10 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
         public boolean mayRelocateLiveObjects() {
             return true;
         }
+
+        public void completeClosure() {
+            // preserve() already moves the objects reachable from the preserved object
+        }
     }
 
     /**
@@ -354,54 +389,10 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
                 stopTimer(clearTimer);
 
                 refVerifier.setValidSpaces(fromSpace, toSpace);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningRoots(VMLogger.Interval.BEGIN);
-                }
-                startTimer(rootScanTimer);
-                heapRootsScanner.run(); // Start scanning the reachable objects from my roots.
-                stopTimer(rootScanTimer);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningRoots(VMLogger.Interval.END);
-                }
-
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningBootHeap(VMLogger.Interval.BEGIN);
-                }
-                startTimer(bootHeapScanTimer);
-                scanBootHeap();
-                stopTimer(bootHeapScanTimer);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningBootHeap(VMLogger.Interval.END);
-                }
-
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningCode(VMLogger.Interval.BEGIN);
-                }
-                startTimer(codeScanTimer);
-                scanCode();
-                stopTimer(codeScanTimer);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningCode(VMLogger.Interval.END);
-                }
-
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningImmortalHeap(VMLogger.Interval.BEGIN);
-                }
-                startTimer(immortalSpaceScanTimer);
-                scanImmortalHeap();
-                stopTimer(immortalSpaceScanTimer);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logScanningImmortalHeap(VMLogger.Interval.END);
-                }
-
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logMovingReachable(VMLogger.Interval.BEGIN);
-                }
-                startTimer(copyTimer);
-                moveReachableObjects(toSpace.start().asPointer());
-                stopTimer(copyTimer);
-                if (Heap.logGCPhases()) {
-                    phaseLogger.logMovingReachable(VMLogger.Interval.END);
+                if (parallelScavenger.isEnabled()) {
+                    scavengeInParallel();
+                } else {
+                    scavenge();
                 }
 
                 if (Heap.logGCPhases()) {
@@ -426,6 +417,7 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
                 // Now officially mark From-space as having no allocations.
                 fromSpace.mark.set(fromSpace.start());
 
+                SpecialReferenceManager.updateSoftReferenceClock();
                 final SemiSpaceGCRequest gcRequest = gcRequest();
                 gcRequest.lastInvocationCount = invocationCount;
 
@@ -460,6 +452,77 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
         }
     }
 
+    /**
+     * Copies the objects reachable from the roots, the boot heap, the code regions and the immortal heap to 'toSpace'.
+     */
+    private void scavenge() {
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningRoots(VMLogger.Interval.BEGIN);
+        }
+        startTimer(rootScanTimer);
+        heapRootsScanner.run(); // Start scanning the reachable objects from my roots.
+        stopTimer(rootScanTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningRoots(VMLogger.Interval.END);
+        }
+
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningBootHeap(VMLogger.Interval.BEGIN);
+        }
+        startTimer(bootHeapScanTimer);
+        scanBootHeap();
+        stopTimer(bootHeapScanTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningBootHeap(VMLogger.Interval.END);
+        }
+
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningCode(VMLogger.Interval.BEGIN);
+        }
+        startTimer(codeScanTimer);
+        scanCode();
+        stopTimer(codeScanTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningCode(VMLogger.Interval.END);
+        }
+
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningImmortalHeap(VMLogger.Interval.BEGIN);
+        }
+        startTimer(immortalSpaceScanTimer);
+        scanImmortalHeap();
+        stopTimer(immortalSpaceScanTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logScanningImmortalHeap(VMLogger.Interval.END);
+        }
+
+        if (Heap.logGCPhases()) {
+            phaseLogger.logMovingReachable(VMLogger.Interval.BEGIN);
+        }
+        startTimer(copyTimer);
+        moveReachableObjects(toSpace.start().asPointer());
+        stopTimer(copyTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logMovingReachable(VMLogger.Interval.END);
+        }
+    }
+
+    /**
+     * Same as {@link #scavenge()}, with the help of the GC worker gang. Roots are scanned and objects copied by all the workers
+     * at once, so the time of the whole scavenge is accounted to the copy phase.
+     */
+    private void scavengeInParallel() {
+        if (Heap.logGCPhases()) {
+            phaseLogger.logMovingReachable(VMLogger.Interval.BEGIN);
+        }
+        startTimer(copyTimer);
+        parallelScavenger.scavenge();
+        stopTimer(copyTimer);
+        if (Heap.logGCPhases()) {
+            phaseLogger.logMovingReachable(VMLogger.Interval.END);
+        }
+    }
+
     /**
      * Attempts to allocate memory of given size for given space.
      * If successful sets region start and size.
@@ -879,7 +942,7 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            TLABRefillPolicy.setForCurrentThread(etla, newTLABRefillPolicy(tlabSize));
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -892,7 +955,7 @@ public class SemiSpaceHeapScheme extends HeapSchemeWithTLAB implements CellVisit
             // always return zero for the next TLAB size.
             return retryAllocate(size, true);
         }
-        if (!refillPolicy.shouldRefill(size, tlabMark)) {
+        if (!refillPolicy.shouldRefill(size, tlabMark, tlabEnd)) {
             // Size would fit in a new tlab, but the policy says we shouldn't refill the TLAB yet, so allocate directly in the heap.
             return retryAllocate(size, true);
         }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.jdk;
+
+import java.lang.management.*;
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.management.*;
+
+/**
+ * Method substitutions for sun.management.ExtendedPlatformComponent, through which the platform MBean server
+ * and {@link ManagementFactory#getPlatformMXBean(Class)} find the management interfaces specific to the VM.
+ */
+@JDK_VERSION("1.8")
+@METHOD_SUBSTITUTIONS(className = "sun.management.ExtendedPlatformComponent")
+final class JDK_sun_management_ExtendedPlatformComponent {
+
+    @SUBSTITUTE
+    public static List<? extends PlatformManagedObject> getMXBeans() {
+        return MemoryManagement.getExtendedMXBeans();
+    }
+
+    @SUBSTITUTE
+    public static <T extends PlatformManagedObject> T getMXBean(Class<T> mxbeanInterface) {
+        return MemoryManagement.getExtendedMXBean(mxbeanInterface);
+    }
+}
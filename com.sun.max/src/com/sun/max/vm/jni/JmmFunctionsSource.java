@@ -28,6 +28,7 @@ import java.lang.management.*;
 
 import com.sun.max.annotate.*;
 import com.sun.max.unsafe.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.management.*;
 import com.sun.max.vm.runtime.*;
 
@@ -206,7 +207,7 @@ public final class JmmFunctionsSource {
 
     @VM_ENTRY_POINT
     private static int DumpHeap0(Pointer env, JniHandle outputfile, boolean live) {
-        return 0;
+        return HprofHeapDumper.dumpHeap((String) outputfile.unhand(), live) ? 0 : -1;
     }
 
     @VM_ENTRY_POINT
@@ -482,6 +482,20 @@ public final class Layout {
         generalLayout().writeForwardRef(origin, forwardRef);
     }
 
+    /**
+     * Atomically installs a forwarding reference in an object if its hub word still holds the expected value.
+     *
+     * @param origin location of an object
+     * @param suspectedRef expected value of the object's hub word
+     * @param forwardRef forwarding reference to install
+     * @return the value of the hub word before the operation; equals to {@code suspectedRef} if the forwarding reference was installed
+     */
+    @ACCESSOR(Pointer.class)
+    @INLINE
+    public static Reference compareAndSwapForwardRef(Pointer origin, Reference suspectedRef, Reference forwardRef) {
+        return generalLayout().compareAndSwapForwardRef(origin, suspectedRef, forwardRef);
+    }
+
     /**
      * Access to <strong>byte array object</strong> layout information in the
      * context of the current {@linkplain VMConfiguration VM configuration}.
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.management;
+
+import java.lang.management.*;
+
+/**
+ * Management interface to the live class histogram collected by the heap scheme during stop-the-world marking and evacuation.
+ * The arrays returned by the getters are parallel: the i-th element of each describes the same class.
+ *
+ * @see com.sun.max.vm.heap.LiveClassHistogram
+ */
+public interface LiveClassHistogramMXBean extends PlatformManagedObject {
+    /**
+     * Number of histograms published since the VM started.
+     */
+    long getCollectionCount();
+
+    /**
+     * Description of the collection phase that produced the last published histogram, or {@code null} if none was published.
+     */
+    String getSource();
+
+    String[] getClassNames();
+
+    long[] getInstanceCounts();
+
+    long[] getInstanceBytes();
+}
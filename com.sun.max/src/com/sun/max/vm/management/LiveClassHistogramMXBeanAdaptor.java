@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.management;
+
+import javax.management.*;
+
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+
+/**
+ * Maxine implementation of the {@link LiveClassHistogramMXBean}.
+ * Each getter takes a fresh snapshot of the published histogram, so the arrays returned by consecutive calls may describe different histograms
+ * if a collection occurred in between.
+ */
+public class LiveClassHistogramMXBeanAdaptor implements LiveClassHistogramMXBean {
+    private int [] classIDs = new int[0];
+    private long [] counts = new long[0];
+    private long [] bytes = new long[0];
+    private int numClasses;
+
+    private synchronized void snapshot() {
+        int n = LiveClassHistogram.copyPublished(classIDs, counts, bytes);
+        while (n > classIDs.length) {
+            // The arrays were too small: grow them with some slack for classes loaded in the meantime and retry.
+            final int length = n + (n >> 2) + 1;
+            classIDs = new int[length];
+            counts = new long[length];
+            bytes = new long[length];
+            n = LiveClassHistogram.copyPublished(classIDs, counts, bytes);
+        }
+        numClasses = n;
+    }
+
+    public long getCollectionCount() {
+        return LiveClassHistogram.publicationCount();
+    }
+
+    public String getSource() {
+        return LiveClassHistogram.publishedSource();
+    }
+
+    public synchronized String[] getClassNames() {
+        snapshot();
+        final String[] result = new String[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            final int id = classIDs[i];
+            if (id == ClassIDManager.NULL_CLASS_ID) {
+                result[i] = "<classes beyond the histogram size>";
+            } else {
+                final ClassActor classActor = ClassIDManager.toClassActor(id);
+                result[i] = classActor == null ? "<unknown class>" : classActor.name.toString();
+            }
+        }
+        return result;
+    }
+
+    public synchronized long[] getInstanceCounts() {
+        snapshot();
+        final long[] result = new long[numClasses];
+        System.arraycopy(counts, 0, result, 0, numClasses);
+        return result;
+    }
+
+    public synchronized long[] getInstanceBytes() {
+        snapshot();
+        final long[] result = new long[numClasses];
+        System.arraycopy(bytes, 0, result, 0, numClasses);
+        return result;
+    }
+
+    public ObjectName getObjectName() {
+        try {
+            return ObjectName.getInstance("com.sun.max:type=LiveClassHistogram");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
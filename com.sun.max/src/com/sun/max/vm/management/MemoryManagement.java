@@ -101,4 +101,39 @@ public class MemoryManagement {
         Heap.setVerbose(value);
         return result;
     }
+
+    private static LiveClassHistogramMXBean liveClassHistogramMXBean;
+
+    /**
+     * Gets the management interface to the live class histogram. The histogram is only collected if enabled on the command line.
+     */
+    public static synchronized LiveClassHistogramMXBean getLiveClassHistogramMXBean() {
+        if (liveClassHistogramMXBean == null) {
+            liveClassHistogramMXBean = new LiveClassHistogramMXBeanAdaptor();
+        }
+        return liveClassHistogramMXBean;
+    }
+
+    /**
+     * Gets the Maxine-specific management interfaces the platform MBean server registers along with the memory pools and managers.
+     * The live class histogram is only included if histograms are {@linkplain LiveClassHistogram#isEnabled() collected}.
+     */
+    public static List<PlatformManagedObject> getExtendedMXBeans() {
+        if (LiveClassHistogram.isEnabled()) {
+            return Collections.<PlatformManagedObject>singletonList(getLiveClassHistogramMXBean());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Gets the Maxine-specific management interface of a given type, or {@code null} if there is none.
+     *
+     * @see #getExtendedMXBeans()
+     */
+    public static <T extends PlatformManagedObject> T getExtendedMXBean(Class<T> mxbeanInterface) {
+        if (mxbeanInterface == LiveClassHistogramMXBean.class && LiveClassHistogram.isEnabled()) {
+            return mxbeanInterface.cast(getLiveClassHistogramMXBean());
+        }
+        return null;
+    }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.sun.max.vm.profile;
+
+import static com.sun.max.vm.intrinsics.Infopoints.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.object.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Profiling of the survival rate of the objects allocated by the {@code new} bytecodes of baseline-compiled methods, to pretenure
+ * the objects of the sites whose objects mostly survive their first young collection.
+ * <p>
+ * The baseline compiler reserves {@linkplain MethodProfile.Builder#addAllocationSiteProfile(int) allocation site counters} in the
+ * method profile of the methods it instruments. Allocations are sampled when the TLAB of a thread overflows: the allocation site is found
+ * by walking the stack of the allocating thread up to the first baseline frame, and the sampled cell is recorded. At the next young
+ * collection, the heap scheme tells which of the sampled cells survived (see {@link #recordSurvivors(Pointer.Predicate)}).
+ * When the optimizing compiler recompiles a method, it allocates the objects of the sites whose survival rate is above
+ * {@link #PretenureSurvivalPercent} directly in the old generation (see {@link #shouldPretenure(ClassMethodActor, int)}).
+ */
+public final class AllocationSiteProfiler {
+    static boolean PretenureAllocationSites = false;
+    static int PretenureSurvivalPercent = 80;
+    static int PretenureMinSamples = 32;
+    static {
+        VMOptions.addFieldOption("-XX:", "PretenureAllocationSites", AllocationSiteProfiler.class,
+                        "Profile the survival rate of allocation sites and allocate objects of long-lived sites in the old generation", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PretenureSurvivalPercent", AllocationSiteProfiler.class,
+                        "Minimum percentage of sampled objects of an allocation site surviving a young collection for the site to be pretenured", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PretenureMinSamples", AllocationSiteProfiler.class,
+                        "Minimum number of sampled objects of an allocation site before it may be pretenured", Phase.PRISTINE);
+    }
+
+    /**
+     * Maximum number of sampled cells between two young collections. Allocations aren't sampled once the buffer is full.
+     */
+    private static final int MAX_SAMPLES = 1024;
+
+    /**
+     * Maximum number of frames walked to find the allocation site of a sampled cell.
+     */
+    private static final int MAX_WALKED_FRAMES = 16;
+
+    private static final AllocationSiteProfiler theProfiler = new AllocationSiteProfiler();
+
+    /**
+     * Whether allocations are currently sampled. Set by the heap scheme if it supports pretenuring.
+     */
+    private static boolean profiling;
+
+    /**
+     * Addresses of the sampled cells. Cells are recorded as addresses so that the GC doesn't treat them as roots.
+     */
+    private long[] sampledCells;
+
+    /**
+     * Profiles of the methods the sampled cells were allocated by.
+     */
+    private MethodProfile[] sampledProfiles;
+
+    /**
+     * Indexes of the allocation site counters of the sampled cells in the {@linkplain MethodProfile#rawData() profile data}.
+     */
+    private int[] sampledIndexes;
+
+    /**
+     * Number of slots of the sample buffers claimed since the last young collection.
+     */
+    private volatile int numSamples;
+
+    @FOLD
+    private static int numSamplesOffset() {
+        return ClassActor.fromJava(AllocationSiteProfiler.class).findLocalInstanceFieldActor("numSamples").offset();
+    }
+
+    private AllocationSiteProfiler() {
+    }
+
+    /**
+     * Thread-local visitor finding the profiled allocation site of the current allocation.
+     * Preallocated per thread (see {@link VmThread#allocationSiteFinder()}), as allocation sites are looked up from the allocation slow path.
+     */
+    public static final class SiteFinder extends RawStackFrameVisitor {
+        private final VmStackFrameWalker walker = new VmStackFrameWalker(Pointer.zero());
+        private int walkedFrames;
+        private MethodProfile profile;
+        private int dataIndex;
+
+        public void setTLA(Pointer etla) {
+            walker.setTLA(etla);
+        }
+
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod targetMethod = current.targetMethod();
+            if (targetMethod == null || ++walkedFrames > MAX_WALKED_FRAMES) {
+                return false;
+            }
+            if (!targetMethod.isBaseline()) {
+                // A frame of the allocation runtime, or of an optimized method whose sites aren't profiled.
+                return true;
+            }
+            final MethodProfile methodProfile = targetMethod.profile();
+            if (methodProfile != null) {
+                // The instruction pointer of a caller frame is a return address, which may be the start of the next bytecode.
+                final int pos = targetMethod.posFor(current.vmIP()) - (current.isTopFrame() ? 0 : 1);
+                final int bci = bciForPos(targetMethod.bciToPosMap(), pos);
+                if (bci >= 0) {
+                    final int index = methodProfile.getAllocationSiteProfileDataIndex(bci);
+                    if (index >= 0) {
+                        profile = methodProfile;
+                        dataIndex = index;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Find the profiled allocation site of the current allocation.
+         * @return the profile of the allocating method, or {@code null} if the allocation site isn't profiled
+         */
+        MethodProfile find() {
+            profile = null;
+            if (walker.isInUse()) {
+                return null;
+            }
+            walkedFrames = 0;
+            walker.inspect(Pointer.fromLong(here()), VMRegister.getCpuStackPointer(), VMRegister.getCpuFramePointer(), this);
+            walker.reset();
+            return profile;
+        }
+    }
+
+    /**
+     * Gets the bytecode of the instruction implemented at a target code position of a baseline method.
+     * Same as the search done by the baseline compiler's target methods, but without assertions.
+     */
+    private static int bciForPos(int[] bciToPosMap, int pos) {
+        if (bciToPosMap == null || pos < 0) {
+            return -1;
+        }
+        for (int bci = bciToPosMap.length - 1; bci >= 0; bci--) {
+            final int p = bciToPosMap[bci];
+            if (p != 0 && p <= pos) {
+                return bci;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Start sampling allocations, if pretenuring of allocation sites is enabled. Called by heap schemes that support pretenuring,
+     * once the VM can allocate.
+     */
+    public static void initialize() {
+        if (!PretenureAllocationSites || !MethodInstrumentation.isEnabled()) {
+            return;
+        }
+        theProfiler.sampledCells = new long[MAX_SAMPLES];
+        theProfiler.sampledProfiles = new MethodProfile[MAX_SAMPLES];
+        theProfiler.sampledIndexes = new int[MAX_SAMPLES];
+        profiling = true;
+    }
+
+    @INLINE
+    public static boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Sample the allocation of a cell by the current thread. Must be called from the allocation slow path, with safepoints disabled.
+     *
+     * @param cell a cell just allocated in the young generation, whose hub isn't planted yet
+     */
+    @NEVER_INLINE
+    public static void sample(Pointer cell) {
+        final VmThread current = VmThread.current();
+        if (current.isVmOperationThread()) {
+            return;
+        }
+        final MethodProfile profile = current.allocationSiteFinder().find();
+        if (profile != null) {
+            theProfiler.record(cell, profile, current.allocationSiteFinder().dataIndex);
+        }
+    }
+
+    private void record(Pointer cell, MethodProfile profile, int dataIndex) {
+        final Reference thisRef = Reference.fromJava(this);
+        int slot;
+        do {
+            slot = numSamples;
+            if (slot >= MAX_SAMPLES) {
+                return;
+            }
+        } while (thisRef.compareAndSwapInt(numSamplesOffset(), slot, slot + 1) != slot);
+        ArrayAccess.setLong(sampledCells, slot, cell.toLong());
+        ArrayAccess.setObject(sampledProfiles, slot, profile);
+        ArrayAccess.setInt(sampledIndexes, slot, dataIndex);
+        incrementCounter(profile.rawData(), dataIndex);
+    }
+
+    @INLINE
+    private static void incrementCounter(int[] data, int index) {
+        final int counter = ArrayAccess.getInt(data, index);
+        if (counter < Integer.MAX_VALUE) {
+            ArrayAccess.setInt(data, index, counter + 1);
+        }
+    }
+
+    /**
+     * Account for the sampled cells that survived the young collection that just completed, and forget all the samples.
+     * Must be called by the GC after the young generation is evacuated, but before the evacuated space is reused.
+     *
+     * @param survivor tells whether a sampled cell survived the young collection
+     */
+    public static void recordSurvivors(Pointer.Predicate survivor) {
+        if (profiling) {
+            theProfiler.doRecordSurvivors(survivor);
+        }
+    }
+
+    private void doRecordSurvivors(Pointer.Predicate survivor) {
+        final int n = Math.min(numSamples, MAX_SAMPLES);
+        for (int i = 0; i < n; i++) {
+            if (survivor.evaluate(Pointer.fromLong(sampledCells[i]))) {
+                incrementCounter(sampledProfiles[i].rawData(), sampledIndexes[i] + 1);
+            }
+            sampledProfiles[i] = null;
+        }
+        numSamples = 0;
+    }
+
+    /**
+     * Indicate whether the objects allocated by a {@code new} bytecode should be allocated directly in the old generation.
+     * Used by the optimizing compiler when it (re)compiles a method profiled by the baseline compiler.
+     *
+     * @param method the method containing the allocation site
+     * @param bci the bytecode index of the allocation site
+     */
+    public static boolean shouldPretenure(ClassMethodActor method, int bci) {
+        if (!profiling) {
+            return false;
+        }
+        final TargetMethod baselineMethod = Compilations.currentTargetMethod(method.compiledState, RuntimeCompiler.Nature.BASELINE);
+        if (baselineMethod == null || baselineMethod.profile() == null) {
+            return false;
+        }
+        final MethodProfile profile = baselineMethod.profile();
+        final int allocations = profile.getAllocationCount(bci);
+        if (allocations < PretenureMinSamples) {
+            return false;
+        }
+        final long survivors = profile.getSurvivorCount(bci);
+        final boolean pretenure = survivors * 100 >= (long) allocations * PretenureSurvivalPercent;
+        if (pretenure && Heap.verbose()) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Pretenuring allocation site ");
+            Log.printMethod(method, false);
+            Log.print("@");
+            Log.print(bci);
+            Log.print(" (");
+            Log.print(survivors);
+            Log.print("/");
+            Log.print(allocations);
+            Log.println(" sampled objects survived)");
+            Log.unlock(lockDisabledSafepoints);
+        }
+        return pretenure;
+    }
+}
@@ -53,6 +53,10 @@ public class MethodInstrumentation {
         MethodInstrumentation.protectionThreshold = (int) (1 - PROTECTION_PERCENTAGE) * initialEntryCount;
     }
 
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
     public static MethodProfile.Builder createMethodProfile(ClassMethodActor classMethodActor) {
         if (enabled) {
             return new MethodProfile.Builder();
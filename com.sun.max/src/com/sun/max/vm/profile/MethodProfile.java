@@ -27,6 +27,7 @@ import java.util.*;
 
 import com.sun.max.annotate.*;
 import com.sun.max.program.*;
+import com.sun.max.vm.actor.holder.ClassActor;
 import com.sun.max.vm.actor.holder.ClassIDManager;
 import com.sun.max.vm.compiler.target.*;
 
@@ -65,6 +66,8 @@ public class MethodProfile {
     private static final byte SWITCH_CASE_COUNT                  = 8;
     private static final byte SWITCH_DEFAULT_COUNT               = 9;
     private static final byte EXCEPTION_SEEN_COUNT               = 10;
+    private static final byte ALLOCATION_COUNT                   = 11;
+    private static final byte SURVIVOR_COUNT                     = 12;
 
     private static final byte BR_TAKEN_INDEX                     = 0;
     private static final byte BR_NOT_TAKEN_INDEX                 = 1;
@@ -90,6 +93,12 @@ public class MethodProfile {
      */
     public int entryBackedgeCount;
 
+    /**
+     * The number of entries into the optimized version of the method since the last {@linkplain com.sun.max.vm.code.OptCodeEviction
+     * optimized code eviction} cycle. Incremented by the prologue of optimized code, and reset by each eviction cycle.
+     */
+    public int optimizedEntryCount;
+
     /**
      * Records actual counts of a count entry.
      */
@@ -115,6 +124,11 @@ public class MethodProfile {
     protected MethodProfile() {
     }
 
+    @FOLD
+    public static int optimizedEntryCountOffset() {
+        return ClassActor.fromJava(MethodProfile.class).findLocalInstanceFieldActor("optimizedEntryCount").offset();
+    }
+
     /**
      * Increments deoptimization profiling counter for a gived deoptimization reason.
      * @param deoptReasonId deoptimization reason identificator
@@ -233,6 +247,39 @@ public class MethodProfile {
         return UNDEFINED_EXECUTION_COUNT;
     }
 
+    /**
+     * Returns the index of the allocation site counters for a given bci, or a negative value if the bci isn't a profiled allocation site.
+     * The counter of sampled allocations is at the returned index, and the counter of sampled allocations that survived their first
+     * young collection is at the next index.
+     *
+     * @see AllocationSiteProfiler
+     */
+    public int getAllocationSiteProfileDataIndex(int bci) {
+        return search(bci, ALLOCATION_COUNT);
+    }
+
+    /**
+     * Returns number of sampled allocations at a given bci.
+     */
+    public int getAllocationCount(int bci) {
+        Integer allocationCount = get(search(bci, ALLOCATION_COUNT));
+        if (allocationCount != null) {
+            return allocationCount;
+        }
+        return UNDEFINED_EXECUTION_COUNT;
+    }
+
+    /**
+     * Returns number of sampled allocations at a given bci that survived their first young collection.
+     */
+    public int getSurvivorCount(int bci) {
+        Integer survivorCount = get(search(bci, SURVIVOR_COUNT));
+        if (survivorCount != null) {
+            return survivorCount;
+        }
+        return UNDEFINED_EXECUTION_COUNT;
+    }
+
     /**
      * Returns number of times null reference was seen for a given bci.
      */
@@ -608,6 +655,13 @@ public class MethodProfile {
             return add(bci, EXCEPTION_SEEN_COUNT, 0);
         }
 
+        public int addAllocationSiteProfile(int bci) {
+            int index = infoList.size();
+            add(bci, ALLOCATION_COUNT, 0);
+            add(bci, SURVIVOR_COUNT, 0);
+            return index;
+        }
+
         public int addBranchProfile(int bci) {
             int index = infoList.size();
             addBranchTakenCounters(bci);
@@ -29,11 +29,14 @@ import com.sun.max.annotate.*;
 import com.sun.max.program.ProgramError;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.ClassActor;
+import com.sun.max.vm.actor.holder.Hub;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.classfile.constant.SymbolTable;
 import com.sun.max.vm.classfile.constant.Utf8Constant;
+import com.sun.max.vm.compiler.target.TargetMethod;
 import com.sun.max.vm.heap.Heap;
 import com.sun.max.vm.layout.Layout;
+import com.sun.max.vm.object.ArrayAccess;
 import com.sun.max.vm.reference.Reference;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.stack.*;
@@ -42,12 +45,20 @@ import com.sun.max.unsafe.*;
 import com.sun.max.vm.thread.VmThreadLocal;
 import com.sun.max.vm.type.SignatureDescriptor;
 
+import static com.sun.max.vm.intrinsics.Infopoints.here;
 import static com.sun.max.vm.thread.VmThread.currentTLA;
 import static com.sun.max.vm.thread.VmThreadLocal.ETLA;
 
 /**
  * Heap sampling profiler. A thread allocating memory periodically stops all the threads, and records it own stack.
  * Period of sampling is measured in bytes.
+ * <p>
+ * With the {@code tlab} option, allocations are instead sampled on the TLAB refill slow path of {@link com.sun.max.vm.heap.HeapSchemeWithTLAB},
+ * without stopping any thread, so that the profiler can be left on. Each thread counts down a randomized number of allocated bytes.
+ * When the countdown expires at a TLAB refill, the thread walks its own stack and records it in its {@link TLABSampleBuffer},
+ * a ring buffer it is the only writer of. The class of the sampled object is recorded once the object is initialized, i.e., at the next
+ * refill or GC. The profiler thread periodically drains the buffers of all threads and aggregates their samples by stack and by class.
+ * Samples are dropped if a buffer fills up between two aggregations.
  */
 public final class HeapSamplingProfiler extends SamplingProfiler {
     /*
@@ -90,6 +101,56 @@ public final class HeapSamplingProfiler extends SamplingProfiler {
      */
     private static final ClassMethodActor stackTraceGatheringStartMarker = initializeStackTraceGatheringStartMarker();
 
+    /**
+     * Default sampling period of TLAB sampling. Much larger than {@link #DEFAULT_PERIOD}, as a sample is taken at most once per TLAB refill.
+     */
+    private static final int DEFAULT_TLAB_PERIOD = 512 * 1024;
+
+    /**
+     * Default period in milliseconds between two aggregations of the TLAB samples.
+     */
+    private static final int DEFAULT_AGGREGATION_INTERVAL = 1000;
+
+    /**
+     * Default number of samples of a thread's {@link TLABSampleBuffer}.
+     */
+    private static final int DEFAULT_BUFFER_SAMPLES = 256;
+
+    /**
+     * The profiler sampling allocations on TLAB refills, or {@code null} if there are none.
+     */
+    private static HeapSamplingProfiler tlabSampler;
+
+    /**
+     * Indicates whether allocations are sampled on TLAB refills rather than by stopping all threads.
+     */
+    private boolean tlabSampling;
+
+    /**
+     * Period in milliseconds between two aggregations of the TLAB samples.
+     */
+    private int aggregationInterval = DEFAULT_AGGREGATION_INTERVAL;
+
+    /**
+     * Number of samples of each thread's {@link TLABSampleBuffer}.
+     */
+    private int bufferSamples = DEFAULT_BUFFER_SAMPLES;
+
+    /**
+     * Buffers of all the threads sampled on TLAB refills. Only updated with the profiler locked.
+     */
+    private final List<TLABSampleBuffer> tlabSampleBuffers = new ArrayList<TLABSampleBuffer>();
+
+    /**
+     * Number of TLAB samples and sampled bytes per allocated class.
+     */
+    private final Map<ClassActor, long[]> classSamples = new HashMap<ClassActor, long[]>();
+
+    /**
+     * Number of TLAB samples dropped because a thread's buffer was full.
+     */
+    private long droppedSamples;
+
     /**
      * Per thread count of heap allocations used during heap sampling profiling. When its value exceeds
      * {@link #currentPeriod} it is reset and a corresponding number of samples is recorded.
@@ -133,14 +194,370 @@ public final class HeapSamplingProfiler extends SamplingProfiler {
         this.optionPrefix = optionPrefix;
         create(optionValue);
         this.currentPeriod = this.samplePeriod;
-        if (trackSystemThreads) {
+        if (tlabSampling) {
+            bufferSamples = Integer.highestOneBit(Math.max(bufferSamples, 2));
+            // The current thread started before the profiler existed.
+            addTLABSampleBuffer(VmThread.current());
+            tlabSampler = this;
+        } else if (trackSystemThreads) {
             stackTraceGatherer.initVMOperationThreadSample();
         }
     }
 
+    @Override
+    protected boolean parseOption(String option) {
+        if (option.startsWith("tlab")) {
+            tlabSampling = getBoolOption(option);
+            if (tlabSampling) {
+                defaultPeriod = DEFAULT_TLAB_PERIOD;
+                // Samples are aggregated by the profiler thread.
+                useDedicatedThread = true;
+            }
+        } else if (option.startsWith("aggregate")) {
+            aggregationInterval = getOption(option);
+        } else if (option.startsWith("buffer")) {
+            bufferSamples = getOption(option);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected String optionsUsage() {
+        return ",tlab[=t],aggregate=ms,buffer=n";
+    }
+
+    /**
+     * Indicates whether allocations are sampled on TLAB refills.
+     */
+    @INLINE
+    public static boolean isSamplingTLABRefills() {
+        return tlabSampler != null;
+    }
+
+    /**
+     * Give a thread starting to run a buffer for its TLAB samples, if allocations are sampled on TLAB refills.
+     * Must be called by the starting thread, before it runs any application code.
+     */
+    public static void notifyThreadStart(VmThread vmThread) {
+        if (tlabSampler != null) {
+            tlabSampler.addTLABSampleBuffer(vmThread);
+        }
+    }
+
+    /**
+     * Record the class of the last sampled allocation of a thread, if it wasn't yet.
+     * Must be called for every thread when TLABs are reset at GC, before any object moves.
+     */
+    public static void resolvePendingSample(VmThread vmThread) {
+        final TLABSampleBuffer buffer = vmThread.tlabSampleBuffer();
+        if (buffer != null) {
+            buffer.resolvePendingSample();
+        }
+    }
+
+    private void addTLABSampleBuffer(VmThread vmThread) {
+        if (vmThread.javaThread() == this || (isSystemThread(vmThread) && !trackSystemThreads)) {
+            return;
+        }
+        final TLABSampleBuffer buffer = new TLABSampleBuffer(vmThread, bufferSamples, maxStackDepth(), samplePeriod, jiggle);
+        synchronized (this) {
+            tlabSampleBuffers.add(buffer);
+        }
+        vmThread.setTLABSampleBuffer(buffer);
+    }
+
+    /**
+     * Per-thread ring buffer of allocations sampled on TLAB refills. Only the owner thread adds samples, and only the profiler thread
+     * removes them, so neither needs to lock: a sample is published by advancing {@link #tail} once it is complete, and its slot is
+     * released by advancing {@link #head} once it is aggregated.
+     * The buffer also walks the owner's stack: it is preallocated so that sampling never allocates.
+     */
+    public static final class TLABSampleBuffer extends RawStackFrameVisitor {
+        private final VmThread owner;
+        private final VmStackFrameWalker walker = new VmStackFrameWalker(Pointer.zero());
+        private final int mask;
+        private final int depth;
+        private final int period;
+        private final int jiggle;
+
+        /**
+         * Class of the object allocated by each sample.
+         */
+        private final ClassActor[] classes;
+
+        /**
+         * Size in bytes of the allocation of each sample.
+         */
+        private final int[] sizes;
+
+        /**
+         * Methods of the stack of each sample, {@link #depth} per sample. Unused entries are null.
+         */
+        private final ClassMethodActor[] methods;
+
+        /**
+         * Number of samples aggregated by the profiler thread.
+         */
+        private volatile int head;
+
+        /**
+         * Number of samples published by the owner thread.
+         */
+        private volatile int tail;
+
+        /**
+         * Number of samples dropped by the owner thread because the buffer was full.
+         */
+        private volatile int dropped;
+
+        /**
+         * Cell allocated by the sample being recorded, whose class isn't known yet. Zero if there are none.
+         */
+        private Pointer pendingCell = Pointer.zero();
+
+        /**
+         * Number of bytes to allocate before the next sample.
+         */
+        private long bytesUntilSample;
+
+        /**
+         * Allocation mark of the TLAB after the last refill.
+         */
+        private Pointer lastMark = Pointer.zero();
+
+        private int seed;
+
+        private int frameIndex;
+
+        private int frameLimit;
+
+        private boolean skippingVMFrames;
+
+        TLABSampleBuffer(VmThread owner, int capacity, int depth, int period, int jiggle) {
+            this.owner = owner;
+            this.mask = capacity - 1;
+            this.depth = depth;
+            this.period = period;
+            this.jiggle = jiggle;
+            this.classes = new ClassActor[capacity];
+            this.sizes = new int[capacity];
+            this.methods = new ClassMethodActor[capacity * depth];
+            this.seed = System.identityHashCode(this) | 1;
+            walker.setTLA(ETLA.load(currentTLA()));
+            bytesUntilSample = nextInterval();
+        }
+
+        /**
+         * Randomizes the sampling interval around the sampling period to avoid strobe effects.
+         */
+        private int nextInterval() {
+            // xorshift: cheap, and doesn't synchronize with other threads.
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return period - jiggle + ((seed & Integer.MAX_VALUE) % (2 * jiggle + 1));
+        }
+
+        /**
+         * Account for a TLAB refill of the owner thread, and sample the allocation that caused it if the sampling interval expired.
+         * Called with safepoints disabled, after the allocation of the cell.
+         *
+         * @param oldAllocationMark allocation mark of the TLAB before the refill
+         * @param newAllocationMark allocation mark of the TLAB after the refill
+         * @param size size of the allocation
+         * @param cell the allocated cell, whose hub isn't planted yet
+         */
+        public void notifyRefill(Pointer oldAllocationMark, Pointer newAllocationMark, Size size, Pointer cell) {
+            long allocated = size.toLong();
+            if (!lastMark.isZero() && oldAllocationMark.greaterThan(lastMark)) {
+                allocated += oldAllocationMark.minus(lastMark).toLong();
+            }
+            lastMark = newAllocationMark;
+            bytesUntilSample -= allocated;
+            if (bytesUntilSample > 0) {
+                return;
+            }
+            bytesUntilSample = nextInterval();
+            final int slot = tail;
+            if (slot - head > mask) {
+                dropped++;
+                return;
+            }
+            final int index = slot & mask;
+            ArrayAccess.setInt(sizes, index, size.toInt());
+            frameIndex = index * depth;
+            frameLimit = frameIndex + depth;
+            skippingVMFrames = true;
+            if (!walker.isInUse()) {
+                walker.inspect(Pointer.fromLong(here()), VMRegister.getCpuStackPointer(), VMRegister.getCpuFramePointer(), this);
+                walker.reset();
+            }
+            while (frameIndex < frameLimit) {
+                ArrayAccess.setObject(methods, frameIndex++, null);
+            }
+            pendingCell = cell;
+        }
+
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod targetMethod = current.targetMethod();
+            if (targetMethod == null) {
+                return false;
+            }
+            final ClassMethodActor method = targetMethod.classMethodActor;
+            if (method == null) {
+                // Stubs and adapters.
+                return true;
+            }
+            if (skippingVMFrames) {
+                // Skip the frames of the allocation runtime, so that the top frame is the one that allocated.
+                if (method.holder().name.string.startsWith("com.sun.max.")) {
+                    return true;
+                }
+                skippingVMFrames = false;
+            }
+            ArrayAccess.setObject(methods, frameIndex++, method);
+            return frameIndex < frameLimit;
+        }
+
+        /**
+         * Record the class of the pending sample and publish it. The cell of the sample must have been initialized, which is the case once
+         * the owner thread reached another TLAB refill, or a safepoint.
+         */
+        public void resolvePendingSample() {
+            if (pendingCell.isZero()) {
+                return;
+            }
+            final Pointer origin = Layout.cellToOrigin(pendingCell);
+            pendingCell = Pointer.zero();
+            if (Layout.readHubReferenceAsWord(origin).isZero()) {
+                // The object was never initialized.
+                return;
+            }
+            final Hub hub = Layout.getHub(origin);
+            final int slot = tail;
+            ArrayAccess.setObject(classes, slot & mask, hub.classActor);
+            tail = slot + 1;
+        }
+
+        /**
+         * Aggregate the published samples into a profiler and release their slots. Must be called with the profiler locked.
+         */
+        void drain(HeapSamplingProfiler profiler) {
+            final int end = tail;
+            int slot = head;
+            while (slot != end) {
+                final int index = slot & mask;
+                final int start = index * depth;
+                int n = 0;
+                while (n < depth && methods[start + n] != null) {
+                    n++;
+                }
+                profiler.recordTLABSample(owner, classes[index], sizes[index], methods, start, n);
+                classes[index] = null;
+                for (int i = 0; i < n; i++) {
+                    methods[start + i] = null;
+                }
+                slot++;
+            }
+            head = end;
+            if (dropped != 0) {
+                profiler.droppedSamples += dropped;
+                dropped = 0;
+            }
+        }
+
+        boolean isTerminated() {
+            return owner.state() == Thread.State.TERMINATED;
+        }
+    }
+
+    private void recordTLABSample(VmThread vmThread, ClassActor classActor, int size, ClassMethodActor[] methods, int start, int depth) {
+        sampleCount++;
+        recordStack(vmThread, methods, start, depth, 1L);
+        long[] counts = classSamples.get(classActor);
+        if (counts == null) {
+            counts = new long[2];
+            classSamples.put(classActor, counts);
+        }
+        counts[0]++;
+        counts[1] += size;
+    }
+
+    /**
+     * Aggregate the samples of all the thread's TLAB sample buffers. Buffers of terminated threads are dropped once drained.
+     */
+    private synchronized void aggregateTLABSamples() {
+        final Iterator<TLABSampleBuffer> iterator = tlabSampleBuffers.iterator();
+        while (iterator.hasNext()) {
+            final TLABSampleBuffer buffer = iterator.next();
+            final boolean terminated = buffer.isTerminated();
+            buffer.drain(this);
+            if (terminated) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void runTLABSampling() {
+        long lastDump = System.currentTimeMillis();
+        while (true) {
+            try {
+                Thread.sleep(aggregationInterval);
+                if (isProfiling) {
+                    aggregateTLABSamples();
+                    if (dumpInterval != 0 && System.currentTimeMillis() - lastDump >= dumpInterval) {
+                        dumpTraces();
+                        lastDump = System.currentTimeMillis();
+                    }
+                }
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void dumpTraces() {
+        if (!tlabSampling) {
+            super.dumpTraces();
+            return;
+        }
+        aggregateTLABSamples();
+        super.dumpTraces();
+        final List<Map.Entry<ClassActor, long[]>> entries = new ArrayList<Map.Entry<ClassActor, long[]>>(classSamples.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<ClassActor, long[]>>() {
+            public int compare(Map.Entry<ClassActor, long[]> a, Map.Entry<ClassActor, long[]> b) {
+                final long ca = a.getValue()[0];
+                final long cb = b.getValue()[0];
+                return ca < cb ? 1 : ca > cb ? -1 : 0;
+            }
+        });
+        boolean state = Log.lock();
+        Log.print("Sampled classes, #dropped samples: ");
+        Log.println(droppedSamples);
+        for (Map.Entry<ClassActor, long[]> entry : entries) {
+            final long[] counts = entry.getValue();
+            printSpacesForLongOfPrintSize(counts[0], 8);
+            Log.print(counts[0]);
+            Log.print(" (");
+            printSamplesInPeriodUnits(counts[0]);
+            Log.print(", ");
+            Log.print(counts[1] / counts[0]);
+            Log.print(" bytes/sample)   ");
+            Log.println(entry.getKey().name.string);
+        }
+        Log.println();
+        Log.unlock(state);
+    }
+
     @Override
     public void run() {
         theProfiler = VmThread.fromJava(this);
+        if (tlabSampling) {
+            runTLABSampling();
+        }
         if (!useDedicatedThread && dumpInterval == 0) {
             throw ProgramError.unexpected("Dedicated sampling profiling thread is not expected to run");
         }
@@ -167,6 +584,10 @@ public final class HeapSamplingProfiler extends SamplingProfiler {
      */
     @NEVER_INLINE
     public void sampleAllocation(Object allocatedObject) {
+        if (tlabSampling) {
+            // Allocations are sampled on TLAB refills.
+            return;
+        }
         incrementSamplingAllocationCounterForCurrentThread(Layout.size(Reference.fromJava(allocatedObject)));
         long samples = isProfiling ? getSamplingAllocationCounterForCurrentThread() / currentPeriod : 0;
         if (samples > 0) {
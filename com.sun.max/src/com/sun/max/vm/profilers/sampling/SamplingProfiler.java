@@ -269,7 +269,7 @@ public abstract class SamplingProfiler extends Thread {
                         sortedOutput = getBoolOption(option);
                     } else if (option.startsWith("flat")) {
                         flat = getBoolOption(option);
-                    } else {
+                    } else if (!parseOption(option)) {
                         usage();
                     }
                 }
@@ -287,12 +287,29 @@ public abstract class SamplingProfiler extends Thread {
         create(period, stackDepth, dumpPeriod);
     }
 
+    /**
+     * Parses an option specific to a derived class. Called before the period, depth and dump options are applied.
+     *
+     * @param option an option not recognized by this class
+     * @return {@code true} if the option was recognized, {@code false} otherwise
+     */
+    protected boolean parseOption(String option) {
+        return false;
+    }
+
+    /**
+     * Gets the usage of the options specific to a derived class, appended to the common usage.
+     */
+    protected String optionsUsage() {
+        return "";
+    }
+
     private void usage() {
-        System.err.println("usage: " + optionPrefix + ":frequency=f,depth=d,systhreads,dump=t,sort[=t],flat[=t]");
+        System.err.println("usage: " + optionPrefix + ":frequency=f,depth=d,systhreads,dump=t,sort[=t],flat[=t]" + optionsUsage());
         MaxineVM.native_exit(1);
     }
 
-    private boolean getBoolOption(String s) {
+    protected boolean getBoolOption(String s) {
         final int index = s.indexOf('=');
         if (index < 0) {
             return true;
@@ -300,7 +317,7 @@ public abstract class SamplingProfiler extends Thread {
         return Boolean.parseBoolean(s.substring(index + 1));
     }
 
-    private int getOption(String s) {
+    protected int getOption(String s) {
         final int index = s.indexOf('=');
         if (index < 0) {
             usage();
@@ -395,21 +412,54 @@ public abstract class SamplingProfiler extends Thread {
                     workingStackInfo.reset(maxStackDepth);
                 }
             }
-            // Have we seen this stack before?
-            List<ThreadSample> threadSampleList = stackInfoMap.get(workingStackInfo);
-            if (threadSampleList == null) {
-                threadSampleList = new ArrayList<ThreadSample>();
-                final StackInfo copy = workingStackInfo.copy(maxStackDepth);
-                List<ThreadSample> existing = stackInfoMap.put(copy, threadSampleList);
-                assert existing == null;
-            }
-            // Check if this thread has had this stack trace before, allocating a new ThreadSample instance if not
-            final ThreadSample threadSample = getThreadSample(threadSampleList, vmThread);
-            // bump the number of times the given thread has been in this state
-            threadSample.count += sampleCountIncrement;
+            recordWorkingStack(vmThread, sampleCountIncrement);
         }
     }
 
+    /**
+     * Add samples of a thread to the samples of the stack gathered in {@link #workingStackInfo}.
+     */
+    private void recordWorkingStack(VmThread vmThread, long samples) {
+        // Have we seen this stack before?
+        List<ThreadSample> threadSampleList = stackInfoMap.get(workingStackInfo);
+        if (threadSampleList == null) {
+            threadSampleList = new ArrayList<ThreadSample>();
+            final StackInfo copy = workingStackInfo.copy(maxStackDepth);
+            List<ThreadSample> existing = stackInfoMap.put(copy, threadSampleList);
+            assert existing == null;
+        }
+        // Check if this thread has had this stack trace before, allocating a new ThreadSample instance if not
+        final ThreadSample threadSample = getThreadSample(threadSampleList, vmThread);
+        // bump the number of times the given thread has been in this state
+        threadSample.count += samples;
+    }
+
+    /**
+     * Record samples of a stack gathered by a thread itself, rather than by the {@link StackTraceGatherer}.
+     * Must be called with the profiler locked.
+     *
+     * @param vmThread the sampled thread
+     * @param methods the methods of the stack, from the top of the stack
+     * @param start index in {@code methods} of the top frame
+     * @param depth number of frames of the stack
+     * @param samples number of samples to record
+     */
+    protected void recordStack(VmThread vmThread, ClassMethodActor[] methods, int start, int depth, long samples) {
+        workingStackInfo.reset(0);
+        final int n = Math.min(depth, maxStackDepth);
+        for (int i = 0; i < n; i++) {
+            workingStackInfo.stack[i].classMethodActor = methods[start + i];
+        }
+        recordWorkingStack(vmThread, samples);
+    }
+
+    /**
+     * Gets the maximum stack depth the profiler gathers.
+     */
+    protected int maxStackDepth() {
+        return maxStackDepth;
+    }
+
     protected boolean isSystemThread(VmThread vmThread) {
         return vmThread.javaThread().getThreadGroup() == VmThread.systemThreadGroup;
     }
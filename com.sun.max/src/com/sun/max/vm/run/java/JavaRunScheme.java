@@ -33,6 +33,7 @@ import com.sun.max.vm.actor.member.StaticMethodActor;
 import com.sun.max.vm.compiler.*;
 import com.sun.max.vm.compiler.deopt.Deoptimization;
 import com.sun.max.vm.heap.Heap;
+import com.sun.max.vm.heap.HprofHeapDumper;
 import com.sun.max.vm.hosted.CompiledPrototype;
 import com.sun.max.vm.instrument.InstrumentationManager;
 import com.sun.max.vm.jdk.JDK_sun_launcher_LauncherHelper;
@@ -302,6 +303,7 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
             }
             // Install the signal handler for dumping threads when SIGHUP is received
             Signal.handle(new Signal("QUIT"), new PrintThreads(false));
+            HprofHeapDumper.installCtrlBreakHandler();
         }
     }
 
@@ -109,6 +109,14 @@ public abstract class GCOperation extends VmOperation {
         }
     }
 
+    /**
+     * GC worker threads run parallel phases of the collection and must therefore not be frozen.
+     */
+    @Override
+    protected boolean operateOnThread(VmThread thread) {
+        return !thread.isGCWorkerThread();
+    }
+
     @Override
     protected void doBeforeThawingThread(VmThread thread) {
         // Indicates that the stack reference map for the thread is once-again unprepared.
@@ -192,7 +200,9 @@ public abstract class GCOperation extends VmOperation {
             Log.unlock(lockDisabledSafepoints);
         }
 
+        GCWorkerGang.theGang().beginCollection();
         collect(invocationCount);
+        GCWorkerGang.theGang().endCollection();
 
         if (Heap.verbose()) {
             final long afterUsed = Heap.reportUsedSpace();
@@ -52,6 +52,8 @@ import com.sun.max.vm.jni.*;
 import com.sun.max.vm.log.*;
 import com.sun.max.vm.monitor.modal.sync.*;
 import com.sun.max.vm.object.*;
+import com.sun.max.vm.profile.*;
+import com.sun.max.vm.profilers.sampling.HeapSamplingProfiler;
 import com.sun.max.vm.profilers.tracing.numa.NUMAProfiler;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
@@ -221,6 +223,17 @@ public class VmThread {
         return vmThread;
     }
 
+    /**
+     * Creates the VM thread for a system thread that is allocated in the boot image and started at runtime with
+     * {@link #startVmSystemThread()}.
+     *
+     * @param javaThread a thread created in the {@linkplain #systemThreadGroup system thread group}
+     */
+    @HOSTED_ONLY
+    public static VmThread createPreallocatedSystemThread(Thread javaThread) {
+        return initVmThread(javaThread);
+    }
+
     @HOSTED_ONLY
     static Thread copyProps(Thread src, Thread dst) {
         dst.setDaemon(src.isDaemon());
@@ -272,6 +285,13 @@ public class VmThread {
 
     private final VmStackFrameWalker stackDumpStackFrameWalker = new VmStackFrameWalker(Pointer.zero());
 
+    private final AllocationSiteProfiler.SiteFinder allocationSiteFinder = new AllocationSiteProfiler.SiteFinder();
+
+    /**
+     * Buffer of the allocations of this thread sampled on TLAB refills, or {@code null} if they aren't sampled.
+     */
+    private HeapSamplingProfiler.TLABSampleBuffer tlabSampleBuffer;
+
     @CONSTANT_WHEN_NOT_ZERO
     private VmStackFrameWalker samplingProfilerStackFrameWalker;
 
@@ -297,6 +317,12 @@ public class VmThread {
      */
     private boolean jvmtiAgent;
 
+    /**
+     * Marks this as a GC worker thread. GC worker threads run parallel GC phases while all other threads are stopped,
+     * and are therefore never frozen by a {@link GCOperation} and never have their stack scanned for roots.
+     */
+    private boolean gcWorker;
+
     /**
      * Holds the exception object for the exception currently being raised. This value will only be
      * non-null during the unwinding process between calls to {@link #storeExceptionForHandler(Throwable, TargetMethod, int)}
@@ -507,6 +533,7 @@ public class VmThread {
                 vmConfig().runScheme().run();
             } else {
                 VMTI.handler().threadStart(vmThread);
+                HeapSamplingProfiler.notifyThreadStart(vmThread);
                 vmThread.javaThread.run();
             }
         } finally {
@@ -607,6 +634,7 @@ public class VmThread {
         thread.tla = etla;
         thread.stackFrameWalker.setTLA(etla);
         thread.stackDumpStackFrameWalker.setTLA(etla);
+        thread.allocationSiteFinder.setTLA(etla);
         thread.yellowZone = yellowZone;
 
         // Enable profiling for the new VM Thread if profiling should be enabled
@@ -1042,6 +1070,24 @@ public class VmThread {
         return stackDumpStackFrameWalker;
     }
 
+    /**
+     * Gets a preallocated, thread local object that can be used to find the allocation site of a sampled allocation without incurring any allocation.
+     */
+    public final AllocationSiteProfiler.SiteFinder allocationSiteFinder() {
+        return allocationSiteFinder;
+    }
+
+    /**
+     * Gets the buffer of the allocations of this thread sampled on TLAB refills, or {@code null} if they aren't sampled.
+     */
+    public final HeapSamplingProfiler.TLABSampleBuffer tlabSampleBuffer() {
+        return tlabSampleBuffer;
+    }
+
+    public final void setTLABSampleBuffer(HeapSamplingProfiler.TLABSampleBuffer buffer) {
+        tlabSampleBuffer = buffer;
+    }
+
     /**
      * Gets a dynamically allocated, thread local object that can be used by the sample profiler without incurring any allocation.
      */
@@ -1145,6 +1191,15 @@ public class VmThread {
         jvmtiAgent = true;
     }
 
+    public final boolean isGCWorkerThread() {
+        return gcWorker;
+    }
+
+    @HOSTED_ONLY
+    public final void setAsGCWorkerThread() {
+        gcWorker = true;
+    }
+
     /**
      * Bind the given {@code Thread} to this VmThread.
      * @param javaThread thread to be bound
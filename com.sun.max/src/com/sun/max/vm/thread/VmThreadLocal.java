@@ -558,6 +558,10 @@ public class VmThreadLocal implements FormatWithToString {
         VMLog.scanLogs(tla, wordPointerIndexVisitor);
 
         Pointer anchor = JavaFrameAnchor.from(tla);
+        if (thread.isGCWorkerThread()) {
+            // GC worker threads are not stopped during GC and only ever refer to boot image objects from their stack.
+            anchor = Pointer.zero();
+        }
         if (!anchor.isZero()) {
             final Pointer lastJavaCallerStackPointer = JavaFrameAnchor.SP.get(anchor);
             final Pointer lowestActiveSlot = LOWEST_ACTIVE_STACK_SLOT_ADDRESS.load(tla);
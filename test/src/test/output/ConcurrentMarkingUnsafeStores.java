@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020, APT Group, School of Computer Science,
+ * The University of Manchester. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package test.output;
+
+import java.lang.reflect.*;
+
+import sun.misc.*;
+
+/**
+ * Moves references between long-lived holders with {@link Unsafe#compareAndSwapObject} and {@link Unsafe#putObject} while
+ * allocating enough to trigger collections. Each move stores the reference into one holder, then overwrites the only other
+ * reference to it through {@code Unsafe}. Run with {@code -XX:+ConcurrentOldGenMarking}, a marker that already scanned the
+ * destination holder keeps the moved object alive only if the {@code Unsafe} stores record the overwritten reference in the
+ * snapshot-at-the-beginning queue.
+ */
+public class ConcurrentMarkingUnsafeStores {
+    private static final int HOLDERS = 1024;
+    private static final int ROUNDS = 200;
+
+    private static final Unsafe unsafe;
+    private static final long refOffset;
+    private static final long arrayBase;
+    private static final long arrayScale;
+
+    static {
+        try {
+            final Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafe = (Unsafe) unsafeField.get(null);
+            refOffset = unsafe.objectFieldOffset(Holder.class.getDeclaredField("ref"));
+            arrayBase = unsafe.arrayBaseOffset(Object[].class);
+            arrayScale = unsafe.arrayIndexScale(Object[].class);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    static final class Holder {
+        volatile Object ref;
+    }
+
+    static final class Payload {
+        final int value;
+        final int[] data;
+
+        Payload(int value) {
+            this.value = value;
+            data = new int[] {value, ~value};
+        }
+
+        boolean isValid() {
+            return data.length == 2 && data[0] == value && data[1] == ~value;
+        }
+    }
+
+    private static Object garbage;
+
+    public static void main(String[] args) {
+        final Holder[] holders = new Holder[HOLDERS];
+        final Object[] slots = new Object[HOLDERS];
+        for (int i = 0; i < HOLDERS; i++) {
+            holders[i] = new Holder();
+            holders[i].ref = new Payload(i);
+        }
+        // Let the holders get old.
+        System.gc();
+        long expected = 0;
+        for (int i = 0; i < HOLDERS; i++) {
+            expected += i;
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < HOLDERS; i++) {
+                final Holder from = holders[i];
+                final Object payload = from.ref;
+                final long slotOffset = arrayBase + i * arrayScale;
+                // Park the payload in the slot, then drop the holder's reference to it.
+                unsafe.putObject(slots, slotOffset, payload);
+                if (!unsafe.compareAndSwapObject(from, refOffset, payload, null)) {
+                    throw new Error("CAS failed");
+                }
+                allocate(round, i);
+                // Move it back, and drop the slot's reference to it.
+                unsafe.putObjectVolatile(from, refOffset, payload);
+                if (!unsafe.compareAndSwapObject(slots, slotOffset, payload, null)) {
+                    throw new Error("CAS failed");
+                }
+            }
+        }
+        long sum = 0;
+        for (int i = 0; i < HOLDERS; i++) {
+            final Payload payload = (Payload) holders[i].ref;
+            if (!payload.isValid()) {
+                throw new Error("Payload " + i + " corrupted");
+            }
+            sum += payload.value;
+        }
+        System.out.println(sum == expected ? "passed" : "failed");
+    }
+
+    private static void allocate(int round, int i) {
+        final Object[] chunk = new Object[16];
+        for (int j = 0; j < chunk.length; j++) {
+            chunk[j] = new int[8 + ((round + i + j) & 63)];
+        }
+        garbage = chunk;
+    }
+}